@@ -16,6 +16,9 @@
  */
 package org.apache.kafka.clients;
 
+import java.nio.ByteBuffer;
+
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.requests.AbstractResponse;
 import org.apache.kafka.common.requests.RequestHeader;
 
@@ -33,6 +36,8 @@ public class ClientResponse {
     private final boolean disconnected;
     private final RuntimeException versionMismatch;
     private final AbstractResponse responseBody;
+    private final MemoryPool memoryPool;
+    private ByteBuffer responseBuffer;
 
     /**
      * @param requestHeader The header of the corresponding request
@@ -53,6 +58,26 @@ public class ClientResponse {
                           boolean disconnected,
                           RuntimeException versionMismatch,
                           AbstractResponse responseBody) {
+        this(requestHeader, callback, destination, createdTimeMs, receivedTimeMs, disconnected, versionMismatch,
+                responseBody, MemoryPool.NONE, null);
+    }
+
+    /**
+     * @param memoryPool The memory pool the response buffer was allocated from
+     * @param responseBuffer The buffer the response was parsed from if the response body refers to it, in which
+     *                       case it must be released by calling {@link #releaseResponseBuffer()} once the response
+     *                       body is no longer used
+     */
+    public ClientResponse(RequestHeader requestHeader,
+                          RequestCompletionHandler callback,
+                          String destination,
+                          long createdTimeMs,
+                          long receivedTimeMs,
+                          boolean disconnected,
+                          RuntimeException versionMismatch,
+                          AbstractResponse responseBody,
+                          MemoryPool memoryPool,
+                          ByteBuffer responseBuffer) {
         this.requestHeader = requestHeader;
         this.callback = callback;
         this.destination = destination;
@@ -61,6 +86,8 @@ public class ClientResponse {
         this.disconnected = disconnected;
         this.versionMismatch = versionMismatch;
         this.responseBody = responseBody;
+        this.memoryPool = memoryPool;
+        this.responseBuffer = responseBuffer;
     }
 
     public long receivedTimeMs() {
@@ -95,6 +122,17 @@ public class ClientResponse {
         return latencyMs;
     }
 
+    /**
+     * Release the buffer the response was parsed from to the memory pool, if the response refers to it. This must
+     * only be called once the response body is no longer used and it has no effect after the first call.
+     */
+    public synchronized void releaseResponseBuffer() {
+        if (responseBuffer != null) {
+            memoryPool.release(responseBuffer);
+            responseBuffer = null;
+        }
+    }
+
     public void onComplete() {
         if (callback != null)
             callback.onComplete(this);
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains the fetch session of a client with a single broker.
+ * <p>
+ * The first fetch request to the broker is a full request which asks it to create a session. Once it has, the
+ * following requests only send the partitions which were added to the session or whose fetch offset or max bytes
+ * changed, and the partitions which were removed from it. The responses of the broker only contain the partitions
+ * of the session which have records, an error or a changed high watermark. A partition which returned records is
+ * not fetched again until it is sent again, so the partitions whose records are still buffered may be kept in the
+ * session without being fetched.
+ * <p>
+ * The requests of a session must be sent one at a time, so a new request may only be prepared once the response to
+ * the previous one has been handled. If the session is lost, for example because the broker evicted it, the next
+ * request is a full request again, which also closes the previous session on the broker.
+ */
+public class FetchSessionHandler {
+    private static final Logger log = LoggerFactory.getLogger(FetchSessionHandler.class);
+
+    private final int node;
+    private int sessionId = FetchMetadata.INVALID_SESSION_ID;
+    private int nextEpoch = FetchMetadata.INITIAL_EPOCH;
+    private FetchMetadata pendingMetadata = null;
+    private LinkedHashMap<TopicPartition, FetchRequest.PartitionData> sessionPartitions = new LinkedHashMap<>();
+    // the partitions of the session which returned records and have not been sent since, which the broker only
+    // fetches again once they are sent again
+    private Set<TopicPartition> returnedRecords = new HashSet<>();
+
+    public FetchSessionHandler(int node) {
+        this.node = node;
+    }
+
+    /**
+     * Make the request a request of this session, which only sends the partitions of its fetch data that changed
+     * since the previous request.
+     */
+    public void prepare(FetchRequest.Builder request) {
+        prepare(request, Collections.<TopicPartition>emptySet());
+    }
+
+    /**
+     * Make the request a request of this session, which only sends the partitions of its fetch data that changed
+     * since the previous request. The partitions to keep are not fetched, but they are not removed from the session
+     * either if they are in it. They are expected to be partitions whose records are still buffered.
+     */
+    public synchronized void prepare(FetchRequest.Builder request, Set<TopicPartition> toKeep) {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> next = request.fetchData();
+        if (nextEpoch == FetchMetadata.INITIAL_EPOCH) {
+            // the previous session, if there is one, is closed by the broker
+            pendingMetadata = new FetchMetadata(sessionId, FetchMetadata.INITIAL_EPOCH);
+            request.setSession(pendingMetadata, next, new ArrayList<TopicPartition>());
+            sessionPartitions = new LinkedHashMap<>(next);
+        } else {
+            LinkedHashMap<TopicPartition, FetchRequest.PartitionData> toSend = new LinkedHashMap<>();
+            for (Map.Entry<TopicPartition, FetchRequest.PartitionData> entry : next.entrySet()) {
+                // the partitions which returned records are sent again if they are fetched from the same offset
+                if (!entry.getValue().equals(sessionPartitions.get(entry.getKey())) || returnedRecords.contains(entry.getKey()))
+                    toSend.put(entry.getKey(), entry.getValue());
+            }
+            LinkedHashMap<TopicPartition, FetchRequest.PartitionData> nextSessionPartitions = new LinkedHashMap<>(next);
+            List<TopicPartition> toForget = new ArrayList<>();
+            for (Map.Entry<TopicPartition, FetchRequest.PartitionData> entry : sessionPartitions.entrySet()) {
+                TopicPartition partition = entry.getKey();
+                if (next.containsKey(partition))
+                    continue;
+                if (toKeep.contains(partition))
+                    nextSessionPartitions.put(partition, entry.getValue());
+                else
+                    toForget.add(partition);
+            }
+            returnedRecords.removeAll(toSend.keySet());
+            returnedRecords.removeAll(toForget);
+            pendingMetadata = new FetchMetadata(sessionId, nextEpoch);
+            request.setSession(pendingMetadata, toSend, toForget);
+            log.trace("Sending incremental fetch request {} to node {} with {} of {} partitions and {} partitions to forget",
+                    pendingMetadata, node, toSend.size(), next.size(), toForget.size());
+            sessionPartitions = nextSessionPartitions;
+        }
+    }
+
+    /**
+     * Whether a request of this session has been prepared and its response has not been handled yet
+     */
+    public synchronized boolean hasRequestInFlight() {
+        return pendingMetadata != null;
+    }
+
+    /**
+     * Handle the response to the prepared request.
+     *
+     * @return false if the session was lost, in which case the response contains no partitions
+     */
+    public synchronized boolean handleResponse(FetchResponse response) {
+        FetchMetadata metadata = pendingMetadata;
+        pendingMetadata = null;
+        if (response.error() != Errors.NONE) {
+            log.info("Closing the fetch session {} with node {} since the fetch failed with error {}",
+                    sessionId, node, response.error());
+            // the broker no longer has a session which was not found
+            if (response.error() == Errors.FETCH_SESSION_ID_NOT_FOUND)
+                sessionId = FetchMetadata.INVALID_SESSION_ID;
+            closeSession();
+            return false;
+        }
+
+        if (response.sessionId() == FetchMetadata.INVALID_SESSION_ID) {
+            // the broker could not create a session or does not support sessions
+            if (sessionId != FetchMetadata.INVALID_SESSION_ID)
+                log.debug("Node {} closed the fetch session {}", node, sessionId);
+            sessionId = FetchMetadata.INVALID_SESSION_ID;
+            closeSession();
+            return true;
+        } else if (metadata == null || metadata.isFull()) {
+            log.debug("Created the fetch session {} with node {}", response.sessionId(), node);
+            sessionId = response.sessionId();
+            nextEpoch = FetchMetadata.nextEpoch(FetchMetadata.INITIAL_EPOCH);
+            returnedRecords = new HashSet<>();
+        } else {
+            nextEpoch = FetchMetadata.nextEpoch(nextEpoch);
+        }
+        for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
+            if (entry.getValue().records.sizeInBytes() > 0)
+                returnedRecords.add(entry.getKey());
+        }
+        return true;
+    }
+
+    /**
+     * Handle the failure of the prepared request. Since it is unknown whether the broker processed the request, the
+     * session is closed and the next request is a full request.
+     */
+    public synchronized void handleError(Throwable t) {
+        pendingMetadata = null;
+        log.debug("Closing the fetch session {} with node {} since the fetch failed", sessionId, node, t);
+        closeSession();
+    }
+
+    /**
+     * The ID of the session, or of the previous session if it was closed and has not been replaced yet
+     */
+    public synchronized int sessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Close the session, so that the next request is a full request. The ID of the session is kept, so that the next
+     * request also closes the session on the broker if it still exists.
+     */
+    private void closeSession() {
+        nextEpoch = FetchMetadata.INITIAL_EPOCH;
+        returnedRecords = new HashSet<>();
+    }
+}
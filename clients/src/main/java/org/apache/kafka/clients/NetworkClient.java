@@ -337,6 +337,10 @@ public class NetworkClient implements KafkaClient {
                 send,
                 now);
         this.inFlightRequests.add(inFlightRequest);
+        // only connections which carry fetches read from the memory pool, so that the responses of other connections,
+        // such as those of the group coordinator, are still read while fetched data uses up the pool
+        if (!isInternalRequest && header.apiKey() == ApiKeys.FETCH.id)
+            selector.allocateFromMemoryPool(nodeId);
         selector.send(inFlightRequest.send);
     }
 
@@ -538,10 +542,18 @@ public class NetworkClient implements KafkaClient {
             InFlightRequest req = inFlightRequests.completeNext(source);
             AbstractResponse body = parseResponse(receive.payload(), req.header);
             log.trace("Completed receive from node {}, for key {}, received {}", req.destination, req.header.apiKey(), body);
+            // the records of a fetch response are views of the receive buffer, so its handler releases the buffer once
+            // it has consumed them. Since memory pools only account for the memory they hand out and never hand out
+            // released buffers again, the buffers of all other responses are released as soon as they are parsed
+            boolean retainsBuffer = !req.isInternalRequest && req.header.apiKey() == ApiKeys.FETCH.id;
+            if (!retainsBuffer)
+                receive.memoryPool().release(receive.payload());
             if (req.isInternalRequest && body instanceof MetadataResponse)
                 metadataUpdater.handleCompletedMetadataResponse(req.header, now, (MetadataResponse) body);
             else if (req.isInternalRequest && body instanceof ApiVersionsResponse)
                 handleApiVersionsResponse(responses, req, now, (ApiVersionsResponse) body);
+            else if (retainsBuffer)
+                responses.add(req.completed(body, receive, now));
             else
                 responses.add(req.completed(body, now));
         }
@@ -831,6 +843,11 @@ public class NetworkClient implements KafkaClient {
             return new ClientResponse(header, callback, destination, createdTimeMs, timeMs, false, null, response);
         }
 
+        public ClientResponse completed(AbstractResponse response, NetworkReceive receive, long timeMs) {
+            return new ClientResponse(header, callback, destination, createdTimeMs, timeMs, false, null, response,
+                    receive.memoryPool(), receive.payload());
+        }
+
         public ClientResponse disconnected(long timeMs) {
             return new ClientResponse(header, callback, destination, createdTimeMs, timeMs, true, null, null);
         }
@@ -105,6 +105,18 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String PARTITION_ASSIGNMENT_STRATEGY_CONFIG = "partition.assignment.strategy";
     private static final String PARTITION_ASSIGNMENT_STRATEGY_DOC = "The class name of the partition assignment strategy that the client will use to distribute partition ownership amongst consumer instances when group management is used";
 
+    /**
+     * <code>rebalance.protocol</code>
+     */
+    public static final String REBALANCE_PROTOCOL_CONFIG = "rebalance.protocol";
+    private static final String REBALANCE_PROTOCOL_DOC = "How the consumer gives up its partitions when the group rebalances: <ul>" +
+            "<li>eager: revoke all the partitions before rejoining the group</li>" +
+            "<li>cooperative: keep consuming and committing the partitions until the new assignment is known, as <code>poll()</code> " +
+            "does not wait for the rebalance to complete while the consumer owns partitions, and only revoke the partitions " +
+            "which are assigned to other consumers. These are assigned to their new owners in a second rebalance. The rebalance " +
+            "listener is only called for the revoked and the newly assigned partitions.</li></ul>" +
+            "All the consumers of a group must run a version which supports cooperative rebalancing before it is enabled.";
+
     /**
      * <code>auto.offset.reset</code>
      */
@@ -128,6 +140,36 @@ public class ConsumerConfig extends AbstractConfig {
             "<code>max.message.bytes</code> (topic config). Note that the consumer performs multiple fetches in parallel.";
     public static final int DEFAULT_FETCH_MAX_BYTES = 50 * 1024 * 1024;
 
+    /**
+     * <code>fetch.pipeline.depth</code>
+     */
+    public static final String FETCH_PIPELINE_DEPTH_CONFIG = "fetch.pipeline.depth";
+    private static final String FETCH_PIPELINE_DEPTH_DOC = "The maximum number of fetch requests the consumer will have in flight to a single broker. " +
+            "With a depth greater than 1, the consumer fetches the records following those it has already received for a partition while the " +
+            "received records are still being consumed, which hides the round trip to the broker. Like all fetches, pipelined fetches " +
+            "are bounded by <code>fetch.buffer.memory</code>.";
+
+    /**
+     * <code>fetch.buffer.memory</code>
+     */
+    public static final String FETCH_BUFFER_MEMORY_CONFIG = "fetch.buffer.memory";
+    private static final String FETCH_BUFFER_MEMORY_DOC = "The total bytes of memory the consumer can use to buffer the data it receives from " +
+            "the brokers until it has been returned by <code>poll()</code>. The max bytes of fetch requests are bounded by the memory which is " +
+            "left, and the responses of connections which fetches are sent on are only read from the network while memory is available. " +
+            "The responses of the group coordinator are read regardless. This bound may be exceeded by the size of a single response, for " +
+            "example if its first message is larger than the memory which is left.";
+    public static final long DEFAULT_FETCH_BUFFER_MEMORY = 128 * 1024 * 1024L;
+
+    /**
+     * <code>fetch.parse.threads</code>
+     */
+    public static final String FETCH_PARSE_THREADS_CONFIG = "fetch.parse.threads";
+    private static final String FETCH_PARSE_THREADS_DOC = "The number of threads the consumer uses to decompress and deserialize fetched records " +
+            "ahead of <code>poll()</code>. Up to <code>max.poll.records</code> fetched records of each partition are parsed ahead, the fetched " +
+            "records of different partitions are parsed in parallel, and <code>poll()</code> still returns the records of each partition in " +
+            "order. With 0 threads, records are parsed by the thread calling <code>poll()</code> " +
+            "as they are returned. If this is greater than 0, the key and value deserializers must be thread safe.";
+
     /**
      * <code>fetch.max.wait.ms</code>
      */
@@ -159,6 +201,14 @@ public class ConsumerConfig extends AbstractConfig {
      */
     public static final String CLIENT_ID_CONFIG = CommonClientConfigs.CLIENT_ID_CONFIG;
 
+    /**
+     * <code>client.rack</code>
+     */
+    public static final String CLIENT_RACK_CONFIG = "client.rack";
+    private static final String CLIENT_RACK_DOC = "The rack of the consumer. If it is set, the consumer fetches from an in-sync replica " +
+            "in the same rack instead of the leader when possible, which must match the <code>broker.rack</code> of the broker. " +
+            "The consumer falls back to the leader if the replica returns an error.";
+
     /**
      * <code>reconnect.backoff.ms</code>
      */
@@ -195,6 +245,11 @@ public class ConsumerConfig extends AbstractConfig {
     public static final String CHECK_CRCS_CONFIG = "check.crcs";
     private static final String CHECK_CRCS_DOC = "Automatically check the CRC32 of the records consumed. This ensures no on-the-wire or on-disk corruption to the messages occurred. This check adds some overhead, so it may be disabled in cases seeking extreme performance.";
 
+    /** <code>compression.dictionary.files</code> */
+    public static final String COMPRESSION_DICTIONARY_FILES_CONFIG = "compression.dictionary.files";
+    private static final String COMPRESSION_DICTIONARY_FILES_DOC = "A list of trained zstd dictionary files needed to decompress the records consumed. "
+                                                                   + "Records compressed with a dictionary can only be consumed if that dictionary is listed here.";
+
     /** <code>key.deserializer</code> */
     public static final String KEY_DESERIALIZER_CLASS_CONFIG = "key.deserializer";
     public static final String KEY_DESERIALIZER_CLASS_DOC = "Deserializer class for key that implements the <code>Deserializer</code> interface.";
@@ -244,6 +299,12 @@ public class ConsumerConfig extends AbstractConfig {
                                         Collections.singletonList(RangeAssignor.class),
                                         Importance.MEDIUM,
                                         PARTITION_ASSIGNMENT_STRATEGY_DOC)
+                                .define(REBALANCE_PROTOCOL_CONFIG,
+                                        Type.STRING,
+                                        "eager",
+                                        in("eager", "cooperative"),
+                                        Importance.MEDIUM,
+                                        REBALANCE_PROTOCOL_DOC)
                                 .define(METADATA_MAX_AGE_CONFIG,
                                         Type.LONG,
                                         5 * 60 * 1000,
@@ -266,6 +327,11 @@ public class ConsumerConfig extends AbstractConfig {
                                         "",
                                         Importance.LOW,
                                         CommonClientConfigs.CLIENT_ID_DOC)
+                                .define(CLIENT_RACK_CONFIG,
+                                        Type.STRING,
+                                        "",
+                                        Importance.LOW,
+                                        CLIENT_RACK_DOC)
                                 .define(MAX_PARTITION_FETCH_BYTES_CONFIG,
                                         Type.INT,
                                         DEFAULT_MAX_PARTITION_FETCH_BYTES,
@@ -296,6 +362,24 @@ public class ConsumerConfig extends AbstractConfig {
                                         atLeast(0),
                                         Importance.MEDIUM,
                                         FETCH_MAX_BYTES_DOC)
+                                .define(FETCH_PIPELINE_DEPTH_CONFIG,
+                                        Type.INT,
+                                        1,
+                                        atLeast(1),
+                                        Importance.LOW,
+                                        FETCH_PIPELINE_DEPTH_DOC)
+                                .define(FETCH_BUFFER_MEMORY_CONFIG,
+                                        Type.LONG,
+                                        DEFAULT_FETCH_BUFFER_MEMORY,
+                                        atLeast(1L),
+                                        Importance.LOW,
+                                        FETCH_BUFFER_MEMORY_DOC)
+                                .define(FETCH_PARSE_THREADS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        FETCH_PARSE_THREADS_DOC)
                                 .define(FETCH_MAX_WAIT_MS_CONFIG,
                                         Type.INT,
                                         500,
@@ -325,6 +409,11 @@ public class ConsumerConfig extends AbstractConfig {
                                         true,
                                         Importance.LOW,
                                         CHECK_CRCS_DOC)
+                                .define(COMPRESSION_DICTIONARY_FILES_CONFIG,
+                                        Type.LIST,
+                                        "",
+                                        Importance.LOW,
+                                        COMPRESSION_DICTIONARY_FILES_DOC)
                                 .define(METRICS_SAMPLE_WINDOW_MS_CONFIG,
                                         Type.LONG,
                                         30000,
@@ -87,6 +87,8 @@ public interface ConsumerRebalanceListener {
      * For examples on usage of this API, see Usage Examples section of {@link KafkaConsumer KafkaConsumer}
      * <p>
      * <b>NOTE:</b> This method is only called before rebalances. It is not called prior to {@link KafkaConsumer#close()}.
+     * If the consumer rebalances cooperatively (see <code>rebalance.protocol</code>), it is only called once the new
+     * assignment is known, with the partitions which are not assigned to the consumer any more, and only if there are any.
      *
      * @param partitions The list of partitions that were assigned to the consumer on the last rebalance
      */
@@ -99,7 +101,9 @@ public interface ConsumerRebalanceListener {
      * <p>
      * It is guaranteed that all the processes in a consumer group will execute their
      * {@link #onPartitionsRevoked(Collection)} callback before any instance executes its
-     * {@link #onPartitionsAssigned(Collection)} callback.
+     * {@link #onPartitionsAssigned(Collection)} callback. This does not hold for cooperative rebalances, in which
+     * partitions are only assigned to their new owners after they have been revoked, and in which the partitions passed
+     * to this method are only the ones newly assigned to the consumer.
      *
      * @param partitions The list of partitions that are now assigned to the consumer (may include partitions previously
      *            assigned to the consumer)
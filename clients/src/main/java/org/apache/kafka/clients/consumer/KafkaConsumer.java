@@ -36,21 +36,30 @@ import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.internals.ClusterResourceListeners;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.SimpleMemoryPool;
 import org.apache.kafka.common.metrics.JmxReporter;
 import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.MetricsReporter;
 import org.apache.kafka.common.network.ChannelBuilder;
+import org.apache.kafka.common.network.NetworkReceive;
 import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.record.CompressionDictionary;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.AppInfoParser;
+import org.apache.kafka.common.utils.KafkaThread;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
@@ -62,6 +71,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -522,7 +534,10 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
     private final Deserializer<K> keyDeserializer;
     private final Deserializer<V> valueDeserializer;
     private final Fetcher<K, V> fetcher;
+    private final ExecutorService parseExecutor;
     private final ConsumerInterceptors<K, V> interceptors;
+    // the dictionaries registered for decompressing the fetched records, which are unregistered on close
+    private final List<CompressionDictionary> compressionDictionaries = new ArrayList<>();
 
     private final Time time;
     private final ConsumerNetworkClient client;
@@ -659,8 +674,10 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
             this.metadata.update(Cluster.bootstrap(addresses), Collections.<String>emptySet(), 0);
             String metricGrpPrefix = "consumer";
             ChannelBuilder channelBuilder = ClientUtils.createChannelBuilder(config);
+            MemoryPool fetchBufferPool = new SimpleMemoryPool(config.getLong(ConsumerConfig.FETCH_BUFFER_MEMORY_CONFIG));
             NetworkClient netClient = new NetworkClient(
-                    new Selector(config.getLong(ConsumerConfig.CONNECTIONS_MAX_IDLE_MS_CONFIG), metrics, time, metricGrpPrefix, channelBuilder),
+                    new Selector(NetworkReceive.UNLIMITED, config.getLong(ConsumerConfig.CONNECTIONS_MAX_IDLE_MS_CONFIG), metrics, time,
+                            metricGrpPrefix, new HashMap<String, String>(), true, channelBuilder, fetchBufferPool),
                     this.metadata,
                     clientId,
                     100, // a fixed large enough value will suffice
@@ -692,14 +709,21 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     config.getBoolean(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG),
                     config.getInt(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG),
                     this.interceptors,
-                    config.getBoolean(ConsumerConfig.EXCLUDE_INTERNAL_TOPICS_CONFIG));
+                    config.getBoolean(ConsumerConfig.EXCLUDE_INTERNAL_TOPICS_CONFIG),
+                    config.getString(ConsumerConfig.REBALANCE_PROTOCOL_CONFIG).equals("cooperative"));
+            registerCompressionDictionaries(config.getList(ConsumerConfig.COMPRESSION_DICTIONARY_FILES_CONFIG));
+            this.parseExecutor = createParseExecutor(config.getInt(ConsumerConfig.FETCH_PARSE_THREADS_CONFIG));
             this.fetcher = new Fetcher<>(this.client,
                     config.getInt(ConsumerConfig.FETCH_MIN_BYTES_CONFIG),
                     config.getInt(ConsumerConfig.FETCH_MAX_BYTES_CONFIG),
                     config.getInt(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG),
                     config.getInt(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG),
                     config.getInt(ConsumerConfig.MAX_POLL_RECORDS_CONFIG),
+                    config.getInt(ConsumerConfig.FETCH_PIPELINE_DEPTH_CONFIG),
+                    config.getString(ConsumerConfig.CLIENT_RACK_CONFIG),
+                    fetchBufferPool,
                     config.getBoolean(ConsumerConfig.CHECK_CRCS_CONFIG),
+                    this.parseExecutor,
                     this.keyDeserializer,
                     this.valueDeserializer,
                     this.metadata,
@@ -741,6 +765,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         this.keyDeserializer = keyDeserializer;
         this.valueDeserializer = valueDeserializer;
         this.fetcher = fetcher;
+        this.parseExecutor = null;
         this.interceptors = interceptors;
         this.time = time;
         this.client = client;
@@ -1023,6 +1048,70 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         }
     }
 
+    /**
+     * Fetch the record batches of the topics or partitions specified using one of the subscribe/assign APIs without
+     * decoding them, like {@link #poll(long)} fetches records. This is meant for applications which forward the data
+     * as it is, such as mirroring or archiving, and avoids decompressing and deserializing the records.
+     * <p>
+     * The returned batches are views of the buffers the data was fetched into. They are only valid until the next call
+     * to this method or {@link #poll(long)}, so they must be copied if they are needed after that. The consumed position
+     * of each partition is advanced past its last returned batch. Since compressed batches are returned whole, the
+     * first batch of a partition may contain records before the consumed position, which the application should skip
+     * if it cannot handle duplicates. Consumer interceptors are not called for the returned batches, and the batches
+     * of at most one fetch are returned per partition.
+     *
+     * @param timeout The time, in milliseconds, spent waiting if data is not available in the buffer.
+     *            If 0, returns immediately with any batches that are available currently in the buffer, else returns
+     *            empty. Must not be negative.
+     * @return the fetched batches per partition
+     *
+     * @throws org.apache.kafka.clients.consumer.InvalidOffsetException if the offset for a partition or set of
+     *             partitions is undefined or out of range and no offset reset policy has been configured
+     * @throws org.apache.kafka.common.errors.WakeupException if {@link #wakeup()} is called before or while this
+     *             function is called
+     * @throws org.apache.kafka.common.errors.InterruptException if the calling thread is interrupted before or while
+     *             this function is called
+     * @throws org.apache.kafka.common.errors.AuthorizationException if caller lacks Read access to any of the subscribed
+     *             topics or to the configured groupId
+     * @throws org.apache.kafka.common.KafkaException for any other unrecoverable errors (e.g. invalid groupId or
+     *             session timeout, or batches with an invalid checksum if <code>check.crcs</code> is enabled)
+     * @throws java.lang.IllegalArgumentException if the timeout value is negative
+     * @throws java.lang.IllegalStateException if the consumer is not subscribed to any topics or manually assigned any
+     *             partitions to consume from
+     */
+    public Map<TopicPartition, MemoryRecords> pollBatches(long timeout) {
+        acquire();
+        try {
+            if (timeout < 0)
+                throw new IllegalArgumentException("Timeout must not be negative");
+
+            if (this.subscriptions.hasNoSubscriptionOrUserAssignment())
+                throw new IllegalStateException("Consumer is not subscribed to any topics or assigned any partitions");
+
+            long start = time.milliseconds();
+            long remaining = timeout;
+            do {
+                prepareFetches();
+                Map<TopicPartition, MemoryRecords> batches = fetcher.fetchedBatches();
+                if (batches.isEmpty() && awaitFetches(remaining))
+                    batches = fetcher.fetchedBatches();
+                if (!batches.isEmpty()) {
+                    // as in poll, the next round of fetches is sent before returning the batches
+                    if (fetcher.sendFetches() > 0 || client.pendingRequestCount() > 0)
+                        client.pollNoWakeup();
+                    return batches;
+                }
+
+                long elapsed = time.milliseconds() - start;
+                remaining = timeout - elapsed;
+            } while (remaining > 0);
+
+            return Collections.emptyMap();
+        } finally {
+            release();
+        }
+    }
+
     /**
      * Do one round of polling. In addition to checking for new data, this does any needed offset commits
      * (if auto-commit is enabled), and offset resets (if an offset reset policy is defined).
@@ -1030,18 +1119,37 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
      * @return The fetched records (may be empty)
      */
     private Map<TopicPartition, List<ConsumerRecord<K, V>>> pollOnce(long timeout) {
+        prepareFetches();
+
+        // if data is available already, return it immediately
+        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
+        if (!records.isEmpty())
+            return records;
+
+        if (!awaitFetches(timeout))
+            return Collections.emptyMap();
+        return fetcher.fetchedRecords();
+    }
+
+    /**
+     * Do any needed offset commits (if auto-commit is enabled), and offset resets (if an offset reset policy is
+     * defined) before returning fetched data.
+     */
+    private void prepareFetches() {
         coordinator.poll(time.milliseconds());
 
         // fetch positions if we have partitions we're subscribed to that we
         // don't know the offset for
         if (!subscriptions.hasAllFetchPositions())
             updateFetchPositions(this.subscriptions.missingFetchPositions());
+    }
 
-        // if data is available already, return it immediately
-        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
-        if (!records.isEmpty())
-            return records;
-
+    /**
+     * Send new fetches and wait for fetched data.
+     * @param timeout The maximum time to block in the underlying call to {@link ConsumerNetworkClient#poll(long)}.
+     * @return false if the group needs to rebalance before fetched data is returned
+     */
+    private boolean awaitFetches(long timeout) {
         // send any new fetches (won't resend pending fetches)
         fetcher.sendFetches();
 
@@ -1059,10 +1167,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
 
         // after the long poll, we should check whether the group needs to rebalance
         // prior to returning data so that the group can stabilize faster
-        if (coordinator.needRejoin())
-            return Collections.emptyMap();
-
-        return fetcher.fetchedRecords();
+        return !coordinator.needRejoinBeforeFetching();
     }
 
     /**
@@ -1542,6 +1647,19 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         this.client.wakeup();
     }
 
+    private void registerCompressionDictionaries(List<String> paths) {
+        for (String path : paths) {
+            try {
+                CompressionDictionary dictionary = CompressionDictionary.readFrom(new File(path));
+                CompressionDictionary.register(dictionary);
+                compressionDictionaries.add(dictionary);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ConfigException(ConsumerConfig.COMPRESSION_DICTIONARY_FILES_CONFIG, paths,
+                        "Could not load compression dictionary " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
     private ClusterResourceListeners configureClusterResourceListeners(Deserializer<K> keyDeserializer, Deserializer<V> valueDeserializer, List<?>... candidateLists) {
         ClusterResourceListeners clusterResourceListeners = new ClusterResourceListeners();
         for (List<?> candidateList: candidateLists)
@@ -1552,8 +1670,21 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         return clusterResourceListeners;
     }
 
+    private ExecutorService createParseExecutor(int numThreads) {
+        if (numThreads == 0)
+            return null;
+        final AtomicInteger threadId = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new KafkaThread("kafka-consumer-parser-" + clientId + "-" + threadId.incrementAndGet(), runnable, true);
+            }
+        });
+    }
+
     private void close(long timeoutMs, boolean swallowException) {
         log.trace("Closing the Kafka consumer.");
+        long startMs = time.milliseconds();
         AtomicReference<Throwable> firstException = new AtomicReference<>();
         this.closed = true;
         try {
@@ -1563,11 +1694,24 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
             firstException.compareAndSet(null, t);
             log.error("Failed to close coordinator", t);
         }
+        if (parseExecutor != null) {
+            // the deserializers are closed below, so the records which are being parsed ahead must be parsed first
+            parseExecutor.shutdownNow();
+            try {
+                if (!parseExecutor.awaitTermination(Math.max(0, timeoutMs - (time.milliseconds() - startMs)), TimeUnit.MILLISECONDS))
+                    log.warn("Closing the consumer while records are still being parsed ahead");
+            } catch (InterruptedException e) {
+                firstException.compareAndSet(null, new InterruptException(e));
+                log.error("Interrupted while waiting for the records being parsed ahead", e);
+            }
+        }
         ClientUtils.closeQuietly(interceptors, "consumer interceptors", firstException);
         ClientUtils.closeQuietly(metrics, "consumer metrics", firstException);
         ClientUtils.closeQuietly(client, "consumer network client", firstException);
         ClientUtils.closeQuietly(keyDeserializer, "consumer key deserializer", firstException);
         ClientUtils.closeQuietly(valueDeserializer, "consumer value deserializer", firstException);
+        for (CompressionDictionary dictionary : compressionDictionaries)
+            CompressionDictionary.unregister(dictionary);
         AppInfoParser.unregisterAppInfo(JMX_PREFIX, clientId);
         log.debug("The Kafka consumer has closed.");
         Throwable exception = firstException.get();
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.clients.consumer.internals.AbstractPartitionAssignor;
+import org.apache.kafka.clients.consumer.internals.ConsumerProtocol;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.types.ArrayOf;
+import org.apache.kafka.common.protocol.types.Field;
+import org.apache.kafka.common.protocol.types.Schema;
+import org.apache.kafka.common.protocol.types.SchemaException;
+import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The sticky assignor balances the partitions across the consumers like the round robin assignor, but moves as few
+ * partitions as possible between consumers when the group rebalances, so that consumers keep the partitions they
+ * have built up state for. Every consumer sends the partitions it was assigned with its subscription, and the
+ * assignment is computed as follows:
+ *
+ * 1. Every consumer keeps the partitions it was assigned which still exist and which it is still subscribed to. If
+ *    more than one consumer claims a partition, the consumer with the lowest member id keeps it.
+ * 2. The remaining partitions are assigned one at a time to the subscribed consumer with the fewest partitions,
+ *    starting with the partitions of the topics with the fewest subscribed consumers.
+ * 3. As long as a consumer has at least two partitions more than another consumer which is subscribed to one of
+ *    them, such a partition is moved, preferring the partitions the consumer was not assigned before.
+ *
+ * For example, suppose there are three consumers C0, C1 and C2, two topics t0 and t1, and each topic has 3
+ * partitions, resulting in partitions t0p0, t0p1, t0p2, t1p0, t1p1, and t1p2.
+ *
+ * The assignment will be:
+ * C0: [t0p0, t1p0]
+ * C1: [t0p1, t1p1]
+ * C2: [t0p2, t1p2]
+ *
+ * If C1 leaves the group, the round robin assignor would move all but two partitions:
+ * C0: [t0p0, t0p2, t1p1]
+ * C2: [t0p1, t1p0, t1p2]
+ *
+ * The sticky assignor only reassigns the partitions of C1:
+ * C0: [t0p0, t1p0, t0p1]
+ * C2: [t0p2, t1p2, t1p1]
+ */
+public class StickyAssignor extends AbstractPartitionAssignor {
+    private static final Logger log = LoggerFactory.getLogger(StickyAssignor.class);
+
+    private static final String PREVIOUS_ASSIGNMENT_KEY_NAME = "previous_assignment";
+    private static final Schema STICKY_ASSIGNOR_USER_DATA_V0 = new Schema(
+            new Field(PREVIOUS_ASSIGNMENT_KEY_NAME, new ArrayOf(ConsumerProtocol.TOPIC_ASSIGNMENT_V0)));
+
+    private List<TopicPartition> memberAssignment = Collections.emptyList();
+
+    @Override
+    public Subscription subscription(Set<String> topics) {
+        return new Subscription(new ArrayList<>(topics), serializePreviousAssignment(memberAssignment));
+    }
+
+    @Override
+    public void onAssignment(Assignment assignment) {
+        memberAssignment = assignment.partitions();
+    }
+
+    @Override
+    public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic,
+                                                    Map<String, List<String>> subscriptions) {
+        return assign(partitionsPerTopic, subscriptions, Collections.<String, ByteBuffer>emptyMap());
+    }
+
+    @Override
+    public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic,
+                                                    Map<String, List<String>> subscriptions,
+                                                    Map<String, ByteBuffer> userData) {
+        List<String> memberIds = Utils.sorted(subscriptions.keySet());
+        Map<String, Set<String>> memberTopics = new HashMap<>();
+        // the members subscribed to each topic, ordered by member id
+        final Map<String, List<String>> topicMembers = new HashMap<>();
+        Map<String, List<TopicPartition>> assignment = new HashMap<>();
+        for (String memberId : memberIds) {
+            Set<String> topics = new HashSet<>(subscriptions.get(memberId));
+            memberTopics.put(memberId, topics);
+            for (String topic : topics)
+                put(topicMembers, topic, memberId);
+            assignment.put(memberId, new ArrayList<TopicPartition>());
+        }
+
+        Set<TopicPartition> assigned = new HashSet<>();
+        for (String memberId : memberIds) {
+            for (TopicPartition partition : previousAssignment(memberId, userData.get(memberId))) {
+                Integer numPartitions = partitionsPerTopic.get(partition.topic());
+                if (numPartitions != null && partition.partition() < numPartitions
+                        && memberTopics.get(memberId).contains(partition.topic()) && assigned.add(partition))
+                    assignment.get(memberId).add(partition);
+            }
+        }
+
+        List<TopicPartition> unassigned = new ArrayList<>();
+        for (String topic : Utils.sorted(topicMembers.keySet())) {
+            Integer numPartitions = partitionsPerTopic.get(topic);
+            if (numPartitions == null)
+                continue;
+            for (TopicPartition partition : partitions(topic, numPartitions))
+                if (!assigned.contains(partition))
+                    unassigned.add(partition);
+        }
+        // assign the partitions with the fewest candidates first, while there are still members with room for them
+        Collections.sort(unassigned, new Comparator<TopicPartition>() {
+            @Override
+            public int compare(TopicPartition p1, TopicPartition p2) {
+                return Integer.compare(topicMembers.get(p1.topic()).size(), topicMembers.get(p2.topic()).size());
+            }
+        });
+        for (TopicPartition partition : unassigned) {
+            String leastLoaded = null;
+            for (String memberId : topicMembers.get(partition.topic()))
+                if (leastLoaded == null || assignment.get(memberId).size() < assignment.get(leastLoaded).size())
+                    leastLoaded = memberId;
+            assignment.get(leastLoaded).add(partition);
+        }
+
+        // every move reduces the sum of the squared assignment sizes, so this terminates
+        boolean moved = true;
+        while (moved)
+            moved = moveOnePartition(memberIds, memberTopics, assignment);
+        return assignment;
+    }
+
+    /**
+     * Move a partition from a member to a member with at least two partitions less which is subscribed to its topic,
+     * preferring the most loaded and the least loaded members.
+     *
+     * @return true if a partition was moved
+     */
+    private static boolean moveOnePartition(List<String> memberIds,
+                                            Map<String, Set<String>> memberTopics,
+                                            final Map<String, List<TopicPartition>> assignment) {
+        List<String> byLoad = new ArrayList<>(memberIds);
+        Collections.sort(byLoad, new Comparator<String>() {
+            @Override
+            public int compare(String m1, String m2) {
+                int result = Integer.compare(assignment.get(m2).size(), assignment.get(m1).size());
+                return result != 0 ? result : m1.compareTo(m2);
+            }
+        });
+
+        for (int i = 0; i < byLoad.size(); i++) {
+            List<TopicPartition> from = assignment.get(byLoad.get(i));
+            for (int j = byLoad.size() - 1; j > i; j--) {
+                List<TopicPartition> to = assignment.get(byLoad.get(j));
+                if (from.size() <= to.size() + 1)
+                    break;
+                // start from the end, since the partitions the member kept from its previous assignment come first
+                Set<String> topics = memberTopics.get(byLoad.get(j));
+                for (int k = from.size() - 1; k >= 0; k--) {
+                    if (topics.contains(from.get(k).topic())) {
+                        to.add(from.remove(k));
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<TopicPartition> previousAssignment(String memberId, ByteBuffer userData) {
+        if (userData == null || !userData.hasRemaining())
+            return Collections.emptyList();
+        try {
+            return deserializePreviousAssignment(userData);
+        } catch (SchemaException e) {
+            log.warn("Ignoring the previous assignment of member {} since its user data could not be parsed: {}",
+                    memberId, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    static ByteBuffer serializePreviousAssignment(List<TopicPartition> partitions) {
+        Map<String, List<Integer>> partitionsByTopic = new HashMap<>();
+        for (TopicPartition partition : partitions)
+            put(partitionsByTopic, partition.topic(), partition.partition());
+
+        Struct struct = new Struct(STICKY_ASSIGNOR_USER_DATA_V0);
+        List<Struct> topicAssignments = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> topicEntry : partitionsByTopic.entrySet()) {
+            Struct topicAssignment = struct.instance(PREVIOUS_ASSIGNMENT_KEY_NAME);
+            topicAssignment.set(ConsumerProtocol.TOPIC_KEY_NAME, topicEntry.getKey());
+            topicAssignment.set(ConsumerProtocol.PARTITIONS_KEY_NAME, topicEntry.getValue().toArray());
+            topicAssignments.add(topicAssignment);
+        }
+        struct.set(PREVIOUS_ASSIGNMENT_KEY_NAME, topicAssignments.toArray());
+        ByteBuffer buffer = ByteBuffer.allocate(struct.sizeOf());
+        struct.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    static List<TopicPartition> deserializePreviousAssignment(ByteBuffer buffer) {
+        Struct struct = STICKY_ASSIGNOR_USER_DATA_V0.read(buffer.duplicate());
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (Object topicObj : struct.getArray(PREVIOUS_ASSIGNMENT_KEY_NAME)) {
+            Struct topicAssignment = (Struct) topicObj;
+            String topic = topicAssignment.getString(ConsumerProtocol.TOPIC_KEY_NAME);
+            for (Object partitionObj : topicAssignment.getArray(ConsumerProtocol.PARTITIONS_KEY_NAME))
+                partitions.add(new TopicPartition(topic, (Integer) partitionObj));
+        }
+        return partitions;
+    }
+
+    @Override
+    public String name() {
+        return "sticky";
+    }
+
+}
@@ -262,7 +262,7 @@ public abstract class AbstractCoordinator implements Closeable {
         return rejoinNeeded;
     }
 
-    private synchronized boolean rejoinIncomplete() {
+    protected synchronized boolean rejoinIncomplete() {
         return joinFuture != null;
     }
 
@@ -300,11 +300,24 @@ public abstract class AbstractCoordinator implements Closeable {
      * Ensure that the group is active (i.e. joined and synced)
      */
     public void ensureActiveGroup() {
+        // Using zero as current time since timeout is effectively infinite
+        ensureActiveGroup(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Ensure that the group is active (i.e. joined and synced), waiting at most the given time. A rebalance which
+     * is still in progress once the time has elapsed is continued by the next call.
+     * @param startTimeMs Current time in milliseconds
+     * @param timeoutMs Maximum time to wait for the group to be active
+     * @return true if the group is active, false otherwise
+     */
+    public boolean ensureActiveGroup(long startTimeMs, long timeoutMs) {
         // always ensure that the coordinator is ready because we may have been disconnected
         // when sending heartbeats and does not necessarily require us to rejoin the group.
-        ensureCoordinatorReady();
+        if (!ensureCoordinatorReady(startTimeMs, timeoutMs))
+            return false;
         startHeartbeatThreadIfNeeded();
-        joinGroupIfNeeded();
+        return joinGroupIfNeeded(startTimeMs, timeoutMs);
     }
 
     private synchronized void startHeartbeatThreadIfNeeded() {
@@ -334,8 +347,14 @@ public abstract class AbstractCoordinator implements Closeable {
 
     // visible for testing. Joins the group without starting the heartbeat thread.
     void joinGroupIfNeeded() {
+        joinGroupIfNeeded(0, Long.MAX_VALUE);
+    }
+
+    // visible for testing. Joins the group without starting the heartbeat thread, waiting at most the given time.
+    boolean joinGroupIfNeeded(long startTimeMs, long timeoutMs) {
         while (needRejoin() || rejoinIncomplete()) {
-            ensureCoordinatorReady();
+            if (!ensureCoordinatorReady(startTimeMs, timeoutMs))
+                return false;
 
             // call onJoinPrepare if needed. We set a flag to make sure that we do not call it a second
             // time if the client is woken up before a pending rebalance completes. This must be called
@@ -348,7 +367,10 @@ public abstract class AbstractCoordinator implements Closeable {
             }
 
             RequestFuture<ByteBuffer> future = initiateJoinGroup();
-            client.poll(future);
+            client.poll(future, Math.max(0, timeoutMs - (time.milliseconds() - startTimeMs)));
+            // the join future is kept, so that the rebalance is continued by the next call
+            if (!future.isDone())
+                return false;
             resetJoinGroupFuture();
 
             if (future.succeeded()) {
@@ -356,15 +378,18 @@ public abstract class AbstractCoordinator implements Closeable {
                 onJoinComplete(generation.generationId, generation.memberId, generation.protocol, future.value());
             } else {
                 RuntimeException exception = future.exception();
-                if (exception instanceof UnknownMemberIdException ||
+                if (!(exception instanceof UnknownMemberIdException ||
                         exception instanceof RebalanceInProgressException ||
-                        exception instanceof IllegalGenerationException)
-                    continue;
-                else if (!future.isRetriable())
-                    throw exception;
-                time.sleep(retryBackoffMs);
+                        exception instanceof IllegalGenerationException)) {
+                    if (!future.isRetriable())
+                        throw exception;
+                    time.sleep(retryBackoffMs);
+                }
+                if (time.milliseconds() - startTimeMs >= timeoutMs)
+                    return false;
             }
         }
+        return true;
     }
 
     private synchronized void resetJoinGroupFuture() {
@@ -648,6 +673,17 @@ public abstract class AbstractCoordinator implements Closeable {
         return generation;
     }
 
+    /**
+     * Get the generation of this member, even while it rejoins the group. This is the generation it last joined
+     * until the JoinGroup response of the rebalance arrives, and the new generation after that.
+     * @return the generation or null if the member has not joined the group
+     */
+    protected synchronized Generation memberGeneration() {
+        if (this.generation == Generation.NO_GENERATION)
+            return null;
+        return generation;
+    }
+
     /**
      * Reset the generation and memberId because we have fallen out of the group.
      */
@@ -21,6 +21,7 @@ import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +46,22 @@ public abstract class AbstractPartitionAssignor implements PartitionAssignor {
     public abstract Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic,
                                                              Map<String, List<String>> subscriptions);
 
+    /**
+     * Perform the group assignment given the partition counts, member subscriptions and the user data the members
+     * sent with their subscriptions. Assignors which keep state in the user data override this, the default ignores
+     * the user data.
+     * @param partitionsPerTopic The number of partitions for each subscribed topic. Topics not in metadata will be excluded
+     *                           from this map.
+     * @param subscriptions Map from the memberId to their respective topic subscription
+     * @param userData Map from the memberId to the user data of their subscription, which may be null
+     * @return Map from each member to the list of partitions assigned to them.
+     */
+    public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic,
+                                                    Map<String, List<String>> subscriptions,
+                                                    Map<String, ByteBuffer> userData) {
+        return assign(partitionsPerTopic, subscriptions);
+    }
+
     @Override
     public Subscription subscription(Set<String> topics) {
         return new Subscription(new ArrayList<>(topics));
@@ -54,10 +71,12 @@ public abstract class AbstractPartitionAssignor implements PartitionAssignor {
     public Map<String, Assignment> assign(Cluster metadata, Map<String, Subscription> subscriptions) {
         Set<String> allSubscribedTopics = new HashSet<>();
         Map<String, List<String>> topicSubscriptions = new HashMap<>();
+        Map<String, ByteBuffer> userData = new HashMap<>();
         for (Map.Entry<String, Subscription> subscriptionEntry : subscriptions.entrySet()) {
             List<String> topics = subscriptionEntry.getValue().topics();
             allSubscribedTopics.addAll(topics);
             topicSubscriptions.put(subscriptionEntry.getKey(), topics);
+            userData.put(subscriptionEntry.getKey(), subscriptionEntry.getValue().userData());
         }
 
         Map<String, Integer> partitionsPerTopic = new HashMap<>();
@@ -69,9 +88,9 @@ public abstract class AbstractPartitionAssignor implements PartitionAssignor {
                 log.debug("Skipping assignment for topic {} since no metadata is available", topic);
         }
 
-        Map<String, List<TopicPartition>> rawAssignments = assign(partitionsPerTopic, topicSubscriptions);
+        Map<String, List<TopicPartition>> rawAssignments = assign(partitionsPerTopic, topicSubscriptions, userData);
 
-        // this class has maintains no user data, so just wrap the results
+        // the assignment carries no user data, so just wrap the results
         Map<String, Assignment> assignments = new HashMap<>();
         for (Map.Entry<String, List<TopicPartition>> assignmentEntry : rawAssignments.entrySet())
             assignments.put(assignmentEntry.getKey(), new Assignment(assignmentEntry.getValue()));
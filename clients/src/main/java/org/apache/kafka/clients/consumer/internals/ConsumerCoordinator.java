@@ -79,6 +79,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     private final ConsumerInterceptors<?, ?> interceptors;
     private final boolean excludeInternalTopics;
     private final AtomicInteger pendingAsyncCommits;
+    private final boolean cooperativeRebalance;
 
     // this collection must be thread-safe because it is modified from the response handler
     // of offset commit requests, which may be invoked from the heartbeat thread
@@ -89,6 +90,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     private MetadataSnapshot metadataSnapshot;
     private MetadataSnapshot assignmentSnapshot;
     private long nextAutoCommitDeadline;
+    // whether the assigned partitions may have been assigned to other members since this member dropped out of the group
+    private boolean partitionsLost = false;
 
     /**
      * Initialize the coordination manager.
@@ -108,7 +111,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
                                boolean autoCommitEnabled,
                                int autoCommitIntervalMs,
                                ConsumerInterceptors<?, ?> interceptors,
-                               boolean excludeInternalTopics) {
+                               boolean excludeInternalTopics,
+                               boolean cooperativeRebalance) {
         super(client,
                 groupId,
                 rebalanceTimeoutMs,
@@ -130,6 +134,7 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         this.interceptors = interceptors;
         this.excludeInternalTopics = excludeInternalTopics;
         this.pendingAsyncCommits = new AtomicInteger();
+        this.cooperativeRebalance = cooperativeRebalance;
 
         if (autoCommitEnabled)
             this.nextAutoCommitDeadline = time.milliseconds() + autoCommitIntervalMs;
@@ -146,15 +151,28 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
     @Override
     public List<ProtocolMetadata> metadata() {
         this.joinedSubscription = subscriptions.subscription();
+        List<TopicPartition> ownedPartitions = ownedPartitions();
         List<ProtocolMetadata> metadataList = new ArrayList<>();
         for (PartitionAssignor assignor : assignors) {
             Subscription subscription = assignor.subscription(joinedSubscription);
+            subscription = new Subscription(subscription.topics(), subscription.userData(), ownedPartitions);
             ByteBuffer metadata = ConsumerProtocol.serializeSubscription(subscription);
             metadataList.add(new ProtocolMetadata(assignor.name(), metadata));
         }
         return metadataList;
     }
 
+    /**
+     * The partitions this member keeps consuming while the group rebalances. A member which rebalances cooperatively
+     * keeps its partitions unless it dropped out of the group since it was assigned them, in which case they may
+     * already be owned by other members.
+     */
+    private List<TopicPartition> ownedPartitions() {
+        if (!cooperativeRebalance || partitionsLost)
+            return Collections.emptyList();
+        return new ArrayList<>(subscriptions.assignedPartitions());
+    }
+
     public void updatePatternSubscription(Cluster cluster) {
         final Set<String> topicsToSubscribe = new HashSet<>();
 
@@ -217,11 +235,33 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
 
         Assignment assignment = ConsumerProtocol.deserializeAssignment(assignmentBuffer);
 
+        Set<TopicPartition> added = new HashSet<>(assignment.partitions());
+        if (cooperativeRebalance) {
+            // only give up the partitions which are not assigned to this member any more
+            Set<TopicPartition> revoked = new HashSet<>(subscriptions.assignedPartitions());
+            if (!partitionsLost) {
+                revoked.removeAll(assignment.partitions());
+                added.removeAll(subscriptions.assignedPartitions());
+            }
+            if (!revoked.isEmpty()) {
+                if (!partitionsLost) {
+                    maybeAutoCommitOffsetsSync(rebalanceTimeoutMs);
+                    // the leader withholds the revoked partitions from their new owners until we rejoin
+                    requestRejoin();
+                }
+                revokePartitions(revoked);
+            }
+        }
+
         // set the flag to refresh last committed offsets
         subscriptions.needRefreshCommits();
 
         // update partition assignment
-        subscriptions.assignFromSubscribed(assignment.partitions());
+        if (cooperativeRebalance && !partitionsLost)
+            subscriptions.assignFromSubscribedIncrementally(assignment.partitions());
+        else
+            subscriptions.assignFromSubscribed(assignment.partitions());
+        partitionsLost = false;
 
         // check if the assignment contains some topics that were not in the original
         // subscription, if yes we will obey what leader has decided and add these topics
@@ -257,10 +297,9 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
 
         // execute the user's callback after rebalance
         ConsumerRebalanceListener listener = subscriptions.listener();
-        log.info("Setting newly assigned partitions {} for group {}", subscriptions.assignedPartitions(), groupId);
+        log.info("Setting newly assigned partitions {} for group {}", added, groupId);
         try {
-            Set<TopicPartition> assigned = new HashSet<>(subscriptions.assignedPartitions());
-            listener.onPartitionsAssigned(assigned);
+            listener.onPartitionsAssigned(added);
         } catch (WakeupException | InterruptException e) {
             throw e;
         } catch (Exception e) {
@@ -284,14 +323,19 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
             now = time.milliseconds();
         }
 
-        if (needRejoin()) {
+        if (needRejoin() || rejoinIncomplete()) {
             // due to a race condition between the initial metadata fetch and the initial rebalance,
             // we need to ensure that the metadata is fresh before joining initially. This ensures
             // that we have matched the pattern against the cluster's topics at least once before joining.
-            if (subscriptions.hasPatternSubscription())
+            if (!rejoinIncomplete() && subscriptions.hasPatternSubscription())
                 client.ensureFreshMetadata();
 
-            ensureActiveGroup();
+            // a member which keeps consuming its partitions during the rebalance does not wait for it to
+            // complete, the rebalance is continued by the next poll instead
+            if (ownedPartitions().isEmpty())
+                ensureActiveGroup();
+            else
+                ensureActiveGroup(now, 0);
             now = time.milliseconds();
         }
 
@@ -299,6 +343,15 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         maybeAutoCommitOffsetsAsync(now);
     }
 
+    /**
+     * Check whether the group should rebalance before fetched data is returned. A member which rebalances
+     * cooperatively keeps returning the records of the partitions it owns while the group rebalances.
+     * @return true if it should, false otherwise
+     */
+    public boolean needRejoinBeforeFetching() {
+        return needRejoin() && ownedPartitions().isEmpty();
+    }
+
     /**
      * Return the time to the next needed invocation of {@link #poll(long)}.
      * @param now current time in milliseconds
@@ -344,7 +397,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         log.debug("Performing assignment for group {} using strategy {} with subscriptions {}",
                 groupId, assignor.name(), subscriptions);
 
-        Map<String, Assignment> assignment = assignor.assign(metadata.fetch(), subscriptions);
+        Map<String, Assignment> assignment = withholdOwnedPartitions(assignor.assign(metadata.fetch(), subscriptions),
+                subscriptions);
 
         // user-customized assignor may have created some topics that are not in the subscription list
         // and assign their partitions to the members; in this case we would like to update the leader's
@@ -391,16 +445,68 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
         return groupAssignment;
     }
 
+    /**
+     * Remove the partitions which other members still own from the assignment. Their owners revoke them once they
+     * receive their own assignment and rejoin, after which the partitions are assigned in the next rebalance.
+     */
+    private Map<String, Assignment> withholdOwnedPartitions(Map<String, Assignment> assignment,
+                                                            Map<String, Subscription> subscriptions) {
+        Map<TopicPartition, List<String>> owners = new HashMap<>();
+        for (Map.Entry<String, Subscription> subscriptionEntry : subscriptions.entrySet()) {
+            for (TopicPartition tp : subscriptionEntry.getValue().ownedPartitions()) {
+                List<String> tpOwners = owners.get(tp);
+                if (tpOwners == null) {
+                    tpOwners = new ArrayList<>(1);
+                    owners.put(tp, tpOwners);
+                }
+                tpOwners.add(subscriptionEntry.getKey());
+            }
+        }
+        if (owners.isEmpty())
+            return assignment;
+
+        Set<TopicPartition> withheld = new HashSet<>();
+        Map<String, Assignment> result = new HashMap<>();
+        for (Map.Entry<String, Assignment> assignmentEntry : assignment.entrySet()) {
+            String memberId = assignmentEntry.getKey();
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (TopicPartition tp : assignmentEntry.getValue().partitions()) {
+                List<String> tpOwners = owners.get(tp);
+                if (tpOwners == null || (tpOwners.size() == 1 && tpOwners.get(0).equals(memberId)))
+                    partitions.add(tp);
+                else
+                    withheld.add(tp);
+            }
+            result.put(memberId, new Assignment(partitions, assignmentEntry.getValue().userData()));
+        }
+        if (!withheld.isEmpty())
+            log.info("Withholding partitions {} of group {} until their previous owners have revoked them", withheld, groupId);
+        return result;
+    }
+
+    @Override
+    protected synchronized void resetGeneration() {
+        super.resetGeneration();
+        partitionsLost = true;
+    }
+
     @Override
     protected void onJoinPrepare(int generation, String memberId) {
-        // commit offsets prior to rebalance if auto-commit enabled
-        maybeAutoCommitOffsetsSync(rebalanceTimeoutMs);
+        // commit offsets and execute the user's callback before rebalance, unless the partitions are only
+        // revoked once the new assignment is known, in which case they are committed then
+        if (!cooperativeRebalance) {
+            maybeAutoCommitOffsetsSync(rebalanceTimeoutMs);
+            revokePartitions(new HashSet<>(subscriptions.assignedPartitions()));
+        }
 
-        // execute the user's callback before rebalance
+        isLeader = false;
+        subscriptions.resetGroupSubscription();
+    }
+
+    private void revokePartitions(Set<TopicPartition> revoked) {
         ConsumerRebalanceListener listener = subscriptions.listener();
-        log.info("Revoking previously assigned partitions {} for group {}", subscriptions.assignedPartitions(), groupId);
+        log.info("Revoking previously assigned partitions {} for group {}", revoked, groupId);
         try {
-            Set<TopicPartition> revoked = new HashSet<>(subscriptions.assignedPartitions());
             listener.onPartitionsRevoked(revoked);
         } catch (WakeupException | InterruptException e) {
             throw e;
@@ -408,9 +514,6 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
             log.error("User provided listener {} for group {} failed on partition revocation",
                     listener.getClass().getName(), groupId, e);
         }
-
-        isLeader = false;
-        subscriptions.resetGroupSubscription();
     }
 
     @Override
@@ -696,7 +799,8 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
 
         final Generation generation;
         if (subscriptions.partitionsAutoAssigned())
-            generation = generation();
+            // a member which rebalances cooperatively keeps committing the offsets of its partitions
+            generation = cooperativeRebalance ? memberGeneration() : generation();
         else
             generation = Generation.NO_GENERATION;
 
@@ -764,6 +868,12 @@ public final class ConsumerCoordinator extends AbstractCoordinator {
                     coordinatorDead();
                     future.raise(error);
                     return;
+                } else if (error == Errors.REBALANCE_IN_PROGRESS && cooperativeRebalance && rejoinIncomplete()) {
+                    // the group is waiting for the assignment of the rebalance this member is part of, after
+                    // which the offsets of the partitions it still owns can be committed again
+                    log.debug("Offset commit for group {} failed: {}", groupId, error.message());
+                    future.raise(new RetriableCommitFailedException(error.exception()));
+                    return;
                 } else if (error == Errors.UNKNOWN_MEMBER_ID
                         || error == Errors.ILLEGAL_GENERATION
                         || error == Errors.REBALANCE_IN_PROGRESS) {
@@ -27,19 +27,23 @@ import org.apache.kafka.common.protocol.types.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * ConsumerProtocol contains the schemas for consumer subscriptions and assignments for use with
- * Kafka's generalized group management protocol. Below is the version 0 format:
+ * Kafka's generalized group management protocol. Below is the version 1 format:
  *
  * <pre>
- * Subscription => Version Topics
- *   Version    => Int16
- *   Topics     => [String]
- *   UserData   => Bytes
+ * Subscription => Version Topics UserData OwnedPartitions
+ *   Version         => Int16
+ *   Topics          => [String]
+ *   UserData        => Bytes
+ *   OwnedPartitions => [Topic Partitions]
+ *     Topic         => String
+ *     Partitions    => [int32]
  *
  * Assignment => Version TopicPartitions
  *   Version         => int16
@@ -48,8 +52,11 @@ import java.util.Map;
  *     Partitions    => [int32]
  * </pre>
  *
+ * Version 1 adds the partitions which the member keeps owning during the rebalance to the subscription. The
+ * assignment format is the same in both versions.
+ *
  * The current implementation assumes that future versions will not break compatibility. When
- * it encounters a newer version, it parses it using the current format. This basically means
+ * it encounters a newer version, it parses it using the latest format. This basically means
  * that new versions cannot remove or reorder any of the existing fields.
  */
 public class ConsumerProtocol {
@@ -62,12 +69,16 @@ public class ConsumerProtocol {
     public static final String PARTITIONS_KEY_NAME = "partitions";
     public static final String TOPIC_PARTITIONS_KEY_NAME = "topic_partitions";
     public static final String USER_DATA_KEY_NAME = "user_data";
+    public static final String OWNED_PARTITIONS_KEY_NAME = "owned_partitions";
 
     public static final short CONSUMER_PROTOCOL_V0 = 0;
+    public static final short CONSUMER_PROTOCOL_V1 = 1;
     public static final Schema CONSUMER_PROTOCOL_HEADER_SCHEMA = new Schema(
             new Field(VERSION_KEY_NAME, Type.INT16));
     private static final Struct CONSUMER_PROTOCOL_HEADER_V0 = new Struct(CONSUMER_PROTOCOL_HEADER_SCHEMA)
             .set(VERSION_KEY_NAME, CONSUMER_PROTOCOL_V0);
+    private static final Struct CONSUMER_PROTOCOL_HEADER_V1 = new Struct(CONSUMER_PROTOCOL_HEADER_SCHEMA)
+            .set(VERSION_KEY_NAME, CONSUMER_PROTOCOL_V1);
 
     public static final Schema SUBSCRIPTION_V0 = new Schema(
             new Field(TOPICS_KEY_NAME, new ArrayOf(Type.STRING)),
@@ -75,17 +86,22 @@ public class ConsumerProtocol {
     public static final Schema TOPIC_ASSIGNMENT_V0 = new Schema(
             new Field(TOPIC_KEY_NAME, Type.STRING),
             new Field(PARTITIONS_KEY_NAME, new ArrayOf(Type.INT32)));
+    public static final Schema SUBSCRIPTION_V1 = new Schema(
+            new Field(TOPICS_KEY_NAME, new ArrayOf(Type.STRING)),
+            new Field(USER_DATA_KEY_NAME, Type.NULLABLE_BYTES),
+            new Field(OWNED_PARTITIONS_KEY_NAME, new ArrayOf(TOPIC_ASSIGNMENT_V0)));
     public static final Schema ASSIGNMENT_V0 = new Schema(
             new Field(TOPIC_PARTITIONS_KEY_NAME, new ArrayOf(TOPIC_ASSIGNMENT_V0)),
             new Field(USER_DATA_KEY_NAME, Type.NULLABLE_BYTES));
 
     public static ByteBuffer serializeSubscription(PartitionAssignor.Subscription subscription) {
-        Struct struct = new Struct(SUBSCRIPTION_V0);
+        Struct struct = new Struct(SUBSCRIPTION_V1);
         struct.set(USER_DATA_KEY_NAME, subscription.userData());
         struct.set(TOPICS_KEY_NAME, subscription.topics().toArray());
-        ByteBuffer buffer = ByteBuffer.allocate(CONSUMER_PROTOCOL_HEADER_V0.sizeOf() + SUBSCRIPTION_V0.sizeOf(struct));
-        CONSUMER_PROTOCOL_HEADER_V0.writeTo(buffer);
-        SUBSCRIPTION_V0.write(buffer, struct);
+        struct.set(OWNED_PARTITIONS_KEY_NAME, topicPartitionsToStructs(subscription.ownedPartitions()));
+        ByteBuffer buffer = ByteBuffer.allocate(CONSUMER_PROTOCOL_HEADER_V1.sizeOf() + SUBSCRIPTION_V1.sizeOf(struct));
+        CONSUMER_PROTOCOL_HEADER_V1.writeTo(buffer);
+        SUBSCRIPTION_V1.write(buffer, struct);
         buffer.flip();
         return buffer;
     }
@@ -94,12 +110,15 @@ public class ConsumerProtocol {
         Struct header = CONSUMER_PROTOCOL_HEADER_SCHEMA.read(buffer);
         Short version = header.getShort(VERSION_KEY_NAME);
         checkVersionCompatibility(version);
-        Struct struct = SUBSCRIPTION_V0.read(buffer);
+        Struct struct = version >= CONSUMER_PROTOCOL_V1 ? SUBSCRIPTION_V1.read(buffer) : SUBSCRIPTION_V0.read(buffer);
         ByteBuffer userData = struct.getBytes(USER_DATA_KEY_NAME);
         List<String> topics = new ArrayList<>();
         for (Object topicObj : struct.getArray(TOPICS_KEY_NAME))
             topics.add((String) topicObj);
-        return new PartitionAssignor.Subscription(topics, userData);
+        List<TopicPartition> ownedPartitions = version >= CONSUMER_PROTOCOL_V1 ?
+                structsToTopicPartitions(struct.getArray(OWNED_PARTITIONS_KEY_NAME)) :
+                Collections.<TopicPartition>emptyList();
+        return new PartitionAssignor.Subscription(topics, userData, ownedPartitions);
     }
 
     public static PartitionAssignor.Assignment deserializeAssignment(ByteBuffer buffer) {
@@ -108,29 +127,14 @@ public class ConsumerProtocol {
         checkVersionCompatibility(version);
         Struct struct = ASSIGNMENT_V0.read(buffer);
         ByteBuffer userData = struct.getBytes(USER_DATA_KEY_NAME);
-        List<TopicPartition> partitions = new ArrayList<>();
-        for (Object structObj : struct.getArray(TOPIC_PARTITIONS_KEY_NAME)) {
-            Struct assignment = (Struct) structObj;
-            String topic = assignment.getString(TOPIC_KEY_NAME);
-            for (Object partitionObj : assignment.getArray(PARTITIONS_KEY_NAME)) {
-                Integer partition = (Integer) partitionObj;
-                partitions.add(new TopicPartition(topic, partition));
-            }
-        }
+        List<TopicPartition> partitions = structsToTopicPartitions(struct.getArray(TOPIC_PARTITIONS_KEY_NAME));
         return new PartitionAssignor.Assignment(partitions, userData);
     }
 
     public static ByteBuffer serializeAssignment(PartitionAssignor.Assignment assignment) {
         Struct struct = new Struct(ASSIGNMENT_V0);
         struct.set(USER_DATA_KEY_NAME, assignment.userData());
-        List<Struct> topicAssignments = new ArrayList<>();
-        for (Map.Entry<String, List<Integer>> topicEntry : asMap(assignment.partitions()).entrySet()) {
-            Struct topicAssignment = new Struct(TOPIC_ASSIGNMENT_V0);
-            topicAssignment.set(TOPIC_KEY_NAME, topicEntry.getKey());
-            topicAssignment.set(PARTITIONS_KEY_NAME, topicEntry.getValue().toArray());
-            topicAssignments.add(topicAssignment);
-        }
-        struct.set(TOPIC_PARTITIONS_KEY_NAME, topicAssignments.toArray());
+        struct.set(TOPIC_PARTITIONS_KEY_NAME, topicPartitionsToStructs(assignment.partitions()));
         ByteBuffer buffer = ByteBuffer.allocate(CONSUMER_PROTOCOL_HEADER_V0.sizeOf() + ASSIGNMENT_V0.sizeOf(struct));
         CONSUMER_PROTOCOL_HEADER_V0.writeTo(buffer);
         ASSIGNMENT_V0.write(buffer, struct);
@@ -147,6 +151,30 @@ public class ConsumerProtocol {
     }
 
 
+    private static Object[] topicPartitionsToStructs(Collection<TopicPartition> partitions) {
+        List<Struct> topicAssignments = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> topicEntry : asMap(partitions).entrySet()) {
+            Struct topicAssignment = new Struct(TOPIC_ASSIGNMENT_V0);
+            topicAssignment.set(TOPIC_KEY_NAME, topicEntry.getKey());
+            topicAssignment.set(PARTITIONS_KEY_NAME, topicEntry.getValue().toArray());
+            topicAssignments.add(topicAssignment);
+        }
+        return topicAssignments.toArray();
+    }
+
+    private static List<TopicPartition> structsToTopicPartitions(Object[] structs) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (Object structObj : structs) {
+            Struct assignment = (Struct) structObj;
+            String topic = assignment.getString(TOPIC_KEY_NAME);
+            for (Object partitionObj : assignment.getArray(PARTITIONS_KEY_NAME)) {
+                Integer partition = (Integer) partitionObj;
+                partitions.add(new TopicPartition(topic, partition));
+            }
+        }
+        return partitions;
+    }
+
     private static Map<String, List<Integer>> asMap(Collection<TopicPartition> partitions) {
         Map<String, List<Integer>> partitionMap = new HashMap<>();
         for (TopicPartition partition : partitions) {
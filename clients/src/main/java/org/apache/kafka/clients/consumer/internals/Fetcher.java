@@ -17,6 +17,7 @@
 package org.apache.kafka.clients.consumer.internals;
 
 import org.apache.kafka.clients.ClientResponse;
+import org.apache.kafka.clients.FetchSessionHandler;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -29,6 +30,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.InvalidMetadataException;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.RecordTooLargeException;
@@ -36,6 +38,9 @@ import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Avg;
@@ -44,8 +49,10 @@ import org.apache.kafka.common.metrics.stats.Max;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.metrics.stats.Value;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.BufferSupplier;
 import org.apache.kafka.common.record.InvalidRecordException;
 import org.apache.kafka.common.record.LogEntry;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.FetchRequest;
@@ -54,6 +61,7 @@ import org.apache.kafka.common.requests.ListOffsetRequest;
 import org.apache.kafka.common.requests.ListOffsetResponse;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.serialization.BufferDeserializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
@@ -66,13 +74,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class manage the fetching process with the brokers.
@@ -89,15 +105,53 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
     private final int fetchSize;
     private final long retryBackoffMs;
     private final int maxPollRecords;
+    private final int pipelineDepth;
+    private final String clientRack;
+    private final MemoryPool fetchBufferPool;
     private final boolean checkCrcs;
     private final Metadata metadata;
     private final FetchManagerMetrics sensors;
     private final SubscriptionState subscriptions;
     private final ConcurrentLinkedQueue<CompletedFetch> completedFetches;
+    // fetch responses may be received by the heartbeat thread, so the partitions in flight are tracked concurrently
+    private final Set<TopicPartition> inFlightPartitions;
+    // the memory which in-flight fetches may take once they are received, as bounded by their max bytes
+    private final AtomicLong reservedFetchMemory = new AtomicLong(0);
+    // the fetch sessions with each broker, which are only prepared by the consumer's thread
+    private final Map<Integer, FetchSessionHandler> sessionHandlers = new HashMap<>();
+    // the partitions which are fetched from their leader after a follower returned an error, mapped to the metadata
+    // version at that time. Only used by the consumer's thread
+    private final Map<TopicPartition, Integer> leaderOnlyPartitions = new HashMap<>();
     private final Deserializer<K> keyDeserializer;
     private final Deserializer<V> valueDeserializer;
+    // records are parsed by the consumer's thread unless there is a parse executor, whose threads parse the
+    // completed fetches ahead. Each of these threads keeps reusing its own decompression buffers
+    private final ExecutorService parseExecutor;
+    private final BufferSupplier decompressionBufferSupplier = BufferSupplier.create();
+    private final ThreadLocal<BufferSupplier> parseThreadBufferSupplier = new ThreadLocal<BufferSupplier>() {
+        @Override
+        protected BufferSupplier initialValue() {
+            return BufferSupplier.create();
+        }
+    };
+    // the records following those parsed ahead may be parsed by another thread of the executor, so the entries are
+    // decompressed into the buffers of the thread which parses them
+    private final BufferSupplier parseBufferSupplier = new BufferSupplier() {
+        @Override
+        public byte[] get(int size) {
+            return parseThreadBufferSupplier.get().get(size);
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+            parseThreadBufferSupplier.get().release(buffer);
+        }
+    };
 
-    private PartitionRecords<K, V> nextInLineRecords = null;
+    private PartitionRecords nextInLineRecords = null;
+    // the partition records whose undecoded batches were returned by the last call to fetchedBatches. The buffers of
+    // their responses are only released by the next call, since the returned batches are views of these buffers
+    private final List<PartitionRecords> returnedBatches = new ArrayList<>();
 
     public Fetcher(ConsumerNetworkClient client,
                    int minBytes,
@@ -105,7 +159,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
                    int maxWaitMs,
                    int fetchSize,
                    int maxPollRecords,
+                   int pipelineDepth,
+                   String clientRack,
+                   MemoryPool fetchBufferPool,
                    boolean checkCrcs,
+                   ExecutorService parseExecutor,
                    Deserializer<K> keyDeserializer,
                    Deserializer<V> valueDeserializer,
                    Metadata metadata,
@@ -123,11 +181,16 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
         this.maxWaitMs = maxWaitMs;
         this.fetchSize = fetchSize;
         this.maxPollRecords = maxPollRecords;
+        this.pipelineDepth = pipelineDepth;
+        this.clientRack = clientRack;
+        this.fetchBufferPool = fetchBufferPool;
         this.checkCrcs = checkCrcs;
+        this.parseExecutor = parseExecutor;
         this.keyDeserializer = keyDeserializer;
         this.valueDeserializer = valueDeserializer;
         this.completedFetches = new ConcurrentLinkedQueue<>();
-        this.sensors = new FetchManagerMetrics(metrics, metricGrpPrefix);
+        this.inFlightPartitions = Collections.newSetFromMap(new ConcurrentHashMap<TopicPartition, Boolean>());
+        this.sensors = new FetchManagerMetrics(metrics, metricGrpPrefix, fetchBufferPool);
         this.retryBackoffMs = retryBackoffMs;
 
         subscriptions.addListener(this);
@@ -166,12 +229,17 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
     private boolean matchesRequestedPartitions(FetchRequest.Builder request, FetchResponse response) {
         Set<TopicPartition> requestedPartitions = request.fetchData().keySet();
         Set<TopicPartition> fetchedPartitions = response.responseData().keySet();
+        // incremental fetch responses only contain the partitions of the fetch session which changed
+        if (!request.metadata().isFull())
+            return requestedPartitions.containsAll(fetchedPartitions);
         return fetchedPartitions.equals(requestedPartitions);
     }
 
     /**
      * Set-up a fetch request for any node that we have assigned partitions for which doesn't already have
-     * an in-flight fetch or pending fetch data.
+     * an in-flight fetch or pending fetch data. If the fetch pipeline depth allows it, partitions with pending
+     * fetch data are fetched from the end of that data. No fetches are sent while the memory of the fetch buffer pool
+     * is used up by buffered and in-flight fetches.
      * @return number of fetches sent
      */
     public int sendFetches() {
@@ -179,39 +247,65 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
         for (Map.Entry<Node, FetchRequest.Builder> fetchEntry : fetchRequestMap.entrySet()) {
             final FetchRequest.Builder request = fetchEntry.getValue();
             final Node fetchTarget = fetchEntry.getKey();
+            final int reservedBytes = request.maxBytes();
+            final FetchSessionHandler session = sessionHandlers.get(fetchTarget.id());
 
             log.debug("Sending fetch for partitions {} to broker {}", request.fetchData().keySet(), fetchTarget);
+            inFlightPartitions.addAll(request.fetchData().keySet());
+            reservedFetchMemory.addAndGet(reservedBytes);
             client.send(fetchTarget, request)
                     .addListener(new RequestFutureListener<ClientResponse>() {
                         @Override
                         public void onSuccess(ClientResponse resp) {
-                            FetchResponse response = (FetchResponse) resp.responseBody();
-                            if (!matchesRequestedPartitions(request, response)) {
-                                // obviously we expect the broker to always send us valid responses, so this check
-                                // is mainly for test cases where mock fetch responses must be manually crafted.
-                                log.warn("Ignoring fetch response containing partitions {} since it does not match " +
-                                        "the requested partitions {}", response.responseData().keySet(),
-                                        request.fetchData().keySet());
-                                return;
-                            }
-
-                            Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
-                            FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions);
-
-                            for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
-                                TopicPartition partition = entry.getKey();
-                                long fetchOffset = request.fetchData().get(partition).offset;
-                                FetchResponse.PartitionData fetchData = entry.getValue();
-                                completedFetches.add(new CompletedFetch(partition, fetchOffset, fetchData, metricAggregator,
-                                        resp.requestHeader().apiVersion()));
+                            try {
+                                FetchResponse response = (FetchResponse) resp.responseBody();
+                                if (session != null && !session.handleResponse(response)) {
+                                    // the partitions of the lost session are fetched again by the next full request
+                                    resp.releaseResponseBuffer();
+                                    return;
+                                }
+                                if (!matchesRequestedPartitions(request, response)) {
+                                    // obviously we expect the broker to always send us valid responses, so this check
+                                    // is mainly for test cases where mock fetch responses must be manually crafted.
+                                    log.warn("Ignoring fetch response containing partitions {} since it does not match " +
+                                            "the requested partitions {}", response.responseData().keySet(),
+                                            request.fetchData().keySet());
+                                    resp.releaseResponseBuffer();
+                                    return;
+                                }
+
+                                Set<TopicPartition> partitions = new HashSet<>(response.responseData().keySet());
+                                if (partitions.isEmpty())
+                                    resp.releaseResponseBuffer();
+                                FetchResponseMetricAggregator metricAggregator = new FetchResponseMetricAggregator(sensors, partitions, resp);
+                                Cluster cluster = metadata.fetch();
+
+                                for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
+                                    TopicPartition partition = entry.getKey();
+                                    long fetchOffset = request.fetchData().get(partition).offset;
+                                    FetchResponse.PartitionData fetchData = entry.getValue();
+                                    boolean fromFollower = !clientRack.isEmpty() && !fetchTarget.equals(cluster.leaderFor(partition));
+                                    CompletedFetch completedFetch = new CompletedFetch(partition, fetchOffset, fetchData,
+                                            metricAggregator, resp.requestHeader().apiVersion(), fromFollower);
+                                    completedFetch.maybeParseAhead();
+                                    completedFetches.add(completedFetch);
+                                }
+
+                                sensors.fetchLatency.record(resp.requestLatencyMs());
+                                sensors.fetchThrottleTimeSensor.record(response.throttleTimeMs());
+                            } finally {
+                                // the partitions are only released once their data is buffered so that it is not fetched twice
+                                inFlightPartitions.removeAll(request.fetchData().keySet());
+                                reservedFetchMemory.addAndGet(-reservedBytes);
                             }
-
-                            sensors.fetchLatency.record(resp.requestLatencyMs());
-                            sensors.fetchThrottleTimeSensor.record(response.throttleTimeMs());
                         }
 
                         @Override
                         public void onFailure(RuntimeException e) {
+                            if (session != null)
+                                session.handleError(e);
+                            inFlightPartitions.removeAll(request.fetchData().keySet());
+                            reservedFetchMemory.addAndGet(-reservedBytes);
                             log.debug("Fetch request to {} for partitions {} failed", fetchTarget, request.fetchData().keySet(), e);
                         }
                     });
@@ -464,41 +558,142 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
      *         the defaultResetPolicy is NONE
      */
     public Map<TopicPartition, List<ConsumerRecord<K, V>>> fetchedRecords() {
+        releaseReturnedBatches();
         Map<TopicPartition, List<ConsumerRecord<K, V>>> drained = new HashMap<>();
         int recordsRemaining = maxPollRecords;
 
-        while (recordsRemaining > 0) {
-            if (nextInLineRecords == null || nextInLineRecords.isDrained()) {
-                CompletedFetch completedFetch = completedFetches.poll();
-                if (completedFetch == null)
-                    break;
+        try {
+            while (recordsRemaining > 0) {
+                if (nextInLineRecords == null || nextInLineRecords.isDrained()) {
+                    CompletedFetch completedFetch = completedFetches.peek();
+                    if (completedFetch == null)
+                        break;
+
+                    try {
+                        nextInLineRecords = parseCompletedFetch(completedFetch, false);
+                    } catch (KafkaException e) {
+                        // if records have been drained already, keep the fetch to raise its error from the next call
+                        if (drained.isEmpty())
+                            pollCompletedFetch(null);
+                        throw e;
+                    }
+                    pollCompletedFetch(nextInLineRecords);
+                } else {
+                    TopicPartition partition = nextInLineRecords.partition;
+                    List<ConsumerRecord<K, V>> records = drainRecords(nextInLineRecords, recordsRemaining);
+                    if (!records.isEmpty()) {
+                        List<ConsumerRecord<K, V>> currentRecords = drained.get(partition);
+                        if (currentRecords == null) {
+                            drained.put(partition, records);
+                        } else {
+                            // this case shouldn't usually happen because we only send one fetch at a time per partition,
+                            // but it might conceivably happen in some rare cases (such as partition leader changes).
+                            // we have to copy to a new list because the old one may be immutable
+                            List<ConsumerRecord<K, V>> newRecords = new ArrayList<>(records.size() + currentRecords.size());
+                            newRecords.addAll(currentRecords);
+                            newRecords.addAll(records);
+                            drained.put(partition, newRecords);
+                        }
+                        recordsRemaining -= records.size();
+                    }
+                }
+            }
+        } catch (KafkaException e) {
+            // the records which have been drained already advanced the positions, so they must be returned. The
+            // failure is raised again by the next call
+            if (drained.isEmpty())
+                throw e;
+        }
 
-                nextInLineRecords = parseCompletedFetch(completedFetch);
-            } else {
-                TopicPartition partition = nextInLineRecords.partition;
-                List<ConsumerRecord<K, V>> records = drainRecords(nextInLineRecords, recordsRemaining);
-                if (!records.isEmpty()) {
-                    List<ConsumerRecord<K, V>> currentRecords = drained.get(partition);
-                    if (currentRecords == null) {
-                        drained.put(partition, records);
-                    } else {
-                        // this case shouldn't usually happen because we only send one fetch at a time per partition,
-                        // but it might conceivably happen in some rare cases (such as partition leader changes).
-                        // we have to copy to a new list because the old one may be immutable
-                        List<ConsumerRecord<K, V>> newRecords = new ArrayList<>(records.size() + currentRecords.size());
-                        newRecords.addAll(currentRecords);
-                        newRecords.addAll(records);
-                        drained.put(partition, newRecords);
+        return drained;
+    }
+
+    /**
+     * Return the fetched record batches without decoding them, empty the record buffer and update the consumed
+     * position. The batches are views of the buffers of the fetch responses, which stay valid until the next call to
+     * this method or {@link #fetchedRecords()}. The first batch of a partition may contain records before the consumed
+     * position if it is compressed, and at most one fetch is returned per partition.
+     *
+     * @return The fetched record batches per partition
+     * @throws OffsetOutOfRangeException If there is OffsetOutOfRange error in fetchResponse and
+     *         the defaultResetPolicy is NONE
+     */
+    public Map<TopicPartition, MemoryRecords> fetchedBatches() {
+        releaseReturnedBatches();
+        Map<TopicPartition, MemoryRecords> drained = new HashMap<>();
+
+        try {
+            while (true) {
+                if (nextInLineRecords == null || nextInLineRecords.isDrained()) {
+                    CompletedFetch completedFetch = completedFetches.peek();
+                    if (completedFetch == null)
+                        break;
+
+                    try {
+                        nextInLineRecords = parseCompletedFetch(completedFetch, true);
+                    } catch (KafkaException e) {
+                        // if batches have been drained already, keep the fetch to raise its error from the next call
+                        if (drained.isEmpty())
+                            pollCompletedFetch(null);
+                        throw e;
                     }
-                    recordsRemaining -= records.size();
+                    pollCompletedFetch(nextInLineRecords);
+                } else {
+                    TopicPartition partition = nextInLineRecords.partition;
+                    // the views of two fetches cannot be joined without copying them, so the second one is kept
+                    if (drained.containsKey(partition))
+                        break;
+                    MemoryRecords batches = drainBatches(nextInLineRecords);
+                    if (batches.sizeInBytes() > 0)
+                        drained.put(partition, batches);
                 }
             }
+        } catch (KafkaException e) {
+            // the batches which have been drained already advanced the positions, so they must be returned. The
+            // failure is raised again by the next call
+            if (drained.isEmpty())
+                throw e;
         }
 
         return drained;
     }
 
-    private List<ConsumerRecord<K, V>> drainRecords(PartitionRecords<K, V> partitionRecords, int maxRecords) {
+    private MemoryRecords drainBatches(PartitionRecords partitionRecords) {
+        if (!subscriptions.isAssigned(partitionRecords.partition)) {
+            log.debug("Not returning fetched batches for partition {} since it is no longer assigned", partitionRecords.partition);
+        } else if (!subscriptions.isFetchable(partitionRecords.partition)) {
+            log.debug("Not returning fetched batches for assigned partition {} since it is no longer fetchable", partitionRecords.partition);
+        } else if (partitionRecords.nextFetchOffset == subscriptions.position(partitionRecords.partition)) {
+            returnedBatches.add(partitionRecords);
+            MemoryRecords batches = partitionRecords.drainBatches();
+            if (batches.sizeInBytes() > 0) {
+                log.trace("Returning fetched batches for assigned partition {} and update position to {}",
+                        partitionRecords.partition, partitionRecords.nextFetchOffset);
+                subscriptions.position(partitionRecords.partition, partitionRecords.nextFetchOffset);
+            }
+
+            Long partitionLag = subscriptions.partitionLag(partitionRecords.partition);
+            if (partitionLag != null)
+                this.sensors.recordPartitionLag(partitionRecords.partition, partitionLag);
+
+            return batches;
+        } else {
+            log.debug("Ignoring fetched batches for {} at offset {} since the current position is {}",
+                    partitionRecords.partition, partitionRecords.nextFetchOffset,
+                    subscriptions.position(partitionRecords.partition));
+        }
+
+        partitionRecords.drain();
+        return MemoryRecords.EMPTY;
+    }
+
+    private void releaseReturnedBatches() {
+        for (PartitionRecords partitionRecords : returnedBatches)
+            partitionRecords.recordDrained();
+        returnedBatches.clear();
+    }
+
+    private List<ConsumerRecord<K, V>> drainRecords(PartitionRecords partitionRecords, int maxRecords) {
         if (!subscriptions.isAssigned(partitionRecords.partition)) {
             // this can happen when a rebalance happened before fetched records are returned to the consumer's poll call
             log.debug("Not returning fetched records for partition {} since it is no longer assigned", partitionRecords.partition);
@@ -508,10 +703,10 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
             if (!subscriptions.isFetchable(partitionRecords.partition)) {
                 // this can happen when a partition is paused before fetched records are returned to the consumer's poll call
                 log.debug("Not returning fetched records for assigned partition {} since it is no longer fetchable", partitionRecords.partition);
-            } else if (partitionRecords.fetchOffset == position) {
+            } else if (partitionRecords.nextFetchOffset == position) {
                 List<ConsumerRecord<K, V>> partRecords = partitionRecords.drainRecords(maxRecords);
                 if (!partRecords.isEmpty()) {
-                    long nextOffset = partRecords.get(partRecords.size() - 1).offset() + 1;
+                    long nextOffset = partitionRecords.nextFetchOffset;
                     log.trace("Returning fetched records at offset {} for assigned partition {} and update " +
                             "position to {}", position, partitionRecords.partition, nextOffset);
 
@@ -527,7 +722,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
                 // these records aren't next in line based on the last consumed position, ignore them
                 // they must be from an obsolete request
                 log.debug("Ignoring fetched records for {} at offset {} since the current position is {}",
-                        partitionRecords.partition, partitionRecords.fetchOffset, position);
+                        partitionRecords.partition, partitionRecords.nextFetchOffset, position);
             }
         }
 
@@ -688,160 +883,306 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
             future.complete(timestampOffsetMap);
     }
 
-    private List<TopicPartition> fetchablePartitions() {
-        Set<TopicPartition> exclude = new HashSet<>();
-        List<TopicPartition> fetchable = subscriptions.fetchablePartitions();
-        if (nextInLineRecords != null && !nextInLineRecords.isDrained()) {
-            exclude.add(nextInLineRecords.partition);
-        }
+    /**
+     * Get the offsets to fetch the fetchable partitions from. A partition is not fetched while a fetch for it is in
+     * flight. If it has buffered fetch data, it is only fetched if the fetch pipeline depth allows another fetch, and
+     * then from the end of the buffered data.
+     */
+    private Map<TopicPartition, Long> fetchablePartitions() {
+        // the buffered fetches of each partition, in the order in which they are consumed
+        Map<TopicPartition, List<CompletedFetch>> bufferedFetches = new HashMap<>();
+        if (nextInLineRecords != null && !nextInLineRecords.isDrained())
+            bufferedFetches.put(nextInLineRecords.partition, new ArrayList<CompletedFetch>());
         for (CompletedFetch completedFetch : completedFetches) {
-            exclude.add(completedFetch.partition);
+            List<CompletedFetch> fetches = bufferedFetches.get(completedFetch.partition);
+            if (fetches == null) {
+                fetches = new ArrayList<>();
+                bufferedFetches.put(completedFetch.partition, fetches);
+            }
+            fetches.add(completedFetch);
+        }
+
+        Map<TopicPartition, Long> fetchable = new LinkedHashMap<>();
+        for (TopicPartition partition : subscriptions.fetchablePartitions()) {
+            if (inFlightPartitions.contains(partition))
+                continue;
+            long position = subscriptions.position(partition);
+            List<CompletedFetch> fetches = bufferedFetches.get(partition);
+            if (fetches == null) {
+                fetchable.put(partition, position);
+            } else {
+                Long fetchOffset = pipelinedFetchOffset(partition, position, fetches);
+                if (fetchOffset != null)
+                    fetchable.put(partition, fetchOffset);
+            }
         }
-        fetchable.removeAll(exclude);
         return fetchable;
     }
 
+    /**
+     * Get the offset following the buffered fetches of a partition, or null if the partition cannot be fetched from
+     * there because the pipeline depth is used up or the buffered fetches are not contiguous from the position.
+     * Non-contiguous fetches are discarded as they are consumed, after which the partition is fetched again.
+     */
+    private Long pipelinedFetchOffset(TopicPartition partition, long position, List<CompletedFetch> fetches) {
+        boolean hasNextInLine = nextInLineRecords != null && !nextInLineRecords.isDrained() &&
+                nextInLineRecords.partition.equals(partition);
+        int buffered = fetches.size() + (hasNextInLine ? 1 : 0);
+        if (buffered >= pipelineDepth)
+            return null;
+
+        long nextOffset = hasNextInLine ? nextInLineRecords.completedFetch.fetchEndOffset() : position;
+        if (nextOffset < 0)
+            return null;
+        for (CompletedFetch completedFetch : fetches) {
+            if (completedFetch.fetchedOffset != nextOffset)
+                return null;
+            nextOffset = completedFetch.fetchEndOffset();
+            if (nextOffset < 0)
+                return null;
+        }
+        return nextOffset;
+    }
+
+    private boolean hasSessionRequestInFlight(Node node) {
+        // the response may have been received without its callback having been invoked yet
+        FetchSessionHandler session = sessionHandlers.get(node.id());
+        return session != null && session.hasRequestInFlight();
+    }
+
+    /**
+     * Get the partitions which have buffered fetch data
+     */
+    private Set<TopicPartition> bufferedPartitions() {
+        Set<TopicPartition> partitions = new HashSet<>();
+        if (nextInLineRecords != null && !nextInLineRecords.isDrained())
+            partitions.add(nextInLineRecords.partition);
+        for (CompletedFetch completedFetch : completedFetches)
+            partitions.add(completedFetch.partition);
+        return partitions;
+    }
+
     /**
      * Create fetch requests for all nodes for which we have assigned partitions
-     * that have no existing requests in flight.
+     * that have fewer requests in flight than the fetch pipeline depth. The max bytes of the requests are
+     * bounded so that their responses fit into the memory of the fetch buffer pool which is left.
      */
     private Map<Node, FetchRequest.Builder> createFetchRequests() {
         // create the fetch info
         Cluster cluster = metadata.fetch();
         Map<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> fetchable = new LinkedHashMap<>();
-        for (TopicPartition partition : fetchablePartitions()) {
-            Node node = cluster.leaderFor(partition);
+        // the nodes which are sent fetches for partitions they are a follower of
+        Set<Node> followers = new HashSet<>();
+        for (Map.Entry<TopicPartition, Long> partitionEntry : fetchablePartitions().entrySet()) {
+            TopicPartition partition = partitionEntry.getKey();
+            Node leader = cluster.leaderFor(partition);
+            Node node = selectReadReplica(cluster, partition, leader);
             if (node == null) {
                 metadata.requestUpdate();
-            } else if (this.client.pendingRequestCount(node) == 0) {
-                // if there is a leader and no in-flight requests, issue a new fetch
+            } else if (this.client.pendingRequestCount(node) < this.pipelineDepth && !hasSessionRequestInFlight(node)) {
+                // if there is a leader and the pipeline to it is not full, issue a new fetch
                 LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetch = fetchable.get(node);
                 if (fetch == null) {
                     fetch = new LinkedHashMap<>();
                     fetchable.put(node, fetch);
                 }
 
-                long position = this.subscriptions.position(partition);
-                fetch.put(partition, new FetchRequest.PartitionData(position, this.fetchSize));
-                log.trace("Added fetch request for partition {} at offset {} to node {}", partition, position, node);
+                if (!node.equals(leader))
+                    followers.add(node);
+                long offset = partitionEntry.getValue();
+                fetch.put(partition, new FetchRequest.PartitionData(offset, this.fetchSize));
+                log.trace("Added fetch request for partition {} at offset {} to node {}", partition, offset, node);
             } else {
-                log.trace("Skipping fetch for partition {} because there is an in-flight request to {}", partition, node);
+                log.trace("Skipping fetch for partition {} because the pipeline of in-flight requests to {} is full", partition, node);
             }
         }
 
-        // create the fetches
         Map<Node, FetchRequest.Builder> requests = new HashMap<>();
+        if (fetchable.isEmpty())
+            return requests;
+
+        long availableMemory = fetchBufferPool.availableMemory() - reservedFetchMemory.get();
+        if (availableMemory <= 0) {
+            log.trace("Skipping fetches to {} because the fetch buffer memory is used up", fetchable.keySet());
+            sensors.fetchBufferExhausted.record();
+            return requests;
+        }
+        int maxBytes = (int) Math.min(this.maxBytes, Math.max(availableMemory / fetchable.size(), 1));
+
+        // the partitions with buffered data are kept in the fetch sessions, so that they are not added back to them
+        // with every fetch once the data is consumed
+        Set<TopicPartition> bufferedPartitions = pipelineDepth == 1 ? bufferedPartitions() : Collections.<TopicPartition>emptySet();
+
+        // create the fetches
         for (Map.Entry<Node, LinkedHashMap<TopicPartition, FetchRequest.PartitionData>> entry : fetchable.entrySet()) {
             Node node = entry.getKey();
-            FetchRequest.Builder fetch = FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes, entry.getValue()).
-                    setMaxBytes(this.maxBytes);
+            // brokers only serve consumers from a follower replica if they ask for it
+            FetchRequest.Builder fetch = followers.contains(node) ?
+                    FetchRequest.Builder.forFollowerConsumer(this.maxWaitMs, this.minBytes, entry.getValue()) :
+                    FetchRequest.Builder.forConsumer(this.maxWaitMs, this.minBytes, entry.getValue());
+            fetch.setMaxBytes(maxBytes);
+            // the requests of a fetch session must be sent one at a time, so pipelined fetches do not use sessions
+            if (pipelineDepth == 1) {
+                FetchSessionHandler session = sessionHandlers.get(node.id());
+                if (session == null) {
+                    session = new FetchSessionHandler(node.id());
+                    sessionHandlers.put(node.id(), session);
+                }
+                session.prepare(fetch, bufferedPartitions);
+            }
             requests.put(node, fetch);
         }
         return requests;
     }
 
     /**
-     * The callback for fetch completion
+     * Select the replica to fetch the partition from. If the consumer has a rack, this is an in-sync replica in the
+     * same rack, unless the leader is in the rack or a follower of the partition returned an error since the metadata
+     * was last updated. Otherwise this is the leader.
      */
-    private PartitionRecords<K, V> parseCompletedFetch(CompletedFetch completedFetch) {
+    private Node selectReadReplica(Cluster cluster, TopicPartition partition, Node leader) {
+        if (clientRack.isEmpty() || leader == null || clientRack.equals(leader.rack()))
+            return leader;
+
+        Integer leaderOnlyVersion = leaderOnlyPartitions.get(partition);
+        if (leaderOnlyVersion != null) {
+            if (leaderOnlyVersion == metadata.version())
+                return leader;
+            leaderOnlyPartitions.remove(partition);
+        }
+
+        PartitionInfo partitionInfo = cluster.partition(partition);
+        if (partitionInfo == null)
+            return leader;
+        List<Node> candidates = new ArrayList<>();
+        for (Node replica : partitionInfo.inSyncReplicas()) {
+            if (clientRack.equals(replica.rack()) && !client.connectionFailed(replica))
+                candidates.add(replica);
+        }
+        if (candidates.isEmpty())
+            return leader;
+        // spread the partitions over the in-sync replicas of the rack
+        return candidates.get(partition.partition() % candidates.size());
+    }
+
+    /**
+     * The callback for fetch completion. The records of the fetch are only decompressed and deserialized as they are
+     * drained from the returned {@link PartitionRecords}.
+     */
+    private PartitionRecords parseCompletedFetch(CompletedFetch completedFetch, boolean batches) {
         TopicPartition tp = completedFetch.partition;
         FetchResponse.PartitionData partition = completedFetch.partitionData;
         long fetchOffset = completedFetch.fetchedOffset;
-        int bytes = 0;
-        int recordsCount = 0;
-        PartitionRecords<K, V> parsedRecords = null;
+        PartitionRecords parsedRecords = null;
         Errors error = partition.error;
 
-        try {
-            if (!subscriptions.isFetchable(tp)) {
-                // this can happen when a rebalance happened or a partition consumption paused
-                // while fetch is still in-flight
-                log.debug("Ignoring fetched records for partition {} since it is no longer fetchable", tp);
-            } else if (error == Errors.NONE) {
-                // we are interested in this fetch only if the beginning offset matches the
-                // current consumed position
-                Long position = subscriptions.position(tp);
-                if (position == null || position != fetchOffset) {
-                    log.debug("Discarding stale fetch response for partition {} since its offset {} does not match " +
-                            "the expected offset {}", tp, fetchOffset, position);
-                    return null;
-                }
+        if (!subscriptions.isFetchable(tp)) {
+            // this can happen when a rebalance happened or a partition consumption paused
+            // while fetch is still in-flight
+            log.debug("Ignoring fetched records for partition {} since it is no longer fetchable", tp);
+        } else if (error == Errors.NONE) {
+            // we are interested in this fetch only if the beginning offset matches the
+            // current consumed position
+            Long position = subscriptions.position(tp);
+            if (position == null || position != fetchOffset) {
+                log.debug("Discarding stale fetch response for partition {} since its offset {} does not match " +
+                        "the expected offset {}", tp, fetchOffset, position);
+                return null;
+            }
 
-                List<ConsumerRecord<K, V>> parsed = new ArrayList<>();
-                boolean skippedRecords = false;
-                for (LogEntry logEntry : partition.records.deepEntries()) {
-                    // Skip the messages earlier than current position.
-                    if (logEntry.offset() >= position) {
-                        parsed.add(parseRecord(tp, logEntry));
-                        bytes += logEntry.sizeInBytes();
-                    } else
-                        skippedRecords = true;
+            Iterator<LogEntry> entries = null;
+            ParsedRecords parsedAhead = null;
+            boolean hasEntries;
+            if (batches) {
+                // the batches are returned without being decoded, so the records parsed ahead are not needed
+                completedFetch.cancelParseAhead();
+                hasEntries = partition.records.shallowEntries().iterator().hasNext();
+            } else if ((parsedAhead = completedFetch.parsedAhead()) != null) {
+                hasEntries = parsedAhead.hasEntries || parsedAhead.failure != null;
+            } else {
+                entries = partition.records.deepEntries(decompressionBufferSupplier).iterator();
+                hasEntries = entries.hasNext();
+            }
+            if (!hasEntries && partition.records.sizeInBytes() > 0) {
+                if (completedFetch.responseVersion < 3) {
+                    // Implement the pre KIP-74 behavior of throwing a RecordTooLargeException.
+                    Map<TopicPartition, Long> recordTooLargePartitions = Collections.singletonMap(tp, fetchOffset);
+                    throw new RecordTooLargeException("There are some messages at [Partition=Offset]: " +
+                            recordTooLargePartitions + " whose size is larger than the fetch size " + this.fetchSize +
+                            " and hence cannot be returned. Please considering upgrading your broker to 0.10.1.0 or " +
+                            "newer to avoid this issue. Alternately, increase the fetch size on the client (using " +
+                            ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG + ")",
+                            recordTooLargePartitions);
+                } else {
+                    // This should not happen with brokers that support FetchRequest/Response V3 or higher (i.e. KIP-74)
+                    throw new KafkaException("Failed to make progress reading messages at " + tp + "=" +
+                        fetchOffset + ". Received a non-empty fetch response from the server, but no " +
+                        "complete records were found.");
                 }
+            }
 
-                recordsCount = parsed.size();
-
-                log.trace("Adding fetched record for partition {} with offset {} to buffered record list", tp, position);
-                parsedRecords = new PartitionRecords<>(fetchOffset, tp, parsed);
-
-                if (parsed.isEmpty() && !skippedRecords && (partition.records.sizeInBytes() > 0)) {
-                    if (completedFetch.responseVersion < 3) {
-                        // Implement the pre KIP-74 behavior of throwing a RecordTooLargeException.
-                        Map<TopicPartition, Long> recordTooLargePartitions = Collections.singletonMap(tp, fetchOffset);
-                        throw new RecordTooLargeException("There are some messages at [Partition=Offset]: " +
-                                recordTooLargePartitions + " whose size is larger than the fetch size " + this.fetchSize +
-                                " and hence cannot be returned. Please considering upgrading your broker to 0.10.1.0 or " +
-                                "newer to avoid this issue. Alternately, increase the fetch size on the client (using " +
-                                ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG + ")",
-                                recordTooLargePartitions);
-                    } else {
-                        // This should not happen with brokers that support FetchRequest/Response V3 or higher (i.e. KIP-74)
-                        throw new KafkaException("Failed to make progress reading messages at " + tp + "=" +
-                            fetchOffset + ". Received a non-empty fetch response from the server, but no " +
-                            "complete records were found.");
-                    }
-                }
+            log.trace("Adding fetched records for partition {} with offset {} to buffered record list", tp, position);
+            parsedRecords = new PartitionRecords(completedFetch, entries, parsedAhead);
 
-                if (partition.highWatermark >= 0) {
-                    log.trace("Received {} records in fetch response for partition {} with offset {}", parsed.size(), tp, position);
-                    subscriptions.updateHighWatermark(tp, partition.highWatermark);
-                }
-            } else if (error == Errors.NOT_LEADER_FOR_PARTITION) {
-                log.debug("Error in fetch for partition {}: {}", tp, error.exceptionName());
-                this.metadata.requestUpdate();
-            } else if (error == Errors.UNKNOWN_TOPIC_OR_PARTITION) {
-                log.warn("Received unknown topic or partition error in fetch for partition {}. The topic/partition " +
-                        "may not exist or the user may not have Describe access to it", tp);
-                this.metadata.requestUpdate();
-            } else if (error == Errors.OFFSET_OUT_OF_RANGE) {
-                if (fetchOffset != subscriptions.position(tp)) {
-                    log.debug("Discarding stale fetch response for partition {} since the fetched offset {}" +
-                            "does not match the current offset {}", tp, fetchOffset, subscriptions.position(tp));
-                } else if (subscriptions.hasDefaultOffsetResetPolicy()) {
-                    log.info("Fetch offset {} is out of range for partition {}, resetting offset", fetchOffset, tp);
-                    subscriptions.needOffsetReset(tp);
-                } else {
-                    throw new OffsetOutOfRangeException(Collections.singletonMap(tp, fetchOffset));
-                }
-            } else if (error == Errors.TOPIC_AUTHORIZATION_FAILED) {
-                log.warn("Not authorized to read from topic {}.", tp.topic());
-                throw new TopicAuthorizationException(Collections.singleton(tp.topic()));
-            } else if (error == Errors.UNKNOWN) {
-                log.warn("Unknown error fetching data for topic-partition {}", tp);
+            if (partition.highWatermark >= 0) {
+                log.trace("Received {} bytes in fetch response for partition {} with offset {}",
+                        partition.records.sizeInBytes(), tp, position);
+                subscriptions.updateHighWatermark(tp, partition.highWatermark);
+            }
+        } else if (completedFetch.fromFollower) {
+            // the follower may not have caught up with the fetch offset yet, or may not have the partition any more,
+            // so the partition is fetched from its leader until the metadata is updated
+            log.debug("Error in fetch for partition {} from a follower: {}. Fetching from the leader instead",
+                    tp, error.exceptionName());
+            leaderOnlyPartitions.put(tp, metadata.version());
+        } else if (error == Errors.NOT_LEADER_FOR_PARTITION) {
+            log.debug("Error in fetch for partition {}: {}", tp, error.exceptionName());
+            this.metadata.requestUpdate();
+        } else if (error == Errors.UNKNOWN_TOPIC_OR_PARTITION) {
+            log.warn("Received unknown topic or partition error in fetch for partition {}. The topic/partition " +
+                    "may not exist or the user may not have Describe access to it", tp);
+            this.metadata.requestUpdate();
+        } else if (error == Errors.OFFSET_OUT_OF_RANGE) {
+            if (fetchOffset != subscriptions.position(tp)) {
+                log.debug("Discarding stale fetch response for partition {} since the fetched offset {}" +
+                        "does not match the current offset {}", tp, fetchOffset, subscriptions.position(tp));
+            } else if (subscriptions.hasDefaultOffsetResetPolicy()) {
+                log.info("Fetch offset {} is out of range for partition {}, resetting offset", fetchOffset, tp);
+                subscriptions.needOffsetReset(tp);
             } else {
-                throw new IllegalStateException("Unexpected error code " + error.code() + " while fetching data");
+                throw new OffsetOutOfRangeException(Collections.singletonMap(tp, fetchOffset));
             }
-        } finally {
-            completedFetch.metricAggregator.record(tp, bytes, recordsCount);
+        } else if (error == Errors.TOPIC_AUTHORIZATION_FAILED) {
+            log.warn("Not authorized to read from topic {}.", tp.topic());
+            throw new TopicAuthorizationException(Collections.singleton(tp.topic()));
+        } else if (error == Errors.UNKNOWN) {
+            log.warn("Unknown error fetching data for topic-partition {}", tp);
+        } else {
+            throw new IllegalStateException("Unexpected error code " + error.code() + " while fetching data");
         }
 
-        // we move the partition to the end if we received some bytes or if there was an error. This way, it's more
-        // likely that partitions for the same topic can remain together (allowing for more efficient serialization).
-        if (bytes > 0 || error != Errors.NONE)
+        // we move the partition to the end if there was an error, or once its records have been drained if we received
+        // some. This way, it's more likely that partitions for the same topic can remain together (allowing for more
+        // efficient serialization).
+        if (error != Errors.NONE)
             subscriptions.movePartitionToEnd(tp);
 
         return parsedRecords;
     }
 
+    /**
+     * Remove the fetch at the head of the queue once it has been parsed. A fetch whose parsing failed may be kept in the
+     * queue and parsed again, so the metrics of a fetch without records are recorded here rather than while parsing it.
+     * The metrics of fetched records are recorded once they have all been drained.
+     */
+    private void pollCompletedFetch(PartitionRecords parsedRecords) {
+        CompletedFetch completedFetch = completedFetches.poll();
+        if (parsedRecords == null) {
+            completedFetch.cancelParseAhead();
+            completedFetch.metricAggregator.record(completedFetch.partition, 0, 0);
+        }
+    }
+
     /**
      * Parse the record entry, deserializing the key / value fields if necessary
      */
@@ -862,84 +1203,353 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
             long timestamp = record.timestamp();
             TimestampType timestampType = record.timestampType();
             ByteBuffer keyBytes = record.key();
-            byte[] keyByteArray = keyBytes == null ? null : Utils.toArray(keyBytes);
-            K key = keyBytes == null ? null : this.keyDeserializer.deserialize(partition.topic(), keyByteArray);
+            int keySize = keyBytes == null ? ConsumerRecord.NULL_SIZE : keyBytes.remaining();
+            K key = deserialize(this.keyDeserializer, partition.topic(), keyBytes);
             ByteBuffer valueBytes = record.value();
-            byte[] valueByteArray = valueBytes == null ? null : Utils.toArray(valueBytes);
-            V value = valueBytes == null ? null : this.valueDeserializer.deserialize(partition.topic(), valueByteArray);
+            int valueSize = valueBytes == null ? ConsumerRecord.NULL_SIZE : valueBytes.remaining();
+            V value = deserialize(this.valueDeserializer, partition.topic(), valueBytes);
 
             return new ConsumerRecord<>(partition.topic(), partition.partition(), offset,
                                         timestamp, timestampType, record.checksum(),
-                                        keyByteArray == null ? ConsumerRecord.NULL_SIZE : keyByteArray.length,
-                                        valueByteArray == null ? ConsumerRecord.NULL_SIZE : valueByteArray.length,
-                                        key, value);
+                                        keySize, valueSize, key, value);
         } catch (RuntimeException e) {
             throw new SerializationException("Error deserializing key/value for partition " + partition +
                     " at offset " + logEntry.offset(), e);
         }
     }
 
+    /**
+     * Deserialize the key or value of a record, without copying it to a byte array if the deserializer supports it
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T deserialize(Deserializer<T> deserializer, String topic, ByteBuffer data) {
+        if (data == null)
+            return null;
+        if (deserializer instanceof BufferDeserializer)
+            return ((BufferDeserializer<T>) deserializer).deserialize(topic, data);
+        return deserializer.deserialize(topic, Utils.toArray(data));
+    }
+
     @Override
     public void onAssignment(Set<TopicPartition> assignment) {
         sensors.updatePartitionLagSensors(assignment);
     }
 
-    private static class PartitionRecords<K, V> {
-        private long fetchOffset;
-        private TopicPartition partition;
-        private List<ConsumerRecord<K, V>> records;
-        private int position = 0;
-
-        private PartitionRecords(long fetchOffset, TopicPartition partition, List<ConsumerRecord<K, V>> records) {
-            this.fetchOffset = fetchOffset;
-            this.partition = partition;
-            this.records = records;
+    /**
+     * The records of a completed fetch for a partition. The log entries are decompressed and deserialized as the
+     * records are drained, so that only the records returned by a poll are held in memory as deserialized objects.
+     * They may also be drained as undecoded batches.
+     */
+    private class PartitionRecords {
+        private final TopicPartition partition;
+        private final CompletedFetch completedFetch;
+        private Iterator<LogEntry> entries;
+        private ParsedRecords parsedAhead;
+        private final FetchResponseMetricAggregator metricAggregator;
+        private int parsedAheadIndex = 0;
+        private long nextFetchOffset;
+        private KafkaException failure;
+        private int bytesRead = 0;
+        private int recordsRead = 0;
+        private boolean isDrained = false;
+
+        private PartitionRecords(CompletedFetch completedFetch, Iterator<LogEntry> entries, ParsedRecords parsedAhead) {
+            this.nextFetchOffset = completedFetch.fetchedOffset;
+            this.partition = completedFetch.partition;
+            this.completedFetch = completedFetch;
+            this.entries = entries;
+            this.parsedAhead = parsedAhead;
+            this.metricAggregator = completedFetch.metricAggregator;
+            if (parsedAhead != null)
+                completedFetch.parseAheadFrom(parsedAhead);
         }
 
         private boolean isDrained() {
-            return records == null;
+            return isDrained;
         }
 
         private void drain() {
-            this.records = null;
+            if (!isDrained) {
+                isDrained = true;
+                // the buffer may only be released once the records following those parsed ahead are no longer parsed
+                completedFetch.cancelParseAhead();
+                recordDrained();
+                // we move the partition to the end if we received some bytes. This way, it's more likely that
+                // partitions for the same topic can remain together (allowing for more efficient serialization).
+                if (bytesRead > 0)
+                    subscriptions.movePartitionToEnd(partition);
+            }
+        }
+
+        private void recordDrained() {
+            metricAggregator.record(partition, bytesRead, recordsRead);
+        }
+
+        /**
+         * Return the complete batches from the one containing the next fetch offset as a view of the fetched buffer.
+         * The records are drained, but their metrics are only recorded and the buffer released once the caller is
+         * done with the view.
+         */
+        private MemoryRecords drainBatches() {
+            if (isDrained)
+                return MemoryRecords.EMPTY;
+            isDrained = true;
+
+            // the fetched records are always read into memory by the consumer
+            MemoryRecords records = (MemoryRecords) completedFetch.partitionData.records;
+            int start = 0;
+            int end = 0;
+            long lastOffset = -1;
+            for (LogEntry entry : records.shallowEntries()) {
+                if (entry.offset() < nextFetchOffset) {
+                    start += entry.sizeInBytes();
+                    end = start;
+                } else if (checkCrcs && !entry.record().isValid()) {
+                    // the batches before the invalid one are returned, and the failure is raised once the position
+                    // is at the invalid batch
+                    if (lastOffset < 0)
+                        throw new KafkaException("Record batch for partition " + partition + " at offset " +
+                                entry.offset() + " is invalid");
+                    break;
+                } else {
+                    // the records are not decoded, so each batch counts as one record in the fetch metrics
+                    lastOffset = entry.offset();
+                    recordsRead++;
+                    end += entry.sizeInBytes();
+                }
+            }
+
+            if (lastOffset < 0)
+                return MemoryRecords.EMPTY;
+            ByteBuffer buffer = records.buffer();
+            buffer.limit(end);
+            buffer.position(start);
+            bytesRead = end - start;
+            nextFetchOffset = lastOffset + 1;
+            if (bytesRead > 0)
+                subscriptions.movePartitionToEnd(partition);
+            return MemoryRecords.readableRecords(buffer.slice());
         }
 
+        /**
+         * Parse and return up to n records, unless they have been parsed ahead. If an entry cannot be parsed, the
+         * records parsed before it are returned and the failure is thrown from every call after that until the
+         * records are drained because the position was changed.
+         */
         private List<ConsumerRecord<K, V>> drainRecords(int n) {
-            if (isDrained() || position >= records.size()) {
-                drain();
+            if (isDrained)
                 return Collections.emptyList();
+            if (failure != null)
+                throw failure;
+
+            List<ConsumerRecord<K, V>> records = new ArrayList<>(Math.min(n, 64));
+            try {
+                while (records.size() < n) {
+                    ConsumerRecord<K, V> record = nextRecord();
+                    if (record == null)
+                        break;
+                    records.add(record);
+                    recordsRead++;
+                    nextFetchOffset = record.offset() + 1;
+                }
+            } catch (KafkaException e) {
+                failure = e;
+                if (records.isEmpty())
+                    throw e;
             }
 
-            // using a sublist avoids a potentially expensive list copy (depending on the size of the records
-            // and the maximum we can return from poll). The cost is that we cannot mutate the returned sublist.
-            int limit = Math.min(records.size(), position + n);
-            List<ConsumerRecord<K, V>> res = Collections.unmodifiableList(records.subList(position, limit));
+            if (records.isEmpty())
+                drain();
+            return records;
+        }
+
+        private ConsumerRecord<K, V> nextRecord() {
+            while (parsedAhead != null) {
+                if (parsedAheadIndex < parsedAhead.records.size()) {
+                    bytesRead += parsedAhead.entrySizes.get(parsedAheadIndex);
+                    return parsedAhead.records.get(parsedAheadIndex++);
+                }
+                if (parsedAhead.failure != null)
+                    throw parsedAhead.failure;
+                if (parsedAhead.remaining == null)
+                    return null;
+
+                // the following records have been parsed ahead while these were drained, unless the executor was
+                // shut down, in which case the remaining entries are parsed as they are drained
+                entries = parsedAhead.remaining;
+                parsedAhead = completedFetch.parsedAhead();
+                parsedAheadIndex = 0;
+                if (parsedAhead != null) {
+                    entries = null;
+                    completedFetch.parseAheadFrom(parsedAhead);
+                }
+            }
 
-            position = limit;
-            if (position < records.size())
-                fetchOffset = records.get(position).offset();
+            LogEntry entry = nextEntry();
+            if (entry == null)
+                return null;
+            ConsumerRecord<K, V> record = parseRecord(partition, entry);
+            bytesRead += entry.sizeInBytes();
+            return record;
+        }
 
-            return res;
+        private LogEntry nextEntry() {
+            // the entries are only iterated once the records are drained as deserialized records
+            if (entries == null)
+                entries = completedFetch.partitionData.records.deepEntries(decompressionBufferSupplier).iterator();
+            while (entries.hasNext()) {
+                LogEntry entry = entries.next();
+                // Skip the messages earlier than current position.
+                if (entry.offset() >= nextFetchOffset)
+                    return entry;
+            }
+            return null;
         }
     }
 
-    private static class CompletedFetch {
+    /**
+     * The records of a completed fetch which have been parsed ahead by the parse executor. At most max.poll.records
+     * records are parsed at a time, so that a large fetch is not held in memory as deserialized records; the records
+     * after them are parsed by the executor from the remaining entries while they are drained. If an entry could not
+     * be parsed, the failure is raised once the records parsed before it have been drained.
+     */
+    private class ParsedRecords {
+        private final List<ConsumerRecord<K, V>> records = new ArrayList<>();
+        private final List<Integer> entrySizes = new ArrayList<>();
+        private boolean hasEntries = false;
+        // the entries following the parsed records, or null if all the entries have been parsed
+        private Iterator<LogEntry> remaining;
+        private KafkaException failure;
+    }
+
+    private class CompletedFetch {
         private final TopicPartition partition;
         private final long fetchedOffset;
         private final FetchResponse.PartitionData partitionData;
         private final FetchResponseMetricAggregator metricAggregator;
         private final short responseVersion;
+        private final boolean fromFollower;
+        private long fetchEndOffset = -1;
+        private Future<ParsedRecords> parseAhead;
+        private volatile boolean parseCancelled = false;
 
         private CompletedFetch(TopicPartition partition,
                                long fetchedOffset,
                                FetchResponse.PartitionData partitionData,
                                FetchResponseMetricAggregator metricAggregator,
-                               short responseVersion) {
+                               short responseVersion,
+                               boolean fromFollower) {
             this.partition = partition;
             this.fetchedOffset = fetchedOffset;
             this.partitionData = partitionData;
             this.metricAggregator = metricAggregator;
             this.responseVersion = responseVersion;
+            this.fromFollower = fromFollower;
+        }
+
+        /**
+         * Submit the records to the parse executor, if there is one. The first max.poll.records records of all
+         * partitions are parsed in parallel while the consumer's thread still drains them in the order in which they
+         * were fetched.
+         */
+        private void maybeParseAhead() {
+            if (parseExecutor == null || partitionData.error != Errors.NONE || partitionData.records.sizeInBytes() == 0)
+                return;
+            parseAhead = submitParse(null);
+        }
+
+        /**
+         * Submit the entries following the given records parsed ahead to the parse executor, so that the next
+         * max.poll.records records are parsed while the given ones are drained.
+         */
+        private void parseAheadFrom(ParsedRecords parsed) {
+            parseAhead = parsed.remaining == null ? null : submitParse(parsed.remaining);
+        }
+
+        private Future<ParsedRecords> submitParse(final Iterator<LogEntry> entries) {
+            try {
+                return parseExecutor.submit(new Callable<ParsedRecords>() {
+                    @Override
+                    public ParsedRecords call() {
+                        return parse(entries);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the consumer is closing, so the records are parsed by its thread if they are drained at all
+                log.debug("Parsing the fetched records of partition {} on the consumer's thread", partition, e);
+                return null;
+            }
+        }
+
+        /**
+         * Parse up to max.poll.records records from the given entries, or from the first entry of the fetch if they
+         * are null. Only a single parse of the fetch runs at a time, and none once the parsing has been cancelled.
+         */
+        private synchronized ParsedRecords parse(Iterator<LogEntry> entries) {
+            ParsedRecords parsed = new ParsedRecords();
+            try {
+                if (entries == null)
+                    entries = partitionData.records.deepEntries(parseBufferSupplier).iterator();
+                while (!parseCancelled && entries.hasNext()) {
+                    if (parsed.records.size() == maxPollRecords) {
+                        parsed.remaining = entries;
+                        break;
+                    }
+                    LogEntry entry = entries.next();
+                    parsed.hasEntries = true;
+                    // skip the messages earlier than the fetched offset
+                    if (entry.offset() < fetchedOffset)
+                        continue;
+                    parsed.records.add(parseRecord(partition, entry));
+                    parsed.entrySizes.add(entry.sizeInBytes());
+                }
+            } catch (KafkaException e) {
+                parsed.failure = e;
+            }
+            return parsed;
+        }
+
+        /**
+         * Wait for the records which have been parsed ahead, or return null if they are not parsed ahead
+         */
+        private ParsedRecords parsedAhead() {
+            if (parseAhead == null)
+                return null;
+            try {
+                return parseAhead.get();
+            } catch (InterruptedException e) {
+                throw new InterruptException(e);
+            } catch (ExecutionException e) {
+                throw new KafkaException("Failed to parse the fetched records of partition " + partition, e.getCause());
+            }
+        }
+
+        /**
+         * Stop parsing the records ahead. This waits for a parse which is running, which stops at its next entry, so
+         * that the buffer of the response can be released once this returns.
+         */
+        private void cancelParseAhead() {
+            if (parseAhead == null)
+                return;
+            parseCancelled = true;
+            parseAhead.cancel(false);
+            synchronized (this) {
+                parseAhead = null;
+            }
+        }
+
+        /**
+         * The offset following the fetched records, or -1 if the fetch failed. This is only used by the consumer's
+         * thread, which computes it when it is first needed.
+         */
+        private long fetchEndOffset() {
+            if (fetchEndOffset < 0 && partitionData.error == Errors.NONE) {
+                long lastOffset = fetchedOffset - 1;
+                for (LogEntry entry : partitionData.records.shallowEntries())
+                    lastOffset = entry.offset();
+                fetchEndOffset = lastOffset + 1;
+            }
+            return fetchEndOffset;
         }
     }
 
@@ -951,19 +1561,23 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
     private static class FetchResponseMetricAggregator {
         private final FetchManagerMetrics sensors;
         private final Set<TopicPartition> unrecordedPartitions;
+        private final ClientResponse response;
 
         private final FetchMetrics fetchMetrics = new FetchMetrics();
         private final Map<String, FetchMetrics> topicFetchMetrics = new HashMap<>();
 
         private FetchResponseMetricAggregator(FetchManagerMetrics sensors,
-                                              Set<TopicPartition> partitions) {
+                                              Set<TopicPartition> partitions,
+                                              ClientResponse response) {
             this.sensors = sensors;
             this.unrecordedPartitions = partitions;
+            this.response = response;
         }
 
         /**
          * After each partition is parsed, we update the current metric totals with the total bytes
-         * and number of records parsed. After all partitions have reported, we write the metric.
+         * and number of records parsed. After all partitions have reported, we write the metric and
+         * release the buffer of the response, whose records are no longer referenced.
          */
         public void record(TopicPartition partition, int bytes, int records) {
             this.unrecordedPartitions.remove(partition);
@@ -988,6 +1602,7 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
                     FetchMetrics metric = entry.getValue();
                     this.sensors.recordTopicFetchMetrics(entry.getKey(), metric.fetchBytes, metric.fetchRecords);
                 }
+                this.response.releaseResponseBuffer();
             }
         }
 
@@ -1010,10 +1625,11 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
         private final Sensor fetchLatency;
         private final Sensor recordsFetchLag;
         private final Sensor fetchThrottleTimeSensor;
+        private final Sensor fetchBufferExhausted;
 
         private Set<TopicPartition> assignedPartitions;
 
-        private FetchManagerMetrics(Metrics metrics, String metricGrpPrefix) {
+        private FetchManagerMetrics(Metrics metrics, String metricGrpPrefix, final MemoryPool fetchBufferPool) {
             this.metrics = metrics;
             this.metricGrpName = metricGrpPrefix + "-fetch-manager-metrics";
 
@@ -1060,6 +1676,26 @@ public class Fetcher<K, V> implements SubscriptionState.Listener {
             this.fetchThrottleTimeSensor.add(metrics.metricName("fetch-throttle-time-max",
                                                          this.metricGrpName,
                                                          "The maximum throttle time in ms"), new Max());
+
+            metrics.addMetric(metrics.metricName("buffer-total-bytes",
+                this.metricGrpName,
+                "The maximum amount of memory the consumer can use to buffer fetched data."), new Measurable() {
+                    public double measure(MetricConfig config, long now) {
+                        return fetchBufferPool.size();
+                    }
+                });
+            metrics.addMetric(metrics.metricName("buffer-available-bytes",
+                this.metricGrpName,
+                "The amount of memory for buffering fetched data which is not used by received data."), new Measurable() {
+                    public double measure(MetricConfig config, long now) {
+                        return fetchBufferPool.availableMemory();
+                    }
+                });
+
+            this.fetchBufferExhausted = metrics.sensor("fetch-buffer-exhausted");
+            this.fetchBufferExhausted.add(metrics.metricName("buffer-exhausted-rate",
+                this.metricGrpName,
+                "The number of times per second fetches were held back because the memory for buffering fetched data was used up"), new Rate());
         }
 
         private void recordTopicFetchMetrics(String topic, int bytes, int records) {
@@ -20,6 +20,7 @@ import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.TopicPartition;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -75,10 +76,16 @@ public interface PartitionAssignor {
     class Subscription {
         private final List<String> topics;
         private final ByteBuffer userData;
+        private final List<TopicPartition> ownedPartitions;
 
-        public Subscription(List<String> topics, ByteBuffer userData) {
+        public Subscription(List<String> topics, ByteBuffer userData, List<TopicPartition> ownedPartitions) {
             this.topics = topics;
             this.userData = userData;
+            this.ownedPartitions = ownedPartitions;
+        }
+
+        public Subscription(List<String> topics, ByteBuffer userData) {
+            this(topics, userData, Collections.<TopicPartition>emptyList());
         }
 
         public Subscription(List<String> topics) {
@@ -93,10 +100,19 @@ public interface PartitionAssignor {
             return userData;
         }
 
+        /**
+         * The partitions the member keeps owning while the group rebalances, which the leader must not assign to
+         * other members until they have been revoked. This is only set by members which rebalance cooperatively.
+         */
+        public List<TopicPartition> ownedPartitions() {
+            return ownedPartitions;
+        }
+
         @Override
         public String toString() {
             return "Subscription(" +
                     "topics=" + topics +
+                    ", ownedPartitions=" + ownedPartitions +
                     ')';
         }
     }
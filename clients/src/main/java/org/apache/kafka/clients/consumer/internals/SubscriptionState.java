@@ -182,10 +182,31 @@ public class SubscriptionState {
      * note this is different from {@link #assignFromUser(Set)} which directly set the assignment from user inputs
      */
     public void assignFromSubscribed(Collection<TopicPartition> assignments) {
+        assignFromSubscribed(assignments, false);
+    }
+
+    /**
+     * Change the assignment to the specified partitions returned from the coordinator like
+     * {@link #assignFromSubscribed(Collection)}, but keep the fetch state of the partitions which stay assigned.
+     * This is used for cooperative rebalances, in which the partitions which stay assigned are not owned by any
+     * other member in between.
+     */
+    public void assignFromSubscribedIncrementally(Collection<TopicPartition> assignments) {
+        assignFromSubscribed(assignments, true);
+    }
+
+    private void assignFromSubscribed(Collection<TopicPartition> assignments, boolean retainState) {
         if (!this.partitionsAutoAssigned())
             throw new IllegalArgumentException("Attempt to dynamically assign partitions while manual assignment in use");
 
         Map<TopicPartition, TopicPartitionState> assignedPartitionStates = partitionToStateMap(assignments);
+        if (retainState) {
+            for (Map.Entry<TopicPartition, TopicPartitionState> entry : assignedPartitionStates.entrySet()) {
+                TopicPartitionState state = assignment.stateValue(entry.getKey());
+                if (state != null)
+                    entry.setValue(state);
+            }
+        }
         fireOnAssignment(assignedPartitionStates.keySet());
 
         if (this.subscribedPattern != null) {
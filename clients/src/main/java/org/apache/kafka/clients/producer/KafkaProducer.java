@@ -19,9 +19,14 @@ package org.apache.kafka.clients.producer;
 import org.apache.kafka.clients.ClientUtils;
 import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.NetworkClient;
+import org.apache.kafka.clients.producer.internals.DeadlineDrainPolicy;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.clients.producer.internals.DrainPolicy;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.RoundRobinDrainPolicy;
 import org.apache.kafka.clients.producer.internals.Sender;
+import org.apache.kafka.clients.producer.internals.ValueBufferSerializer;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.Metric;
@@ -43,9 +48,11 @@ import org.apache.kafka.common.metrics.MetricsReporter;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
+import org.apache.kafka.common.record.CompressionDictionary;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.serialization.BufferSerializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.utils.AppInfoParser;
 import org.apache.kafka.common.utils.KafkaThread;
@@ -53,8 +60,12 @@ import org.apache.kafka.common.utils.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -153,6 +164,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final Time time;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
+    private final ValueBufferSerializer<V> valueBufferSerializer;
     private final ProducerConfig producerConfig;
     private final long maxBlockTimeMs;
     private final int requestTimeoutMs;
@@ -259,6 +271,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             this.maxRequestSize = config.getInt(ProducerConfig.MAX_REQUEST_SIZE_CONFIG);
             this.totalMemorySize = config.getLong(ProducerConfig.BUFFER_MEMORY_CONFIG);
             this.compressionType = CompressionType.forName(config.getString(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+            this.valueBufferSerializer = valueBufferSerializer(this.valueSerializer, this.compressionType, this.partitioner,
+                    config.getInt(ProducerConfig.BATCH_SIZE_CONFIG));
             /* check for user defined settings.
              * If the BLOCK_ON_BUFFER_FULL is set to true,we do not honor METADATA_FETCH_TIMEOUT_CONFIG.
              * This should be removed with release 0.9 when the deprecated configs are removed.
@@ -298,8 +312,12 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
 
             this.accumulator = new RecordAccumulator(config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
                     this.totalMemorySize,
+                    "direct".equals(config.getString(ProducerConfig.BUFFER_MEMORY_TYPE_CONFIG)),
                     this.compressionType,
+                    configureCompressionDictionaries(config.getList(ProducerConfig.COMPRESSION_DICTIONARIES_CONFIG), this.compressionType),
                     config.getLong(ProducerConfig.LINGER_MS_CONFIG),
+                    config.getBoolean(ProducerConfig.ADAPTIVE_BATCHING_ENABLE_CONFIG),
+                    drainPolicy(config.getString(ProducerConfig.BATCH_DRAIN_POLICY_CONFIG), retryBackoffMs),
                     retryBackoffMs,
                     metrics,
                     time);
@@ -355,6 +373,47 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    /**
+     * Values are only serialized into buffers if the batches are not compressed, since compressed batches need a byte
+     * array anyway, and if the partitioner does not need the serialized value, which the default partitioner never
+     * looks at
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> ValueBufferSerializer<V> valueBufferSerializer(Serializer<V> valueSerializer, CompressionType compressionType,
+                                                                      Partitioner partitioner, int batchSize) {
+        if (compressionType == CompressionType.NONE && partitioner.getClass() == DefaultPartitioner.class
+                && valueSerializer instanceof BufferSerializer)
+            return new ValueBufferSerializer<>((BufferSerializer<V>) valueSerializer, batchSize);
+        return null;
+    }
+
+    private static DrainPolicy drainPolicy(String name, long retryBackoffMs) {
+        if ("deadline".equals(name))
+            return new DeadlineDrainPolicy(retryBackoffMs);
+        return new RoundRobinDrainPolicy();
+    }
+
+    private static Map<String, CompressionDictionary> configureCompressionDictionaries(List<String> entries, CompressionType compressionType) {
+        Map<String, CompressionDictionary> dictionaries = new HashMap<>();
+        for (String entry : entries) {
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0 || separator == entry.length() - 1)
+                throw new ConfigException(ProducerConfig.COMPRESSION_DICTIONARIES_CONFIG, entries, "Entries must be of the form topic:path");
+            if (compressionType != CompressionType.ZSTD)
+                throw new ConfigException(ProducerConfig.COMPRESSION_DICTIONARIES_CONFIG, entries,
+                        "Compression dictionaries require " + ProducerConfig.COMPRESSION_TYPE_CONFIG + "=zstd");
+            String path = entry.substring(separator + 1).trim();
+            try {
+                // the producer only compresses with its dictionaries, so they are not registered for decompression
+                dictionaries.put(entry.substring(0, separator).trim(), CompressionDictionary.readFrom(new File(path)));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ConfigException(ProducerConfig.COMPRESSION_DICTIONARIES_CONFIG, entries,
+                        "Could not load compression dictionary " + path + ": " + e.getMessage());
+            }
+        }
+        return dictionaries;
+    }
+
     /**
      * Asynchronously send a record to a topic. Equivalent to <code>send(record, null)</code>.
      * See {@link #send(ProducerRecord, Callback)} for details.
@@ -462,9 +521,17 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                         " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
                         " specified in key.serializer");
             }
-            byte[] serializedValue;
+            byte[] serializedValue = null;
+            ByteBuffer valueBuffer = null;
+            int serializedValueSize;
             try {
-                serializedValue = valueSerializer.serialize(record.topic(), record.value());
+                if (valueBufferSerializer != null) {
+                    valueBuffer = valueBufferSerializer.serialize(record.topic(), record.value());
+                    serializedValueSize = valueBuffer == null ? -1 : valueBuffer.remaining();
+                } else {
+                    serializedValue = valueSerializer.serialize(record.topic(), record.value());
+                    serializedValueSize = serializedValue == null ? -1 : serializedValue.length;
+                }
             } catch (ClassCastException cce) {
                 throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
                         " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
@@ -472,14 +539,19 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             }
 
             int partition = partition(record, serializedKey, serializedValue, cluster);
-            int serializedSize = Records.LOG_OVERHEAD + Record.recordSize(serializedKey, serializedValue);
+            int serializedSize = Records.LOG_OVERHEAD + Record.recordSize(serializedKey == null ? -1 : serializedKey.length,
+                    serializedValueSize);
             ensureValidRecordSize(serializedSize);
             tp = new TopicPartition(record.topic(), partition);
             long timestamp = record.timestamp() == null ? time.milliseconds() : record.timestamp();
             log.trace("Sending record {} with callback {} to topic {} partition {}", record, callback, record.topic(), partition);
             // producer callback will make sure to call both 'callback' and interceptor callback
             Callback interceptCallback = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
-            RecordAccumulator.RecordAppendResult result = accumulator.append(tp, timestamp, serializedKey, serializedValue, interceptCallback, remainingWaitMs);
+            RecordAccumulator.RecordAppendResult result;
+            if (valueBufferSerializer != null)
+                result = accumulator.append(tp, timestamp, serializedKey, valueBuffer, interceptCallback, remainingWaitMs);
+            else
+                result = accumulator.append(tp, timestamp, serializedKey, serializedValue, interceptCallback, remainingWaitMs);
             if (result.batchIsFull || result.newBatchCreated) {
                 log.trace("Waking up the sender since topic {} partition {} is either full or getting a new batch", record.topic(), partition);
                 this.sender.wakeup();
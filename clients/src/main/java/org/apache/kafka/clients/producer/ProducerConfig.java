@@ -119,6 +119,22 @@ public class ProducerConfig extends AbstractConfig {
                                                 + "specified time waiting for more records to show up. This setting defaults to 0 (i.e. no delay). Setting <code>" + LINGER_MS_CONFIG + "=5</code>, "
                                                 + "for example, would have the effect of reducing the number of requests sent but would add up to 5ms of latency to records sent in the absense of load.";
 
+    /** <code>batch.drain.policy</code> */
+    public static final String BATCH_DRAIN_POLICY_CONFIG = "batch.drain.policy";
+    private static final String BATCH_DRAIN_POLICY_DOC = "How the producer chooses the batches it sends in a request to a broker. With <code>round-robin</code> "
+                                                         + "it takes the partitions led by the broker in turn until the request is full. With <code>deadline</code> it "
+                                                         + "takes the batches which have been ready the longest first, counting from the end of their linger time (as tuned by "
+                                                         + "adaptive batching if it is enabled) or retry backoff, and fills the rest of the request with the batches which still fit. "
+                                                         + "This keeps batches from timing out in the producer when a broker leads many partitions.";
+
+    /** <code>adaptive.batching.enable</code> */
+    public static final String ADAPTIVE_BATCHING_ENABLE_CONFIG = "adaptive.batching.enable";
+    private static final String ADAPTIVE_BATCHING_ENABLE_DOC = "When set to true the producer tunes how long each partition's batch lingers and how large it grows "
+                                                               + "to the rate at which records arrive for the partition and to the latency of produce requests. A batch is then sent "
+                                                               + "without lingering if no further records are expected in the meantime, and as soon as it holds about the records which "
+                                                               + "arrive during one request round trip. <code>" + LINGER_MS_CONFIG + "</code> and <code>" + BATCH_SIZE_CONFIG + "</code> "
+                                                               + "remain the upper bounds.";
+
     /** <code>client.id</code> */
     public static final String CLIENT_ID_CONFIG = CommonClientConfigs.CLIENT_ID_CONFIG;
 
@@ -165,13 +181,29 @@ public class ProducerConfig extends AbstractConfig {
                                                     + "not all memory the producer uses is used for buffering. Some additional memory will be used for compression (if "
                                                     + "compression is enabled) as well as for maintaining in-flight requests.";
 
+    /** <code>buffer.memory.type</code> */
+    public static final String BUFFER_MEMORY_TYPE_CONFIG = "buffer.memory.type";
+    private static final String BUFFER_MEMORY_TYPE_DOC = "Where the producer allocates the <code>" + BUFFER_MEMORY_CONFIG + "</code> used to buffer records. "
+                                                         + "With <code>heap</code> batches are ordinary Java heap buffers. With <code>direct</code> they are allocated "
+                                                         + "outside of the Java heap and buffers of <code>" + BATCH_SIZE_CONFIG + "</code> bytes are pooled and reused across batches, "
+                                                         + "so a large buffer memory does not add to garbage collection work. The JVM's direct memory limit "
+                                                         + "(<code>-XX:MaxDirectMemorySize</code>) must then be large enough to hold the buffer memory.";
+
+    /** <code>compression.dictionaries</code> */
+    public static final String COMPRESSION_DICTIONARIES_CONFIG = "compression.dictionaries";
+    private static final String COMPRESSION_DICTIONARIES_DOC = "A list of <code>topic:path</code> pairs naming a trained zstd dictionary file to compress the "
+                                                               + "records of a topic with. Dictionaries improve the compression ratio of small batches and may only be used "
+                                                               + "with the <code>zstd</code> <code>compression.type</code>. The dictionary of a topic must be the one "
+                                                               + "set in its <code>compression.dictionary</code> topic config, and every consumer of the topic must be "
+                                                               + "configured with the same dictionary file in <code>compression.dictionary.files</code>.";
+
     /** <code>retry.backoff.ms</code> */
     public static final String RETRY_BACKOFF_MS_CONFIG = CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG;
 
     /** <code>compression.type</code> */
     public static final String COMPRESSION_TYPE_CONFIG = "compression.type";
     private static final String COMPRESSION_TYPE_DOC = "The compression type for all data generated by the producer. The default is none (i.e. no compression). Valid "
-                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, or <code>lz4</code>. "
+                                                       + " values are <code>none</code>, <code>gzip</code>, <code>snappy</code>, <code>lz4</code>, or <code>zstd</code>. "
                                                        + "Compression is of full batches of data, so the efficacy of batching will also impact the compression ratio (more batching means better compression).";
 
     /** <code>metrics.sample.window.ms</code> */
@@ -235,9 +267,27 @@ public class ProducerConfig extends AbstractConfig {
                                         Importance.HIGH,
                                         ACKS_DOC)
                                 .define(COMPRESSION_TYPE_CONFIG, Type.STRING, "none", Importance.HIGH, COMPRESSION_TYPE_DOC)
+                                .define(BUFFER_MEMORY_TYPE_CONFIG,
+                                        Type.STRING,
+                                        "heap",
+                                        in("heap", "direct"),
+                                        Importance.LOW,
+                                        BUFFER_MEMORY_TYPE_DOC)
+                                .define(COMPRESSION_DICTIONARIES_CONFIG,
+                                        Type.LIST,
+                                        "",
+                                        Importance.LOW,
+                                        COMPRESSION_DICTIONARIES_DOC)
                                 .define(BATCH_SIZE_CONFIG, Type.INT, 16384, atLeast(0), Importance.MEDIUM, BATCH_SIZE_DOC)
                                 .define(TIMEOUT_CONFIG, Type.INT, 30 * 1000, atLeast(0), Importance.MEDIUM, TIMEOUT_DOC)
                                 .define(LINGER_MS_CONFIG, Type.LONG, 0, atLeast(0L), Importance.MEDIUM, LINGER_MS_DOC)
+                                .define(BATCH_DRAIN_POLICY_CONFIG,
+                                        Type.STRING,
+                                        "round-robin",
+                                        in("round-robin", "deadline"),
+                                        Importance.LOW,
+                                        BATCH_DRAIN_POLICY_DOC)
+                                .define(ADAPTIVE_BATCHING_ENABLE_CONFIG, Type.BOOLEAN, false, Importance.LOW, ADAPTIVE_BATCHING_ENABLE_DOC)
                                 .define(CLIENT_ID_CONFIG, Type.STRING, "", Importance.MEDIUM, CommonClientConfigs.CLIENT_ID_DOC)
                                 .define(SEND_BUFFER_CONFIG, Type.INT, 128 * 1024, atLeast(-1), Importance.MEDIUM, CommonClientConfigs.SEND_BUFFER_DOC)
                                 .define(RECEIVE_BUFFER_CONFIG, Type.INT, 32 * 1024, atLeast(-1), Importance.MEDIUM, CommonClientConfigs.RECEIVE_BUFFER_DOC)
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tunes how long the {@link RecordAccumulator} lets the batch of a partition linger and how large it lets the batch
+ * grow before it is sent. The tuning is based on the rate at which records arrive for the partition and on the latency
+ * of produce requests.
+ * <p>
+ * Lingering only pays off if more records are expected to arrive in the meantime. Beyond that, a batch only needs to
+ * hold the records which arrive during one request round trip to keep the connection to the leader busy. The observed
+ * sizes of sent batches already reflect the compression rate, and the size of an open batch is estimated from the
+ * compression rate estimates. The configured <code>linger.ms</code> and <code>batch.size</code> are upper bounds.
+ * <p>
+ * This class is only used by the sender thread, so it is not thread safe.
+ */
+final class AdaptiveBatching {
+    // the weight of a new sample in the moving averages
+    private static final double SMOOTHING_FACTOR = 0.2;
+
+    private final long maxLingerMs;
+    private final int maxBatchSize;
+    private final Map<TopicPartition, PartitionStats> partitionStats = new HashMap<>();
+    private final Sensor lingerSensor;
+    private final Sensor batchSizeSensor;
+    private double requestLatencyMs = -1;
+
+    AdaptiveBatching(long maxLingerMs, int maxBatchSize, Metrics metrics, String metricGrpName) {
+        this.maxLingerMs = maxLingerMs;
+        this.maxBatchSize = maxBatchSize;
+
+        this.lingerSensor = metrics.sensor("adaptive-linger");
+        MetricName m = metrics.metricName("adaptive-linger-ms-avg", metricGrpName, "The average time in ms batches were allowed to linger by adaptive batching.");
+        this.lingerSensor.add(m, new Avg());
+        m = metrics.metricName("adaptive-linger-ms-max", metricGrpName, "The maximum time in ms batches were allowed to linger by adaptive batching.");
+        this.lingerSensor.add(m, new Max());
+
+        this.batchSizeSensor = metrics.sensor("adaptive-batch-size");
+        m = metrics.metricName("adaptive-batch-size-avg", metricGrpName, "The average target batch size in bytes chosen by adaptive batching.");
+        this.batchSizeSensor.add(m, new Avg());
+        m = metrics.metricName("adaptive-batch-size-max", metricGrpName, "The maximum target batch size in bytes chosen by adaptive batching.");
+        this.batchSizeSensor.add(m, new Max());
+    }
+
+    /**
+     * The time a batch of the partition should be allowed to linger
+     */
+    long lingerMs(TopicPartition tp) {
+        PartitionStats stats = partitionStats.get(tp);
+        if (stats == null)
+            return maxLingerMs;
+        // don't wait if not even a single record is expected to arrive while waiting
+        if (stats.recordsPerMs * maxLingerMs < 1)
+            return 0;
+        double timeToFillMs = targetBatchSize(tp) / (stats.recordsPerMs * stats.bytesPerRecord);
+        return Math.min(maxLingerMs, (long) Math.ceil(timeToFillMs));
+    }
+
+    /**
+     * The size in bytes at which a batch of the partition should be sent without lingering any further
+     */
+    int targetBatchSize(TopicPartition tp) {
+        PartitionStats stats = partitionStats.get(tp);
+        if (stats == null || requestLatencyMs < 0)
+            return maxBatchSize;
+        double bytesPerRoundTrip = stats.recordsPerMs * stats.bytesPerRecord * Math.max(requestLatencyMs, 1);
+        return (int) Math.max(1, Math.min(maxBatchSize, bytesPerRoundTrip));
+    }
+
+    /**
+     * Record that a batch has been drained to be sent
+     */
+    void recordDrained(RecordBatch batch, long now) {
+        // retried batches have been accounted for when they were drained the first time
+        if (batch.attempts > 0)
+            return;
+
+        // record the tuning the batch was sent with before updating it with the batch
+        lingerSensor.record(lingerMs(batch.topicPartition), now);
+        batchSizeSensor.record(targetBatchSize(batch.topicPartition), now);
+
+        if (batch.recordCount == 0)
+            return;
+        PartitionStats stats = partitionStats.get(batch.topicPartition);
+        double bytesPerRecord = (double) batch.sizeInBytes() / batch.recordCount;
+        if (stats == null) {
+            stats = new PartitionStats(now);
+            stats.recordsPerMs = (double) batch.recordCount / Math.max(now - batch.createdMs, 1);
+            stats.bytesPerRecord = bytesPerRecord;
+            partitionStats.put(batch.topicPartition, stats);
+        } else {
+            // the records of this batch arrived since the previous batch of the partition was drained
+            double recordsPerMs = (double) batch.recordCount / Math.max(now - stats.lastDrainMs, 1);
+            stats.recordsPerMs = smooth(stats.recordsPerMs, recordsPerMs);
+            stats.bytesPerRecord = smooth(stats.bytesPerRecord, bytesPerRecord);
+            stats.lastDrainMs = now;
+        }
+    }
+
+    /**
+     * Record the latency of a completed produce request
+     */
+    void recordRequestLatency(long latencyMs) {
+        requestLatencyMs = requestLatencyMs < 0 ? latencyMs : smooth(requestLatencyMs, latencyMs);
+    }
+
+    private static double smooth(double average, double sample) {
+        return average * (1 - SMOOTHING_FACTOR) + sample * SMOOTHING_FACTOR;
+    }
+
+    private static final class PartitionStats {
+        private long lastDrainMs;
+        private double recordsPerMs;
+        private double bytesPerRecord;
+
+        private PartitionStats(long lastDrainMs) {
+            this.lastDrainMs = lastDrainMs;
+        }
+    }
+}
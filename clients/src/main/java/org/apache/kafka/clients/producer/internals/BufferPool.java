@@ -18,7 +18,9 @@ package org.apache.kafka.clients.producer.internals;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -27,6 +29,8 @@ import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Count;
 import org.apache.kafka.common.metrics.stats.Rate;
 import org.apache.kafka.common.utils.Time;
 
@@ -36,17 +40,29 @@ import org.apache.kafka.common.utils.Time;
  * particular it has the following properties:
  * <ol>
  * <li>There is a special "poolable size" and buffers of this size are kept in a free list and recycled
+ * <li>Larger requests are rounded up to a size class (the poolable size times a power of two) and buffers of each size
+ * class are recycled through their own free list, so batches which outgrow the poolable size do not cause a fresh
+ * allocation every time
  * <li>It is fair. That is all memory is given to the longest waiting thread until it has sufficient memory. This
  * prevents starvation or deadlock when a thread asks for a large chunk of memory and needs to block until multiple
  * buffers are deallocated.
+ * <li>Buffers may optionally be allocated outside of the Java heap, in which case the pooled buffers act as long-lived
+ * slabs of direct memory which are reused across batches instead of being garbage collected.
  * </ol>
  */
 public class BufferPool {
 
+    // The largest size class is the poolable size times 2^(MAX_SIZE_CLASSES - 1)
+    static final int MAX_SIZE_CLASSES = 8;
+
     private final long totalMemory;
     private final int poolableSize;
+    private final boolean direct;
     private final ReentrantLock lock;
-    private final Deque<ByteBuffer> free;
+    private final int[] sizeClasses;
+    private final List<Deque<ByteBuffer>> freeLists;
+    private final Sensor[] sizeClassHits;
+    private final Sensor[] sizeClassWaits;
     private final Deque<Condition> waiters;
     private long availableMemory;
     private final Metrics metrics;
@@ -63,9 +79,27 @@ public class BufferPool {
      * @param metricGrpName logical group name for metrics
      */
     public BufferPool(long memory, int poolableSize, Metrics metrics, Time time, String metricGrpName) {
+        this(memory, poolableSize, false, metrics, time, metricGrpName);
+    }
+
+    /**
+     * Create a new buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The buffer size to cache in the free list rather than deallocating
+     * @param direct Whether to allocate direct (off-heap) buffers rather than heap buffers
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public BufferPool(long memory, int poolableSize, boolean direct, Metrics metrics, Time time, String metricGrpName) {
         this.poolableSize = poolableSize;
+        this.direct = direct;
         this.lock = new ReentrantLock();
-        this.free = new ArrayDeque<>();
+        this.sizeClasses = sizeClasses(memory, poolableSize);
+        this.freeLists = new ArrayList<>(sizeClasses.length);
+        for (int i = 0; i < sizeClasses.length; i++)
+            this.freeLists.add(new ArrayDeque<ByteBuffer>());
         this.waiters = new ArrayDeque<>();
         this.totalMemory = memory;
         this.availableMemory = memory;
@@ -76,11 +110,59 @@ public class BufferPool {
                                                    metricGrpName,
                                                    "The fraction of time an appender waits for space allocation.");
         this.waitTime.add(metricName, new Rate(TimeUnit.NANOSECONDS));
+
+        this.sizeClassHits = new Sensor[sizeClasses.length];
+        this.sizeClassWaits = new Sensor[sizeClasses.length];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            String sizeClass = String.valueOf(sizeClasses[i]);
+            this.sizeClassHits[i] = this.metrics.sensor("bufferpool-size-class-" + sizeClass + "-hits");
+            metricName = metrics.metricName("bufferpool-hit-ratio",
+                                            metricGrpName,
+                                            "The fraction of allocations of this size class served from its free list.",
+                                            "size-class", sizeClass);
+            this.sizeClassHits[i].add(metricName, new Avg());
+            this.sizeClassWaits[i] = this.metrics.sensor("bufferpool-size-class-" + sizeClass + "-waits");
+            metricName = metrics.metricName("bufferpool-wait-rate",
+                                            metricGrpName,
+                                            "The number of allocations of this size class per second that had to wait for memory.",
+                                            "size-class", sizeClass);
+            this.sizeClassWaits[i].add(metricName, new Rate(new Count()));
+        }
+    }
+
+    private static int[] sizeClasses(long memory, int poolableSize) {
+        List<Integer> sizes = new ArrayList<>();
+        long size = poolableSize;
+        do {
+            sizes.add((int) size);
+            size *= 2;
+        } while (poolableSize > 0 && sizes.size() < MAX_SIZE_CLASSES && size <= memory && size <= Integer.MAX_VALUE);
+        int[] sizeClasses = new int[sizes.size()];
+        for (int i = 0; i < sizeClasses.length; i++)
+            sizeClasses[i] = sizes.get(i);
+        return sizeClasses;
+    }
+
+    /**
+     * Find the smallest size class that can hold a buffer of the given size
+     * @return The index of the size class or -1 if buffers of this size are not pooled
+     */
+    private int sizeClassFor(int size) {
+        if (size == poolableSize)
+            return 0;
+        if (size < poolableSize)
+            return -1;
+        for (int i = 1; i < sizeClasses.length; i++) {
+            if (size <= sizeClasses[i])
+                return i;
+        }
+        return -1;
     }
 
     /**
      * Allocate a buffer of the given size. This method blocks if there is not enough memory and the buffer pool
-     * is configured with blocking mode.
+     * is configured with blocking mode. If the size is larger than the poolable size but within the largest size
+     * class, the capacity of the returned buffer is rounded up to its size class so that it can be recycled.
      * 
      * @param size The buffer size to allocate in bytes
      * @param maxTimeToBlockMs The maximum time in milliseconds to block for buffer memory to be available
@@ -96,15 +178,24 @@ public class BufferPool {
                                                + this.totalMemory
                                                + " on memory allocations.");
 
+        int sizeClass = sizeClassFor(size);
+        if (sizeClass >= 0)
+            size = sizeClasses[sizeClass];
+        Deque<ByteBuffer> sizeClassFree = sizeClass >= 0 ? this.freeLists.get(sizeClass) : null;
+
         this.lock.lock();
         try {
             // check if we have a free buffer of the right size pooled
-            if (size == poolableSize && !this.free.isEmpty())
-                return this.free.pollFirst();
+            if (sizeClassFree != null) {
+                boolean hit = !sizeClassFree.isEmpty();
+                this.sizeClassHits[sizeClass].record(hit ? 1.0 : 0.0);
+                if (hit)
+                    return sizeClassFree.pollFirst();
+            }
 
             // now check if the request is immediately satisfiable with the
             // memory on hand or if we need to block
-            int freeListSize = freeSize() * this.poolableSize;
+            long freeListSize = freeSize() * (long) this.poolableSize + largerFreeListsSize();
             if (this.availableMemory + freeListSize >= size) {
                 // we have enough unallocated or pooled memory to immediately
                 // satisfy the request
@@ -119,6 +210,8 @@ public class BufferPool {
                 Condition moreMemory = this.lock.newCondition();
                 long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
                 this.waiters.addLast(moreMemory);
+                if (sizeClass >= 0)
+                    this.sizeClassWaits[sizeClass].record();
                 // loop over and over until we have a buffer or have reserved
                 // enough memory to allocate one
                 while (accumulated < size) {
@@ -144,9 +237,9 @@ public class BufferPool {
                     remainingTimeToBlockNs -= timeNs;
                     // check if we can satisfy this request from the free list,
                     // otherwise allocate memory
-                    if (accumulated == 0 && size == this.poolableSize && !this.free.isEmpty()) {
+                    if (accumulated == 0 && sizeClassFree != null && !sizeClassFree.isEmpty()) {
                         // just grab a buffer from the free list
-                        buffer = this.free.pollFirst();
+                        buffer = sizeClassFree.pollFirst();
                         accumulated = size;
                     } else {
                         // we'll need to allocate memory, but we may only get
@@ -166,7 +259,7 @@ public class BufferPool {
 
                 // signal any additional waiters if there is more memory left
                 // over for them
-                if (this.availableMemory > 0 || !this.free.isEmpty()) {
+                if (this.availableMemory > 0 || hasFreeBuffers()) {
                     if (!this.waiters.isEmpty())
                         this.waiters.peekFirst().signal();
                 }
@@ -186,7 +279,7 @@ public class BufferPool {
 
     // Protected for testing.
     protected ByteBuffer allocateByteBuffer(int size) {
-        return ByteBuffer.allocate(size);
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
     }
 
     /**
@@ -194,13 +287,35 @@ public class BufferPool {
      * buffers (if needed)
      */
     private void freeUp(int size) {
-        while (!this.free.isEmpty() && this.availableMemory < size)
-            this.availableMemory += this.free.pollLast().capacity();
+        // release the largest buffers first as they free up the most memory per buffer
+        for (int i = this.freeLists.size() - 1; i >= 0 && this.availableMemory < size; i--) {
+            Deque<ByteBuffer> freeList = this.freeLists.get(i);
+            while (!freeList.isEmpty() && this.availableMemory < size)
+                this.availableMemory += freeList.pollLast().capacity();
+        }
+    }
+
+    private boolean hasFreeBuffers() {
+        for (Deque<ByteBuffer> freeList : this.freeLists) {
+            if (!freeList.isEmpty())
+                return true;
+        }
+        return false;
     }
 
     /**
-     * Return buffers to the pool. If they are of the poolable size add them to the free list, otherwise just mark the
-     * memory as free.
+     * The memory held by the free lists of size classes other than the poolable size
+     */
+    private long largerFreeListsSize() {
+        long size = 0;
+        for (int i = 1; i < this.freeLists.size(); i++)
+            size += this.freeLists.get(i).size() * (long) this.sizeClasses[i];
+        return size;
+    }
+
+    /**
+     * Return buffers to the pool. If they are of the poolable size or of one of the larger size classes add them to the
+     * free list of their size class, otherwise just mark the memory as free.
      * 
      * @param buffer The buffer to return
      * @param size The size of the buffer to mark as deallocated, note that this may be smaller than buffer.capacity
@@ -209,9 +324,10 @@ public class BufferPool {
     public void deallocate(ByteBuffer buffer, int size) {
         lock.lock();
         try {
-            if (size == this.poolableSize && size == buffer.capacity()) {
+            int sizeClass = sizeClassFor(size);
+            if (sizeClass >= 0 && size == this.sizeClasses[sizeClass] && size == buffer.capacity()) {
                 buffer.clear();
-                this.free.add(buffer);
+                this.freeLists.get(sizeClass).add(buffer);
             } else {
                 this.availableMemory += size;
             }
@@ -233,7 +349,7 @@ public class BufferPool {
     public long availableMemory() {
         lock.lock();
         try {
-            return this.availableMemory + freeSize() * (long) this.poolableSize;
+            return this.availableMemory + freeSize() * (long) this.poolableSize + largerFreeListsSize();
         } finally {
             lock.unlock();
         }
@@ -241,7 +357,7 @@ public class BufferPool {
 
     // Protected for testing.
     protected int freeSize() {
-        return this.free.size();
+        return this.freeLists.get(0).size();
     }
 
     /**
@@ -275,6 +391,20 @@ public class BufferPool {
         return this.poolableSize;
     }
 
+    /**
+     * Whether the buffers of this pool are allocated outside of the Java heap
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * The buffer sizes that are retained in the free lists after use, starting with the poolable size
+     */
+    public int[] sizeClasses() {
+        return this.sizeClasses.clone();
+    }
+
     /**
      * The total memory managed by this pool
      */
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Drains the batches of a node which have been due the longest first, so that a leader of many partitions does not let
+ * the batches of the partitions it reaches last in turn time out. A batch is due once its retry backoff or the linger
+ * time of its partition has elapsed, where the linger time is the one tuned by adaptive batching if it is enabled.
+ * Batches which are due at the same time are drained oldest first.
+ * <p>
+ * Batches which do not fit in the remaining byte budget of the request are skipped rather than ending the request,
+ * so that smaller batches of other partitions still fill it. Skipped batches only grow more urgent, so they are drained
+ * first by one of the next requests.
+ */
+public final class DeadlineDrainPolicy implements DrainPolicy {
+    private final long retryBackoffMs;
+
+    public DeadlineDrainPolicy(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    @Override
+    public List<RecordBatch> select(List<RecordBatch> candidates, int maxSize, long now) {
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+
+        List<RecordBatch> sorted = new ArrayList<>(candidates.size());
+        for (RecordBatch batch : candidates) {
+            if (batch != null)
+                sorted.add(batch);
+        }
+        Collections.sort(sorted, new Comparator<RecordBatch>() {
+            @Override
+            public int compare(RecordBatch b1, RecordBatch b2) {
+                int result = Long.compare(b1.dueMs(retryBackoffMs), b2.dueMs(retryBackoffMs));
+                return result != 0 ? result : Long.compare(b1.createdMs, b2.createdMs);
+            }
+        });
+
+        List<RecordBatch> selected = new ArrayList<>();
+        int size = 0;
+        for (RecordBatch batch : sorted) {
+            if (size + batch.sizeInBytes() <= maxSize || selected.isEmpty()) {
+                size += batch.sizeInBytes();
+                selected.add(batch);
+            }
+        }
+        return selected;
+    }
+
+}
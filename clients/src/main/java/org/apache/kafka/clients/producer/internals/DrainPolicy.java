@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.List;
+
+/**
+ * Decides which of the batches that may be sent to a node are drained into its next produce request, and in which
+ * order, within the byte budget of the request.
+ */
+public interface DrainPolicy {
+
+    /**
+     * Select the batches to drain for a node
+     *
+     * @param candidates One element for each partition led by the node, in the order of the node's partitions: the
+     *        first batch of the partition, or null if the partition is muted, backing off or has no batch
+     * @param maxSize The maximum total size in bytes of the selected batches. A single batch larger than this is still
+     *        selected if it is the only one, since it could never be sent otherwise
+     * @param now The current unix time in milliseconds
+     * @return The selected batches in the order they should be drained
+     */
+    List<RecordBatch> select(List<RecordBatch> candidates, int maxSize, long now);
+
+}
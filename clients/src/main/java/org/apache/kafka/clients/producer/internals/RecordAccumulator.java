@@ -27,6 +27,7 @@ import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.record.CompressionDictionary;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
@@ -50,6 +51,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -69,15 +71,19 @@ public final class RecordAccumulator {
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
     private final CompressionType compression;
+    private final Map<String, CompressionDictionary> dictionaries;
     private final long lingerMs;
+    private final AdaptiveBatching adaptiveBatching;
     private final long retryBackoffMs;
     private final BufferPool free;
     private final Time time;
     private final ConcurrentMap<TopicPartition, Deque<RecordBatch>> batches;
+    // The last batch of each partition's deque if it accepts appends without holding the deque lock
+    private final ConcurrentMap<TopicPartition, RecordBatch> openBatches;
     private final IncompleteRecordBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
-    private int drainIndex;
+    private final DrainPolicy drainPolicy;
 
     /**
      * Create a new record accumulator
@@ -100,20 +106,55 @@ public final class RecordAccumulator {
                              long retryBackoffMs,
                              Metrics metrics,
                              Time time) {
-        this.drainIndex = 0;
+        this(batchSize, totalSize, false, compression, Collections.<String, CompressionDictionary>emptyMap(), lingerMs,
+                false, new RoundRobinDrainPolicy(), retryBackoffMs, metrics, time);
+    }
+
+    /**
+     * Create a new record accumulator
+     *
+     * @param batchSize The size to use when allocating {@link MemoryRecords} instances
+     * @param totalSize The maximum memory the record accumulator can use.
+     * @param directMemory Whether the record buffers should be allocated outside of the Java heap
+     * @param compression The compression codec for the records
+     * @param dictionaries The compression dictionaries to compress the records of each topic with, if any
+     * @param lingerMs An artificial delay time to add before declaring a records instance that isn't full ready for
+     *        sending.
+     * @param adaptiveBatching Whether to tune the linger time and batch size of each partition to its load, using
+     *        lingerMs and batchSize as upper bounds
+     * @param drainPolicy The policy selecting the batches drained into a produce request
+     * @param retryBackoffMs An artificial delay time to retry the produce request upon receiving an error.
+     * @param metrics The metrics
+     * @param time The time instance to use
+     */
+    public RecordAccumulator(int batchSize,
+                             long totalSize,
+                             boolean directMemory,
+                             CompressionType compression,
+                             Map<String, CompressionDictionary> dictionaries,
+                             long lingerMs,
+                             boolean adaptiveBatching,
+                             DrainPolicy drainPolicy,
+                             long retryBackoffMs,
+                             Metrics metrics,
+                             Time time) {
+        this.drainPolicy = drainPolicy;
         this.closed = false;
         this.flushesInProgress = new AtomicInteger(0);
         this.appendsInProgress = new AtomicInteger(0);
         this.batchSize = batchSize;
         this.compression = compression;
+        this.dictionaries = dictionaries;
         this.lingerMs = lingerMs;
         this.retryBackoffMs = retryBackoffMs;
         this.batches = new CopyOnWriteMap<>();
+        this.openBatches = new ConcurrentHashMap<>();
         String metricGrpName = "producer-metrics";
-        this.free = new BufferPool(totalSize, batchSize, metrics, time, metricGrpName);
+        this.free = new BufferPool(totalSize, batchSize, directMemory, metrics, time, metricGrpName);
         this.incomplete = new IncompleteRecordBatches();
         this.muted = new HashSet<>();
         this.time = time;
+        this.adaptiveBatching = adaptiveBatching ? new AdaptiveBatching(lingerMs, batchSize, metrics, metricGrpName) : null;
         registerMetrics(metrics, metricGrpName);
     }
 
@@ -166,23 +207,49 @@ public final class RecordAccumulator {
                                      byte[] value,
                                      Callback callback,
                                      long maxTimeToBlock) throws InterruptedException {
+        return append(tp, timestamp, key, Utils.wrapNullable(value), callback, maxTimeToBlock);
+    }
+
+    /**
+     * Add a record whose value has been serialized into a buffer to the accumulator, return the append result. The
+     * remaining bytes of the buffer are copied, so the caller may reuse it once this returns.
+     *
+     * @param tp The topic/partition to which this record is being sent
+     * @param timestamp The timestamp of the record
+     * @param key The key for the record
+     * @param value The serialized value for the record
+     * @param callback The user-supplied callback to execute when the request is complete
+     * @param maxTimeToBlock The maximum time in milliseconds to block for buffer memory to be available
+     */
+    public RecordAppendResult append(TopicPartition tp,
+                                     long timestamp,
+                                     byte[] key,
+                                     ByteBuffer value,
+                                     Callback callback,
+                                     long maxTimeToBlock) throws InterruptedException {
         // We keep track of the number of appending thread to make sure we do not miss batches in
         // abortIncompleteBatches().
         appendsInProgress.incrementAndGet();
         ByteBuffer buffer = null;
         try {
+            // fast path: append to an open uncompressed batch without taking the deque lock
+            RecordAppendResult appendResult = tryAppendConcurrently(tp, timestamp, key, value, callback);
+            if (appendResult != null)
+                return appendResult;
+
             // check if we have an in-progress batch
             Deque<RecordBatch> dq = getOrCreateDeque(tp);
             synchronized (dq) {
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, callback, dq);
+                appendResult = tryAppend(timestamp, key, value, callback, dq);
                 if (appendResult != null)
                     return appendResult;
             }
 
             // we don't have an in-progress record batch try to allocate a new batch
-            int size = Math.max(this.batchSize, Records.LOG_OVERHEAD + Record.recordSize(key, value));
+            int size = Math.max(this.batchSize, Records.LOG_OVERHEAD + Record.recordSize(key == null ? -1 : key.length,
+                    value == null ? -1 : value.remaining()));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
             buffer = free.allocate(size, maxTimeToBlock);
             synchronized (dq) {
@@ -190,18 +257,21 @@ public final class RecordAccumulator {
                 if (closed)
                     throw new IllegalStateException("Cannot send after the producer is closed.");
 
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, callback, dq);
+                appendResult = tryAppend(timestamp, key, value, callback, dq);
                 if (appendResult != null) {
                     // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
                     return appendResult;
                 }
 
-                MemoryRecordsBuilder recordsBuilder = MemoryRecords.builder(buffer, compression, TimestampType.CREATE_TIME, this.batchSize);
+                MemoryRecordsBuilder recordsBuilder = MemoryRecords.builder(buffer, compression, TimestampType.CREATE_TIME, this.batchSize,
+                        dictionaries.get(tp.topic()));
                 RecordBatch batch = new RecordBatch(tp, recordsBuilder, time.milliseconds());
                 FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, callback, time.milliseconds()));
 
                 dq.addLast(batch);
                 incomplete.add(batch);
+                if (batch.supportsConcurrentAppends())
+                    openBatches.put(tp, batch);
 
                 // Don't deallocate this buffer in the finally block as it's being used in the record batch
                 buffer = null;
@@ -215,11 +285,29 @@ public final class RecordAccumulator {
         }
     }
 
+    /**
+     * Try to append to the open batch of the partition without holding the deque lock. This returns null if there is
+     * no open batch or if it has no room for the record, in which case the caller must fall back to the locked path
+     * which also takes care of closing the full batch.
+     */
+    private RecordAppendResult tryAppendConcurrently(TopicPartition tp, long timestamp, byte[] key, ByteBuffer value,
+                                                     Callback callback) {
+        if (closed)
+            throw new IllegalStateException("Cannot send after the producer is closed.");
+        RecordBatch open = openBatches.get(tp);
+        if (open == null)
+            return null;
+        FutureRecordMetadata future = open.tryAppend(timestamp, key, value, callback, time.milliseconds());
+        if (future == null)
+            return null;
+        return new RecordAppendResult(future, open.isFull(), false);
+    }
+
     /**
      * If `RecordBatch.tryAppend` fails (i.e. the record batch is full), close its memory records to release temporary
      * resources (like compression streams buffers).
      */
-    private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Callback callback, Deque<RecordBatch> deque) {
+    private RecordAppendResult tryAppend(long timestamp, byte[] key, ByteBuffer value, Callback callback, Deque<RecordBatch> deque) {
         RecordBatch last = deque.peekLast();
         if (last != null) {
             FutureRecordMetadata future = last.tryAppend(timestamp, key, value, callback, time.milliseconds());
@@ -261,6 +349,7 @@ public final class RecordAccumulator {
                             expiredBatches.add(batch);
                             count++;
                             batchIterator.remove();
+                            openBatches.remove(tp, batch);
                         } else {
                             // Stop at the first batch that has not expired.
                             break;
@@ -336,9 +425,9 @@ public final class RecordAccumulator {
                     if (batch != null) {
                         boolean backingOff = batch.attempts > 0 && batch.lastAttemptMs + retryBackoffMs > nowMs;
                         long waitedTimeMs = nowMs - batch.lastAttemptMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
+                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs(part);
                         long timeLeftMs = Math.max(timeToWaitMs - waitedTimeMs, 0);
-                        boolean full = deque.size() > 1 || batch.isFull();
+                        boolean full = deque.size() > 1 || batch.isFull() || reachedTargetSize(part, batch);
                         boolean expired = waitedTimeMs >= timeToWaitMs;
                         boolean sendable = full || expired || exhausted || closed || flushInProgress();
                         if (sendable && !backingOff) {
@@ -357,6 +446,22 @@ public final class RecordAccumulator {
         return new ReadyCheckResult(readyNodes, nextReadyCheckDelayMs, unknownLeaderTopics);
     }
 
+    private long lingerMs(TopicPartition tp) {
+        return adaptiveBatching == null ? lingerMs : adaptiveBatching.lingerMs(tp);
+    }
+
+    private boolean reachedTargetSize(TopicPartition tp, RecordBatch batch) {
+        return adaptiveBatching != null && batch.sizeInBytes() >= adaptiveBatching.targetBatchSize(tp);
+    }
+
+    /**
+     * Record the latency of a produce request, which adaptive batching takes into account
+     */
+    public void recordRequestLatency(long latencyMs) {
+        if (adaptiveBatching != null)
+            adaptiveBatching.recordRequestLatency(latencyMs);
+    }
+
     /**
      * @return Whether there is any unsent record in the accumulator.
      */
@@ -373,7 +478,7 @@ public final class RecordAccumulator {
 
     /**
      * Drain all the data for the given nodes and collate them into a list of batches that will fit within the specified
-     * size on a per-node basis. This method attempts to avoid choosing the same topic-node over and over.
+     * size on a per-node basis. The {@link DrainPolicy} decides which batches of a node are drained and in which order.
      * 
      * @param cluster The current cluster metadata
      * @param nodes The list of node to drain
@@ -390,43 +495,52 @@ public final class RecordAccumulator {
 
         Map<Integer, List<RecordBatch>> batches = new HashMap<>();
         for (Node node : nodes) {
-            int size = 0;
             List<PartitionInfo> parts = cluster.partitionsForNode(node.id());
-            List<RecordBatch> ready = new ArrayList<>();
-            /* to make starvation less likely this loop doesn't start at 0 */
-            int start = drainIndex = drainIndex % parts.size();
-            do {
-                PartitionInfo part = parts.get(drainIndex);
+            List<RecordBatch> candidates = new ArrayList<>(parts.size());
+            for (PartitionInfo part : parts) {
                 TopicPartition tp = new TopicPartition(part.topic(), part.partition());
+                RecordBatch candidate = null;
                 // Only proceed if the partition has no in-flight batches.
                 if (!muted.contains(tp)) {
-                    Deque<RecordBatch> deque = getDeque(new TopicPartition(part.topic(), part.partition()));
+                    Deque<RecordBatch> deque = getDeque(tp);
                     if (deque != null) {
                         synchronized (deque) {
                             RecordBatch first = deque.peekFirst();
-                            if (first != null) {
-                                boolean backoff = first.attempts > 0 && first.lastAttemptMs + retryBackoffMs > now;
-                                // Only drain the batch if it is not during backoff period.
-                                if (!backoff) {
-                                    if (size + first.sizeInBytes() > maxSize && !ready.isEmpty()) {
-                                        // there is a rare case that a single batch size is larger than the request size due
-                                        // to compression; in this case we will still eventually send this batch in a single
-                                        // request
-                                        break;
-                                    } else {
-                                        RecordBatch batch = deque.pollFirst();
-                                        batch.close();
-                                        size += batch.sizeInBytes();
-                                        ready.add(batch);
-                                        batch.drainedMs = now;
-                                    }
-                                }
+                            // Only drain the batch if it is not during backoff period.
+                            if (first != null && !(first.attempts > 0 && first.lastAttemptMs + retryBackoffMs > now)) {
+                                // the drain policy orders batches by when they are due, which depends on the adaptive linger
+                                first.lingerMs = lingerMs(tp);
+                                candidate = first;
                             }
                         }
                     }
                 }
-                this.drainIndex = (this.drainIndex + 1) % parts.size();
-            } while (start != drainIndex);
+                candidates.add(candidate);
+            }
+
+            List<RecordBatch> ready = new ArrayList<>();
+            int size = 0;
+            for (RecordBatch batch : drainPolicy.select(candidates, maxSize, now)) {
+                Deque<RecordBatch> deque = getDeque(batch.topicPartition);
+                synchronized (deque) {
+                    // the batch may have been aborted since it was selected
+                    if (deque.peekFirst() != batch)
+                        continue;
+                    // records may have been appended to the batch since it was selected, including by appends which
+                    // do not take the deque lock, so its size is only checked once closing it has stopped it from
+                    // growing. A closed batch which no longer fits stays first in its deque for one of the next requests
+                    openBatches.remove(batch.topicPartition, batch);
+                    batch.close();
+                    if (size + batch.sizeInBytes() > maxSize && !ready.isEmpty())
+                        continue;
+                    deque.pollFirst();
+                    size += batch.sizeInBytes();
+                    ready.add(batch);
+                    batch.drainedMs = now;
+                    if (adaptiveBatching != null)
+                        adaptiveBatching.recordDrained(batch, now);
+                }
+            }
             batches.put(node.id(), ready);
         }
         return batches;
@@ -516,6 +630,7 @@ public final class RecordAccumulator {
         // batch appended by the last appending thread.
         abortBatches();
         this.batches.clear();
+        this.openBatches.clear();
     }
 
     /**
@@ -528,6 +643,7 @@ public final class RecordAccumulator {
             synchronized (dq) {
                 batch.close();
                 dq.remove(batch);
+                openBatches.remove(batch.topicPartition, batch);
             }
             batch.done(-1L, Record.NO_TIMESTAMP, new IllegalStateException("Producer is closed forcefully."));
             deallocate(batch);
@@ -23,18 +23,25 @@ import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A batch of records that is or will be sent.
  * 
- * This class is not thread safe and external synchronization must be used when modifying it
+ * This class is not thread safe and external synchronization must be used when modifying it, with the exception
+ * of the <code>tryAppend</code> methods on batches which {@link #supportsConcurrentAppends()}: those appends may run
+ * concurrently with each other and with {@link #close()}.
  */
 public final class RecordBatch {
 
@@ -44,15 +51,19 @@ public final class RecordBatch {
     final TopicPartition topicPartition;
     final ProduceRequestResult produceFuture;
 
-    private final List<Thunk> thunks = new ArrayList<>();
+    private final Queue<Thunk> thunks = new ConcurrentLinkedQueue<>();
     private final MemoryRecordsBuilder recordsBuilder;
+    private final boolean concurrentAppends;
+    private final AtomicInteger appendsInFlight = new AtomicInteger(0);
+    private final AtomicInteger concurrentMaxRecordSize = new AtomicInteger(0);
 
     volatile int attempts;
     int recordCount;
     int maxRecordSize;
     long drainedMs;
+    long lingerMs;
     long lastAttemptMs;
-    long lastAppendTime;
+    volatile long lastAppendTime;
     private String expiryErrorMessage;
     private AtomicBoolean completed;
     private boolean retry;
@@ -65,6 +76,7 @@ public final class RecordBatch {
         this.lastAppendTime = createdMs;
         this.produceFuture = new ProduceRequestResult(topicPartition);
         this.completed = new AtomicBoolean();
+        this.concurrentAppends = recordsBuilder.supportsConcurrentAppends();
     }
 
     /**
@@ -73,6 +85,9 @@ public final class RecordBatch {
      * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
      */
     public FutureRecordMetadata tryAppend(long timestamp, byte[] key, byte[] value, Callback callback, long now) {
+        if (concurrentAppends)
+            return tryAppendConcurrently(timestamp, key, value, callback, now);
+
         if (!recordsBuilder.hasRoomFor(key, value)) {
             return null;
         } else {
@@ -84,12 +99,87 @@ public final class RecordBatch {
                                                                    key == null ? -1 : key.length,
                                                                    value == null ? -1 : value.length);
             if (callback != null)
-                thunks.add(new Thunk(callback, future));
+                thunks.add(new Thunk(callback, future, this.recordCount));
             this.recordCount++;
             return future;
         }
     }
 
+    /**
+     * Append the record with a value which has been serialized into a buffer. The remaining bytes of the buffer are
+     * copied into the record set, so the caller may reuse the buffer once this returns.
+     *
+     * @return The RecordSend corresponding to this record or null if there isn't sufficient room.
+     */
+    public FutureRecordMetadata tryAppend(long timestamp, byte[] key, ByteBuffer value, Callback callback, long now) {
+        // values which wrap a whole array take the array path, which computes the crc before reserving space
+        if (value == null || wrapsWholeArray(value))
+            return tryAppend(timestamp, key, value == null ? null : value.array(), callback, now);
+        if (!concurrentAppends)
+            return tryAppend(timestamp, key, Utils.toArray(value, value.position(), value.remaining()), callback, now);
+
+        appendsInFlight.incrementAndGet();
+        try {
+            int position = recordsBuilder.tryAppendConcurrently(timestamp, key, value);
+            if (position < 0)
+                return null;
+
+            // read the offset, size and crc back from the log entry which has just been written
+            ByteBuffer buffer = recordsBuilder.buffer();
+            long relativeOffset = buffer.getLong(position + Records.OFFSET_OFFSET);
+            int recordSize = buffer.getInt(position + Records.SIZE_OFFSET);
+            long checksum = Utils.readUnsignedInt(buffer, position + Records.LOG_OVERHEAD + Record.CRC_OFFSET);
+            return appendedConcurrently(relativeOffset, recordSize, timestamp, checksum, key, value.remaining(),
+                    callback, now);
+        } finally {
+            appendsInFlight.decrementAndGet();
+        }
+    }
+
+    private FutureRecordMetadata tryAppendConcurrently(long timestamp, byte[] key, byte[] value, Callback callback, long now) {
+        // the checksum does not depend on the offset, so compute it before reserving space to keep the
+        // window between reservation and close as short as possible
+        long checksum = recordsBuilder.checksum(timestamp, key, value);
+        appendsInFlight.incrementAndGet();
+        try {
+            long relativeOffset = recordsBuilder.tryAppendConcurrently(timestamp, key, value, checksum);
+            if (relativeOffset < 0)
+                return null;
+            return appendedConcurrently(relativeOffset, Record.recordSize(key, value), timestamp, checksum, key,
+                    value == null ? -1 : value.length, callback, now);
+        } finally {
+            appendsInFlight.decrementAndGet();
+        }
+    }
+
+    private static boolean wrapsWholeArray(ByteBuffer buffer) {
+        return buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length;
+    }
+
+    private FutureRecordMetadata appendedConcurrently(long relativeOffset, int recordSize, long timestamp, long checksum,
+                                                      byte[] key, int valueSize, Callback callback, long now) {
+        int currentMax = concurrentMaxRecordSize.get();
+        while (recordSize > currentMax && !concurrentMaxRecordSize.compareAndSet(currentMax, recordSize))
+            currentMax = concurrentMaxRecordSize.get();
+        this.lastAppendTime = now;
+        FutureRecordMetadata future = new FutureRecordMetadata(this.produceFuture, relativeOffset,
+                                                               timestamp, checksum,
+                                                               key == null ? -1 : key.length,
+                                                               valueSize);
+        if (callback != null)
+            thunks.add(new Thunk(callback, future, (int) relativeOffset));
+        return future;
+    }
+
+    /**
+     * Whether appends to this batch may be performed concurrently without external synchronization. This is the
+     * case for uncompressed batches, for which space can be reserved without going through a compression stream.
+     */
+    public boolean supportsConcurrentAppends() {
+        return concurrentAppends;
+    }
+
     /**
      * Complete the request.
      * 
@@ -104,11 +194,15 @@ public final class RecordBatch {
         if (completed.getAndSet(true))
             throw new IllegalStateException("Batch has already been completed");
 
+        // make sure that no concurrent append can sneak in a record without a completed callback
+        if (concurrentAppends)
+            close();
+
         // Set the future before invoking the callbacks as we rely on its state for the `onCompletion` call
         produceFuture.set(baseOffset, logAppendTime, exception);
 
         // execute callbacks
-        for (Thunk thunk : thunks) {
+        for (Thunk thunk : orderedThunks()) {
             try {
                 if (exception == null) {
                     RecordMetadata metadata = thunk.future.value();
@@ -124,16 +218,37 @@ public final class RecordBatch {
         produceFuture.done();
     }
 
+    /**
+     * Callbacks must be invoked in offset order. Concurrent appends may enqueue their thunks out of order, so
+     * in that case they are reordered by relative offset.
+     */
+    private Iterable<Thunk> orderedThunks() {
+        if (!concurrentAppends)
+            return thunks;
+
+        Thunk[] byOffset = new Thunk[recordCount];
+        for (Thunk thunk : thunks)
+            byOffset[thunk.relativeOffset] = thunk;
+        List<Thunk> ordered = new ArrayList<>(thunks.size());
+        for (Thunk thunk : byOffset) {
+            if (thunk != null)
+                ordered.add(thunk);
+        }
+        return ordered;
+    }
+
     /**
      * A callback and the associated FutureRecordMetadata argument to pass to it.
      */
     final private static class Thunk {
         final Callback callback;
         final FutureRecordMetadata future;
+        final int relativeOffset;
 
-        public Thunk(Callback callback, FutureRecordMetadata future) {
+        public Thunk(Callback callback, FutureRecordMetadata future, int relativeOffset) {
             this.callback = callback;
             this.future = future;
+            this.relativeOffset = relativeOffset;
         }
     }
 
@@ -166,6 +281,14 @@ public final class RecordBatch {
         return expired;
     }
 
+    /**
+     * The time from which this batch is due to be sent: the end of its retry backoff if it is in retry, or else the end
+     * of the linger time of its partition, as last set by the accumulator
+     */
+    long dueMs(long retryBackoffMs) {
+        return inRetry() ? lastAttemptMs + retryBackoffMs : createdMs + lingerMs;
+    }
+
     /**
      * Completes the produce future with timeout exception and invokes callbacks.
      * This method should be invoked only if {@link #maybeExpire(int, long, long, long, boolean)}
@@ -193,6 +316,8 @@ public final class RecordBatch {
     }
 
     public MemoryRecords records() {
+        if (concurrentAppends)
+            close();
         return recordsBuilder.build();
     }
 
@@ -210,6 +335,14 @@ public final class RecordBatch {
 
     public void close() {
         recordsBuilder.close();
+        if (concurrentAppends) {
+            // closing the builder rejects new appends and waits for reserved records to be written, but appends
+            // which have reserved space may still be registering their callbacks
+            while (appendsInFlight.get() > 0)
+                Thread.yield();
+            this.recordCount = recordsBuilder.numRecords();
+            this.maxRecordSize = concurrentMaxRecordSize.get();
+        }
     }
 
     public ByteBuffer buffer() {
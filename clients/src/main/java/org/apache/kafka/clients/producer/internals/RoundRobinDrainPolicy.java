@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drains the partitions of a node in turn, resuming with the partition after the last one drained so far, and stops at
+ * the first batch which does not fit in the request.
+ */
+public final class RoundRobinDrainPolicy implements DrainPolicy {
+    private int drainIndex = 0;
+
+    @Override
+    public List<RecordBatch> select(List<RecordBatch> candidates, int maxSize, long now) {
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+
+        List<RecordBatch> selected = new ArrayList<>();
+        int size = 0;
+        /* to make starvation less likely this loop doesn't start at 0 */
+        int start = drainIndex % candidates.size();
+        int i = 0;
+        for (; i < candidates.size(); i++) {
+            RecordBatch batch = candidates.get((start + i) % candidates.size());
+            if (batch == null)
+                continue;
+            if (size + batch.sizeInBytes() > maxSize && !selected.isEmpty())
+                // there is a rare case that a single batch size is larger than the request size due
+                // to compression; in this case we will still eventually send this batch in a single
+                // request
+                break;
+            size += batch.sizeInBytes();
+            selected.add(batch);
+        }
+        // the next request resumes with the partition which did not fit, counting the partitions without a batch
+        drainIndex = (start + i) % candidates.size();
+        return selected;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.BufferSerializer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes record values with a {@link BufferSerializer} into buffers which the accumulator copies the values from.
+ * A value which the serializer already holds in a buffer is copied from that buffer. Other values are written into a
+ * buffer of the sending thread, which is reused for its following records, unless they are larger than the batch
+ * size, in which case they are serialized to a byte array so that the threads do not keep buffers larger than a batch.
+ */
+public final class ValueBufferSerializer<V> {
+
+    private final BufferSerializer<V> serializer;
+    private final int maxBufferSize;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    public ValueBufferSerializer(BufferSerializer<V> serializer, int maxBufferSize) {
+        this.serializer = serializer;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Serialize the value of a record.
+     *
+     * @return The buffer holding the serialized value between its position and limit, which must not be used once
+     *         the calling thread serializes another value, or null if the value is serialized as null
+     */
+    public ByteBuffer serialize(String topic, V value) {
+        int size = serializer.serializedSize(topic, value);
+        if (size < 0)
+            return null;
+
+        ByteBuffer buffer = serializer.serializedBuffer(topic, value);
+        if (buffer != null) {
+            if (buffer.remaining() != size)
+                throw new SerializationException("Serializer " + serializer.getClass().getName() + " returned " +
+                        buffer.remaining() + " bytes instead of the " + size + " bytes it reported for a value of topic " + topic);
+            return buffer;
+        }
+
+        if (size > maxBufferSize)
+            return ByteBuffer.wrap(serializer.serialize(topic, value));
+
+        buffer = buffers.get();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.min(maxBufferSize, Math.max(size, buffer == null ? 0 : 2 * buffer.capacity())));
+            buffers.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        try {
+            serializer.serialize(topic, value, buffer);
+        } catch (BufferOverflowException e) {
+            throw new SerializationException("Serializer " + serializer.getClass().getName() +
+                    " wrote more than the " + size + " bytes it reported for a value of topic " + topic);
+        }
+        if (buffer.hasRemaining())
+            throw new SerializationException("Serializer " + serializer.getClass().getName() + " wrote " +
+                    buffer.position() + " bytes instead of the " + size + " bytes it reported for a value of topic " + topic);
+        buffer.flip();
+        return buffer;
+    }
+}
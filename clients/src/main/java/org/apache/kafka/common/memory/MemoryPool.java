@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of memory which network receives are allocated from. A bounded pool limits the memory held by the receives
+ * which have been allocated from it and not released yet; a connection whose next receive cannot be allocated is not
+ * read from until enough memory has been released.
+ * <p>
+ * Pools only account for the memory they hand out: a released buffer is never handed out again. Implementations must
+ * be thread safe, since buffers may be released by other threads than the one which allocated them.
+ */
+public interface MemoryPool {
+
+    /**
+     * A pool which allocates every buffer on the heap and has no bound
+     */
+    MemoryPool NONE = new MemoryPool() {
+        @Override
+        public ByteBuffer tryAllocate(int sizeBytes) {
+            return ByteBuffer.allocate(sizeBytes);
+        }
+
+        @Override
+        public void release(ByteBuffer previouslyAllocated) {}
+
+        @Override
+        public long size() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public long availableMemory() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean isOutOfMemory() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "NONE";
+        }
+    };
+
+    /**
+     * Try to allocate a buffer of the given size
+     * @param sizeBytes The size of the buffer in bytes
+     * @return The buffer, or null if the pool does not have enough memory available
+     */
+    ByteBuffer tryAllocate(int sizeBytes);
+
+    /**
+     * Return a buffer obtained from {@link #tryAllocate(int)}, which must no longer be used by the caller
+     */
+    void release(ByteBuffer previouslyAllocated);
+
+    /**
+     * The total memory in bytes managed by the pool
+     */
+    long size();
+
+    /**
+     * The memory in bytes which is currently available. This may be negative if the pool allowed an allocation which
+     * was larger than the available memory.
+     */
+    long availableMemory();
+
+    /**
+     * Whether the pool is out of memory, in which case no allocation will succeed until memory is released
+     */
+    boolean isOutOfMemory();
+}
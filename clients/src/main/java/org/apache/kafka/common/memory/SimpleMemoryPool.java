@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded {@link MemoryPool} which allocates its buffers on the heap and only accounts for the memory they take.
+ * <p>
+ * An allocation succeeds as long as any memory is available, even if the requested size is larger. This way a
+ * receive which is larger than the whole pool can still be read once the other receives have been released, at the
+ * cost of exceeding the bound by at most the size of one receive.
+ */
+public class SimpleMemoryPool implements MemoryPool {
+    private final long sizeBytes;
+    private final AtomicLong availableMemory;
+
+    public SimpleMemoryPool(long sizeBytes) {
+        if (sizeBytes <= 0)
+            throw new IllegalArgumentException("The size of the memory pool must be positive, but was " + sizeBytes);
+        this.sizeBytes = sizeBytes;
+        this.availableMemory = new AtomicLong(sizeBytes);
+    }
+
+    @Override
+    public ByteBuffer tryAllocate(int sizeBytes) {
+        if (sizeBytes < 0)
+            throw new IllegalArgumentException("Requested size " + sizeBytes + " is negative");
+
+        long available;
+        do {
+            available = availableMemory.get();
+            if (available <= 0)
+                return null;
+        } while (!availableMemory.compareAndSet(available, available - sizeBytes));
+
+        try {
+            return ByteBuffer.allocate(sizeBytes);
+        } catch (OutOfMemoryError e) {
+            availableMemory.addAndGet(sizeBytes);
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(ByteBuffer previouslyAllocated) {
+        if (previouslyAllocated == null)
+            throw new IllegalArgumentException("Released buffer cannot be null");
+        availableMemory.addAndGet(previouslyAllocated.capacity());
+    }
+
+    @Override
+    public long size() {
+        return sizeBytes;
+    }
+
+    @Override
+    public long availableMemory() {
+        return availableMemory.get();
+    }
+
+    @Override
+    public boolean isOutOfMemory() {
+        return availableMemory.get() <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SimpleMemoryPool(" + availableMemory() + "/" + sizeBytes + " bytes available)";
+    }
+}
@@ -25,6 +25,7 @@ import java.nio.channels.SelectionKey;
 
 import java.security.Principal;
 
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.utils.Utils;
 
 public class KafkaChannel {
@@ -32,6 +33,9 @@ public class KafkaChannel {
     private final TransportLayer transportLayer;
     private final Authenticator authenticator;
     private final int maxReceiveSize;
+    private final MemoryPool memoryPool;
+    // receives are allocated on the heap unless the owner of the connection asked for the memory pool
+    private boolean allocateFromMemoryPool;
     private NetworkReceive receive;
     private Send send;
     // Track connection and mute state of channels to enable outstanding requests on channels to be
@@ -39,17 +43,21 @@ public class KafkaChannel {
     private boolean disconnected;
     private boolean muted;
 
-    public KafkaChannel(String id, TransportLayer transportLayer, Authenticator authenticator, int maxReceiveSize) throws IOException {
+    public KafkaChannel(String id, TransportLayer transportLayer, Authenticator authenticator, int maxReceiveSize,
+                        MemoryPool memoryPool) throws IOException {
         this.id = id;
         this.transportLayer = transportLayer;
         this.authenticator = authenticator;
         this.maxReceiveSize = maxReceiveSize;
+        this.memoryPool = memoryPool;
         this.disconnected = false;
         this.muted = false;
     }
 
     public void close() throws IOException {
         this.disconnected = true;
+        if (receive != null)
+            receive.close();
         Utils.closeAll(transportLayer, authenticator);
     }
 
@@ -100,6 +108,36 @@ public class KafkaChannel {
         muted = false;
     }
 
+    /**
+     * Returns true if the payload of the current receive cannot be allocated until memory is released to the pool
+     */
+    public boolean isWaitingForMemory() {
+        return receive != null && receive.isWaitingForMemory();
+    }
+
+    /**
+     * Allocate the following receives of this channel from the memory pool it was built with
+     */
+    void allocateFromMemoryPool() {
+        allocateFromMemoryPool = true;
+    }
+
+    /**
+     * Stop selecting this channel for reads while it is waiting for memory
+     */
+    void pauseReadsForMemory() {
+        if (!disconnected)
+            transportLayer.removeInterestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Select this channel for reads again once memory may be available, unless it has been explicitly muted
+     */
+    void resumeReadsForMemory() {
+        if (!disconnected && !muted)
+            transportLayer.addInterestOps(SelectionKey.OP_READ);
+    }
+
     /**
      * Returns true if this channel has been explicitly muted using {@link KafkaChannel#mute()}
      */
@@ -143,7 +181,7 @@ public class KafkaChannel {
         NetworkReceive result = null;
 
         if (receive == null) {
-            receive = new NetworkReceive(maxReceiveSize, id);
+            receive = new NetworkReceive(maxReceiveSize, id, allocateFromMemoryPool ? memoryPool : MemoryPool.NONE);
         }
 
         receive(receive);
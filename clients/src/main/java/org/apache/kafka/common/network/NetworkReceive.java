@@ -16,6 +16,8 @@
  */
 package org.apache.kafka.common.network;
 
+import org.apache.kafka.common.memory.MemoryPool;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -33,6 +35,8 @@ public class NetworkReceive implements Receive {
     private final String source;
     private final ByteBuffer size;
     private final int maxSize;
+    private final MemoryPool memoryPool;
+    private int requestedBufferSize = -1;
     private ByteBuffer buffer;
 
 
@@ -41,20 +45,23 @@ public class NetworkReceive implements Receive {
         this.buffer = buffer;
         this.size = null;
         this.maxSize = UNLIMITED;
+        this.memoryPool = MemoryPool.NONE;
     }
 
     public NetworkReceive(String source) {
-        this.source = source;
-        this.size = ByteBuffer.allocate(4);
-        this.buffer = null;
-        this.maxSize = UNLIMITED;
+        this(UNLIMITED, source);
     }
 
     public NetworkReceive(int maxSize, String source) {
+        this(maxSize, source, MemoryPool.NONE);
+    }
+
+    public NetworkReceive(int maxSize, String source, MemoryPool memoryPool) {
         this.source = source;
         this.size = ByteBuffer.allocate(4);
         this.buffer = null;
         this.maxSize = maxSize;
+        this.memoryPool = memoryPool;
     }
 
     public NetworkReceive() {
@@ -68,7 +75,7 @@ public class NetworkReceive implements Receive {
 
     @Override
     public boolean complete() {
-        return !size.hasRemaining() && !buffer.hasRemaining();
+        return !size.hasRemaining() && buffer != null && !buffer.hasRemaining();
     }
 
     public long readFrom(ScatteringByteChannel channel) throws IOException {
@@ -94,9 +101,13 @@ public class NetworkReceive implements Receive {
                 if (maxSize != UNLIMITED && receiveSize > maxSize)
                     throw new InvalidReceiveException("Invalid receive (size = " + receiveSize + " larger than " + maxSize + ")");
 
-                this.buffer = ByteBuffer.allocate(receiveSize);
+                requestedBufferSize = receiveSize;
             }
         }
+        if (buffer == null && requestedBufferSize >= 0) {
+            // if the pool is out of memory, the payload is read once a later call can allocate it
+            buffer = memoryPool.tryAllocate(requestedBufferSize);
+        }
         if (buffer != null) {
             int bytesRead = channel.read(buffer);
             if (bytesRead < 0)
@@ -107,8 +118,32 @@ public class NetworkReceive implements Receive {
         return read;
     }
 
+    /**
+     * Whether the size of the payload has been read but its buffer could not be allocated from the memory pool yet
+     */
+    public boolean isWaitingForMemory() {
+        return buffer == null && requestedBufferSize >= 0;
+    }
+
     public ByteBuffer payload() {
         return this.buffer;
     }
 
+    /**
+     * The memory pool the payload was allocated from, to which its owner must release it
+     */
+    public MemoryPool memoryPool() {
+        return memoryPool;
+    }
+
+    /**
+     * Release the payload to the memory pool if it was allocated but not received completely
+     */
+    public void close() {
+        if (buffer != null && !complete()) {
+            memoryPool.release(buffer);
+            buffer = null;
+        }
+    }
+
 }
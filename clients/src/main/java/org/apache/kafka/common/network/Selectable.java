@@ -113,6 +113,13 @@ public interface Selectable {
      */
     public void unmuteAll();
 
+    /**
+     * Allocate the receives of the given connection from the memory pool of this selectable, if it has one. The
+     * receives of all other connections are allocated on the heap, so they are read even while the pool is out of memory.
+     * @param id The id for the connection
+     */
+    public void allocateFromMemoryPool(String id);
+
     /**
      * returns true  if a channel is ready
      * @param id The id for the connection
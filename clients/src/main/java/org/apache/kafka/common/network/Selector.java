@@ -31,12 +31,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.metrics.Measurable;
 import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.MetricName;
@@ -102,6 +104,9 @@ public class Selector implements Selectable {
     private final int maxReceiveSize;
     private final boolean metricsPerConnection;
     private final IdleExpiryManager idleExpiryManager;
+    private final MemoryPool memoryPool;
+    // channels whose next receive could not be allocated from the memory pool, which are not selected for reads
+    private final Set<KafkaChannel> channelsWaitingForMemory;
 
     /**
      * Create a new nioSelector
@@ -114,6 +119,8 @@ public class Selector implements Selectable {
      * @param metricTags Additional tags to add to metrics registered by Selector
      * @param metricsPerConnection Whether or not to enable per-connection metrics
      * @param channelBuilder Channel builder for every new connection
+     * @param memoryPool Memory pool which the receives of the connections passed to {@link #allocateFromMemoryPool(String)}
+     *                   are allocated from
      */
     public Selector(int maxReceiveSize,
                     long connectionMaxIdleMs,
@@ -122,7 +129,8 @@ public class Selector implements Selectable {
                     String metricGrpPrefix,
                     Map<String, String> metricTags,
                     boolean metricsPerConnection,
-                    ChannelBuilder channelBuilder) {
+                    ChannelBuilder channelBuilder,
+                    MemoryPool memoryPool) {
         try {
             this.nioSelector = java.nio.channels.Selector.open();
         } catch (IOException e) {
@@ -145,6 +153,20 @@ public class Selector implements Selectable {
         this.channelBuilder = channelBuilder;
         this.metricsPerConnection = metricsPerConnection;
         this.idleExpiryManager = connectionMaxIdleMs < 0 ? null : new IdleExpiryManager(time, connectionMaxIdleMs);
+        this.memoryPool = memoryPool;
+        this.channelsWaitingForMemory = new LinkedHashSet<>();
+    }
+
+    public Selector(int maxReceiveSize,
+                    long connectionMaxIdleMs,
+                    Metrics metrics,
+                    Time time,
+                    String metricGrpPrefix,
+                    Map<String, String> metricTags,
+                    boolean metricsPerConnection,
+                    ChannelBuilder channelBuilder) {
+        this(maxReceiveSize, connectionMaxIdleMs, metrics, time, metricGrpPrefix, metricTags, metricsPerConnection,
+                channelBuilder, MemoryPool.NONE);
     }
 
     public Selector(long connectionMaxIdleMS, Metrics metrics, Time time, String metricGrpPrefix, ChannelBuilder channelBuilder) {
@@ -189,7 +211,7 @@ public class Selector implements Selectable {
             throw e;
         }
         SelectionKey key = socketChannel.register(nioSelector, SelectionKey.OP_CONNECT);
-        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize);
+        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize, memoryPool);
         key.attach(channel);
         this.channels.put(id, channel);
 
@@ -208,7 +230,7 @@ public class Selector implements Selectable {
      */
     public void register(String id, SocketChannel socketChannel) throws ClosedChannelException {
         SelectionKey key = socketChannel.register(nioSelector, SelectionKey.OP_READ);
-        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize);
+        KafkaChannel channel = channelBuilder.buildChannel(id, key, maxReceiveSize, memoryPool);
         key.attach(channel);
         this.channels.put(id, channel);
     }
@@ -294,7 +316,8 @@ public class Selector implements Selectable {
 
         clear();
 
-        if (hasStagedReceives() || !immediatelyConnectedKeys.isEmpty())
+        boolean readWaitingChannels = !channelsWaitingForMemory.isEmpty() && !memoryPool.isOutOfMemory();
+        if (hasStagedReceives() || !immediatelyConnectedKeys.isEmpty() || readWaitingChannels)
             timeout = 0;
 
         /* check ready keys */
@@ -308,6 +331,9 @@ public class Selector implements Selectable {
             pollSelectionKeys(immediatelyConnectedKeys, true, endSelect);
         }
 
+        if (readWaitingChannels)
+            readChannelsWaitingForMemory();
+
         addToCompletedReceives();
 
         long endIo = time.nanoseconds();
@@ -354,11 +380,8 @@ public class Selector implements Selectable {
                     channel.prepare();
 
                 /* if channel is ready read from any connections that have readable data */
-                if (channel.ready() && key.isReadable() && !hasStagedReceive(channel)) {
-                    NetworkReceive networkReceive;
-                    while ((networkReceive = channel.read()) != null)
-                        addToStagedReceives(channel, networkReceive);
-                }
+                if (channel.ready() && key.isReadable() && !hasStagedReceive(channel))
+                    attemptRead(channel);
 
                 /* if channel is ready write to any sockets that have space in their buffer and for which we have data */
                 if (channel.ready() && key.isWritable()) {
@@ -384,6 +407,38 @@ public class Selector implements Selectable {
         }
     }
 
+    private void attemptRead(KafkaChannel channel) throws IOException {
+        NetworkReceive networkReceive;
+        while ((networkReceive = channel.read()) != null)
+            addToStagedReceives(channel, networkReceive);
+        if (channel.isWaitingForMemory() && channelsWaitingForMemory.add(channel)) {
+            log.trace("Not reading from {} until memory is available to receive into", channel.id());
+            channel.pauseReadsForMemory();
+        }
+    }
+
+    /**
+     * Read from the channels which were waiting for memory. This does not rely on the channels being selected, since
+     * some transport layers may already have buffered the data to be read.
+     */
+    private void readChannelsWaitingForMemory() {
+        List<KafkaChannel> waitingChannels = new ArrayList<>(channelsWaitingForMemory);
+        channelsWaitingForMemory.clear();
+        for (KafkaChannel channel : waitingChannels) {
+            channel.resumeReadsForMemory();
+            if (channel.isMute() || hasStagedReceive(channel)) {
+                // the read is attempted once the channel is selected for reads again
+                continue;
+            }
+            try {
+                attemptRead(channel);
+            } catch (Exception e) {
+                log.debug("Connection with {} disconnected", channel.socketDescription(), e);
+                close(channel, true);
+            }
+        }
+    }
+
     @Override
     public List<Send> completedSends() {
         return this.completedSends;
@@ -436,6 +491,11 @@ public class Selector implements Selectable {
             unmute(channel);
     }
 
+    @Override
+    public void allocateFromMemoryPool(String id) {
+        channelOrFail(id, false).allocateFromMemoryPool();
+    }
+
     private void maybeCloseOldestConnection(long currentTimeNanos) {
         if (idleExpiryManager == null)
             return;
@@ -546,7 +606,12 @@ public class Selector implements Selectable {
             log.error("Exception closing connection to node {}:", channel.id(), e);
         }
         this.sensors.connectionClosed.record();
-        this.stagedReceives.remove(channel);
+        this.channelsWaitingForMemory.remove(channel);
+        Deque<NetworkReceive> deque = this.stagedReceives.remove(channel);
+        if (deque != null) {
+            for (NetworkReceive receive : deque)
+                receive.memoryPool().release(receive.payload());
+        }
         if (notifyDisconnect)
             this.disconnected.add(channel.id());
     }
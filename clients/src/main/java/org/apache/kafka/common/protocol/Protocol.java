@@ -164,6 +164,12 @@ public class Protocol {
      * timestamp.
      */
     public static final Schema PRODUCE_REQUEST_V2 = PRODUCE_REQUEST_V1;
+    /**
+     * The body of PRODUCE_REQUEST_V3 is the same as PRODUCE_REQUEST_V2.
+     * The version number is bumped up to indicate that the records may be compressed with zstd, which the broker
+     * rejects in requests of older versions.
+     */
+    public static final Schema PRODUCE_REQUEST_V3 = PRODUCE_REQUEST_V2;
 
     public static final Schema PRODUCE_RESPONSE_V1 = new Schema(new Field("responses",
                                                                           new ArrayOf(new Schema(new Field("topic", STRING),
@@ -204,8 +210,9 @@ public class Protocol {
                                                                           "Duration in milliseconds for which the request was throttled" +
                                                                               " due to quota violation. (Zero if the request did not violate any quota.)",
                                                                           0));
-    public static final Schema[] PRODUCE_REQUEST = new Schema[] {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2};
-    public static final Schema[] PRODUCE_RESPONSE = new Schema[] {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2};
+    public static final Schema PRODUCE_RESPONSE_V3 = PRODUCE_RESPONSE_V2;
+    public static final Schema[] PRODUCE_REQUEST = new Schema[] {PRODUCE_REQUEST_V0, PRODUCE_REQUEST_V1, PRODUCE_REQUEST_V2, PRODUCE_REQUEST_V3};
+    public static final Schema[] PRODUCE_RESPONSE = new Schema[] {PRODUCE_RESPONSE_V0, PRODUCE_RESPONSE_V1, PRODUCE_RESPONSE_V2, PRODUCE_RESPONSE_V3};
 
     /* Offset commit api */
     public static final Schema OFFSET_COMMIT_REQUEST_PARTITION_V0 = new Schema(new Field("partition",
@@ -519,6 +526,44 @@ public class Protocol {
                                                                        new ArrayOf(FETCH_REQUEST_TOPIC_V0),
                                                                        "Topics to fetch in the order provided."));
 
+    public static final Schema FETCH_REQUEST_FORGOTTEN_TOPIC_V4 = new Schema(new Field("topic", STRING, "Topic to remove from the fetch session."),
+                                                                             new Field("partitions",
+                                                                                       new ArrayOf(INT32),
+                                                                                       "Partitions to remove from the fetch session."));
+
+    // FETCH_REQUEST_V4 added fetch sessions. After a full fetch request has created a session, incremental fetch requests
+    // only contain the partitions which were added to the session or whose fetch offset or max bytes changed.
+    public static final Schema FETCH_REQUEST_V4 = new Schema(new Field("replica_id",
+                                                                       INT32,
+                                                                       "Broker id of the follower. For normal consumers, use -1."),
+                                                             new Field("max_wait_time",
+                                                                       INT32,
+                                                                       "Maximum time in ms to wait for the response."),
+                                                             new Field("min_bytes",
+                                                                       INT32,
+                                                                       "Minimum bytes to accumulate in the response."),
+                                                             new Field("max_bytes",
+                                                                       INT32,
+                                                                       "Maximum bytes to accumulate in the response. Note that this is not an absolute maximum, " +
+                                                                       "if the first message in the first non-empty partition of the fetch is larger than this " +
+                                                                       "value, the message will still be returned to ensure that progress can be made."),
+                                                             new Field("session_id",
+                                                                       INT32,
+                                                                       "The fetch session ID, or 0 if the request is not part of a fetch session."),
+                                                             new Field("session_epoch",
+                                                                       INT32,
+                                                                       "The fetch session epoch. A full fetch request with epoch 0 creates a new session if possible, " +
+                                                                       "and one with epoch -1 does not. Both close the session with the given ID, if any."),
+                                                             new Field("topics",
+                                                                       new ArrayOf(FETCH_REQUEST_TOPIC_V0),
+                                                                       "Topics to fetch in the order provided."),
+                                                             new Field("forgotten_topics_data",
+                                                                       new ArrayOf(FETCH_REQUEST_FORGOTTEN_TOPIC_V4),
+                                                                       "Partitions to remove from the fetch session, in an incremental fetch request."));
+    // The body of FETCH_REQUEST_V5 is the same as FETCH_REQUEST_V4. The version number is bumped up to indicate that
+    // the client can decompress zstd records, which the broker does not return to older versions.
+    public static final Schema FETCH_REQUEST_V5 = FETCH_REQUEST_V4;
+
     public static final Schema FETCH_RESPONSE_PARTITION_HEADER_V0 = new Schema(new Field("partition",
                                                                                          INT32,
                                                                                          "Topic partition id."),
@@ -548,9 +593,23 @@ public class Protocol {
     // (magic byte 0 and 1). For details, see ByteBufferMessageSet.
     public static final Schema FETCH_RESPONSE_V2 = FETCH_RESPONSE_V1;
     public static final Schema FETCH_RESPONSE_V3 = FETCH_RESPONSE_V2;
+    // FETCH_RESPONSE_V4 added a top level error code and the fetch session ID. Incremental fetch responses only contain
+    // the partitions which have records, an error or a changed high watermark.
+    public static final Schema FETCH_RESPONSE_V4 = new Schema(new Field("throttle_time_ms",
+                                                                        INT32,
+                                                                        "Duration in milliseconds for which the request was throttled" +
+                                                                            " due to quota violation. (Zero if the request did not violate any quota.)",
+                                                                        0),
+                                                              new Field("error_code", INT16, "The top level error of the fetch session."),
+                                                              new Field("session_id",
+                                                                        INT32,
+                                                                        "The fetch session ID, or 0 if the response is not part of a fetch session."),
+                                                              new Field("responses",
+                                                                        new ArrayOf(FETCH_RESPONSE_TOPIC_V0)));
+    public static final Schema FETCH_RESPONSE_V5 = FETCH_RESPONSE_V4;
 
-    public static final Schema[] FETCH_REQUEST = new Schema[] {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3};
-    public static final Schema[] FETCH_RESPONSE = new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3};
+    public static final Schema[] FETCH_REQUEST = new Schema[] {FETCH_REQUEST_V0, FETCH_REQUEST_V1, FETCH_REQUEST_V2, FETCH_REQUEST_V3, FETCH_REQUEST_V4, FETCH_REQUEST_V5};
+    public static final Schema[] FETCH_RESPONSE = new Schema[] {FETCH_RESPONSE_V0, FETCH_RESPONSE_V1, FETCH_RESPONSE_V2, FETCH_RESPONSE_V3, FETCH_RESPONSE_V4, FETCH_RESPONSE_V5};
 
     /* List groups api */
     public static final Schema LIST_GROUPS_REQUEST_V0 = new Schema();
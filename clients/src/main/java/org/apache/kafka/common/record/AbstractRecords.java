@@ -51,6 +51,14 @@ public abstract class AbstractRecords implements Records {
         return true;
     }
 
+    @Override
+    public boolean hasShallowCompressionType(CompressionType compressionType) {
+        for (LogEntry entry : shallowEntries())
+            if (entry.compressionType() == compressionType)
+                return true;
+        return false;
+    }
+
     /**
      * Convert this message set to use the specified message format.
      */
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Supplies the block buffers which decompressing streams read into. A caching supplier keeps the buffers which are
+ * released to it and hands them out again, so that decompressing one record set after another does not allocate new
+ * block buffers for each of them.
+ * <p>
+ * Caching suppliers are not thread safe. Each one should be used by a single thread, such as the consumer's fetcher
+ * or a broker request handler thread.
+ */
+public abstract class BufferSupplier {
+
+    /**
+     * A supplier which allocates a new buffer on every call and never caches released buffers
+     */
+    public static final BufferSupplier NO_CACHING = new BufferSupplier() {
+        @Override
+        public byte[] get(int size) {
+            return new byte[size];
+        }
+
+        @Override
+        public void release(byte[] buffer) {}
+    };
+
+    /**
+     * Create a supplier which caches released buffers for reuse
+     */
+    public static BufferSupplier create() {
+        return new CachingBufferSupplier();
+    }
+
+    /**
+     * Get a buffer of exactly the given size. Its content is undefined.
+     */
+    public abstract byte[] get(int size);
+
+    /**
+     * Return a buffer obtained from {@link #get(int)}, which must no longer be used by the caller
+     */
+    public abstract void release(byte[] buffer);
+
+    private static class CachingBufferSupplier extends BufferSupplier {
+        // a decompressing stream only needs a few buffers at once, and most of them have the same few sizes
+        private final Map<Integer, Deque<byte[]>> buffers = new HashMap<>();
+
+        @Override
+        public byte[] get(int size) {
+            Deque<byte[]> free = buffers.get(size);
+            byte[] buffer = free == null ? null : free.pollFirst();
+            return buffer == null ? new byte[size] : buffer;
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+            Deque<byte[]> free = buffers.get(buffer.length);
+            if (free == null) {
+                free = new ArrayDeque<>();
+                buffers.put(buffer.length, free);
+            }
+            free.addFirst(buffer);
+        }
+    }
+}
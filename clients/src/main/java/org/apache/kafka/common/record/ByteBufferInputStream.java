@@ -45,4 +45,8 @@ public final class ByteBufferInputStream extends InputStream {
         buffer.get(bytes, off, len);
         return len;
     }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.KafkaException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A trained compression dictionary for the {@link CompressionType#ZSTD} codec. Small records compress poorly because
+ * every compressed record set starts with an empty window; a dictionary trained on samples of a topic's records
+ * primes the window with the content those records have in common.
+ * <p>
+ * The id of the dictionary is written to the header of every zstd frame compressed with it, so readers find the
+ * dictionary to decompress a record set with by looking up that id in the registry of this JVM. Dictionaries must
+ * therefore be {@link #register(CompressionDictionary) registered} by every process which reads record sets
+ * compressed with them, and are removed from the registry once every registration has been
+ * {@link #unregister(CompressionDictionary) released}. Brokers register the dictionary of the
+ * <code>compression.dictionary</code> config of each topic they host, which holds its {@link #fromBase64(String)
+ * base64 encoding}.
+ */
+public final class CompressionDictionary {
+
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+    private static final int[] FRAME_DICTIONARY_ID_SIZES = {0, 1, 2, 4};
+
+    private static final ConcurrentMap<Integer, CompressionDictionary> REGISTRY = new ConcurrentHashMap<>();
+    // the number of registrations of each registered dictionary, guarded by the lock of the registry
+    private static final Map<Integer, Integer> REGISTRATIONS = new HashMap<>();
+
+    private final int id;
+    private final byte[] bytes;
+
+    private CompressionDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Create a dictionary from its serialized form, as produced by {@link #train(Collection, int)}
+     * @throws IllegalArgumentException if the bytes are not a zstd dictionary with a non-zero id
+     */
+    public static CompressionDictionary fromBytes(byte[] bytes) {
+        if (bytes.length < 8)
+            throw new IllegalArgumentException("Compression dictionary is too short: " + bytes.length + " bytes");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Invalid compression dictionary magic");
+        int id = buffer.getInt(4);
+        if (id == 0)
+            throw new IllegalArgumentException("Compression dictionaries must have a non-zero id");
+        return new CompressionDictionary(id, bytes.clone());
+    }
+
+    /**
+     * Create a dictionary from the base64 encoding of its serialized form, as held by topic configs
+     * @throws IllegalArgumentException if the decoded bytes are not a zstd dictionary with a non-zero id
+     */
+    public static CompressionDictionary fromBase64(String encoded) {
+        return fromBytes(DatatypeConverter.parseBase64Binary(encoded));
+    }
+
+    public static CompressionDictionary readFrom(File file) throws IOException {
+        return fromBytes(Files.readAllBytes(file.toPath()));
+    }
+
+    public void writeTo(File file) throws IOException {
+        Files.write(file.toPath(), bytes);
+    }
+
+    /**
+     * Train a dictionary of at most the given size on sample record values. A few thousand samples which are
+     * representative of the topic's records are usually enough.
+     */
+    public static CompressionDictionary train(Collection<byte[]> samples, int maxSize) {
+        byte[] dictionary = new byte[maxSize];
+        long size;
+        try {
+            Class<?> zstd = Class.forName("com.github.luben.zstd.Zstd");
+            Method trainFromBuffer = zstd.getMethod("trainFromBuffer", byte[][].class, byte[].class);
+            size = (Long) trainFromBuffer.invoke(null, samples.toArray(new byte[samples.size()][]), dictionary);
+            if ((Boolean) zstd.getMethod("isError", Long.TYPE).invoke(null, size))
+                throw new KafkaException("Failed to train compression dictionary: " +
+                        zstd.getMethod("getErrorName", Long.TYPE).invoke(null, size));
+        } catch (ReflectiveOperationException e) {
+            throw new KafkaException(e);
+        }
+        return fromBytes(Arrays.copyOf(dictionary, (int) size));
+    }
+
+    public String toBase64() {
+        return DatatypeConverter.printBase64Binary(bytes);
+    }
+
+    /**
+     * Make the dictionary available for decompressing record sets in this JVM until this registration is released
+     * by {@link #unregister(CompressionDictionary)}. A dictionary may be registered several times.
+     * @throws IllegalArgumentException if a different dictionary with the same id has already been registered
+     */
+    public static void register(CompressionDictionary dictionary) {
+        synchronized (REGISTRY) {
+            CompressionDictionary previous = REGISTRY.putIfAbsent(dictionary.id, dictionary);
+            if (previous != null && !previous.equals(dictionary))
+                throw new IllegalArgumentException("A different compression dictionary with id " + dictionary.id +
+                        " has already been registered");
+            Integer registrations = REGISTRATIONS.get(dictionary.id);
+            REGISTRATIONS.put(dictionary.id, registrations == null ? 1 : registrations + 1);
+        }
+    }
+
+    /**
+     * Release a registration of the dictionary, which is removed from the registry once all its registrations have
+     * been released
+     */
+    public static void unregister(CompressionDictionary dictionary) {
+        synchronized (REGISTRY) {
+            Integer registrations = REGISTRATIONS.get(dictionary.id);
+            if (registrations == null || !dictionary.equals(REGISTRY.get(dictionary.id)))
+                return;
+            if (registrations > 1) {
+                REGISTRATIONS.put(dictionary.id, registrations - 1);
+            } else {
+                REGISTRATIONS.remove(dictionary.id);
+                REGISTRY.remove(dictionary.id);
+            }
+        }
+    }
+
+    /**
+     * Get a registered dictionary
+     * @return The dictionary or null if no dictionary with this id has been registered
+     */
+    public static CompressionDictionary forId(int id) {
+        return REGISTRY.get(id);
+    }
+
+    /**
+     * Read the id of the dictionary a zstd frame has been compressed with from the frame header.
+     * @param buffer The buffer positioned at the start of the frame, its position is not modified
+     * @return The dictionary id or 0 if the frame has been compressed without a dictionary
+     */
+    static int frameDictionaryId(ByteBuffer buffer) {
+        ByteBuffer frame = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = frame.position();
+        if (frame.remaining() < 5 || frame.getInt(start) != FRAME_MAGIC)
+            return 0;
+        byte descriptor = frame.get(start + 4);
+        int idSize = FRAME_DICTIONARY_ID_SIZES[descriptor & 0x03];
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        int idOffset = start + 5 + (singleSegment ? 0 : 1);
+        if (idSize == 0 || frame.limit() < idOffset + idSize)
+            return 0;
+        switch (idSize) {
+            case 1:
+                return frame.get(idOffset) & 0xff;
+            case 2:
+                return frame.getShort(idOffset) & 0xffff;
+            default:
+                return frame.getInt(idOffset);
+        }
+    }
+
+    public int id() {
+        return id;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        CompressionDictionary that = (CompressionDictionary) o;
+        return id == that.id && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * id + Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionDictionary(id=" + (id & 0xffffffffL) + ", size=" + bytes.length + ")";
+    }
+}
@@ -18,9 +18,11 @@ package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.KafkaException;
 
+import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -52,8 +54,14 @@ public enum CompressionType {
 
         @Override
         public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion) {
+            return wrapForInput(buffer, messageVersion, BufferSupplier.NO_CACHING);
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion, BufferSupplier bufferSupplier) {
             try {
-                return new GZIPInputStream(buffer);
+                // GZIPInputStream inflates on every single byte read, so buffer the small reads of the record headers
+                return new SuppliedBufferedInputStream(new GZIPInputStream(buffer), bufferSupplier, GZIP_INPUT_BUFFER_SIZE);
             } catch (Exception e) {
                 throw new KafkaException(e);
             }
@@ -93,15 +101,74 @@ public enum CompressionType {
 
         @Override
         public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion) {
+            return wrapForInput(buffer, messageVersion, BufferSupplier.NO_CACHING);
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion, BufferSupplier bufferSupplier) {
             try {
-                return (InputStream) LZ4_INPUT_STREAM_SUPPLIER.get().newInstance(buffer,
+                return (InputStream) LZ4_INPUT_STREAM_SUPPLIER.get().newInstance(buffer, bufferSupplier,
                         messageVersion == Record.MAGIC_VALUE_V0);
             } catch (Exception e) {
                 throw new KafkaException(e);
             }
         }
+    },
+
+    ZSTD(4, "zstd", 0.5f) {
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, int bufferSize) {
+            return wrapForOutput(buffer, messageVersion, bufferSize, null);
+        }
+
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, int bufferSize,
+                                          CompressionDictionary dictionary) {
+            try {
+                OutputStream out = (OutputStream) ZSTD_OUTPUT_STREAM_SUPPLIER.get().newInstance(buffer);
+                if (dictionary != null)
+                    setDictionary(out, dictionary);
+                // the zstd streams flush a frame block on every write, so buffer the small record writes
+                return new BufferedOutputStream(out, bufferSize);
+            } catch (Exception e) {
+                throw new KafkaException(e);
+            }
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion) {
+            return wrapForInput(buffer, messageVersion, BufferSupplier.NO_CACHING);
+        }
+
+        @Override
+        public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion, BufferSupplier bufferSupplier) {
+            int dictionaryId = CompressionDictionary.frameDictionaryId(buffer.buffer());
+            CompressionDictionary dictionary = null;
+            if (dictionaryId != 0) {
+                dictionary = CompressionDictionary.forId(dictionaryId);
+                if (dictionary == null)
+                    throw new InvalidRecordException("Record set was compressed with dictionary id " +
+                            (dictionaryId & 0xffffffffL) + ", which is not registered");
+            }
+            try {
+                InputStream in = (InputStream) ZSTD_INPUT_STREAM_SUPPLIER.get().newInstance(buffer);
+                if (dictionary != null)
+                    setDictionary(in, dictionary);
+                return new SuppliedBufferedInputStream(in, bufferSupplier, ZSTD_INPUT_BUFFER_SIZE);
+            } catch (Exception e) {
+                throw new KafkaException(e);
+            }
+        }
+
+        private void setDictionary(Object stream, CompressionDictionary dictionary) throws Exception {
+            Method setDict = stream.getClass().getMethod("setDict", byte[].class);
+            setDict.invoke(stream, (Object) dictionary.bytes());
+        }
     };
 
+    private static final int GZIP_INPUT_BUFFER_SIZE = 8 * 1024;
+    private static final int ZSTD_INPUT_BUFFER_SIZE = 16 * 1024;
+
     public final int id;
     public final String name;
     public final float rate;
@@ -114,8 +181,27 @@ public enum CompressionType {
 
     public abstract OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, int bufferSize);
 
+    /**
+     * Wrap the buffer with a compressing stream primed with the given dictionary
+     * @throws IllegalArgumentException if a dictionary is given and this compression type does not support dictionaries
+     */
+    public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, int bufferSize,
+                                      CompressionDictionary dictionary) {
+        if (dictionary != null)
+            throw new IllegalArgumentException("Compression type " + name + " does not support dictionaries");
+        return wrapForOutput(buffer, messageVersion, bufferSize);
+    }
+
     public abstract InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion);
 
+    /**
+     * Wrap the buffer with a decompressing stream which takes its block buffers from the given supplier and returns
+     * them to it when the stream is closed. Codecs which do not use block buffers ignore the supplier.
+     */
+    public InputStream wrapForInput(ByteBufferInputStream buffer, byte messageVersion, BufferSupplier bufferSupplier) {
+        return wrapForInput(buffer, messageVersion);
+    }
+
     public static CompressionType forId(int id) {
         switch (id) {
             case 0:
@@ -126,6 +212,8 @@ public enum CompressionType {
                 return SNAPPY;
             case 3:
                 return LZ4;
+            case 4:
+                return ZSTD;
             default:
                 throw new IllegalArgumentException("Unknown compression type id: " + id);
         }
@@ -140,11 +228,13 @@ public enum CompressionType {
             return SNAPPY;
         else if (LZ4.name.equals(name))
             return LZ4;
+        else if (ZSTD.name.equals(name))
+            return ZSTD;
         else
             throw new IllegalArgumentException("Unknown compression name: " + name);
     }
 
-    // dynamically load the snappy and lz4 classes to avoid runtime dependency if we are not using compression
+    // dynamically load the snappy, lz4 and zstd classes to avoid runtime dependency if we are not using compression
     // caching constructors to avoid invoking of Class.forName method for each batch
     private static final MemoizingConstructorSupplier SNAPPY_OUTPUT_STREAM_SUPPLIER = new MemoizingConstructorSupplier(new ConstructorSupplier() {
         @Override
@@ -174,7 +264,23 @@ public enum CompressionType {
         @Override
         public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
             return Class.forName("org.apache.kafka.common.record.KafkaLZ4BlockInputStream")
-                    .getConstructor(InputStream.class, Boolean.TYPE);
+                    .getConstructor(InputStream.class, BufferSupplier.class, Boolean.TYPE);
+        }
+    });
+
+    private static final MemoizingConstructorSupplier ZSTD_OUTPUT_STREAM_SUPPLIER = new MemoizingConstructorSupplier(new ConstructorSupplier() {
+        @Override
+        public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
+            return Class.forName("com.github.luben.zstd.ZstdOutputStream")
+                    .getConstructor(OutputStream.class);
+        }
+    });
+
+    private static final MemoizingConstructorSupplier ZSTD_INPUT_STREAM_SUPPLIER = new MemoizingConstructorSupplier(new ConstructorSupplier() {
+        @Override
+        public Constructor get() throws ClassNotFoundException, NoSuchMethodException {
+            return Class.forName("com.github.luben.zstd.ZstdInputStream")
+                    .getConstructor(InputStream.class);
         }
     });
 
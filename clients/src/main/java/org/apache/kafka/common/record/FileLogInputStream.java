@@ -123,6 +123,21 @@ public class FileLogInputStream implements LogInputStream<FileLogInputStream.Fil
             }
         }
 
+        @Override
+        public CompressionType compressionType() {
+            if (record != null)
+                return record.compressionType();
+
+            try {
+                byte[] attributes = new byte[1];
+                ByteBuffer buf = ByteBuffer.wrap(attributes);
+                Utils.readFullyOrFail(channel, buf, position + Records.LOG_OVERHEAD + Record.ATTRIBUTES_OFFSET, "attributes");
+                return CompressionType.forId(attributes[0] & Record.COMPRESSION_CODEC_MASK);
+            } catch (IOException e) {
+                throw new KafkaException(e);
+            }
+        }
+
         /**
          * Force load the record and its data (key and value) into memory.
          * @return The resulting record
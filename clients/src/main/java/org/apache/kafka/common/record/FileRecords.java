@@ -46,7 +46,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
     private final Iterable<LogEntry> deepEntries = new Iterable<LogEntry>() {
         @Override
         public Iterator<LogEntry> iterator() {
-            return deepIterator();
+            return deepIterator(BufferSupplier.NO_CACHING);
         }
     };
 
@@ -366,14 +366,24 @@ public class FileRecords extends AbstractRecords implements Closeable {
         return deepEntries;
     }
 
-    private Iterator<LogEntry> deepIterator() {
+    @Override
+    public Iterable<LogEntry> deepEntries(final BufferSupplier bufferSupplier) {
+        return new Iterable<LogEntry>() {
+            @Override
+            public Iterator<LogEntry> iterator() {
+                return deepIterator(bufferSupplier);
+            }
+        };
+    }
+
+    private Iterator<LogEntry> deepIterator(BufferSupplier bufferSupplier) {
         final int end;
         if (isSlice)
             end = this.end;
         else
             end = this.sizeInBytes();
         FileLogInputStream inputStream = new FileLogInputStream(channel, Integer.MAX_VALUE, start, end);
-        return new RecordsIterator(inputStream, false, false, Integer.MAX_VALUE);
+        return new RecordsIterator(inputStream, false, false, Integer.MAX_VALUE, bufferSupplier);
     }
 
     public static FileRecords open(File file,
@@ -48,8 +48,9 @@ public final class KafkaLZ4BlockInputStream extends FilterInputStream {
 
     private final LZ4SafeDecompressor decompressor;
     private final XXHash32 checksum;
-    private final byte[] buffer;
-    private final byte[] compressedBuffer;
+    private final BufferSupplier bufferSupplier;
+    private byte[] buffer;
+    private byte[] compressedBuffer;
     private final int maxBlockSize;
     private final boolean ignoreFlagDescriptorChecksum;
     private FLG flg;
@@ -66,14 +67,27 @@ public final class KafkaLZ4BlockInputStream extends FilterInputStream {
      * @throws IOException
      */
     public KafkaLZ4BlockInputStream(InputStream in, boolean ignoreFlagDescriptorChecksum) throws IOException {
+        this(in, BufferSupplier.NO_CACHING, ignoreFlagDescriptorChecksum);
+    }
+
+    /**
+     * Create a new {@link InputStream} that will decompress data using the LZ4 algorithm.
+     *
+     * @param in The stream to decompress
+     * @param bufferSupplier The supplier of the block buffers, which are returned to it when the stream is closed
+     * @param ignoreFlagDescriptorChecksum for compatibility with old kafka clients, ignore incorrect HC byte
+     * @throws IOException
+     */
+    public KafkaLZ4BlockInputStream(InputStream in, BufferSupplier bufferSupplier, boolean ignoreFlagDescriptorChecksum) throws IOException {
         super(in);
         decompressor = LZ4Factory.fastestInstance().safeDecompressor();
         checksum = XXHashFactory.fastestInstance().hash32();
+        this.bufferSupplier = bufferSupplier;
         this.ignoreFlagDescriptorChecksum = ignoreFlagDescriptorChecksum;
         readHeader();
         maxBlockSize = bd.getBlockMaximumSize();
-        buffer = new byte[maxBlockSize];
-        compressedBuffer = new byte[maxBlockSize];
+        buffer = bufferSupplier.get(maxBlockSize);
+        compressedBuffer = bufferSupplier.get(maxBlockSize);
         bufferOffset = 0;
         bufferSize = 0;
         finished = false;
@@ -243,7 +257,16 @@ public final class KafkaLZ4BlockInputStream extends FilterInputStream {
 
     @Override
     public void close() throws IOException {
-        in.close();
+        try {
+            in.close();
+        } finally {
+            if (buffer != null) {
+                bufferSupplier.release(buffer);
+                bufferSupplier.release(compressedBuffer);
+                buffer = null;
+                compressedBuffer = null;
+            }
+        }
     }
 
     @Override
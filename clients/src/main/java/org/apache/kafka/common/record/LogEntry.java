@@ -68,6 +68,14 @@ public abstract class LogEntry implements Iterable<LogEntry> {
         return record().magic();
     }
 
+    /**
+     * Get the compression type of this entry.
+     * @return the compression type
+     */
+    public CompressionType compressionType() {
+        return record().compressionType();
+    }
+
     @Override
     public String toString() {
         return "LogEntry(" + offset() + ", " + record() + ")";
@@ -86,7 +94,7 @@ public abstract class LogEntry implements Iterable<LogEntry> {
      * @return true if so, false otherwise
      */
     public boolean isCompressed() {
-        return record().compressionType() != CompressionType.NONE;
+        return compressionType() != CompressionType.NONE;
     }
 
     /**
@@ -106,8 +114,18 @@ public abstract class LogEntry implements Iterable<LogEntry> {
      */
     @Override
     public Iterator<LogEntry> iterator() {
+        return iterator(BufferSupplier.NO_CACHING);
+    }
+
+    /**
+     * Get an iterator for the nested entries contained within this log entry, decompressing them
+     * with buffers from the given supplier.
+     * @param bufferSupplier The supplier of the buffers used for decompression
+     * @return An iterator over the entries contained within this log entry
+     */
+    public Iterator<LogEntry> iterator(BufferSupplier bufferSupplier) {
         if (isCompressed())
-            return new RecordsIterator.DeepRecordsIterator(this, false, Integer.MAX_VALUE);
+            return new RecordsIterator.DeepRecordsIterator(this, false, Integer.MAX_VALUE, bufferSupplier);
         return Collections.singletonList(this).iterator();
     }
 
@@ -169,8 +169,12 @@ public class MemoryRecords extends AbstractRecords {
                 }
             } else if (!retainedEntries.isEmpty()) {
                 ByteBuffer slice = destinationBuffer.slice();
+                // recompress with the dictionary of the original entry so that it stays readable by the same consumers
+                CompressionDictionary dictionary = null;
+                if (shallowRecord.compressionType() == CompressionType.ZSTD)
+                    dictionary = CompressionDictionary.forId(CompressionDictionary.frameDictionaryId(shallowRecord.value()));
                 MemoryRecordsBuilder builder = builderWithEntries(slice, shallowRecord.timestampType(), shallowRecord.compressionType(),
-                        shallowRecord.timestamp(), retainedEntries);
+                        shallowRecord.timestamp(), retainedEntries, dictionary);
                 MemoryRecords records = builder.build();
                 destinationBuffer.position(destinationBuffer.position() + slice.position());
                 messagesRetained += retainedEntries.size();
@@ -208,18 +212,27 @@ public class MemoryRecords extends AbstractRecords {
         return deepEntries;
     }
 
-    public Iterable<LogEntry> deepEntries(final boolean ensureMatchingMagic) {
+    @Override
+    public Iterable<LogEntry> deepEntries(BufferSupplier bufferSupplier) {
+        return deepEntries(false, bufferSupplier);
+    }
+
+    public Iterable<LogEntry> deepEntries(boolean ensureMatchingMagic) {
+        return deepEntries(ensureMatchingMagic, BufferSupplier.NO_CACHING);
+    }
+
+    public Iterable<LogEntry> deepEntries(final boolean ensureMatchingMagic, final BufferSupplier bufferSupplier) {
         return new Iterable<LogEntry>() {
             @Override
             public Iterator<LogEntry> iterator() {
-                return deepIterator(ensureMatchingMagic, Integer.MAX_VALUE);
+                return deepIterator(ensureMatchingMagic, Integer.MAX_VALUE, bufferSupplier);
             }
         };
     }
 
-    private Iterator<LogEntry> deepIterator(boolean ensureMatchingMagic, int maxMessageSize) {
+    private Iterator<LogEntry> deepIterator(boolean ensureMatchingMagic, int maxMessageSize, BufferSupplier bufferSupplier) {
         return new RecordsIterator(new ByteBufferLogInputStream(buffer.duplicate(), maxMessageSize), false,
-                ensureMatchingMagic, maxMessageSize);
+                ensureMatchingMagic, maxMessageSize, bufferSupplier);
     }
 
     @Override
@@ -292,7 +305,16 @@ public class MemoryRecords extends AbstractRecords {
                                                CompressionType compressionType,
                                                TimestampType timestampType,
                                                int writeLimit) {
-        return new MemoryRecordsBuilder(buffer, Record.CURRENT_MAGIC_VALUE, compressionType, timestampType, 0L, System.currentTimeMillis(), writeLimit);
+        return builder(buffer, compressionType, timestampType, writeLimit, null);
+    }
+
+    public static MemoryRecordsBuilder builder(ByteBuffer buffer,
+                                               CompressionType compressionType,
+                                               TimestampType timestampType,
+                                               int writeLimit,
+                                               CompressionDictionary dictionary) {
+        return new MemoryRecordsBuilder(buffer, Record.CURRENT_MAGIC_VALUE, compressionType, timestampType, 0L,
+                System.currentTimeMillis(), writeLimit, dictionary);
     }
 
     public static MemoryRecordsBuilder builder(ByteBuffer buffer,
@@ -393,15 +415,24 @@ public class MemoryRecords extends AbstractRecords {
                                                           CompressionType compressionType,
                                                           long logAppendTime,
                                                           List<LogEntry> entries) {
+        return builderWithEntries(timestampType, compressionType, logAppendTime, entries, null);
+    }
+
+    public static MemoryRecordsBuilder builderWithEntries(TimestampType timestampType,
+                                                          CompressionType compressionType,
+                                                          long logAppendTime,
+                                                          List<LogEntry> entries,
+                                                          CompressionDictionary dictionary) {
         ByteBuffer buffer = ByteBuffer.allocate(estimatedSize(compressionType, entries));
-        return builderWithEntries(buffer, timestampType, compressionType, logAppendTime, entries);
+        return builderWithEntries(buffer, timestampType, compressionType, logAppendTime, entries, dictionary);
     }
 
     private static MemoryRecordsBuilder builderWithEntries(ByteBuffer buffer,
                                                            TimestampType timestampType,
                                                            CompressionType compressionType,
                                                            long logAppendTime,
-                                                           List<LogEntry> entries) {
+                                                           List<LogEntry> entries,
+                                                           CompressionDictionary dictionary) {
         if (entries.isEmpty())
             throw new IllegalArgumentException("entries must not be empty");
 
@@ -409,8 +440,8 @@ public class MemoryRecords extends AbstractRecords {
         long firstOffset = firstEntry.offset();
         byte magic = firstEntry.record().magic();
 
-        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, magic, compressionType, timestampType,
-                firstOffset, logAppendTime);
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, magic, compressionType, timestampType,
+                firstOffset, logAppendTime, buffer.capacity(), dictionary);
         for (LogEntry entry : entries)
             builder.appendWithOffset(entry.offset(), entry.record());
 
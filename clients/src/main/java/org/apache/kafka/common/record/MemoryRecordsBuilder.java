@@ -17,21 +17,33 @@
 package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.Utils;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to write new log data in memory, i.e. this is the write path for {@link MemoryRecords}.
  * It transparently handles compression and exposes methods for appending new entries, possibly with message
  * format conversion.
+ * <p>
+ * This class is not thread safe, with the exception of {@link #tryAppendConcurrently(long, byte[], byte[], long)}
+ * and {@link #tryAppendConcurrently(long, byte[], ByteBuffer)} which may be used by multiple threads to append to an
+ * uncompressed record set without external synchronization.
  */
 public class MemoryRecordsBuilder {
     private static final float COMPRESSION_RATE_DAMPING_FACTOR = 0.9f;
     private static final float COMPRESSION_RATE_ESTIMATION_FACTOR = 1.05f;
     private static final int COMPRESSION_DEFAULT_BUFFER_SIZE = 1024;
 
+    // Layout of the concurrent append state: the sign bit is set once the builder has been sealed, the next 31 bits
+    // hold the number of records and the low 32 bits the number of bytes reserved by concurrent appends
+    private static final long SEALED = Long.MIN_VALUE;
+    private static final long RESERVED_BYTES_MASK = 0xffffffffL;
+
     private static final float[] TYPE_TO_RATE;
 
     static {
@@ -62,6 +74,11 @@ public class MemoryRecordsBuilder {
     private long offsetOfMaxTimestamp = -1;
     private long lastOffset = -1;
 
+    private final AtomicLong reserved = new AtomicLong(0);
+    private final AtomicInteger pendingWrites = new AtomicInteger(0);
+    private final AtomicLong concurrentMaxTimestamp = new AtomicLong(Record.NO_TIMESTAMP);
+    private boolean appendedConcurrently = false;
+
     private MemoryRecords builtRecords;
 
     /**
@@ -85,6 +102,31 @@ public class MemoryRecordsBuilder {
                                 long baseOffset,
                                 long logAppendTime,
                                 int writeLimit) {
+        this(buffer, magic, compressionType, timestampType, baseOffset, logAppendTime, writeLimit, null);
+    }
+
+    /**
+     * Construct a new builder which compresses with a trained dictionary.
+     *
+     * @param buffer The underlying buffer to use (note that this class will allocate a new buffer if necessary
+     *               to fit the records appended)
+     * @param magic The magic value to use
+     * @param compressionType The compression codec to use
+     * @param timestampType The desired timestamp type. For magic > 0, this cannot be {@link TimestampType#NO_TIMESTAMP_TYPE}.
+     * @param baseOffset The initial offset to use for
+     * @param logAppendTime The log append time of this record set. Can be set to NO_TIMESTAMP if CREATE_TIME is used.
+     * @param writeLimit The desired limit on the total bytes for this record set
+     * @param dictionary The dictionary to compress with or null to compress without a dictionary. Only supported
+     *                   by {@link CompressionType#ZSTD}.
+     */
+    public MemoryRecordsBuilder(ByteBuffer buffer,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                int writeLimit,
+                                CompressionDictionary dictionary) {
         if (magic > Record.MAGIC_VALUE_V0 && timestampType == TimestampType.NO_TIMESTAMP_TYPE)
             throw new IllegalArgumentException("TimestampType must be set for magic >= 0");
 
@@ -106,7 +148,7 @@ public class MemoryRecordsBuilder {
         // create the stream
         bufferStream = new ByteBufferOutputStream(buffer);
         appendStream = new DataOutputStream(compressionType.wrapForOutput(bufferStream, magic,
-                COMPRESSION_DEFAULT_BUFFER_SIZE));
+                COMPRESSION_DEFAULT_BUFFER_SIZE, dictionary));
     }
 
     public ByteBuffer buffer() {
@@ -136,6 +178,9 @@ public class MemoryRecordsBuilder {
      * @return The max timestamp and its offset
      */
     public RecordsInfo info() {
+        if (appendedConcurrently && offsetOfMaxTimestamp < 0 && maxTimestamp != Record.NO_TIMESTAMP)
+            offsetOfMaxTimestamp = findOffsetOfMaxTimestamp();
+
         if (timestampType == TimestampType.LOG_APPEND_TIME)
             return new RecordsInfo(logAppendTime,  lastOffset);
         else if (maxTimestamp == Record.NO_TIMESTAMP)
@@ -148,6 +193,8 @@ public class MemoryRecordsBuilder {
         if (builtRecords != null)
             return;
 
+        sealConcurrentAppends();
+
         try {
             appendStream.close();
         } catch (IOException e) {
@@ -168,6 +215,47 @@ public class MemoryRecordsBuilder {
         }
     }
 
+    /**
+     * Prevent further concurrent appends, wait for the ones which have already reserved space to finish writing
+     * and account for the records they wrote.
+     */
+    private void sealConcurrentAppends() {
+        long state;
+        do {
+            state = reserved.get();
+        } while (!reserved.compareAndSet(state, SEALED));
+
+        while (pendingWrites.get() > 0)
+            Thread.yield();
+
+        int records = reservedRecords(state);
+        if (records > 0) {
+            int bytes = reservedBytes(state);
+            bufferStream.buffer().position(initPos + bytes);
+            numRecords = records;
+            writtenUncompressed = bytes;
+            lastOffset = baseOffset + records - 1;
+            maxTimestamp = concurrentMaxTimestamp.get();
+            appendedConcurrently = true;
+        }
+    }
+
+    private long findOffsetOfMaxTimestamp() {
+        for (LogEntry entry : build().shallowEntries()) {
+            if (entry.record().timestamp() == maxTimestamp)
+                return entry.offset();
+        }
+        return -1;
+    }
+
+    private static int reservedRecords(long state) {
+        return (int) ((state & ~SEALED) >>> 32);
+    }
+
+    private static int reservedBytes(long state) {
+        return (int) (state & RESERVED_BYTES_MASK);
+    }
+
     private void writerCompressedWrapperHeader() {
         ByteBuffer buffer = bufferStream.buffer();
         int pos = buffer.position();
@@ -226,6 +314,143 @@ public class MemoryRecordsBuilder {
         return appendWithOffset(lastOffset < 0 ? baseOffset : lastOffset + 1, timestamp, key, value);
     }
 
+    /**
+     * Compute the checksum of a record as it would be written by {@link #tryAppendConcurrently(long, byte[], byte[], long)}.
+     * The checksum does not depend on the position or the offset of the record, so it can be computed before the
+     * record is appended.
+     * @param timestamp The record timestamp
+     * @param key The record key
+     * @param value The record value
+     * @return crc of the record
+     */
+    public long checksum(long timestamp, byte[] key, byte[] value) {
+        if (timestampType == TimestampType.LOG_APPEND_TIME)
+            timestamp = logAppendTime;
+        byte attributes = Record.computeAttributes(magic, CompressionType.NONE, timestampType);
+        return Record.computeChecksum(magic, attributes, timestamp, key, value);
+    }
+
+    /**
+     * Append a new record at the next consecutive offset if there is room for it. Unlike the other append methods,
+     * this may be called by multiple threads concurrently, and concurrently with {@link #close()}: space for the
+     * record is reserved with a single compare-and-set and the record is then written to the reserved region of
+     * the buffer without any locking. Closing the builder waits for all writes to reserved regions to complete.
+     * <p>
+     * This is only supported for uncompressed record sets which have not been appended to by the other append methods.
+     * Offsets are assigned in reservation order, so appends from a single thread keep their relative order.
+     *
+     * @param timestamp The record timestamp
+     * @param key The record key
+     * @param value The record value
+     * @param crc The crc of the record as computed by {@link #checksum(long, byte[], byte[])}
+     * @return The offset of the appended record or -1 if there was not enough room or the builder has been closed
+     */
+    public long tryAppendConcurrently(long timestamp, byte[] key, byte[] value, long crc) {
+        if (compressionType != CompressionType.NONE)
+            throw new IllegalStateException("Concurrent appends are only supported for uncompressed record sets");
+        if (timestampType == TimestampType.LOG_APPEND_TIME)
+            timestamp = logAppendTime;
+        if (timestamp < 0 && timestamp != Record.NO_TIMESTAMP)
+            throw new IllegalArgumentException("Invalid message timestamp " + timestamp);
+
+        int size = Record.recordSize(magic, key, value);
+        int entrySize = Records.LOG_OVERHEAD + size;
+
+        pendingWrites.incrementAndGet();
+        try {
+            ByteBuffer buffer = bufferStream.buffer();
+            long state;
+            int records;
+            int position;
+            do {
+                state = reserved.get();
+                if (state < 0)
+                    return -1L;
+                records = reservedRecords(state);
+                position = initPos + reservedBytes(state);
+                if (!hasRoomFor(records, position, entrySize) || position + entrySize > buffer.capacity())
+                    return -1L;
+            } while (!reserved.compareAndSet(state, ((long) (records + 1) << 32) | (position - initPos + entrySize)));
+
+            long offset = baseOffset + records;
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position);
+            LogEntry.writeHeader(slice, offset, size);
+            Record.write(slice, magic, crc, Record.computeAttributes(magic, CompressionType.NONE, timestampType),
+                    timestamp, key, value);
+
+            long currentMax = concurrentMaxTimestamp.get();
+            while (timestamp > currentMax && !concurrentMaxTimestamp.compareAndSet(currentMax, timestamp))
+                currentMax = concurrentMaxTimestamp.get();
+            return offset;
+        } finally {
+            pendingWrites.decrementAndGet();
+        }
+    }
+
+    /**
+     * Append a new record at the next consecutive offset if there is room for it, copying the value from the given
+     * buffer. Like {@link #tryAppendConcurrently(long, byte[], byte[], long)}, this may be called by multiple threads
+     * concurrently. The crc is computed once the record has been written, so the caller does not need a byte array
+     * of the value.
+     *
+     * @param timestamp The record timestamp
+     * @param key The record key
+     * @param value The record value, whose remaining bytes are copied without changing its position
+     * @return The position in the buffer of the log entry of the appended record or -1 if there was not enough room
+     *         or the builder has been closed
+     */
+    public int tryAppendConcurrently(long timestamp, byte[] key, ByteBuffer value) {
+        if (compressionType != CompressionType.NONE)
+            throw new IllegalStateException("Concurrent appends are only supported for uncompressed record sets");
+        if (timestampType == TimestampType.LOG_APPEND_TIME)
+            timestamp = logAppendTime;
+        if (timestamp < 0 && timestamp != Record.NO_TIMESTAMP)
+            throw new IllegalArgumentException("Invalid message timestamp " + timestamp);
+
+        int size = Record.recordOverhead(magic) + (key == null ? 0 : key.length) + (value == null ? 0 : value.remaining());
+        int entrySize = Records.LOG_OVERHEAD + size;
+
+        pendingWrites.incrementAndGet();
+        try {
+            ByteBuffer buffer = bufferStream.buffer();
+            long state;
+            int records;
+            int position;
+            do {
+                state = reserved.get();
+                if (state < 0)
+                    return -1;
+                records = reservedRecords(state);
+                position = initPos + reservedBytes(state);
+                if (!hasRoomFor(records, position, entrySize) || position + entrySize > buffer.capacity())
+                    return -1;
+            } while (!reserved.compareAndSet(state, ((long) (records + 1) << 32) | (position - initPos + entrySize)));
+
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position);
+            LogEntry.writeHeader(slice, baseOffset + records, size);
+            int recordPosition = slice.position();
+
+            // write the record with a null value and a placeholder crc, then fill in the value and the crc
+            Record.write(slice, magic, 0L, Record.computeAttributes(magic, CompressionType.NONE, timestampType),
+                    timestamp, key, null);
+            if (value != null) {
+                slice.putInt(slice.position() - Record.VALUE_SIZE_LENGTH, value.remaining());
+                slice.put(value.duplicate());
+            }
+            long crc = Utils.computeChecksum(slice, recordPosition + Record.MAGIC_OFFSET, size - Record.MAGIC_OFFSET);
+            Utils.writeUnsignedInt(slice, recordPosition + Record.CRC_OFFSET, crc);
+
+            long currentMax = concurrentMaxTimestamp.get();
+            while (timestamp > currentMax && !concurrentMaxTimestamp.compareAndSet(currentMax, timestamp))
+                currentMax = concurrentMaxTimestamp.get();
+            return position;
+        } finally {
+            pendingWrites.decrementAndGet();
+        }
+    }
+
     /**
      * Add the record at the next consecutive offset, converting to the desired magic value if necessary.
      * @param record The record to add
@@ -309,6 +534,8 @@ public class MemoryRecordsBuilder {
     }
 
     private void recordWritten(long offset, long timestamp, int size) {
+        if (reservedRecords(reserved.get()) > 0)
+            throw new IllegalStateException("Sequential appends cannot be mixed with concurrent appends");
         numRecords += 1;
         writtenUncompressed += size;
         lastOffset = offset;
@@ -325,7 +552,7 @@ public class MemoryRecordsBuilder {
      */
     private int estimatedBytesWritten() {
         if (compressionType == CompressionType.NONE) {
-            return buffer().position();
+            return buffer().position() + reservedBytes(reserved.get());
         } else {
             // estimate the written bytes to the underlying byte buffer based on uncompressed written bytes
             return (int) (writtenUncompressed * TYPE_TO_RATE[compressionType.id] * COMPRESSION_RATE_ESTIMATION_FACTOR);
@@ -345,9 +572,26 @@ public class MemoryRecordsBuilder {
      * to accept this single record.
      */
     public boolean hasRoomFor(byte[] key, byte[] value) {
-        return !isFull() && (numRecords == 0 ?
-                this.initialCapacity >= Records.LOG_OVERHEAD + Record.recordSize(magic, key, value) :
-                this.writeLimit >= estimatedBytesWritten() + Records.LOG_OVERHEAD + Record.recordSize(magic, key, value));
+        return !isFull() && hasRoomFor(numRecords + reservedRecords(reserved.get()), estimatedBytesWritten(), Records.LOG_OVERHEAD + Record.recordSize(magic, key, value));
+    }
+
+    private boolean hasRoomFor(long records, int bytesWritten, int entrySize) {
+        return records == 0 ? this.initialCapacity >= entrySize : this.writeLimit >= bytesWritten + entrySize;
+    }
+
+    /**
+     * Check whether {@link #tryAppendConcurrently(long, byte[], byte[], long)} may be used with this builder.
+     */
+    public boolean supportsConcurrentAppends() {
+        return compressionType == CompressionType.NONE && numRecords == 0;
+    }
+
+    /**
+     * Get the number of records appended so far. Records appended concurrently are only accounted for once the
+     * builder has been closed.
+     */
+    public int numRecords() {
+        return (int) numRecords;
     }
 
     public boolean isClosed() {
@@ -357,7 +601,7 @@ public class MemoryRecordsBuilder {
     public boolean isFull() {
         // note that the write limit is respected only after the first record is added which ensures we can always
         // create non-empty batches (this is used to disable batching when the producer's batch size is set to 0).
-        return isClosed() || (this.numRecords > 0 && this.writeLimit <= estimatedBytesWritten());
+        return isClosed() || (this.numRecords + reservedRecords(reserved.get()) > 0 && this.writeLimit <= estimatedBytesWritten());
     }
 
     public int sizeInBytes() {
@@ -578,6 +578,40 @@ public final class Record {
         }
     }
 
+    /**
+     * Write an uncompressed record with a precomputed crc directly to the buffer starting at its current position.
+     * Unlike the stream-based variants, this never expands the buffer, so the caller must ensure there is room for
+     * {@link #recordSize(byte, byte[], byte[])} bytes.
+     */
+    static void write(ByteBuffer buffer,
+                      byte magic,
+                      long crc,
+                      byte attributes,
+                      long timestamp,
+                      byte[] key,
+                      byte[] value) {
+        if (magic != MAGIC_VALUE_V0 && magic != MAGIC_VALUE_V1)
+            throw new IllegalArgumentException("Invalid magic value " + magic);
+
+        buffer.putInt((int) (crc & 0xffffffffL));
+        buffer.put(magic);
+        buffer.put(attributes);
+        if (magic > 0)
+            buffer.putLong(timestamp);
+        if (key == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(key.length);
+            buffer.put(key);
+        }
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
     public static int recordSize(byte[] key, byte[] value) {
         return recordSize(CURRENT_MAGIC_VALUE, key, value);
     }
@@ -586,6 +620,14 @@ public final class Record {
         return recordSize(magic, key == null ? 0 : key.length, value == null ? 0 : value.length);
     }
 
+    /**
+     * The size of a record with the current magic value and the given key and value sizes, where a size of -1
+     * denotes a null key or value
+     */
+    public static int recordSize(int keySize, int valueSize) {
+        return recordSize(CURRENT_MAGIC_VALUE, Math.max(keySize, 0), Math.max(valueSize, 0));
+    }
+
     private static int recordSize(byte magic, int keySize, int valueSize) {
         return recordOverhead(magic) + keySize + valueSize;
     }
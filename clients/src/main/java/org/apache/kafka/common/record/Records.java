@@ -71,6 +71,13 @@ public interface Records {
      */
     Iterable<LogEntry> deepEntries();
 
+    /**
+     * Get the deep log entries, decompressing compressed message sets with buffers from the given supplier.
+     * @param bufferSupplier The supplier of the buffers used for decompression
+     * @return An iterator over the deep entries of the log
+     */
+    Iterable<LogEntry> deepEntries(BufferSupplier bufferSupplier);
+
     /**
      * Check whether all shallow entries in this buffer have a certain magic value.
      * @param magic The magic value to check
@@ -78,6 +85,13 @@ public interface Records {
      */
     boolean hasMatchingShallowMagic(byte magic);
 
+    /**
+     * Check whether any shallow entry in this buffer is compressed with a certain compression type.
+     * @param compressionType The compression type to check
+     * @return true if at least one shallow entry uses the compression type, false otherwise
+     */
+    boolean hasShallowCompressionType(CompressionType compressionType);
+
 
     /**
      * Convert all entries in this buffer to the format passed as a parameter. Note that this requires
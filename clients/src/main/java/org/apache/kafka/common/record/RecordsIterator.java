@@ -35,6 +35,7 @@ public class RecordsIterator extends AbstractIterator<LogEntry> {
     private final boolean shallow;
     private final boolean ensureMatchingMagic;
     private final int maxRecordSize;
+    private final BufferSupplier bufferSupplier;
     private final ShallowRecordsIterator<?> shallowIter;
     private DeepRecordsIterator innerIter;
 
@@ -42,10 +43,19 @@ public class RecordsIterator extends AbstractIterator<LogEntry> {
                            boolean shallow,
                            boolean ensureMatchingMagic,
                            int maxRecordSize) {
+        this(logInputStream, shallow, ensureMatchingMagic, maxRecordSize, BufferSupplier.NO_CACHING);
+    }
+
+    public RecordsIterator(LogInputStream<?> logInputStream,
+                           boolean shallow,
+                           boolean ensureMatchingMagic,
+                           int maxRecordSize,
+                           BufferSupplier bufferSupplier) {
         this.shallowIter = new ShallowRecordsIterator<>(logInputStream);
         this.shallow = shallow;
         this.ensureMatchingMagic = ensureMatchingMagic;
         this.maxRecordSize = maxRecordSize;
+        this.bufferSupplier = bufferSupplier;
     }
 
     /**
@@ -76,7 +86,7 @@ public class RecordsIterator extends AbstractIterator<LogEntry> {
                 // would not try to further decompress underlying messages
                 // There will be at least one element in the inner iterator, so we don't
                 // need to call hasNext() here.
-                innerIter = new DeepRecordsIterator(entry, ensureMatchingMagic, maxRecordSize);
+                innerIter = new DeepRecordsIterator(entry, ensureMatchingMagic, maxRecordSize, bufferSupplier);
                 return innerIter.next();
             }
         } else {
@@ -142,6 +152,11 @@ public class RecordsIterator extends AbstractIterator<LogEntry> {
         private final byte wrapperMagic;
 
         public DeepRecordsIterator(LogEntry wrapperEntry, boolean ensureMatchingMagic, int maxMessageSize) {
+            this(wrapperEntry, ensureMatchingMagic, maxMessageSize, BufferSupplier.NO_CACHING);
+        }
+
+        public DeepRecordsIterator(LogEntry wrapperEntry, boolean ensureMatchingMagic, int maxMessageSize,
+                                   BufferSupplier bufferSupplier) {
             Record wrapperRecord = wrapperEntry.record();
             this.wrapperMagic = wrapperRecord.magic();
 
@@ -151,7 +166,7 @@ public class RecordsIterator extends AbstractIterator<LogEntry> {
                 throw new InvalidRecordException("Found invalid compressed record set with null value");
 
             DataInputStream stream = new DataInputStream(compressionType.wrapForInput(new ByteBufferInputStream(wrapperValue),
-                    wrapperRecord.magic()));
+                    wrapperRecord.magic(), bufferSupplier));
             LogInputStream logStream = new DataLogInputStream(stream, maxMessageSize);
 
             long wrapperRecordOffset = wrapperEntry.offset();
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link BufferedInputStream} which takes its buffer from a {@link BufferSupplier} and returns it on close.
+ */
+final class SuppliedBufferedInputStream extends BufferedInputStream {
+    private final BufferSupplier bufferSupplier;
+    private byte[] suppliedBuffer;
+
+    SuppliedBufferedInputStream(InputStream in, BufferSupplier bufferSupplier, int size) {
+        super(in, 1);
+        this.bufferSupplier = bufferSupplier;
+        this.suppliedBuffer = bufferSupplier.get(size);
+        this.buf = suppliedBuffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (suppliedBuffer != null) {
+                bufferSupplier.release(suppliedBuffer);
+                suppliedBuffer = null;
+            }
+        }
+    }
+}
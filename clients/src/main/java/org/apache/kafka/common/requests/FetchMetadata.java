@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.requests;
+
+/**
+ * The fetch session ID and epoch of a fetch request.
+ * <p>
+ * A full fetch request with the initial epoch asks the broker to create a new fetch session. The following incremental
+ * fetch requests use the ID of that session and increment its epoch with each request. A full fetch request with the
+ * final epoch does not use a session. Both kinds of full requests close the session with the given ID if there is one,
+ * so a client which replaces its session passes the ID of the previous one. A session is only used or closed by
+ * requests of the principal and replica which created it.
+ */
+public final class FetchMetadata {
+    public static final int INVALID_SESSION_ID = 0;
+    public static final int INITIAL_EPOCH = 0;
+    public static final int FINAL_EPOCH = -1;
+
+    /**
+     * The metadata of full fetch requests which do not use a fetch session, as sent by older clients
+     */
+    public static final FetchMetadata LEGACY = new FetchMetadata(INVALID_SESSION_ID, FINAL_EPOCH);
+
+    /**
+     * The metadata of a full fetch request which creates a new fetch session
+     */
+    public static final FetchMetadata INITIAL = new FetchMetadata(INVALID_SESSION_ID, INITIAL_EPOCH);
+
+    private final int sessionId;
+    private final int epoch;
+
+    public FetchMetadata(int sessionId, int epoch) {
+        this.sessionId = sessionId;
+        this.epoch = epoch;
+    }
+
+    public int sessionId() {
+        return sessionId;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Whether the request is a full fetch request, which contains all the partitions to fetch
+     */
+    public boolean isFull() {
+        return epoch == INITIAL_EPOCH || epoch == FINAL_EPOCH;
+    }
+
+    /**
+     * The epoch of the incremental fetch request following one with the given epoch
+     */
+    public static int nextEpoch(int prevEpoch) {
+        if (prevEpoch < 0)
+            return FINAL_EPOCH;
+        // skip the initial epoch when wrapping around
+        return prevEpoch == Integer.MAX_VALUE ? 1 : prevEpoch + 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        FetchMetadata that = (FetchMetadata) o;
+        return sessionId == that.sessionId && epoch == that.epoch;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * sessionId + epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "(sessionId=" + sessionId + ", epoch=" + epoch + ")";
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.kafka.common.requests;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,10 +32,16 @@ import org.apache.kafka.common.utils.Utils;
 
 public class FetchRequest extends AbstractRequest {
     public static final int CONSUMER_REPLICA_ID = -1;
+    // the replica ID of consumers which fetch from followers. Brokers only serve consumers from a follower replica if
+    // they ask for it, so that consumers with stale metadata still fail to fetch from a former leader
+    public static final int FOLLOWER_CONSUMER_REPLICA_ID = -3;
     private static final String REPLICA_ID_KEY_NAME = "replica_id";
     private static final String MAX_WAIT_KEY_NAME = "max_wait_time";
     private static final String MIN_BYTES_KEY_NAME = "min_bytes";
     private static final String TOPICS_KEY_NAME = "topics";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
+    private static final String SESSION_EPOCH_KEY_NAME = "session_epoch";
+    private static final String FORGOTTEN_TOPICS_DATA_KEY_NAME = "forgotten_topics_data";
 
     // request and partition level name
     private static final String MAX_BYTES_KEY_NAME = "max_bytes";
@@ -55,6 +62,8 @@ public class FetchRequest extends AbstractRequest {
     private final int minBytes;
     private final int maxBytes;
     private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
+    private final FetchMetadata metadata;
+    private final List<TopicPartition> toForget;
 
     public static final class PartitionData {
         public final long offset;
@@ -65,6 +74,21 @@ public class FetchRequest extends AbstractRequest {
             this.maxBytes = maxBytes;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            PartitionData that = (PartitionData) o;
+            return offset == that.offset && maxBytes == that.maxBytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (offset ^ (offset >>> 32)) + maxBytes;
+        }
+
         @Override
         public String toString() {
             return "(offset=" + offset + ", maxBytes=" + maxBytes + ")";
@@ -100,11 +124,21 @@ public class FetchRequest extends AbstractRequest {
         private final int replicaId;
         private final LinkedHashMap<TopicPartition, PartitionData> fetchData;
         private int maxBytes = DEFAULT_RESPONSE_MAX_BYTES;
+        private FetchMetadata metadata = FetchMetadata.LEGACY;
+        private LinkedHashMap<TopicPartition, PartitionData> toSend;
+        private List<TopicPartition> toForget = Collections.emptyList();
 
         public static Builder forConsumer(int maxWait, int minBytes, LinkedHashMap<TopicPartition, PartitionData> fetchData) {
             return new Builder(null, CONSUMER_REPLICA_ID, maxWait, minBytes, fetchData);
         }
 
+        /**
+         * Create a consumer fetch which may read from the replicas of the broker which are followers
+         */
+        public static Builder forFollowerConsumer(int maxWait, int minBytes, LinkedHashMap<TopicPartition, PartitionData> fetchData) {
+            return new Builder(null, FOLLOWER_CONSUMER_REPLICA_ID, maxWait, minBytes, fetchData);
+        }
+
         public static Builder forReplica(short desiredVersion, int replicaId, int maxWait, int minBytes,
                                          LinkedHashMap<TopicPartition, PartitionData> fetchData) {
             return new Builder(desiredVersion, replicaId, maxWait, minBytes, fetchData);
@@ -119,22 +153,48 @@ public class FetchRequest extends AbstractRequest {
             this.fetchData = fetchData;
         }
 
+        /**
+         * All the partitions to fetch, including those of a fetch session which are not sent again
+         */
         public LinkedHashMap<TopicPartition, PartitionData> fetchData() {
             return this.fetchData;
         }
 
+        /**
+         * Make this a request of a fetch session. An incremental request only sends the given partitions and removes
+         * the forgotten partitions from the session. If the broker does not support fetch sessions, all the partitions
+         * are sent in a request without a session.
+         */
+        public Builder setSession(FetchMetadata metadata, LinkedHashMap<TopicPartition, PartitionData> toSend,
+                                  List<TopicPartition> toForget) {
+            this.metadata = metadata;
+            this.toSend = toSend;
+            this.toForget = toForget;
+            return this;
+        }
+
+        public FetchMetadata metadata() {
+            return this.metadata;
+        }
+
         public Builder setMaxBytes(int maxBytes) {
             this.maxBytes = maxBytes;
             return this;
         }
 
+        public int maxBytes() {
+            return this.maxBytes;
+        }
+
         @Override
         public FetchRequest build(short version) {
             if (version < 3) {
                 maxBytes = -1;
             }
-
-            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData);
+            if (version < 4 || metadata.isFull())
+                return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, fetchData,
+                        version < 4 ? FetchMetadata.LEGACY : metadata, Collections.<TopicPartition>emptyList());
+            return new FetchRequest(version, replicaId, maxWait, minBytes, maxBytes, toSend, metadata, toForget);
         }
 
         @Override
@@ -145,20 +205,25 @@ public class FetchRequest extends AbstractRequest {
                     append(", maxWait=").append(maxWait).
                     append(", minBytes=").append(minBytes).
                     append(", maxBytes=").append(maxBytes).
-                    append(", fetchData=").append(Utils.mkString(fetchData)).
+                    append(", metadata=").append(metadata).
+                    append(", fetchData=").append(Utils.mkString(metadata.isFull() ? fetchData : toSend)).
+                    append(", toForget=").append(Utils.join(toForget, ", ")).
                     append(")");
             return bld.toString();
         }
     }
 
     private FetchRequest(short version, int replicaId, int maxWait, int minBytes, int maxBytes,
-                         LinkedHashMap<TopicPartition, PartitionData> fetchData) {
+                         LinkedHashMap<TopicPartition, PartitionData> fetchData, FetchMetadata metadata,
+                         List<TopicPartition> toForget) {
         super(version);
         this.replicaId = replicaId;
         this.maxWait = maxWait;
         this.minBytes = minBytes;
         this.maxBytes = maxBytes;
         this.fetchData = fetchData;
+        this.metadata = metadata;
+        this.toForget = toForget;
     }
 
     public FetchRequest(Struct struct, short version) {
@@ -183,6 +248,18 @@ public class FetchRequest extends AbstractRequest {
                 fetchData.put(new TopicPartition(topic, partition), partitionData);
             }
         }
+        toForget = new ArrayList<>();
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            metadata = new FetchMetadata(struct.getInt(SESSION_ID_KEY_NAME), struct.getInt(SESSION_EPOCH_KEY_NAME));
+            for (Object forgottenTopicObj : struct.getArray(FORGOTTEN_TOPICS_DATA_KEY_NAME)) {
+                Struct forgottenTopic = (Struct) forgottenTopicObj;
+                String topic = forgottenTopic.getString(TOPIC_KEY_NAME);
+                for (Object partitionObj : forgottenTopic.getArray(PARTITIONS_KEY_NAME))
+                    toForget.add(new TopicPartition(topic, (Integer) partitionObj));
+            }
+        } else {
+            metadata = FetchMetadata.LEGACY;
+        }
     }
 
     @Override
@@ -214,10 +291,25 @@ public class FetchRequest extends AbstractRequest {
         return maxBytes;
     }
 
+    /**
+     * The partitions sent in the request. In an incremental fetch request, these are only the partitions which were
+     * added to the fetch session or whose fetch data changed.
+     */
     public Map<TopicPartition, PartitionData> fetchData() {
         return fetchData;
     }
 
+    public FetchMetadata metadata() {
+        return metadata;
+    }
+
+    /**
+     * The partitions to remove from the fetch session
+     */
+    public List<TopicPartition> toForget() {
+        return toForget;
+    }
+
     public boolean isFromFollower() {
         return replicaId >= 0;
     }
@@ -254,6 +346,28 @@ public class FetchRequest extends AbstractRequest {
             topicArray.add(topicData);
         }
         struct.set(TOPICS_KEY_NAME, topicArray.toArray());
+
+        if (version >= 4) {
+            struct.set(SESSION_ID_KEY_NAME, metadata.sessionId());
+            struct.set(SESSION_EPOCH_KEY_NAME, metadata.epoch());
+            Map<String, List<Integer>> forgottenTopics = new LinkedHashMap<>();
+            for (TopicPartition tp : toForget) {
+                List<Integer> partitions = forgottenTopics.get(tp.topic());
+                if (partitions == null) {
+                    partitions = new ArrayList<>();
+                    forgottenTopics.put(tp.topic(), partitions);
+                }
+                partitions.add(tp.partition());
+            }
+            List<Struct> forgottenTopicArray = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> forgottenTopicEntry : forgottenTopics.entrySet()) {
+                Struct forgottenTopic = struct.instance(FORGOTTEN_TOPICS_DATA_KEY_NAME);
+                forgottenTopic.set(TOPIC_KEY_NAME, forgottenTopicEntry.getKey());
+                forgottenTopic.set(PARTITIONS_KEY_NAME, forgottenTopicEntry.getValue().toArray());
+                forgottenTopicArray.add(forgottenTopic);
+            }
+            struct.set(FORGOTTEN_TOPICS_DATA_KEY_NAME, forgottenTopicArray.toArray());
+        }
         return struct;
     }
 }
@@ -44,6 +44,7 @@ public class FetchResponse extends AbstractResponse {
     private static final String TOPIC_KEY_NAME = "topic";
     private static final String PARTITIONS_KEY_NAME = "partition_responses";
     private static final String THROTTLE_TIME_KEY_NAME = "throttle_time_ms";
+    private static final String SESSION_ID_KEY_NAME = "session_id";
 
     // partition level field names
     private static final String PARTITION_HEADER_KEY_NAME = "partition_header";
@@ -60,6 +61,8 @@ public class FetchResponse extends AbstractResponse {
      *  UNKNOWN_TOPIC_OR_PARTITION (3)
      *  NOT_LEADER_FOR_PARTITION (6)
      *  REPLICA_NOT_AVAILABLE (9)
+     *  FETCH_SESSION_ID_NOT_FOUND (45)
+     *  INVALID_FETCH_SESSION_EPOCH (46)
      *  UNKNOWN (-1)
      */
 
@@ -68,8 +71,10 @@ public class FetchResponse extends AbstractResponse {
 
     public static final long INVALID_HIGHWATERMARK = -1L;
 
+    private final Errors error;
     private final LinkedHashMap<TopicPartition, PartitionData> responseData;
     private final int throttleTimeMs;
+    private final int sessionId;
 
     public static final class PartitionData {
         public final Errors error;
@@ -99,8 +104,26 @@ public class FetchResponse extends AbstractResponse {
      * @param throttleTimeMs Time in milliseconds the response was throttled
      */
     public FetchResponse(LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs) {
+        this(Errors.NONE, responseData, throttleTimeMs, FetchMetadata.INVALID_SESSION_ID);
+    }
+
+    /**
+     * Constructor for version 4 and later, which support fetch sessions.
+     *
+     * The response to an incremental fetch request only contains the partitions of the session which have records,
+     * an error or a changed high watermark.
+     *
+     * @param error the top level error of the fetch session
+     * @param responseData fetched data grouped by topic-partition
+     * @param throttleTimeMs Time in milliseconds the response was throttled
+     * @param sessionId the ID of the fetch session, or 0 if there is none
+     */
+    public FetchResponse(Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTimeMs,
+                         int sessionId) {
+        this.error = error;
         this.responseData = responseData;
         this.throttleTimeMs = throttleTimeMs;
+        this.sessionId = sessionId;
     }
 
     public FetchResponse(Struct struct) {
@@ -121,11 +144,18 @@ public class FetchResponse extends AbstractResponse {
         }
         this.responseData = responseData;
         this.throttleTimeMs = struct.hasField(THROTTLE_TIME_KEY_NAME) ? struct.getInt(THROTTLE_TIME_KEY_NAME) : DEFAULT_THROTTLE_TIME;
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            this.error = Errors.forCode(struct.getShort(ERROR_CODE_KEY_NAME));
+            this.sessionId = struct.getInt(SESSION_ID_KEY_NAME);
+        } else {
+            this.error = Errors.NONE;
+            this.sessionId = FetchMetadata.INVALID_SESSION_ID;
+        }
     }
 
     @Override
     public Struct toStruct(short version) {
-        return toStruct(version, responseData, throttleTimeMs);
+        return toStruct(version, error, responseData, throttleTimeMs, sessionId);
     }
 
     @Override
@@ -156,6 +186,14 @@ public class FetchResponse extends AbstractResponse {
         return this.throttleTimeMs;
     }
 
+    public Errors error() {
+        return this.error;
+    }
+
+    public int sessionId() {
+        return this.sessionId;
+    }
+
     public static FetchResponse parse(ByteBuffer buffer, short version) {
         return new FetchResponse(ApiKeys.FETCH.responseSchema(version).read(buffer));
     }
@@ -163,7 +201,15 @@ public class FetchResponse extends AbstractResponse {
     private static void addResponseData(Struct struct, int throttleTimeMs, String dest, List<Send> sends) {
         Object[] allTopicData = struct.getArray(RESPONSES_KEY_NAME);
 
-        if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
+        if (struct.hasField(SESSION_ID_KEY_NAME)) {
+            ByteBuffer buffer = ByteBuffer.allocate(14);
+            buffer.putInt(throttleTimeMs);
+            buffer.putShort(struct.getShort(ERROR_CODE_KEY_NAME));
+            buffer.putInt(struct.getInt(SESSION_ID_KEY_NAME));
+            buffer.putInt(allTopicData.length);
+            buffer.rewind();
+            sends.add(new ByteBufferSend(dest, buffer));
+        } else if (struct.hasField(THROTTLE_TIME_KEY_NAME)) {
             ByteBuffer buffer = ByteBuffer.allocate(8);
             buffer.putInt(throttleTimeMs);
             buffer.putInt(allTopicData.length);
@@ -210,7 +256,8 @@ public class FetchResponse extends AbstractResponse {
         sends.add(new RecordsSend(dest, records));
     }
 
-    private static Struct toStruct(short version, LinkedHashMap<TopicPartition, PartitionData> responseData, int throttleTime) {
+    private static Struct toStruct(short version, Errors error, LinkedHashMap<TopicPartition, PartitionData> responseData,
+                                   int throttleTime, int sessionId) {
         Struct struct = new Struct(ApiKeys.FETCH.responseSchema(version));
         List<FetchRequest.TopicAndPartitionData<PartitionData>> topicsData = FetchRequest.TopicAndPartitionData.batchByTopic(responseData);
         List<Struct> topicArray = new ArrayList<>();
@@ -236,12 +283,16 @@ public class FetchResponse extends AbstractResponse {
 
         if (version >= 1)
             struct.set(THROTTLE_TIME_KEY_NAME, throttleTime);
+        if (version >= 4) {
+            struct.set(ERROR_CODE_KEY_NAME, error.code());
+            struct.set(SESSION_ID_KEY_NAME, sessionId);
+        }
 
         return struct;
     }
 
     public static int sizeOf(short version, LinkedHashMap<TopicPartition, PartitionData> responseData) {
-        return 4 + toStruct(version, responseData, 0).sizeOf();
+        return 4 + toStruct(version, Errors.NONE, responseData, 0, FetchMetadata.INVALID_SESSION_ID).sizeOf();
     }
 
 }
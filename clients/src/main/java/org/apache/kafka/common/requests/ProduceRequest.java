@@ -18,10 +18,16 @@ package org.apache.kafka.common.requests;
 
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.kafka.common.network.ByteBufferSend;
+import org.apache.kafka.common.network.MultiSend;
+import org.apache.kafka.common.network.Send;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.protocol.types.Type;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Records;
 import org.apache.kafka.common.utils.CollectionUtils;
 import org.apache.kafka.common.utils.Utils;
 
@@ -61,6 +67,15 @@ public class ProduceRequest extends AbstractRequest {
             if (version < 2)
                 throw new UnsupportedVersionException("ProduceRequest versions older than 2 are not supported.");
 
+            // brokers only accept zstd records in version 3 and newer
+            if (version < 3) {
+                for (MemoryRecords records : partitionRecords.values()) {
+                    if (records.hasShallowCompressionType(CompressionType.ZSTD))
+                        throw new UnsupportedVersionException("Produce requests with zstd compressed records must use " +
+                                "version 3 or newer, but the broker only supports version " + version);
+                }
+            }
+
             return new ProduceRequest(version, acks, timeout, partitionRecords);
         }
 
@@ -132,6 +147,56 @@ public class ProduceRequest extends AbstractRequest {
         return struct;
     }
 
+    /**
+     * Send the record sets of the request from the buffers of their batches, which may be direct buffers of the
+     * producer's buffer pool, rather than copying them into a single buffer with the rest of the request. The
+     * batches are only deallocated once the request has been sent.
+     */
+    @Override
+    public Send toSend(String destination, RequestHeader header) {
+        Struct headerStruct = header.toStruct();
+        Struct struct = toStruct();
+        Object[] topicDatas = struct.getArray(TOPIC_DATA_KEY_NAME);
+
+        // write the total size, the request header, acks, timeout and the number of topics
+        ByteBuffer buffer = ByteBuffer.allocate(4 + headerStruct.sizeOf() + 10);
+        buffer.putInt(headerStruct.sizeOf() + struct.sizeOf());
+        headerStruct.writeTo(buffer);
+        buffer.putShort(acks);
+        buffer.putInt(timeout);
+        buffer.putInt(topicDatas.length);
+        buffer.rewind();
+
+        List<Send> sends = new ArrayList<>();
+        sends.add(new ByteBufferSend(destination, buffer));
+        for (Object topicDataObj : topicDatas) {
+            Struct topicData = (Struct) topicDataObj;
+            String topic = topicData.getString(TOPIC_KEY_NAME);
+            Object[] partitionDatas = topicData.getArray(PARTITION_DATA_KEY_NAME);
+
+            // the topic and the number of its partitions
+            buffer = ByteBuffer.allocate(Type.STRING.sizeOf(topic) + 4);
+            Type.STRING.write(buffer, topic);
+            buffer.putInt(partitionDatas.length);
+            buffer.rewind();
+            sends.add(new ByteBufferSend(destination, buffer));
+
+            for (Object partitionDataObj : partitionDatas) {
+                Struct partitionData = (Struct) partitionDataObj;
+                Records records = partitionData.getRecords(RECORD_SET_KEY_NAME);
+
+                // the partition and the size of its record set, followed by the record set itself
+                buffer = ByteBuffer.allocate(8);
+                buffer.putInt(partitionData.getInt(PARTITION_KEY_NAME));
+                buffer.putInt(records.sizeInBytes());
+                buffer.rewind();
+                sends.add(new ByteBufferSend(destination, buffer));
+                sends.add(new RecordsSend(destination, records));
+            }
+        }
+        return new MultiSend(destination, sends);
+    }
+
     @Override
     public AbstractResponse getErrorResponse(Throwable e) {
         /* In case the producer doesn't actually want any response */
@@ -149,6 +214,7 @@ public class ProduceRequest extends AbstractRequest {
             case 0:
             case 1:
             case 2:
+            case 3:
                 return new ProduceResponse(responseMap);
             default:
                 throw new IllegalArgumentException(String.format("Version %d is not valid. Valid versions for %s are 0 to %d",
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Deserializer} which can read its input directly from a buffer. The consumer passes the key and value of
+ * a fetched record to it as a buffer over the fetched data, which avoids copying them into new byte arrays first.
+ *
+ * @param <T> Type to be deserialized into.
+ */
+public interface BufferDeserializer<T> extends Deserializer<T> {
+
+    /**
+     * Deserialize the bytes between the buffer's position and its limit. The buffer may be shared with other
+     * records, so its content must not be modified. Nor may the returned value keep a reference to the buffer, which
+     * holds the fetched data only until the records are returned by the consumer and which is not accounted for in
+     * the consumer's memory use after that.
+     *
+     * @param topic topic associated with the data
+     * @param data serialized bytes; may be null; implementations are recommended to handle null by returning a value
+     *             or null rather than throwing an exception.
+     * @return deserialized typed data; may be null
+     */
+    public T deserialize(String topic, ByteBuffer data);
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.serialization;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Serializer} which can write its output directly into a buffer instead of returning a new byte array.
+ * <p>
+ * When the value serializer of a {@link org.apache.kafka.clients.producer.KafkaProducer} implements this interface,
+ * the producer does not compress its batches and it uses the default partitioner, values which are already held by a
+ * buffer are copied from it into the batch, and the other values up to the batch size are written into a buffer which
+ * the sending thread reuses for the following records, which avoids allocating a byte array for every record.
+ * Otherwise values are serialized with {@link #serialize(String, Object)} as usual. Serializers whose
+ * {@link #serialize(String, Object)} returns a byte array without copying have nothing to gain from this interface.
+ *
+ * @param <T> Type to be serialized from.
+ */
+public interface BufferSerializer<T> extends Serializer<T> {
+
+    /**
+     * @param topic topic associated with data
+     * @param data typed data
+     * @return the exact number of bytes {@link #serialize(String, Object, ByteBuffer)} writes for the data, or -1 if
+     *         the data is serialized as null
+     */
+    public int serializedSize(String topic, T data);
+
+    /**
+     * Get a buffer which already holds the serialized data, so that it is copied into the batch without being written
+     * to an intermediate buffer first. The buffer is only read until the data has been copied, and its position and
+     * limit are not changed.
+     *
+     * @param topic topic associated with data
+     * @param data typed data
+     * @return a buffer whose remaining {@link #serializedSize(String, Object)} bytes are the serialized data, or null
+     *         if the data is written with {@link #serialize(String, Object, ByteBuffer)}
+     */
+    public ByteBuffer serializedBuffer(String topic, T data);
+
+    /**
+     * Write the serialized data into the buffer starting at its current position. Exactly
+     * {@link #serializedSize(String, Object)} bytes must be written, and the buffer's limit must not be changed. This
+     * is not called for data which is serialized as null.
+     *
+     * @param topic topic associated with data
+     * @param data typed data
+     * @param buffer the buffer to write to, whose position must be advanced by the number of bytes written
+     */
+    public void serialize(String topic, T data, ByteBuffer buffer);
+}
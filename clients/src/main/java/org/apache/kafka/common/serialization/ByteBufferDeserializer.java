@@ -19,7 +19,7 @@ package org.apache.kafka.common.serialization;
 import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class ByteBufferDeserializer implements Deserializer<ByteBuffer> {
+public class ByteBufferDeserializer implements BufferDeserializer<ByteBuffer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -32,6 +32,17 @@ public class ByteBufferDeserializer implements Deserializer<ByteBuffer> {
         return ByteBuffer.wrap(data);
     }
 
+    public ByteBuffer deserialize(String topic, ByteBuffer data) {
+        if (data == null)
+            return null;
+
+        // copy the value so that it does not hold on to the fetched data, which is released once it has been consumed
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        return copy;
+    }
+
     public void close() {
         // nothing to do
     }
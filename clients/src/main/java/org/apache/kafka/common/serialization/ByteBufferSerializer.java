@@ -19,7 +19,7 @@ package org.apache.kafka.common.serialization;
 import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class ByteBufferSerializer implements Serializer<ByteBuffer> {
+public class ByteBufferSerializer implements BufferSerializer<ByteBuffer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -44,6 +44,22 @@ public class ByteBufferSerializer implements Serializer<ByteBuffer> {
         return ret;
     }
 
+    public int serializedSize(String topic, ByteBuffer data) {
+        return data == null ? -1 : data.limit();
+    }
+
+    public ByteBuffer serializedBuffer(String topic, ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.rewind();
+        return buffer;
+    }
+
+    public void serialize(String topic, ByteBuffer data, ByteBuffer buffer) {
+        ByteBuffer source = data.duplicate();
+        source.rewind();
+        buffer.put(source);
+    }
+
     public void close() {
         // nothing to do
     }
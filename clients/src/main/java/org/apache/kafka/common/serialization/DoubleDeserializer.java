@@ -18,9 +18,11 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 
-public class DoubleDeserializer implements Deserializer<Double> {
+public class DoubleDeserializer implements BufferDeserializer<Double> {
 
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
@@ -43,6 +45,18 @@ public class DoubleDeserializer implements Deserializer<Double> {
         return Double.longBitsToDouble(value);
     }
 
+    @Override
+    public Double deserialize(String topic, ByteBuffer data) {
+        if (data == null)
+            return null;
+        if (data.remaining() != 8) {
+            throw new SerializationException("Size of data received by Deserializer is not 8");
+        }
+
+        long value = data.getLong(data.position());
+        return Double.longBitsToDouble(data.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+    }
+
     @Override
     public void close() {
         // nothing to do
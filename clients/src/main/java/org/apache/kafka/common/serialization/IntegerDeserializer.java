@@ -18,9 +18,11 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 
-public class IntegerDeserializer implements Deserializer<Integer> {
+public class IntegerDeserializer implements BufferDeserializer<Integer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -42,6 +44,18 @@ public class IntegerDeserializer implements Deserializer<Integer> {
         return value;
     }
 
+    public Integer deserialize(String topic, ByteBuffer data) {
+        if (data == null)
+            return null;
+        if (data.remaining() != 4) {
+            throw new SerializationException("Size of data received by IntegerDeserializer is " +
+                    "not 4");
+        }
+
+        int value = data.getInt(data.position());
+        return data.order() == ByteOrder.BIG_ENDIAN ? value : Integer.reverseBytes(value);
+    }
+
     public void close() {
         // nothing to do
     }
@@ -16,9 +16,10 @@
  */
 package org.apache.kafka.common.serialization;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class IntegerSerializer implements Serializer<Integer> {
+public class IntegerSerializer implements BufferSerializer<Integer> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -36,6 +37,18 @@ public class IntegerSerializer implements Serializer<Integer> {
         };
     }
 
+    public int serializedSize(String topic, Integer data) {
+        return data == null ? -1 : 4;
+    }
+
+    public ByteBuffer serializedBuffer(String topic, Integer data) {
+        return null;
+    }
+
+    public void serialize(String topic, Integer data, ByteBuffer buffer) {
+        buffer.putInt(data);
+    }
+
     public void close() {
         // nothing to do
     }
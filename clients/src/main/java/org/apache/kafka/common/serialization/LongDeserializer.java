@@ -18,9 +18,11 @@ package org.apache.kafka.common.serialization;
 
 import org.apache.kafka.common.errors.SerializationException;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 
-public class LongDeserializer implements Deserializer<Long> {
+public class LongDeserializer implements BufferDeserializer<Long> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -42,6 +44,18 @@ public class LongDeserializer implements Deserializer<Long> {
         return value;
     }
 
+    public Long deserialize(String topic, ByteBuffer data) {
+        if (data == null)
+            return null;
+        if (data.remaining() != 8) {
+            throw new SerializationException("Size of data received by LongDeserializer is " +
+                    "not 8");
+        }
+
+        long value = data.getLong(data.position());
+        return data.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+    }
+
     public void close() {
         // nothing to do
     }
@@ -16,9 +16,10 @@
  */
 package org.apache.kafka.common.serialization;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
-public class LongSerializer implements Serializer<Long> {
+public class LongSerializer implements BufferSerializer<Long> {
 
     public void configure(Map<String, ?> configs, boolean isKey) {
         // nothing to do
@@ -40,6 +41,18 @@ public class LongSerializer implements Serializer<Long> {
         };
     }
 
+    public int serializedSize(String topic, Long data) {
+        return data == null ? -1 : 8;
+    }
+
+    public ByteBuffer serializedBuffer(String topic, Long data) {
+        return null;
+    }
+
+    public void serialize(String topic, Long data, ByteBuffer buffer) {
+        buffer.putLong(data);
+    }
+
     public void close() {
         // nothing to do
     }
@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.utils;
 
+import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
 /**
@@ -32,6 +33,9 @@ import java.util.zip.Checksum;
  */
 public class Crc32 implements Checksum {
 
+    // the size of the chunks in which the bytes of buffers without a backing array are checksummed
+    private static final int DIRECT_CHUNK_SIZE = 4096;
+
     /**
      * Compute the CRC32 of the byte array
      * 
@@ -56,6 +60,35 @@ public class Crc32 implements Checksum {
         return crc.getValue();
     }
 
+    /**
+     * Compute the CRC32 of the segment of the buffer given by the specified size and offset. The buffer's position
+     * and limit are not modified. Buffers without an accessible backing array (such as direct buffers) are supported.
+     *
+     * @param buffer The buffer to checksum
+     * @param offset the offset (relative to the start of the buffer) at which to begin checksumming
+     * @param size the number of bytes to checksum
+     * @return The CRC32
+     */
+    public static long crc32(ByteBuffer buffer, int offset, int size) {
+        Crc32 crc = new Crc32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + offset, size);
+        } else {
+            // copy the bytes in chunks so that the table driven update of the array is used
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset);
+            byte[] chunk = new byte[Math.min(size, DIRECT_CHUNK_SIZE)];
+            int remaining = size;
+            while (remaining > 0) {
+                int length = Math.min(remaining, chunk.length);
+                source.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+                remaining -= length;
+            }
+        }
+        return crc.getValue();
+    }
+
     /** the current CRC value, bit-flipped */
     private int crc;
 
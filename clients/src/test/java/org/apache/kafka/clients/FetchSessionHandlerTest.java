@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.requests.FetchMetadata;
+import org.apache.kafka.common.requests.FetchRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FetchSessionHandlerTest {
+    private final TopicPartition tp0 = new TopicPartition("foo", 0);
+    private final TopicPartition tp1 = new TopicPartition("foo", 1);
+    private final TopicPartition tp2 = new TopicPartition("bar", 0);
+
+    @Test
+    public void testIncrementalRequests() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        FetchRequest request = prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertEquals(FetchMetadata.INITIAL, request.metadata());
+        assertEquals(fetchData(tp0, 10, tp1, 20), request.fetchData());
+        assertTrue(handler.hasRequestInFlight());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+        assertFalse(handler.hasRequestInFlight());
+        assertEquals(123, handler.sessionId());
+
+        // only the changed and added partitions are sent, and the removed ones are forgotten
+        request = prepare(handler, fetchData(tp1, 25, tp2, 0));
+        assertEquals(new FetchMetadata(123, 1), request.metadata());
+        assertEquals(fetchData(tp1, 25, tp2, 0), request.fetchData());
+        assertEquals(Arrays.asList(tp0), request.toForget());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+
+        request = prepare(handler, fetchData(tp1, 25, tp2, 0));
+        assertEquals(new FetchMetadata(123, 2), request.metadata());
+        assertTrue(request.fetchData().isEmpty());
+        assertTrue(request.toForget().isEmpty());
+    }
+
+    @Test
+    public void testLostSessionIsReplacedByFullRequest() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+
+        prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertFalse(handler.handleResponse(response(Errors.INVALID_FETCH_SESSION_EPOCH, FetchMetadata.INVALID_SESSION_ID)));
+        // the full request closes the lost session on the broker
+        FetchRequest request = prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertEquals(new FetchMetadata(123, FetchMetadata.INITIAL_EPOCH), request.metadata());
+        assertEquals(fetchData(tp0, 10, tp1, 20), request.fetchData());
+
+        handler.handleError(new RuntimeException());
+        assertEquals(new FetchMetadata(123, FetchMetadata.INITIAL_EPOCH), prepare(handler, fetchData(tp0, 10)).metadata());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 456)));
+        assertEquals(new FetchMetadata(456, 1), prepare(handler, fetchData(tp0, 10)).metadata());
+
+        // a session which the broker did not find is not closed
+        assertFalse(handler.handleResponse(response(Errors.FETCH_SESSION_ID_NOT_FOUND, FetchMetadata.INVALID_SESSION_ID)));
+        assertEquals(FetchMetadata.INITIAL, prepare(handler, fetchData(tp0, 10)).metadata());
+    }
+
+    @Test
+    public void testPartitionsWithBufferedRecords() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+        prepare(handler, fetchData(tp0, 10, tp1, 20));
+        assertTrue(handler.handleResponse(responseWithRecords(tp0, tp1)));
+
+        // the partition whose records are buffered is kept in the session
+        FetchRequest.Builder builder = FetchRequest.Builder.forConsumer(100, 1, fetchData(tp1, 25));
+        handler.prepare(builder, Collections.singleton(tp0));
+        FetchRequest request = builder.build();
+        assertEquals(fetchData(tp1, 25), request.fetchData());
+        assertTrue(request.toForget().isEmpty());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+
+        // a partition which returned records is sent again if it is fetched from the same offset
+        request = prepare(handler, fetchData(tp0, 10, tp1, 25));
+        assertEquals(fetchData(tp0, 10), request.fetchData());
+        assertTrue(handler.handleResponse(response(Errors.NONE, 123)));
+        assertTrue(prepare(handler, fetchData(tp0, 10, tp1, 25)).fetchData().isEmpty());
+    }
+
+    @Test
+    public void testBrokerWithoutSessions() {
+        FetchSessionHandler handler = new FetchSessionHandler(1);
+        prepare(handler, fetchData(tp0, 10));
+        assertTrue(handler.handleResponse(response(Errors.NONE, FetchMetadata.INVALID_SESSION_ID)));
+        assertEquals(FetchMetadata.INITIAL, prepare(handler, fetchData(tp0, 10)).metadata());
+    }
+
+    private static FetchRequest prepare(FetchSessionHandler handler,
+                                        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData) {
+        FetchRequest.Builder builder = FetchRequest.Builder.forConsumer(100, 1, fetchData);
+        handler.prepare(builder);
+        return builder.build();
+    }
+
+    private static LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData(Object... partitionsAndOffsets) {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        for (int i = 0; i < partitionsAndOffsets.length; i += 2)
+            fetchData.put((TopicPartition) partitionsAndOffsets[i],
+                    new FetchRequest.PartitionData((Integer) partitionsAndOffsets[i + 1], 1000));
+        return fetchData;
+    }
+
+    private static FetchResponse responseWithRecords(TopicPartition... partitions) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        for (TopicPartition partition : partitions)
+            responseData.put(partition, new FetchResponse.PartitionData(Errors.NONE, 10,
+                    MemoryRecords.withRecords(Record.create("value".getBytes()))));
+        return new FetchResponse(Errors.NONE, responseData, 0, 123);
+    }
+
+    private static FetchResponse response(Errors error, int sessionId) {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        if (error == Errors.NONE)
+            responseData.put(new TopicPartition("foo", 0), new FetchResponse.PartitionData(Errors.NONE, 10, MemoryRecords.EMPTY));
+        return new FetchResponse(error, responseData, 0, sessionId);
+    }
+}
@@ -24,6 +24,7 @@ import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.types.Struct;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
+import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.MetadataRequest;
 import org.apache.kafka.common.requests.ProduceRequest;
 import org.apache.kafka.common.requests.ResponseHeader;
@@ -37,6 +38,7 @@ import org.junit.Test;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -122,6 +124,20 @@ public class NetworkClientTest {
         assertFalse("Connection should not be ready after close", client.isReady(node, 0));
     }
 
+    @Test
+    public void testOnlyConnectionsWithFetchesAllocateFromMemoryPool() {
+        awaitReady(client, node);
+        ProduceRequest.Builder produce = new ProduceRequest.Builder((short) 0, 1000, Collections.<TopicPartition, MemoryRecords>emptyMap());
+        client.send(client.newClientRequest(node.idString(), produce, time.milliseconds(), false), time.milliseconds());
+        client.poll(1, time.milliseconds());
+        assertFalse(selector.allocatesFromMemoryPool(node.idString()));
+
+        FetchRequest.Builder fetch = FetchRequest.Builder.forConsumer(100, 1,
+                new LinkedHashMap<TopicPartition, FetchRequest.PartitionData>());
+        client.send(client.newClientRequest(node.idString(), fetch, time.milliseconds(), true), time.milliseconds());
+        assertTrue(selector.allocatesFromMemoryPool(node.idString()));
+    }
+
     private void checkSimpleRequestResponse(NetworkClient networkClient) {
         awaitReady(networkClient, node); // has to be before creating any request, as it may send ApiVersionsRequest and its response is mocked with correlation id 0
         ProduceRequest.Builder builder =
@@ -34,6 +34,7 @@ import org.apache.kafka.common.Node;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.network.Selectable;
 import org.apache.kafka.common.protocol.ApiKeys;
@@ -1508,7 +1509,8 @@ public class KafkaConsumerTest {
                 autoCommitEnabled,
                 autoCommitIntervalMs,
                 interceptors,
-                excludeInternalTopics);
+                excludeInternalTopics,
+                false);
 
         Fetcher<String, String> fetcher = new Fetcher<>(
                 consumerClient,
@@ -1517,7 +1519,11 @@ public class KafkaConsumerTest {
                 maxWaitMs,
                 fetchSize,
                 maxPollRecords,
+                1,
+                "",
+                MemoryPool.NONE,
                 checkCrcs,
+                null,
                 keyDeserializer,
                 valueDeserializer,
                 metadata,
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor.Assignment;
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor.Subscription;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StickyAssignorTest {
+
+    private StickyAssignor assignor = new StickyAssignor();
+
+    @Test
+    public void testOneConsumerOneTopic() {
+        String topic = "topic";
+        String consumerId = "consumer";
+
+        Map<String, Integer> partitionsPerTopic = new HashMap<>();
+        partitionsPerTopic.put(topic, 3);
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic,
+                Collections.singletonMap(consumerId, Arrays.asList(topic)));
+        assertEquals(Arrays.asList(tp(topic, 0), tp(topic, 1), tp(topic, 2)), assignment.get(consumerId));
+    }
+
+    @Test
+    public void testOneConsumerNonexistentTopic() {
+        String consumerId = "consumer";
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(new HashMap<String, Integer>(),
+                Collections.singletonMap(consumerId, Arrays.asList("topic")));
+        assertEquals(Collections.singleton(consumerId), assignment.keySet());
+        assertTrue(assignment.get(consumerId).isEmpty());
+    }
+
+    @Test
+    public void testInitialAssignmentIsBalanced() {
+        Map<String, Integer> partitionsPerTopic = new HashMap<>();
+        partitionsPerTopic.put("t0", 3);
+        partitionsPerTopic.put("t1", 3);
+
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("c0", Arrays.asList("t0", "t1"));
+        subscriptions.put("c1", Arrays.asList("t0", "t1"));
+        subscriptions.put("c2", Arrays.asList("t0", "t1"));
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic, subscriptions);
+        assertEquals(Arrays.asList(tp("t0", 0), tp("t1", 0)), assignment.get("c0"));
+        assertEquals(Arrays.asList(tp("t0", 1), tp("t1", 1)), assignment.get("c1"));
+        assertEquals(Arrays.asList(tp("t0", 2), tp("t1", 2)), assignment.get("c2"));
+    }
+
+    @Test
+    public void testConsumerLeavingOnlyMovesItsPartitions() {
+        Map<String, Integer> partitionsPerTopic = new HashMap<>();
+        partitionsPerTopic.put("t0", 3);
+        partitionsPerTopic.put("t1", 3);
+
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("c0", Arrays.asList("t0", "t1"));
+        subscriptions.put("c2", Arrays.asList("t0", "t1"));
+
+        Map<String, ByteBuffer> userData = new HashMap<>();
+        userData.put("c0", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 0), tp("t1", 0))));
+        userData.put("c2", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 2), tp("t1", 2))));
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic, subscriptions, userData);
+        assertEquals(Arrays.asList(tp("t0", 0), tp("t1", 0), tp("t0", 1)), assignment.get("c0"));
+        assertEquals(Arrays.asList(tp("t0", 2), tp("t1", 2), tp("t1", 1)), assignment.get("c2"));
+    }
+
+    @Test
+    public void testConsumerJoiningTakesOnePartitionFromEachOverloadedConsumer() {
+        Map<String, Integer> partitionsPerTopic = Collections.singletonMap("t0", 6);
+
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("c0", Arrays.asList("t0"));
+        subscriptions.put("c1", Arrays.asList("t0"));
+        subscriptions.put("c2", Arrays.asList("t0"));
+
+        Map<String, ByteBuffer> userData = new HashMap<>();
+        userData.put("c0", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 0), tp("t0", 2), tp("t0", 4))));
+        userData.put("c1", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 1), tp("t0", 3), tp("t0", 5))));
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic, subscriptions, userData);
+        assertEquals(Arrays.asList(tp("t0", 0), tp("t0", 2)), assignment.get("c0"));
+        assertEquals(Arrays.asList(tp("t0", 1), tp("t0", 3)), assignment.get("c1"));
+        assertEquals(Arrays.asList(tp("t0", 4), tp("t0", 5)), assignment.get("c2"));
+    }
+
+    @Test
+    public void testDifferentSubscriptionsAreBalanced() {
+        Map<String, Integer> partitionsPerTopic = new HashMap<>();
+        partitionsPerTopic.put("t0", 2);
+        partitionsPerTopic.put("t1", 4);
+
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("c0", Arrays.asList("t0"));
+        subscriptions.put("c1", Arrays.asList("t0", "t1"));
+        subscriptions.put("c2", Arrays.asList("t0", "t1"));
+
+        // c1 previously owned all the partitions
+        Map<String, ByteBuffer> userData = Collections.singletonMap("c1", StickyAssignor.serializePreviousAssignment(
+                Arrays.asList(tp("t0", 0), tp("t0", 1), tp("t1", 0), tp("t1", 1), tp("t1", 2), tp("t1", 3))));
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic, subscriptions, userData);
+        assertEquals(2, assignment.get("c0").size());
+        assertEquals(2, assignment.get("c1").size());
+        assertEquals(2, assignment.get("c2").size());
+        assertEquals(6, allPartitions(assignment).size());
+    }
+
+    @Test
+    public void testConflictingAndStalePreviousAssignmentsAreIgnored() {
+        Map<String, Integer> partitionsPerTopic = Collections.singletonMap("t0", 2);
+
+        Map<String, List<String>> subscriptions = new HashMap<>();
+        subscriptions.put("c0", Arrays.asList("t0"));
+        subscriptions.put("c1", Arrays.asList("t0"));
+
+        // both claim t0p0, and c1 claims a partition which no longer exists and one of a topic it left
+        Map<String, ByteBuffer> userData = new HashMap<>();
+        userData.put("c0", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 0))));
+        userData.put("c1", StickyAssignor.serializePreviousAssignment(Arrays.asList(tp("t0", 0), tp("t0", 2), tp("t1", 0))));
+
+        Map<String, List<TopicPartition>> assignment = assignor.assign(partitionsPerTopic, subscriptions, userData);
+        assertEquals(Arrays.asList(tp("t0", 0)), assignment.get("c0"));
+        assertEquals(Arrays.asList(tp("t0", 1)), assignment.get("c1"));
+    }
+
+    @Test
+    public void testSubscriptionCarriesPreviousAssignment() {
+        Set<String> topics = new HashSet<>(Arrays.asList("t0", "t1"));
+        Subscription subscription = assignor.subscription(topics);
+        assertTrue(StickyAssignor.deserializePreviousAssignment(subscription.userData()).isEmpty());
+
+        List<TopicPartition> partitions = Arrays.asList(tp("t0", 0), tp("t0", 1), tp("t1", 2));
+        assignor.onAssignment(new Assignment(partitions));
+        subscription = assignor.subscription(topics);
+        assertEquals(topics, new HashSet<>(subscription.topics()));
+        assertEquals(new HashSet<>(partitions),
+                new HashSet<>(StickyAssignor.deserializePreviousAssignment(subscription.userData())));
+    }
+
+    private static Set<TopicPartition> allPartitions(Map<String, List<TopicPartition>> assignment) {
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (List<TopicPartition> memberPartitions : assignment.values())
+            partitions.addAll(memberPartitions);
+        return partitions;
+    }
+
+    private static TopicPartition tp(String topic, int partition) {
+        return new TopicPartition(topic, partition);
+    }
+}
@@ -515,6 +515,127 @@ public class ConsumerCoordinatorTest {
         assertEquals(singleton(t1p), rebalanceListener.assigned);
     }
 
+    @Test
+    public void testCooperativeRebalanceOnlyRevokesReassignedPartitions() {
+        final String consumerId = "consumer";
+        coordinator = buildCoordinator(new Metrics(), assignors, false, false, true);
+
+        subscriptions.subscribe(new HashSet<>(Arrays.asList(topic1, topic2)), rebalanceListener);
+
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        client.prepareResponse(joinGroupFollowerResponse(1, consumerId, "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(Arrays.asList(t1p, t2p), Errors.NONE));
+        coordinator.joinGroupIfNeeded();
+
+        assertEquals(0, rebalanceListener.revokedCount);
+        assertEquals(new HashSet<>(Arrays.asList(t1p, t2p)), rebalanceListener.assigned);
+        subscriptions.seek(t1p, 100L);
+
+        // the member keeps its partitions while it rejoins and only revokes t2p, which moves to another member.
+        // It then rejoins once more so that t2p can be assigned to its new owner
+        coordinator.requestRejoin();
+        client.prepareResponse(ownedPartitionsMatcher(t1p, t2p), joinGroupFollowerResponse(2, consumerId, "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(singletonList(t1p), Errors.NONE));
+        client.prepareResponse(ownedPartitionsMatcher(t1p), joinGroupFollowerResponse(3, consumerId, "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(singletonList(t1p), Errors.NONE));
+        coordinator.joinGroupIfNeeded();
+
+        assertFalse(coordinator.needRejoin());
+        assertEquals(singleton(t1p), subscriptions.assignedPartitions());
+        assertEquals(100L, (long) subscriptions.position(t1p));
+        assertEquals(1, rebalanceListener.revokedCount);
+        assertEquals(singleton(t2p), rebalanceListener.revoked);
+        assertEquals(3, rebalanceListener.assignedCount);
+        assertEquals(Collections.emptySet(), rebalanceListener.assigned);
+    }
+
+    @Test
+    public void testCooperativeLeaderWithholdsPartitionsOwnedByOtherMembers() {
+        final String consumerId = "leader";
+        final String otherId = "other";
+        coordinator = buildCoordinator(new Metrics(), assignors, false, false, true);
+
+        subscriptions.subscribe(singleton(topic1), rebalanceListener);
+        metadata.setTopics(singletonList(topic1));
+        metadata.update(cluster, Collections.<String>emptySet(), time.milliseconds());
+
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        // the assignor moves t1p to the leader while the other member still owns it
+        Map<String, ByteBuffer> memberSubscriptions = new HashMap<>();
+        memberSubscriptions.put(consumerId, ConsumerProtocol.serializeSubscription(
+                new PartitionAssignor.Subscription(singletonList(topic1))));
+        memberSubscriptions.put(otherId, ConsumerProtocol.serializeSubscription(
+                new PartitionAssignor.Subscription(singletonList(topic1), ByteBuffer.wrap(new byte[0]), singletonList(t1p))));
+        Map<String, List<TopicPartition>> assignment = new HashMap<>();
+        assignment.put(consumerId, singletonList(t1p));
+        assignment.put(otherId, Collections.<TopicPartition>emptyList());
+        partitionAssignor.prepare(assignment);
+
+        client.prepareResponse(new JoinGroupResponse(Errors.NONE, 1, partitionAssignor.name(), consumerId, consumerId,
+                memberSubscriptions));
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                SyncGroupRequest sync = (SyncGroupRequest) body;
+                return ConsumerProtocol.deserializeAssignment(sync.groupAssignment().get(consumerId)).partitions().isEmpty();
+            }
+        }, syncGroupResponse(Collections.<TopicPartition>emptyList(), Errors.NONE));
+        coordinator.joinGroupIfNeeded();
+
+        assertFalse(coordinator.needRejoin());
+        assertTrue(subscriptions.assignedPartitions().isEmpty());
+    }
+
+    @Test
+    public void testCooperativeRebalanceDoesNotBlockPoll() {
+        final String consumerId = "consumer";
+        coordinator = buildCoordinator(new Metrics(), assignors, false, false, true);
+
+        subscriptions.subscribe(new HashSet<>(Arrays.asList(topic1, topic2)), rebalanceListener);
+
+        client.prepareResponse(groupCoordinatorResponse(node, Errors.NONE));
+        coordinator.ensureCoordinatorReady();
+
+        client.prepareResponse(joinGroupFollowerResponse(1, consumerId, "leader", Errors.NONE));
+        client.prepareResponse(syncGroupResponse(Arrays.asList(t1p, t2p), Errors.NONE));
+        coordinator.joinGroupIfNeeded();
+        subscriptions.seek(t1p, 100L);
+
+        // poll returns while the JoinGroup is pending, and the member keeps fetching and committing its partitions
+        coordinator.requestRejoin();
+        coordinator.poll(time.milliseconds());
+        assertTrue(coordinator.rejoinIncomplete());
+        assertFalse(coordinator.needRejoinBeforeFetching());
+        assertEquals(new HashSet<>(Arrays.asList(t1p, t2p)), subscriptions.assignedPartitions());
+        assertEquals(0, rebalanceListener.revokedCount);
+
+        client.prepareResponse(offsetCommitResponse(singletonMap(t1p, Errors.REBALANCE_IN_PROGRESS)));
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                OffsetCommitRequest commitRequest = (OffsetCommitRequest) body;
+                return commitRequest.generationId() == 1 && commitRequest.memberId().equals(consumerId);
+            }
+        }, offsetCommitResponse(singletonMap(t1p, Errors.NONE)));
+        assertTrue(coordinator.commitOffsetsSync(singletonMap(t1p, new OffsetAndMetadata(100L)), Long.MAX_VALUE));
+        assertEquals(new HashSet<>(Arrays.asList(t1p, t2p)), subscriptions.assignedPartitions());
+
+        // t2p moves to another member once the assignment arrives, so the member rejoins without waiting once more
+        client.prepareResponse(syncGroupResponse(singletonList(t1p), Errors.NONE));
+        client.respond(joinGroupFollowerResponse(2, consumerId, "leader", Errors.NONE));
+        coordinator.poll(time.milliseconds());
+        coordinator.poll(time.milliseconds());
+        assertTrue(coordinator.rejoinIncomplete());
+        assertEquals(singleton(t1p), subscriptions.assignedPartitions());
+        assertEquals(100L, (long) subscriptions.position(t1p));
+        assertEquals(1, rebalanceListener.revokedCount);
+        assertEquals(singleton(t2p), rebalanceListener.revoked);
+    }
+
     @Test
     public void testPatternJoinGroupFollower() {
         final String consumerId = "consumer";
@@ -1577,6 +1698,14 @@ public class ConsumerCoordinatorTest {
                                                  List<PartitionAssignor> assignors,
                                                  boolean excludeInternalTopics,
                                                  boolean autoCommitEnabled) {
+        return buildCoordinator(metrics, assignors, excludeInternalTopics, autoCommitEnabled, false);
+    }
+
+    private ConsumerCoordinator buildCoordinator(Metrics metrics,
+                                                 List<PartitionAssignor> assignors,
+                                                 boolean excludeInternalTopics,
+                                                 boolean autoCommitEnabled,
+                                                 boolean cooperativeRebalance) {
         return new ConsumerCoordinator(
                 consumerClient,
                 groupId,
@@ -1593,7 +1722,8 @@ public class ConsumerCoordinatorTest {
                 autoCommitEnabled,
                 autoCommitIntervalMs,
                 null,
-                excludeInternalTopics);
+                excludeInternalTopics,
+                cooperativeRebalance);
     }
 
     private GroupCoordinatorResponse groupCoordinatorResponse(Node node, Errors error) {
@@ -1617,6 +1747,19 @@ public class ConsumerCoordinatorTest {
         return new JoinGroupResponse(error, generationId, partitionAssignor.name(), memberId, memberId, metadata);
     }
 
+    private MockClient.RequestMatcher ownedPartitionsMatcher(final TopicPartition... partitions) {
+        return new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                JoinGroupRequest join = (JoinGroupRequest) body;
+                ProtocolMetadata protocolMetadata = join.groupProtocols().iterator().next();
+                PartitionAssignor.Subscription subscription = ConsumerProtocol.deserializeSubscription(protocolMetadata.metadata());
+                protocolMetadata.metadata().rewind();
+                return new HashSet<>(subscription.ownedPartitions()).equals(new HashSet<>(Arrays.asList(partitions)));
+            }
+        };
+    }
+
     private JoinGroupResponse joinGroupFollowerResponse(int generationId, String memberId, String leaderId, Errors error) {
         return new JoinGroupResponse(error, generationId, partitionAssignor.name(), memberId, leaderId,
                 Collections.<String, ByteBuffer>emptyMap());
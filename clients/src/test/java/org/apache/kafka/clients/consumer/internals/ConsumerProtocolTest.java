@@ -34,6 +34,7 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class ConsumerProtocolTest {
 
@@ -54,6 +55,36 @@ public class ConsumerProtocolTest {
         assertNull(subscription.userData());
     }
 
+    @Test
+    public void serializeDeserializeOwnedPartitions() {
+        List<TopicPartition> ownedPartitions = Arrays.asList(new TopicPartition("foo", 0), new TopicPartition("bar", 2));
+        Subscription subscription = new Subscription(Arrays.asList("foo", "bar"), null, ownedPartitions);
+        ByteBuffer buffer = ConsumerProtocol.serializeSubscription(subscription);
+        Subscription parsedSubscription = ConsumerProtocol.deserializeSubscription(buffer);
+        assertEquals(subscription.topics(), parsedSubscription.topics());
+        assertEquals(toSet(ownedPartitions), toSet(parsedSubscription.ownedPartitions()));
+    }
+
+    @Test
+    public void deserializeSubscriptionV0() {
+        Struct subscriptionV0 = new Struct(ConsumerProtocol.SUBSCRIPTION_V0);
+        subscriptionV0.set(ConsumerProtocol.TOPICS_KEY_NAME, new Object[]{"topic"});
+        subscriptionV0.set(ConsumerProtocol.USER_DATA_KEY_NAME, ByteBuffer.wrap(new byte[0]));
+
+        Struct headerV0 = new Struct(ConsumerProtocol.CONSUMER_PROTOCOL_HEADER_SCHEMA);
+        headerV0.set(ConsumerProtocol.VERSION_KEY_NAME, ConsumerProtocol.CONSUMER_PROTOCOL_V0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(subscriptionV0.sizeOf() + headerV0.sizeOf());
+        headerV0.writeTo(buffer);
+        subscriptionV0.writeTo(buffer);
+
+        buffer.flip();
+
+        Subscription subscription = ConsumerProtocol.deserializeSubscription(buffer);
+        assertEquals(Arrays.asList("topic"), subscription.topics());
+        assertTrue(subscription.ownedPartitions().isEmpty());
+    }
+
     @Test
     public void deserializeNewSubscriptionVersion() {
         // verify that a new version which adds a field is still parseable
@@ -62,11 +93,13 @@ public class ConsumerProtocolTest {
         Schema subscriptionSchemaV100 = new Schema(
                 new Field(ConsumerProtocol.TOPICS_KEY_NAME, new ArrayOf(Type.STRING)),
                 new Field(ConsumerProtocol.USER_DATA_KEY_NAME, Type.BYTES),
+                new Field(ConsumerProtocol.OWNED_PARTITIONS_KEY_NAME, new ArrayOf(ConsumerProtocol.TOPIC_ASSIGNMENT_V0)),
                 new Field("foo", Type.STRING));
 
         Struct subscriptionV100 = new Struct(subscriptionSchemaV100);
         subscriptionV100.set(ConsumerProtocol.TOPICS_KEY_NAME, new Object[]{"topic"});
         subscriptionV100.set(ConsumerProtocol.USER_DATA_KEY_NAME, ByteBuffer.wrap(new byte[0]));
+        subscriptionV100.set(ConsumerProtocol.OWNED_PARTITIONS_KEY_NAME, new Object[0]);
         subscriptionV100.set("foo", "bar");
 
         Struct headerV100 = new Struct(ConsumerProtocol.CONSUMER_PROTOCOL_HEADER_SCHEMA);
@@ -36,18 +36,22 @@ import org.apache.kafka.common.errors.RecordTooLargeException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.SimpleMemoryPool;
 import org.apache.kafka.common.metrics.KafkaMetric;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.record.ByteBufferOutputStream;
 import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.LogEntry;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.AbstractRequest;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
+import org.apache.kafka.common.requests.FetchMetadata;
 import org.apache.kafka.common.requests.FetchRequest;
 import org.apache.kafka.common.requests.FetchResponse;
 import org.apache.kafka.common.requests.ListOffsetRequest;
@@ -68,9 +72,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
@@ -183,6 +193,75 @@ public class FetcherTest {
         };
     }
 
+    @Test
+    public void testFetchFromFollowerInClientRack() {
+        Node leader = new Node(0, "localhost", 1969, "rack-a");
+        Node follower = new Node(1, "localhost", 1970, "rack-b");
+        metadata.update(rackCluster(leader, follower), Collections.<String>emptySet(), time.milliseconds());
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 1, MemoryPool.NONE, null, "rack-b");
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 0);
+
+        // the fetch asks the broker to serve it from a follower
+        client.prepareResponseFrom(matchesReplicaId(FetchRequest.FOLLOWER_CONSUMER_REPLICA_ID),
+                fetchResponse(this.records, Errors.NONE, 100L, 0), follower);
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(4L, (long) subscriptions.position(tp));
+    }
+
+    @Test
+    public void testFetchFromLeaderAfterFollowerError() {
+        Node leader = new Node(0, "localhost", 1969, "rack-a");
+        Node follower = new Node(1, "localhost", 1970, "rack-b");
+        Cluster rackCluster = rackCluster(leader, follower);
+        metadata.update(rackCluster, Collections.<String>emptySet(), time.milliseconds());
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 1, MemoryPool.NONE, null, "rack-b");
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 0);
+
+        // a follower which has not caught up does not cause the offset to be reset
+        client.prepareResponseFrom(fetchResponse(MemoryRecords.EMPTY, Errors.OFFSET_OUT_OF_RANGE, 100L, 0), follower);
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+        assertFalse(subscriptions.isOffsetResetNeeded(tp));
+
+        client.prepareResponseFrom(matchesReplicaId(FetchRequest.CONSUMER_REPLICA_ID),
+                fetchResponse(this.records, Errors.NONE, 100L, 0), leader);
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+
+        // the follower is tried again once the metadata is updated
+        metadata.update(rackCluster, Collections.<String>emptySet(), time.milliseconds());
+        client.prepareResponseFrom(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0), follower);
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp).size());
+    }
+
+    private MockClient.RequestMatcher matchesReplicaId(final int replicaId) {
+        return new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                return ((FetchRequest) body).replicaId() == replicaId;
+            }
+        };
+    }
+
+    private Cluster rackCluster(Node leader, Node follower) {
+        Node[] replicas = new Node[] {leader, follower};
+        PartitionInfo partitionInfo = new PartitionInfo(topicName, tp.partition(), leader, replicas, replicas);
+        return new Cluster(Arrays.asList(leader, follower), Collections.singletonList(partitionInfo),
+                Collections.<String>emptySet());
+    }
+
     @Test
     public void testFetchedRecordsRaisesOnSerializationErrors() {
         // raise an exception from somewhere in the middle of the fetch response
@@ -215,6 +294,231 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testIncrementalFetchSession() {
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        // the first request is a full request, in response to which the broker creates a session
+        client.prepareResponse(matchesSession(FetchMetadata.INITIAL, 1L),
+                sessionFetchResponse(tp, MemoryRecords.EMPTY, Errors.NONE, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        // the partition whose offset did not change is not sent again
+        client.prepareResponse(matchesSession(new FetchMetadata(123, 1), null),
+                sessionFetchResponse(tp, this.records, Errors.NONE, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(4L, subscriptions.position(tp).longValue());
+
+        // the changed offset is sent, and the lost session is replaced by a full request
+        client.prepareResponse(matchesSession(new FetchMetadata(123, 2), 4L),
+                new FetchResponse(Errors.FETCH_SESSION_ID_NOT_FOUND,
+                        new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, FetchMetadata.INVALID_SESSION_ID));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        client.prepareResponse(matchesSession(FetchMetadata.INITIAL, 4L), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp).size());
+    }
+
+    @Test
+    public void testBufferedPartitionsAreKeptInFetchSession() {
+        TopicPartition tp1 = new TopicPartition(topicName, 1);
+        metadata.update(TestUtils.singletonCluster(topicName, 2), Collections.<String>emptySet(), time.milliseconds());
+        subscriptions.assignFromUser(new HashSet<>(Arrays.asList(tp, tp1)));
+        subscriptions.seek(tp, 1);
+        subscriptions.seek(tp1, 1);
+
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> fullResponse = new LinkedHashMap<>();
+        fullResponse.put(tp, new FetchResponse.PartitionData(Errors.NONE, 100L, MemoryRecords.EMPTY));
+        fullResponse.put(tp1, new FetchResponse.PartitionData(Errors.NONE, 100L, MemoryRecords.EMPTY));
+        client.prepareResponse(matchesSession(FetchMetadata.INITIAL, 1L), new FetchResponse(Errors.NONE, fullResponse, 0, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+
+        client.prepareResponse(matchesSession(new FetchMetadata(123, 1), null),
+                sessionFetchResponse(tp, this.records, Errors.NONE, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+
+        // the partition whose records are buffered is neither fetched nor forgotten
+        client.prepareResponse(new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                FetchRequest fetch = (FetchRequest) body;
+                return fetch.metadata().equals(new FetchMetadata(123, 2)) && fetch.fetchData().isEmpty() &&
+                        fetch.toForget().isEmpty();
+            }
+        }, new FetchResponse(Errors.NONE, new LinkedHashMap<TopicPartition, FetchResponse.PartitionData>(), 0, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+
+        client.prepareResponse(matchesSession(new FetchMetadata(123, 3), 4L), sessionFetchResponse(tp, this.nextRecords, Errors.NONE, 123));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp).size());
+    }
+
+    @Test
+    public void testPipelinedFetchesDoNotUseSessions() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 2, MemoryPool.NONE, null);
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        client.prepareResponse(matchesSession(FetchMetadata.LEGACY, 1L), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+    }
+
+    private MockClient.RequestMatcher matchesSession(final FetchMetadata metadata, final Long offset) {
+        return new MockClient.RequestMatcher() {
+            @Override
+            public boolean matches(AbstractRequest body) {
+                FetchRequest fetch = (FetchRequest) body;
+                if (!fetch.metadata().equals(metadata))
+                    return false;
+                if (offset == null)
+                    return fetch.fetchData().isEmpty();
+                return fetch.fetchData().containsKey(tp) && fetch.fetchData().get(tp).offset == offset;
+            }
+        };
+    }
+
+    private FetchResponse sessionFetchResponse(TopicPartition tp, MemoryRecords records, Errors error, int sessionId) {
+        return new FetchResponse(Errors.NONE,
+                new LinkedHashMap<>(Collections.singletonMap(tp, new FetchResponse.PartitionData(error, 100L, records))),
+                0, sessionId);
+    }
+
+    @Test
+    public void testFetchWithParseExecutor() {
+        ExecutorService parseExecutor = Executors.newFixedThreadPool(2);
+        try {
+            Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                    new ByteArrayDeserializer(), 2, 1, MemoryPool.NONE, parseExecutor);
+
+            subscriptions.assignFromUser(singleton(tp));
+            subscriptions.seek(tp, 1);
+
+            client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            // the records parsed ahead are still returned in order and bounded by max.poll.records
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp);
+            assertEquals(2, records.size());
+            assertEquals(1L, records.get(0).offset());
+            assertEquals(2L, records.get(1).offset());
+            assertEquals(3L, subscriptions.position(tp).longValue());
+
+            records = fetcher.fetchedRecords().get(tp);
+            assertEquals(1, records.size());
+            assertEquals(3L, records.get(0).offset());
+            assertEquals("value-3", new String(records.get(0).value()));
+            assertEquals(4L, subscriptions.position(tp).longValue());
+
+            client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+            records = fetcher.fetchedRecords().get(tp);
+            assertEquals(2, records.size());
+            assertEquals(4L, records.get(0).offset());
+            assertEquals(6L, subscriptions.position(tp).longValue());
+        } finally {
+            parseExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParseExecutorParsesMaxPollRecordsAtATime() {
+        final AtomicInteger deserialized = new AtomicInteger();
+        final Set<Thread> parseThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                deserialized.incrementAndGet();
+                parseThreads.add(Thread.currentThread());
+                return data;
+            }
+        };
+        ExecutorService parseExecutor = Executors.newFixedThreadPool(2);
+        try {
+            Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                    deserializer, 1, 1, MemoryPool.NONE, parseExecutor);
+
+            subscriptions.assignFromUser(singleton(tp));
+            subscriptions.seek(tp, 1);
+
+            client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            // only the record following the ones being drained is parsed ahead
+            assertEquals(1, fetcher.fetchedRecords().get(tp).size());
+            assertTrue(deserialized.get() <= 2);
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp);
+            assertEquals(1, records.size());
+            assertEquals(2L, records.get(0).offset());
+            assertTrue(deserialized.get() <= 3);
+            assertEquals(3L, fetcher.fetchedRecords().get(tp).get(0).offset());
+            assertEquals(4L, subscriptions.position(tp).longValue());
+
+            // the records following the ones parsed first are parsed by the executor rather than the consumer's thread
+            assertEquals(3, deserialized.get());
+            assertFalse(parseThreads.contains(Thread.currentThread()));
+        } finally {
+            parseExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParseExecutorRaisesOnSerializationErrors() {
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                if ("value-2".equals(new String(data)))
+                    throw new SerializationException();
+                return data;
+            }
+        };
+        ExecutorService parseExecutor = Executors.newFixedThreadPool(2);
+        try {
+            Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), deserializer, deserializer,
+                    Integer.MAX_VALUE, 1, MemoryPool.NONE, parseExecutor);
+
+            subscriptions.assignFromUser(singleton(tp));
+            subscriptions.seek(tp, 1);
+
+            client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+            assertEquals(1, fetcher.sendFetches());
+            consumerClient.poll(0);
+
+            // the record parsed before the failure is returned first
+            List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp);
+            assertEquals(1, records.size());
+            assertEquals(2L, subscriptions.position(tp).longValue());
+            try {
+                fetcher.fetchedRecords();
+                fail("fetchedRecords should have raised");
+            } catch (SerializationException e) {
+                assertEquals(2L, subscriptions.position(tp).longValue());
+            }
+        } finally {
+            parseExecutor.shutdownNow();
+        }
+    }
+
     @Test
     public void testParseInvalidRecord() throws Exception {
         ByteBuffer buffer = ByteBuffer.allocate(1024);
@@ -236,7 +540,7 @@ public class FetcherTest {
         Record.write(out, magic, crc, Record.computeAttributes(magic, CompressionType.NONE, TimestampType.CREATE_TIME), timestamp, key, value);
 
         // and one invalid record (note the crc)
-        out.writeLong(offset);
+        out.writeLong(offset + 1);
         out.writeInt(size);
         Record.write(out, magic, crc + 1, Record.computeAttributes(magic, CompressionType.NONE, TimestampType.CREATE_TIME), timestamp, key, value);
 
@@ -249,12 +553,18 @@ public class FetcherTest {
         assertEquals(1, fetcher.sendFetches());
         client.prepareResponse(fetchResponse(MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
         consumerClient.poll(0);
-        try {
-            fetcher.fetchedRecords();
-            fail("fetchedRecords should have raised");
-        } catch (KafkaException e) {
-            // the position should not advance since no data has been returned
-            assertEquals(0, subscriptions.position(tp).longValue());
+
+        // the valid record is returned, since records are only parsed as they are returned
+        assertEquals(1, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(1, subscriptions.position(tp).longValue());
+        for (int i = 0; i < 2; i++) {
+            try {
+                fetcher.fetchedRecords();
+                fail("fetchedRecords should have raised");
+            } catch (KafkaException e) {
+                // the position should not advance since no data has been returned
+                assertEquals(1, subscriptions.position(tp).longValue());
+            }
         }
     }
 
@@ -293,6 +603,190 @@ public class FetcherTest {
         assertEquals(5, records.get(1).offset());
     }
 
+    @Test
+    public void testRecordsAreDeserializedWhenDrained() {
+        final AtomicInteger deserialized = new AtomicInteger(0);
+        Deserializer<byte[]> countingDeserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                deserialized.incrementAndGet();
+                return data;
+            }
+        };
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                countingDeserializer, 2);
+
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(0, deserialized.get());
+
+        assertEquals(2, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(2, deserialized.get());
+        assertEquals(1, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(3, deserialized.get());
+    }
+
+    @Test
+    public void testPipelinedFetch() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 2, MemoryPool.NONE, null);
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        // the next records are fetched while the buffered ones have not been consumed yet
+        assertEquals(1, fetcher.sendFetches());
+        assertEquals(0, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        // the pipeline of the partition is full
+        assertEquals(0, fetcher.sendFetches());
+
+        List<ConsumerRecord<byte[], byte[]>> records = fetcher.fetchedRecords().get(tp);
+        assertEquals(5, records.size());
+        assertEquals(6L, subscriptions.position(tp).longValue());
+        for (int i = 0; i < records.size(); i++)
+            assertEquals(i + 1, records.get(i).offset());
+
+        assertEquals(1, fetcher.sendFetches());
+    }
+
+    @Test
+    public void testFetchIsBoundedByBufferMemory() {
+        MemoryPool pool = new SimpleMemoryPool(1000);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 1, pool, null);
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        // no fetch is sent while the memory is used up
+        ByteBuffer buffered = pool.tryAllocate(1000);
+        assertEquals(0, fetcher.sendFetches());
+        pool.release(buffered);
+
+        // the response of the fetch must fit into the memory which is left
+        buffered = pool.tryAllocate(400);
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(0);
+        FetchRequest request = (FetchRequest) client.requests().peek().requestBuilder().build();
+        assertEquals(600, request.maxBytes());
+        pool.release(buffered);
+    }
+
+    @Test
+    public void testFetchedBatches() {
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        Map<TopicPartition, MemoryRecords> batches = fetcher.fetchedBatches();
+        assertEquals(this.records, batches.get(tp));
+        assertEquals(4L, subscriptions.position(tp).longValue());
+        assertTrue(fetcher.fetchedBatches().isEmpty());
+
+        // batches and records can be fetched alternately
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(2, fetcher.fetchedRecords().get(tp).size());
+        assertEquals(6L, subscriptions.position(tp).longValue());
+    }
+
+    @Test
+    public void testFetchedBatchesSkipBatchesBeforePosition() {
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 2);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 2), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        List<Long> offsets = new ArrayList<>();
+        for (LogEntry entry : fetcher.fetchedBatches().get(tp).shallowEntries())
+            offsets.add(entry.offset());
+        assertEquals(Arrays.asList(2L, 3L), offsets);
+        assertEquals(4L, subscriptions.position(tp).longValue());
+    }
+
+    @Test
+    public void testFetchedBatchesWithPartialRecordsAtTheEnd() {
+        ByteBuffer buffer = this.records.buffer();
+        buffer.limit(buffer.limit() - 5);
+        MemoryRecords partialRecords = MemoryRecords.readableRecords(buffer.slice());
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fetchResponse(partialRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        List<Long> offsets = new ArrayList<>();
+        for (LogEntry entry : fetcher.fetchedBatches().get(tp).shallowEntries())
+            offsets.add(entry.offset());
+        assertEquals(Arrays.asList(1L, 2L), offsets);
+        assertEquals(3L, subscriptions.position(tp).longValue());
+    }
+
+    @Test
+    public void testStalePipelinedFetchIsDiscarded() {
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, new Metrics(time), new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 2, MemoryPool.NONE, null);
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+
+        subscriptions.seek(tp, 2);
+        assertTrue(fetcher.fetchedRecords().isEmpty());
+        assertEquals(2L, subscriptions.position(tp).longValue());
+        assertEquals(1, fetcher.sendFetches());
+    }
+
+    @Test
+    public void testFailedPipelinedFetchIsRecordedOnce() {
+        Metrics metrics = new Metrics(time);
+        Fetcher<byte[], byte[]> fetcher = createFetcher(subscriptions, metrics, new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, 2, MemoryPool.NONE, null);
+        subscriptions.assignFromUser(singleton(tp));
+        subscriptions.seek(tp, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 1), fetchResponse(this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(0);
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(matchesOffset(tp, 4), fetchResponse(this.nextRecords, Errors.TOPIC_AUTHORIZATION_FAILED, 100L, 0));
+        consumerClient.poll(0);
+
+        // the failed fetch is kept to raise its error from the next call, which parses it again
+        assertEquals(3, fetcher.fetchedRecords().get(tp).size());
+        try {
+            fetcher.fetchedRecords();
+            fail("fetchedRecords should have thrown");
+        } catch (TopicAuthorizationException e) {
+            // expected
+        }
+
+        KafkaMetric recordsPerRequest = metrics.metrics().get(metrics.metricName("records-per-request-avg", metricGroup, ""));
+        assertEquals(1.5, recordsPerRequest.value(), EPSILON);
+        metrics.close();
+    }
+
     @Test
     public void testFetchNonContinuousRecords() {
         // if we are fetching from a compacted topic, there may be gaps in the returned records
@@ -934,13 +1428,41 @@ public class FetcherTest {
                                                Deserializer<K> keyDeserializer,
                                                Deserializer<V> valueDeserializer,
                                                int maxPollRecords) {
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, maxPollRecords, 1, MemoryPool.NONE, null);
+    }
+
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               int pipelineDepth,
+                                               MemoryPool fetchBufferPool,
+                                               ExecutorService parseExecutor) {
+        return createFetcher(subscriptions, metrics, keyDeserializer, valueDeserializer, maxPollRecords, pipelineDepth,
+                fetchBufferPool, parseExecutor, "");
+    }
+
+    private <K, V> Fetcher<K, V> createFetcher(SubscriptionState subscriptions,
+                                               Metrics metrics,
+                                               Deserializer<K> keyDeserializer,
+                                               Deserializer<V> valueDeserializer,
+                                               int maxPollRecords,
+                                               int pipelineDepth,
+                                               MemoryPool fetchBufferPool,
+                                               ExecutorService parseExecutor,
+                                               String clientRack) {
         return new Fetcher<>(consumerClient,
                 minBytes,
                 maxBytes,
                 maxWaitMs,
                 fetchSize,
                 maxPollRecords,
+                pipelineDepth,
+                clientRack,
+                fetchBufferPool,
                 true, // check crc
+                parseExecutor,
                 keyDeserializer,
                 valueDeserializer,
                 metadata,
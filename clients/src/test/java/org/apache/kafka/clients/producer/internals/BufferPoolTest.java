@@ -17,6 +17,7 @@
 package org.apache.kafka.clients.producer.internals;
 
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.KafkaMetric;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
@@ -26,8 +27,10 @@ import org.junit.Test;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -36,6 +39,8 @@ import java.util.concurrent.locks.Condition;
 
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertEquals;
 
@@ -76,7 +81,56 @@ public class BufferPoolTest {
         buffer = pool.allocate(2 * size, maxBlockTimeMs);
         pool.deallocate(buffer);
         assertEquals("All memory should be available", totalMemory, pool.availableMemory());
-        assertEquals("Non-standard size didn't go to the free list.", totalMemory - size, pool.unallocatedMemory());
+        assertEquals("Larger size class went to its own free list.", totalMemory - 3 * size, pool.unallocatedMemory());
+        buffer = pool.allocate(2 * size - 1, maxBlockTimeMs);
+        assertEquals("Buffer should be rounded up to its size class.", 2 * size, buffer.capacity());
+        pool.deallocate(buffer);
+        assertEquals("Recycled size class buffer should go back to the free list.", totalMemory - 3 * size, pool.unallocatedMemory());
+        buffer = pool.allocate(size - 1, maxBlockTimeMs);
+        pool.deallocate(buffer);
+        assertEquals("Buffers smaller than the poolable size didn't go to the free list.", totalMemory - 3 * size, pool.unallocatedMemory());
+    }
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(6 * size, size, metrics, time, metricGroup);
+        assertArrayEquals(new int[] {size, 2 * size, 4 * size}, pool.sizeClasses());
+
+        ByteBuffer buffer = pool.allocate(4 * size, maxBlockTimeMs);
+        pool.deallocate(buffer);
+        assertSame("Size class buffer should be recycled", buffer, pool.allocate(3 * size, maxBlockTimeMs));
+        pool.deallocate(buffer);
+
+        // requests beyond the largest size class are not rounded up
+        buffer = pool.allocate(5 * size, maxBlockTimeMs);
+        assertEquals(5 * size, buffer.capacity());
+        pool.deallocate(buffer);
+        assertEquals("Pooled buffers should be released to satisfy larger requests", 6 * size, pool.unallocatedMemory());
+
+        Map<String, String> tags = Collections.singletonMap("size-class", String.valueOf(4 * size));
+        KafkaMetric hitRatio = metrics.metrics().get(metrics.metricName("bufferpool-hit-ratio", metricGroup, tags));
+        assertEquals(0.5, hitRatio.value(), 0.0);
+    }
+
+    @Test
+    public void testDirectBuffersAreRecycled() throws Exception {
+        int size = 1024;
+        BufferPool pool = new BufferPool(4 * size, size, true, metrics, time, metricGroup);
+        assertTrue(pool.isDirect());
+        ByteBuffer buffer = pool.allocate(size, maxBlockTimeMs);
+        assertTrue("Buffer should be allocated off-heap", buffer.isDirect());
+        buffer.putInt(1);
+        pool.deallocate(buffer);
+        ByteBuffer recycled = pool.allocate(size, maxBlockTimeMs);
+        assertSame("Poolable direct buffers should be reused", buffer, recycled);
+        assertEquals("Recycled buffer should be cleared.", 0, recycled.position());
+
+        ByteBuffer large = pool.allocate(2 * size, maxBlockTimeMs);
+        assertTrue("Buffer should be allocated off-heap", large.isDirect());
+        pool.deallocate(large);
+        pool.deallocate(recycled);
+        assertEquals("All memory should be available", 4 * size, pool.availableMemory());
     }
 
     /**
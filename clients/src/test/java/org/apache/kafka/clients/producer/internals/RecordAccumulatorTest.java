@@ -24,12 +24,18 @@ import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionDictionary;
 import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.LogEntry;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
 import org.apache.kafka.common.record.Record;
 import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.test.TestUtils;
 import org.junit.After;
 import org.junit.Test;
 
@@ -48,6 +54,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -144,6 +151,53 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAdaptiveLingerAtLowLoad() throws Exception {
+        long lingerMs = 100L;
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, false, CompressionType.NONE,
+                Collections.<String, CompressionDictionary>emptyMap(), lingerMs, true, new RoundRobinDrainPolicy(), 100L, metrics, time);
+        // without observations of the partition its batches linger for the configured time
+        for (int i = 0; i < 2; i++) {
+            accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+            assertEquals("No partitions should be ready", 0, accum.ready(cluster, time.milliseconds()).readyNodes.size());
+            time.sleep(lingerMs);
+            assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+            accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds());
+            time.sleep(1000);
+        }
+
+        // less than one record arrives within the linger time, so waiting for more is pointless
+        accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        assertEquals("Our partition's leader should be ready", Collections.singleton(node1),
+                accum.ready(cluster, time.milliseconds()).readyNodes);
+        accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds());
+        assertNotNull(metrics.metrics().get(metrics.metricName("adaptive-linger-ms-avg", "producer-metrics")));
+    }
+
+    @Test
+    public void testAdaptiveBatchSizeAtHighLoad() throws Exception {
+        long lingerMs = 100L;
+        RecordAccumulator accum = new RecordAccumulator(16 * 1024, 64 * 1024, false, CompressionType.NONE,
+                Collections.<String, CompressionDictionary>emptyMap(), lingerMs, true, new RoundRobinDrainPolicy(), 100L, metrics, time);
+        // ten records arrive per millisecond and requests take a millisecond, so batches of ten records keep up
+        for (int i = 0; i < 100; i++)
+            accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        time.sleep(10);
+        accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds());
+        accum.recordRequestLatency(1);
+
+        for (int i = 0; i < 9; i++)
+            accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        RecordAccumulator.ReadyCheckResult result = accum.ready(cluster, time.milliseconds());
+        assertEquals("No partitions should be ready", 0, result.readyNodes.size());
+        assertEquals("The batch should linger only until the target size is reached", 1, result.nextReadyCheckDelayMs);
+        accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        assertEquals("Our partition's leader should be ready", Collections.singleton(node1),
+                accum.ready(cluster, time.milliseconds()).readyNodes);
+        List<RecordBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, time.milliseconds()).get(node1.id());
+        assertEquals(10, batches.get(0).recordCount);
+    }
+
     @Test
     public void testPartialDrain() throws Exception {
         RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 10L, 100L, metrics, time);
@@ -159,6 +213,96 @@ public class RecordAccumulatorTest {
         assertEquals("But due to size bound only one partition should have been retrieved", 1, batches.size());
     }
 
+    @Test
+    public void testDeadlineDrainPolicyDrainsOldestBatchFirst() throws Exception {
+        long lingerMs = 10L;
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, false, CompressionType.NONE,
+                Collections.<String, CompressionDictionary>emptyMap(), lingerMs, false,
+                new DeadlineDrainPolicy(100L), 100L, metrics, time);
+        accum.append(tp2, 0L, key, value, null, maxBlockTimeMs);
+        time.sleep(5);
+        accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        time.sleep(lingerMs);
+
+        // the request only has room for one batch, which must be the one of the partition that has waited longest
+        List<RecordBatch> batches = accum.drain(cluster, Collections.singleton(node1), msgSize, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+        batches = accum.drain(cluster, Collections.singleton(node1), msgSize, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+    }
+
+    @Test
+    public void testDeadlineDrainPolicyUsesTheLingerOfEachPartition() {
+        RecordBatch batch1 = batchWithOneRecord(tp1);
+        time.sleep(5);
+        RecordBatch batch2 = batchWithOneRecord(tp2);
+        // adaptive batching has shortened the linger of the second partition, whose batch is therefore due first
+        batch1.lingerMs = 100L;
+        batch2.lingerMs = 10L;
+        int batchSize = batch1.sizeInBytes();
+        assertEquals(asList(batch2, batch1), new DeadlineDrainPolicy(100L).select(asList(batch1, batch2), 2 * batchSize,
+                time.milliseconds()));
+    }
+
+    @Test
+    public void testBatchGrownSinceItWasSelectedIsNotDrainedBeyondTheMaxSize() throws Exception {
+        final RecordAccumulator[] accum = new RecordAccumulator[1];
+        // appends to the second partition's batch after selecting it, like an append which does not take the deque
+        // lock could until the batch is closed
+        DrainPolicy appendingPolicy = new DrainPolicy() {
+            @Override
+            public List<RecordBatch> select(List<RecordBatch> candidates, int maxSize, long now) {
+                List<RecordBatch> selected = new RoundRobinDrainPolicy().select(candidates, maxSize, now);
+                try {
+                    accum[0].append(tp2, 0L, key, value, null, maxBlockTimeMs);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return selected;
+            }
+        };
+        accum[0] = new RecordAccumulator(1024, 10 * 1024, false, CompressionType.NONE,
+                Collections.<String, CompressionDictionary>emptyMap(), 0L, false, appendingPolicy, 100L, metrics, time);
+        accum[0].append(tp1, 0L, key, value, null, maxBlockTimeMs);
+        accum[0].append(tp2, 0L, key, value, null, maxBlockTimeMs);
+
+        List<RecordBatch> batches = accum[0].drain(cluster, Collections.singleton(node1), 2 * msgSize, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp1, batches.get(0).topicPartition);
+
+        // the grown batch was closed, so it keeps the two records it had and is drained by the next request
+        batches = accum[0].drain(cluster, Collections.singleton(node1), 2 * msgSize, time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(tp2, batches.get(0).topicPartition);
+        assertEquals(2, batches.get(0).recordCount);
+        assertEquals(2 * msgSize, batches.get(0).sizeInBytes());
+    }
+
+    @Test
+    public void testRoundRobinDrainPolicyResumesAfterLastDrainedPartition() {
+        RoundRobinDrainPolicy policy = new RoundRobinDrainPolicy();
+        RecordBatch batch1 = batchWithOneRecord(tp1);
+        RecordBatch batch2 = batchWithOneRecord(tp2);
+        RecordBatch batch3 = batchWithOneRecord(tp3);
+        int batchSize = batch1.sizeInBytes();
+
+        assertEquals(asList(batch1, batch2), policy.select(asList(batch1, batch2, batch3), 2 * batchSize, 0));
+        // the partition without a batch is skipped, but still counts towards the rotation, so the third partition
+        // gets its turn
+        assertEquals(asList(batch3), policy.select(asList(batch1, null, batch3), batchSize, 0));
+        assertEquals(asList(batch1), policy.select(asList(batch1, null, batch3), batchSize, 0));
+    }
+
+    private RecordBatch batchWithOneRecord(TopicPartition tp) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.NONE,
+                TimestampType.CREATE_TIME, 1024);
+        RecordBatch batch = new RecordBatch(tp, builder, time.milliseconds());
+        batch.tryAppend(0L, key, value, null, time.milliseconds());
+        return batch;
+    }
+
     @SuppressWarnings("unused")
     @Test
     public void testStressfulSituation() throws Exception {
@@ -200,6 +344,126 @@ public class RecordAccumulatorTest {
             t.join();
     }
 
+    @Test
+    public void testAppendWithDirectMemory() throws Exception {
+        // use compression so that the wrapper checksum is computed over the direct buffer
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, true, CompressionType.GZIP,
+                Collections.<String, CompressionDictionary>emptyMap(), 0L, false, new RoundRobinDrainPolicy(), 100L, metrics, time);
+        int appends = 100;
+        for (int i = 0; i < appends; i++)
+            accum.append(tp1, 0L, key, value, null, maxBlockTimeMs);
+
+        int read = 0;
+        while (accum.hasUnsent()) {
+            for (RecordBatch batch : accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id())) {
+                assertTrue(batch.buffer().isDirect());
+                for (LogEntry entry : batch.records().deepEntries()) {
+                    entry.record().ensureValid();
+                    assertEquals(ByteBuffer.wrap(key), entry.record().key());
+                    assertEquals(ByteBuffer.wrap(value), entry.record().value());
+                    read++;
+                }
+                accum.deallocate(batch);
+            }
+        }
+        assertEquals(appends, read);
+    }
+
+    @Test
+    public void testAppendBufferValues() throws Exception {
+        RecordAccumulator accum = new RecordAccumulator(1024, 10 * 1024, CompressionType.NONE, 0L, 100L, metrics, time);
+        // the same buffer is reused for all values, since the accumulator copies them
+        ByteBuffer valueBuffer = ByteBuffer.allocate(16);
+        List<FutureRecordMetadata> futures = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            valueBuffer.clear();
+            valueBuffer.putLong(i);
+            valueBuffer.flip();
+            futures.add(accum.append(tp1, 0L, key, valueBuffer, null, maxBlockTimeMs).future);
+        }
+        futures.add(accum.append(tp1, 0L, key, (ByteBuffer) null, null, maxBlockTimeMs).future);
+
+        List<RecordBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE, 0).get(node1.id());
+        assertEquals(1, batches.size());
+        List<LogEntry> entries = TestUtils.toList(batches.get(0).records().shallowEntries());
+        assertEquals(11, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Record record = entries.get(i).record();
+            record.ensureValid();
+            assertEquals(ByteBuffer.wrap(key), record.key());
+            if (i < 10)
+                assertEquals(i, record.value().getLong());
+            else
+                assertNull(record.value());
+        }
+        batches.get(0).done(0L, Record.NO_TIMESTAMP, null);
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, futures.get(i).get().offset());
+            assertEquals(entries.get(i).record().checksum(), futures.get(i).get().checksum());
+        }
+        assertEquals(8, futures.get(0).get().serializedValueSize());
+        assertEquals(-1, futures.get(10).get().serializedValueSize());
+    }
+
+    @Test
+    public void testConcurrentAppendsPreserveOrderPerThread() throws Exception {
+        final int numThreads = 4;
+        final int msgs = 2000;
+        final RecordAccumulator accum = new RecordAccumulator(1024, 64 * 1024, CompressionType.NONE, 0L, 100L, metrics, time);
+        final AtomicInteger completed = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < msgs; i++) {
+                        try {
+                            byte[] value = (thread + ":" + i).getBytes();
+                            accum.append(tp1, 0L, null, value, new Callback() {
+                                public void onCompletion(RecordMetadata metadata, Exception exception) {
+                                    completed.incrementAndGet();
+                                }
+                            }, maxBlockTimeMs);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+
+        int[] next = new int[numThreads];
+        int read = 0;
+        long offset = 0;
+        while (read < numThreads * msgs) {
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<RecordBatch> batches = accum.drain(cluster, nodes, Integer.MAX_VALUE, 0).get(node1.id());
+            if (batches == null)
+                continue;
+            for (RecordBatch batch : batches) {
+                int batchRecords = 0;
+                for (LogEntry entry : batch.records().deepEntries()) {
+                    assertEquals(batchRecords++, entry.offset());
+                    String[] fields = new String(Utils.toArray(entry.record().value())).split(":");
+                    int thread = Integer.parseInt(fields[0]);
+                    assertEquals("Records of a thread must be appended in order", next[thread]++, Integer.parseInt(fields[1]));
+                }
+                assertEquals(batchRecords, batch.recordCount);
+                read += batchRecords;
+                batch.done(offset, Record.NO_TIMESTAMP, null);
+                offset += batchRecords;
+                accum.deallocate(batch);
+            }
+        }
+
+        for (Thread t : threads)
+            t.join();
+        assertEquals(numThreads * msgs, completed.get());
+        assertFalse(accum.hasUnsent());
+    }
+
 
     @Test
     public void testNextReadyCheckDelay() throws Exception {
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.BufferSerializer;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ValueBufferSerializerTest {
+    private final String topic = "test";
+
+    @Test
+    public void testBufferIsReusedForFollowingValues() {
+        ValueBufferSerializer<Long> serializer = new ValueBufferSerializer<>(new LongSerializer(), 16);
+        ByteBuffer first = serializer.serialize(topic, 1L);
+        assertEquals(1L, first.getLong(0));
+        ByteBuffer second = serializer.serialize(topic, 2L);
+        assertSame(first, second);
+        assertEquals(8, second.remaining());
+        assertEquals(2L, second.getLong(0));
+        assertNull(serializer.serialize(topic, null));
+    }
+
+    @Test
+    public void testValuesHeldByBuffersAreNotCopied() {
+        ValueBufferSerializer<ByteBuffer> serializer = new ValueBufferSerializer<>(new ByteBufferSerializer(), 16);
+        ByteBuffer value = ByteBuffer.allocateDirect(32);
+        value.putLong(0, 42L);
+        ByteBuffer serialized = serializer.serialize(topic, value);
+        assertEquals(32, serialized.remaining());
+        // the serialized value is a view over the value, whose position is not changed
+        value.putLong(8, 43L);
+        assertEquals(43L, serialized.getLong(8));
+        assertEquals(0, value.position());
+    }
+
+    @Test
+    public void testValuesLargerThanTheBufferAreNotKept() {
+        ValueBufferSerializer<Long> serializer = new ValueBufferSerializer<>(new LongSerializer(), 4);
+        ByteBuffer first = serializer.serialize(topic, 1L);
+        ByteBuffer second = serializer.serialize(topic, 2L);
+        assertNotSame(first, second);
+        assertEquals(1L, first.getLong(0));
+        assertEquals(2L, second.getLong(0));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testSerializerWritingFewerBytesThanReported() {
+        ValueBufferSerializer<Long> serializer = new ValueBufferSerializer<>(new BufferSerializer<Long>() {
+            @Override
+            public void configure(Map<String, ?> configs, boolean isKey) {}
+
+            @Override
+            public byte[] serialize(String topic, Long data) {
+                return new byte[4];
+            }
+
+            @Override
+            public int serializedSize(String topic, Long data) {
+                return 8;
+            }
+
+            @Override
+            public ByteBuffer serializedBuffer(String topic, Long data) {
+                return null;
+            }
+
+            @Override
+            public void serialize(String topic, Long data, ByteBuffer buffer) {
+                buffer.putInt(data.intValue());
+            }
+
+            @Override
+            public void close() {}
+        }, 16);
+        serializer.serialize(topic, 1L);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.memory;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleMemoryPoolTest {
+
+    @Test
+    public void testAllocateAndRelease() {
+        SimpleMemoryPool pool = new SimpleMemoryPool(1000);
+        ByteBuffer buffer = pool.tryAllocate(400);
+        assertEquals(400, buffer.capacity());
+        assertEquals(600, pool.availableMemory());
+        assertFalse(pool.isOutOfMemory());
+
+        pool.release(buffer);
+        assertEquals(1000, pool.availableMemory());
+        assertEquals(1000, pool.size());
+    }
+
+    @Test
+    public void testAllocationLargerThanAvailableMemory() {
+        SimpleMemoryPool pool = new SimpleMemoryPool(1000);
+        ByteBuffer first = pool.tryAllocate(900);
+
+        // an allocation succeeds as long as any memory is available
+        ByteBuffer second = pool.tryAllocate(500);
+        assertEquals(500, second.capacity());
+        assertEquals(-400, pool.availableMemory());
+        assertTrue(pool.isOutOfMemory());
+        assertNull(pool.tryAllocate(1));
+
+        pool.release(first);
+        assertFalse(pool.isOutOfMemory());
+        pool.release(second);
+        assertEquals(1000, pool.availableMemory());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        new SimpleMemoryPool(1000).tryAllocate(-1);
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.kafka.common.network;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
@@ -26,6 +27,8 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.nio.ByteBuffer;
 
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.SimpleMemoryPool;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.protocol.SecurityProtocol;
 import org.apache.kafka.common.utils.MockTime;
@@ -254,6 +257,71 @@ public class SelectorTest {
     }
 
 
+    @Test
+    public void testReadWaitsForMemory() throws Exception {
+        MemoryPool pool = new SimpleMemoryPool(1);
+        Metrics metrics = new Metrics();
+        Selector originalSelector = this.selector;
+        this.selector = new Selector(NetworkReceive.UNLIMITED, 5000, metrics, time, "MetricGroup",
+                new HashMap<String, String>(), true, channelBuilder, pool);
+        try {
+            String node = "0";
+            blockingConnect(node);
+            selector.allocateFromMemoryPool(node);
+
+            ByteBuffer used = pool.tryAllocate(1);
+            selector.send(createSend(node, "hello"));
+            while (!selector.channel(node).isWaitingForMemory()) {
+                selector.poll(10L);
+                assertTrue("No response should be received while the pool is out of memory", selector.completedReceives().isEmpty());
+            }
+            selector.poll(10L);
+            assertTrue(selector.completedReceives().isEmpty());
+
+            pool.release(used);
+            while (selector.completedReceives().isEmpty())
+                selector.poll(10L);
+            NetworkReceive receive = selector.completedReceives().get(0);
+            assertEquals("hello", asString(receive));
+            assertFalse(selector.channel(node).isWaitingForMemory());
+            assertEquals(1 - 5, pool.availableMemory());
+
+            receive.memoryPool().release(receive.payload());
+            assertEquals(1, pool.availableMemory());
+        } finally {
+            this.selector.close();
+            metrics.close();
+            this.selector = originalSelector;
+        }
+    }
+
+    @Test
+    public void testConnectionsWhichDoNotUseThePoolAreReadWithoutMemory() throws Exception {
+        MemoryPool pool = new SimpleMemoryPool(1);
+        Metrics metrics = new Metrics();
+        Selector originalSelector = this.selector;
+        this.selector = new Selector(NetworkReceive.UNLIMITED, 5000, metrics, time, "MetricGroup",
+                new HashMap<String, String>(), true, channelBuilder, pool);
+        try {
+            String node = "0";
+            blockingConnect(node);
+
+            ByteBuffer used = pool.tryAllocate(1);
+            selector.send(createSend(node, "hello"));
+            while (selector.completedReceives().isEmpty())
+                selector.poll(10L);
+            NetworkReceive receive = selector.completedReceives().get(0);
+            assertEquals("hello", asString(receive));
+            assertEquals(MemoryPool.NONE, receive.memoryPool());
+            assertEquals(0, pool.availableMemory());
+            pool.release(used);
+        } finally {
+            this.selector.close();
+            metrics.close();
+            this.selector = originalSelector;
+        }
+    }
+
     @Test
     public void testCloseOldestConnection() throws Exception {
         String id = "0";
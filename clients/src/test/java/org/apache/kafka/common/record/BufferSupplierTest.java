@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferSupplierTest {
+
+    @Test
+    public void testCachingSupplierReusesReleasedBuffers() {
+        BufferSupplier supplier = BufferSupplier.create();
+        byte[] buffer = supplier.get(1024);
+        assertEquals(1024, buffer.length);
+        supplier.release(buffer);
+        assertSame(buffer, supplier.get(1024));
+        assertNotSame(buffer, supplier.get(1024));
+        assertEquals(512, supplier.get(512).length);
+    }
+
+    @Test
+    public void testNoCachingSupplierAllocates() {
+        byte[] buffer = BufferSupplier.NO_CACHING.get(1024);
+        BufferSupplier.NO_CACHING.release(buffer);
+        assertNotSame(buffer, BufferSupplier.NO_CACHING.get(1024));
+    }
+
+    @Test
+    public void testDeepIterationReleasesBuffers() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.GZIP, TimestampType.CREATE_TIME, 0L);
+        for (int i = 0; i < 10; i++)
+            builder.append(i, ("key" + i).getBytes(), ("value" + i).getBytes());
+        MemoryRecords records = builder.build();
+
+        CountingBufferSupplier supplier = new CountingBufferSupplier();
+        for (int i = 0; i < 3; i++) {
+            List<LogEntry> entries = new ArrayList<>();
+            for (LogEntry entry : records.deepEntries(supplier))
+                entries.add(entry);
+            assertEquals(10, entries.size());
+            assertEquals(9L, entries.get(9).offset());
+            assertEquals(ByteBuffer.wrap("value9".getBytes()), entries.get(9).record().value());
+        }
+        assertEquals(3, supplier.gets);
+        assertEquals(3, supplier.releases);
+    }
+
+    private static class CountingBufferSupplier extends BufferSupplier {
+        private final BufferSupplier delegate = BufferSupplier.create();
+        int gets = 0;
+        int releases = 0;
+
+        @Override
+        public byte[] get(int size) {
+            gets++;
+            return delegate.get(size);
+        }
+
+        @Override
+        public void release(byte[] buffer) {
+            releases++;
+            delegate.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CompressionDictionaryTest {
+
+    @Test
+    public void testFromBytes() {
+        CompressionDictionary dictionary = CompressionDictionary.fromBytes(dictionaryBytes(42));
+        assertEquals(42, dictionary.id());
+        assertArrayEquals(dictionaryBytes(42), dictionary.bytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromBytesRejectsInvalidMagic() {
+        byte[] bytes = dictionaryBytes(42);
+        bytes[0] = 0;
+        CompressionDictionary.fromBytes(bytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromBytesRejectsZeroId() {
+        CompressionDictionary.fromBytes(dictionaryBytes(0));
+    }
+
+    @Test
+    public void testReadAndWrite() throws Exception {
+        File file = TestUtils.tempFile();
+        CompressionDictionary dictionary = CompressionDictionary.fromBytes(dictionaryBytes(7));
+        dictionary.writeTo(file);
+        assertArrayEquals(dictionary.bytes(), CompressionDictionary.readFrom(file).bytes());
+    }
+
+    @Test
+    public void testRegister() {
+        CompressionDictionary dictionary = CompressionDictionary.fromBytes(dictionaryBytes(1001));
+        CompressionDictionary.register(dictionary);
+        // registering an identical dictionary again is allowed
+        CompressionDictionary.register(CompressionDictionary.fromBytes(dictionaryBytes(1001)));
+        assertSame(dictionary, CompressionDictionary.forId(1001));
+    }
+
+    @Test
+    public void testDictionaryIsRemovedOnceAllRegistrationsAreReleased() {
+        CompressionDictionary dictionary = CompressionDictionary.fromBytes(dictionaryBytes(1003));
+        CompressionDictionary.register(dictionary);
+        CompressionDictionary.register(CompressionDictionary.fromBytes(dictionaryBytes(1003)));
+        CompressionDictionary.unregister(dictionary);
+        assertSame(dictionary, CompressionDictionary.forId(1003));
+        CompressionDictionary.unregister(dictionary);
+        assertNull(CompressionDictionary.forId(1003));
+
+        // a different dictionary with the same id can be registered once the previous one has been removed
+        byte[] bytes = dictionaryBytes(1003);
+        bytes[bytes.length - 1] = 1;
+        CompressionDictionary.register(CompressionDictionary.fromBytes(bytes));
+        // releasing the previous dictionary does not remove it
+        CompressionDictionary.unregister(dictionary);
+        assertArrayEquals(bytes, CompressionDictionary.forId(1003).bytes());
+    }
+
+    @Test
+    public void testBase64() {
+        CompressionDictionary dictionary = CompressionDictionary.fromBytes(dictionaryBytes(42));
+        assertEquals(dictionary, CompressionDictionary.fromBase64(dictionary.toBase64()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterConflictingDictionary() {
+        CompressionDictionary.register(CompressionDictionary.fromBytes(dictionaryBytes(1002)));
+        byte[] bytes = dictionaryBytes(1002);
+        bytes[bytes.length - 1] = 1;
+        CompressionDictionary.register(CompressionDictionary.fromBytes(bytes));
+    }
+
+    @Test
+    public void testFrameDictionaryId() {
+        // frame header descriptor: dictionary id size flag in the lowest two bits, single segment flag in bit 5
+        assertEquals(0, CompressionDictionary.frameDictionaryId(frameHeader((byte) 0x00, 0, 0)));
+        assertEquals(200, CompressionDictionary.frameDictionaryId(frameHeader((byte) 0x01, 200, 1)));
+        assertEquals(40000, CompressionDictionary.frameDictionaryId(frameHeader((byte) 0x02, 40000, 2)));
+        assertEquals(123456789, CompressionDictionary.frameDictionaryId(frameHeader((byte) 0x03, 123456789, 4)));
+        assertEquals(123456789, CompressionDictionary.frameDictionaryId(frameHeader((byte) 0x23, 123456789, 4)));
+    }
+
+    @Test
+    public void testFrameDictionaryIdOfOtherData() {
+        assertEquals(0, CompressionDictionary.frameDictionaryId(ByteBuffer.wrap("not a zstd frame".getBytes())));
+        assertEquals(0, CompressionDictionary.frameDictionaryId(ByteBuffer.allocate(2)));
+    }
+
+    @Test
+    public void testFrameDictionaryIdDoesNotMoveBufferPosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        buffer.position(3);
+        ByteBuffer frame = frameHeader((byte) 0x03, 99, 4);
+        buffer.put(frame);
+        buffer.position(3);
+        assertEquals(99, CompressionDictionary.frameDictionaryId(buffer));
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void testCompressAndDecompressWithDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+            samples.add(("{\"user\": \"user-" + i % 97 + "\", \"action\": \"click\", \"page\": \"/page/" + i % 31 + "\"}").getBytes());
+        CompressionDictionary dictionary = CompressionDictionary.train(samples, 4096);
+        CompressionDictionary.register(dictionary);
+
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.ZSTD,
+                TimestampType.CREATE_TIME, 1024, dictionary);
+        for (int i = 0; i < 10; i++)
+            builder.append(i, null, samples.get(i));
+        MemoryRecords records = builder.build();
+
+        LogEntry shallowEntry = records.shallowEntries().iterator().next();
+        assertEquals(dictionary.id(), CompressionDictionary.frameDictionaryId(shallowEntry.record().value()));
+        int i = 0;
+        for (LogEntry entry : records.deepEntries())
+            assertEquals(ByteBuffer.wrap(samples.get(i++)), entry.record().value());
+        assertEquals(10, i);
+    }
+
+    private static byte[] dictionaryBytes(int id) {
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0xEC30A437);
+        buffer.putInt(id);
+        return buffer.array();
+    }
+
+    private static ByteBuffer frameHeader(byte descriptor, int dictionaryId, int idSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0xFD2FB528);
+        buffer.put(descriptor);
+        if ((descriptor & 0x20) == 0)
+            buffer.put((byte) 0x58); // window descriptor
+        if (idSize == 1)
+            buffer.put((byte) dictionaryId);
+        else if (idSize == 2)
+            buffer.putShort((short) dictionaryId);
+        else if (idSize == 4)
+            buffer.putInt(dictionaryId);
+        buffer.flip();
+        return buffer;
+    }
+}
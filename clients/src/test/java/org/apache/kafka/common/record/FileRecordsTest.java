@@ -28,10 +28,12 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.apache.kafka.test.TestUtils.tempFile;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -337,6 +339,24 @@ public class FileRecordsTest {
         }
     }
 
+    @Test
+    public void testShallowCompressionType() throws IOException {
+        try (FileRecords fileRecords = FileRecords.open(tempFile())) {
+            fileRecords.append(MemoryRecords.withRecords(CompressionType.NONE,
+                    Record.create(Record.MAGIC_VALUE_V1, 1L, "k1".getBytes(), "hello".getBytes())));
+            fileRecords.append(MemoryRecords.withRecords(CompressionType.GZIP,
+                    Record.create(Record.MAGIC_VALUE_V1, 2L, "k2".getBytes(), "goodbye".getBytes())));
+            fileRecords.flush();
+
+            Iterator<? extends LogEntry> entries = fileRecords.shallowEntries().iterator();
+            assertEquals(CompressionType.NONE, entries.next().compressionType());
+            assertEquals(CompressionType.GZIP, entries.next().compressionType());
+            assertFalse(entries.hasNext());
+            assertTrue(fileRecords.hasShallowCompressionType(CompressionType.GZIP));
+            assertFalse(fileRecords.hasShallowCompressionType(CompressionType.ZSTD));
+        }
+    }
+
     @Test
     public void testConvertNonCompressedToMagic0() throws IOException {
         List<LogEntry> entries = Arrays.asList(
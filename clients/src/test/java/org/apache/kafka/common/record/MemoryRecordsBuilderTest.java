@@ -16,6 +16,7 @@
  */
 package org.apache.kafka.common.record;
 
+import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.test.TestUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,6 +30,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(value = Parameterized.class)
@@ -295,6 +297,122 @@ public class MemoryRecordsBuilderTest {
         }
     }
 
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.position(bufferOffset);
+
+        final MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, Record.MAGIC_VALUE_V1, compressionType,
+                TimestampType.CREATE_TIME, 0L, Record.NO_TIMESTAMP, buffer.capacity());
+        if (compressionType != CompressionType.NONE) {
+            assertFalse(builder.supportsConcurrentAppends());
+            return;
+        }
+        assertTrue(builder.supportsConcurrentAppends());
+
+        final int numThreads = 4;
+        final int numRecords = 200;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < numRecords; i++) {
+                        byte[] value = (thread + ":" + i).getBytes();
+                        long timestamp = thread * numRecords + i;
+                        long crc = builder.checksum(timestamp, null, value);
+                        assertTrue(builder.tryAppendConcurrently(timestamp, null, value, crc) >= 0);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        MemoryRecords records = builder.build();
+        assertEquals(-1L, builder.tryAppendConcurrently(0L, null, "late".getBytes(), 0L));
+
+        int[] next = new int[numThreads];
+        long expectedOffset = 0L;
+        for (LogEntry entry : records.shallowEntries()) {
+            assertEquals(expectedOffset++, entry.offset());
+            entry.record().ensureValid();
+            String[] fields = new String(Utils.toArray(entry.record().value())).split(":");
+            int thread = Integer.parseInt(fields[0]);
+            assertEquals(next[thread]++, Integer.parseInt(fields[1]));
+        }
+        assertEquals(numThreads * numRecords, expectedOffset);
+
+        long maxTimestamp = numThreads * numRecords - 1;
+        MemoryRecordsBuilder.RecordsInfo info = builder.info();
+        assertEquals(maxTimestamp, info.maxTimestamp);
+        for (LogEntry entry : records.shallowEntries()) {
+            if (entry.offset() == info.shallowOffsetOfMaxTimestamp)
+                assertEquals(maxTimestamp, entry.record().timestamp());
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendRespectsWriteLimit() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.position(bufferOffset);
+
+        byte[] value = "value".getBytes();
+        int entrySize = Records.LOG_OVERHEAD + Record.recordSize(Record.MAGIC_VALUE_V1, null, value);
+        int writeLimit = bufferOffset + 2 * entrySize;
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, Record.MAGIC_VALUE_V1, compressionType,
+                TimestampType.CREATE_TIME, 0L, Record.NO_TIMESTAMP, writeLimit);
+        if (!builder.supportsConcurrentAppends())
+            return;
+
+        long crc = builder.checksum(0L, null, value);
+        assertEquals(0L, builder.tryAppendConcurrently(0L, null, value, crc));
+        assertEquals(1L, builder.tryAppendConcurrently(0L, null, value, crc));
+        assertTrue(builder.isFull());
+        assertEquals(-1L, builder.tryAppendConcurrently(0L, null, value, crc));
+        assertEquals(2, TestUtils.toList(builder.build().records()).size());
+        assertEquals(2 * entrySize, builder.sizeInBytes());
+    }
+
+    @Test
+    public void testAppendBufferConcurrently() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.position(bufferOffset);
+
+        MemoryRecordsBuilder builder = new MemoryRecordsBuilder(buffer, Record.MAGIC_VALUE_V1, compressionType,
+                TimestampType.CREATE_TIME, 0L, Record.NO_TIMESTAMP, buffer.capacity());
+        if (!builder.supportsConcurrentAppends())
+            return;
+
+        // the value is read from the position of the buffer, which is not changed
+        byte[] value = "value".getBytes();
+        ByteBuffer valueBuffer = ByteBuffer.allocate(value.length + 2);
+        valueBuffer.position(1);
+        valueBuffer.put(value);
+        valueBuffer.flip();
+        valueBuffer.position(1);
+        assertEquals(bufferOffset, builder.tryAppendConcurrently(1L, "key".getBytes(), valueBuffer));
+        assertEquals(1, valueBuffer.position());
+        int secondPosition = bufferOffset + Records.LOG_OVERHEAD + Record.recordSize(Record.MAGIC_VALUE_V1, "key".getBytes(), value);
+        assertEquals(secondPosition, builder.tryAppendConcurrently(2L, null, null));
+
+        List<LogEntry> entries = TestUtils.toList(builder.build().shallowEntries());
+        assertEquals(2, entries.size());
+        for (LogEntry entry : entries)
+            entry.record().ensureValid();
+        assertEquals(0L, entries.get(0).offset());
+        assertEquals(ByteBuffer.wrap("key".getBytes()), entries.get(0).record().key());
+        assertEquals(ByteBuffer.wrap(value), entries.get(0).record().value());
+        assertEquals(1L, entries.get(1).offset());
+        assertNull(entries.get(1).record().key());
+        assertNull(entries.get(1).record().value());
+        assertEquals(Record.computeChecksum(Record.MAGIC_VALUE_V1,
+                Record.computeAttributes(Record.MAGIC_VALUE_V1, CompressionType.NONE, TimestampType.CREATE_TIME),
+                1L, "key".getBytes(), value), entries.get(0).record().checksum());
+    }
+
     @Parameterized.Parameters
     public static Collection<Object[]> data() {
         List<Object[]> values = new ArrayList<>();
@@ -27,6 +27,7 @@ import org.apache.kafka.common.protocol.ApiKeys;
 import org.apache.kafka.common.protocol.Errors;
 import org.apache.kafka.common.protocol.SecurityProtocol;
 import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
 import org.junit.Test;
@@ -49,6 +50,7 @@ import java.util.Set;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class RequestResponseTest {
 
@@ -60,9 +62,11 @@ public class RequestResponseTest {
         checkRequest(createControlledShutdownRequest());
         checkResponse(createControlledShutdownResponse(), 1);
         checkErrorResponse(createControlledShutdownRequest(), new UnknownServerException());
-        checkRequest(createFetchRequest(3));
-        checkErrorResponse(createFetchRequest(3), new UnknownServerException());
+        checkRequest(createFetchRequest(4));
+        checkErrorResponse(createFetchRequest(4), new UnknownServerException());
         checkResponse(createFetchResponse(), 0);
+        checkRequest(createIncrementalFetchRequest());
+        checkResponse(createIncrementalFetchResponse(), 4);
         checkRequest(createHeartBeatRequest());
         checkErrorResponse(createHeartBeatRequest(), new UnknownServerException());
         checkResponse(createHeartBeatResponse(), 0);
@@ -233,6 +237,21 @@ public class RequestResponseTest {
         assertEquals("Response data does not match", responseData, v2Response.responses());
     }
 
+    @Test
+    public void testProduceRequestWithZStdRecordsRequiresVersion3() {
+        Map<TopicPartition, MemoryRecords> produceData = new HashMap<>();
+        produceData.put(new TopicPartition("test", 0), MemoryRecords.withRecords(CompressionType.ZSTD,
+                Record.create("value".getBytes())));
+        ProduceRequest.Builder builder = new ProduceRequest.Builder((short) 1, 5000, produceData);
+        assertEquals(3, builder.build((short) 3).version());
+        try {
+            builder.build((short) 2);
+            fail("Expected UnsupportedVersionException");
+        } catch (UnsupportedVersionException e) {
+            // expected
+        }
+    }
+
     @Test
     public void fetchResponseVersionTest() {
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
@@ -252,6 +271,29 @@ public class RequestResponseTest {
         assertEquals("Response data does not match", responseData, v1Response.responseData());
     }
 
+    @Test
+    public void testIncrementalFetchRequestFallsBackToFullRequest() {
+        FetchRequest request = createIncrementalFetchRequest();
+        assertEquals(new FetchMetadata(123, 5), request.metadata());
+        assertEquals(Collections.singleton(new TopicPartition("test2", 0)), request.fetchData().keySet());
+        assertEquals(Arrays.asList(new TopicPartition("test3", 1)), request.toForget());
+
+        FetchRequest deserialized = FetchRequest.parse(toBuffer(request.toStruct()), (short) 4);
+        assertEquals(request.metadata(), deserialized.metadata());
+        assertEquals(request.fetchData(), deserialized.fetchData());
+        assertEquals(request.toForget(), deserialized.toForget());
+
+        // brokers without fetch sessions are sent all the partitions
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 1000000));
+        FetchRequest v3Request = FetchRequest.Builder.forConsumer(100, 100000, fetchData)
+                .setSession(new FetchMetadata(123, 5), new LinkedHashMap<TopicPartition, FetchRequest.PartitionData>(),
+                        Collections.<TopicPartition>emptyList())
+                .build((short) 3);
+        assertEquals(FetchMetadata.LEGACY, v3Request.metadata());
+        assertEquals(fetchData, v3Request.fetchData());
+    }
+
     @Test
     public void verifyFetchResponseFullWrite() throws Exception {
         FetchResponse fetchResponse = createFetchResponse();
@@ -280,6 +322,30 @@ public class RequestResponseTest {
         assertEquals(size, responseHeader.sizeOf() + responseBody.sizeOf());
     }
 
+    @Test
+    public void verifyProduceRequestFullWrite() throws Exception {
+        Map<TopicPartition, MemoryRecords> produceData = new HashMap<>();
+        ByteBuffer direct = ByteBuffer.allocateDirect(12);
+        direct.putInt(0, 42);
+        produceData.put(new TopicPartition("test", 0), MemoryRecords.readableRecords(ByteBuffer.allocate(10)));
+        produceData.put(new TopicPartition("test", 1), MemoryRecords.readableRecords(direct));
+        produceData.put(new TopicPartition("other", 0), MemoryRecords.readableRecords(ByteBuffer.allocate(5)));
+        ProduceRequest request = new ProduceRequest.Builder((short) 1, 5000, produceData).build();
+        RequestHeader header = new RequestHeader(ApiKeys.PRODUCE.id, request.version(), "client", 15);
+
+        // the record sets are written from their own buffers, but the request is the same as the serialized one
+        Send send = request.toSend("1", header);
+        ByteBufferChannel channel = new ByteBufferChannel(send.size());
+        while (!send.completed())
+            send.writeTo(channel);
+        channel.close();
+
+        ByteBuffer buf = channel.buf;
+        ByteBuffer serialized = request.serialize(header);
+        assertEquals(serialized.remaining(), buf.getInt());
+        assertEquals(serialized, buf);
+    }
+
     @Test
     public void testControlledShutdownResponse() {
         ControlledShutdownResponse response = createControlledShutdownResponse();
@@ -331,6 +397,24 @@ public class RequestResponseTest {
         return FetchRequest.Builder.forConsumer(100, 100000, fetchData).setMaxBytes(1000).build((short) version);
     }
 
+    private FetchRequest createIncrementalFetchRequest() {
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchData = new LinkedHashMap<>();
+        fetchData.put(new TopicPartition("test1", 0), new FetchRequest.PartitionData(100, 1000000));
+        fetchData.put(new TopicPartition("test2", 0), new FetchRequest.PartitionData(200, 1000000));
+        LinkedHashMap<TopicPartition, FetchRequest.PartitionData> toSend = new LinkedHashMap<>();
+        toSend.put(new TopicPartition("test2", 0), new FetchRequest.PartitionData(200, 1000000));
+        return FetchRequest.Builder.forConsumer(100, 100000, fetchData).setMaxBytes(1000)
+                .setSession(new FetchMetadata(123, 5), toSend, Arrays.asList(new TopicPartition("test3", 1)))
+                .build((short) 4);
+    }
+
+    private FetchResponse createIncrementalFetchResponse() {
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        MemoryRecords records = MemoryRecords.readableRecords(ByteBuffer.allocate(10));
+        responseData.put(new TopicPartition("test", 0), new FetchResponse.PartitionData(Errors.NONE, 1000000, records));
+        return new FetchResponse(Errors.NONE, responseData, 25, 123);
+    }
+
     private FetchResponse createFetchResponse() {
         LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
         MemoryRecords records = MemoryRecords.readableRecords(ByteBuffer.allocate(10));
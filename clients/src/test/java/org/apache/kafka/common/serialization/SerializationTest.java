@@ -19,12 +19,14 @@ package org.apache.kafka.common.serialization;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class SerializationTest {
 
@@ -162,6 +164,86 @@ public class SerializationTest {
         deserializer.close();
     }
 
+    @Test
+    public void testBufferSerializersMatchSerializers() {
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        buf.put("my string".getBytes());
+
+        assertBufferSerialization(new ByteBufferSerializer(), buf);
+        assertBufferSerialization(new IntegerSerializer(), 423412424);
+        assertBufferSerialization(new LongSerializer(), -922337203685477581L);
+    }
+
+    private <T> void assertBufferSerialization(BufferSerializer<T> serializer, T value) {
+        byte[] expected = serializer.serialize(topic, value);
+        assertEquals(expected.length, serializer.serializedSize(topic, value));
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 2);
+        buffer.position(1);
+        serializer.serialize(topic, value, buffer);
+        assertEquals(expected.length + 1, buffer.position());
+        buffer.flip();
+        buffer.position(1);
+        assertEquals(ByteBuffer.wrap(expected), buffer);
+        assertEquals(-1, serializer.serializedSize(topic, null));
+
+        ByteBuffer serializedBuffer = serializer.serializedBuffer(topic, value);
+        if (serializedBuffer != null)
+            assertEquals(ByteBuffer.wrap(expected), serializedBuffer);
+    }
+
+    @Test
+    public void testBufferDeserializersMatchDeserializers() {
+        assertBufferDeserialization(Serdes.String(), "my string");
+        assertBufferDeserialization(getStringSerde("UTF-16"), "my string");
+        assertBufferDeserialization(Serdes.Integer(), 423412424);
+        assertBufferDeserialization(Serdes.Long(), -922337203685477581L);
+        assertBufferDeserialization(Serdes.Double(), 5678567.12312d);
+        assertBufferDeserialization(Serdes.ByteBuffer(), ByteBuffer.wrap("my string".getBytes()));
+    }
+
+    @Test
+    public void testBufferDeserializersIgnoreByteOrder() {
+        // the data is always big endian, whatever the byte order of the buffer is
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, -922337203685477581L);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(Long.valueOf(-922337203685477581L), new LongDeserializer().deserialize(topic, buffer));
+        buffer.order(ByteOrder.BIG_ENDIAN).putDouble(0, 5678567.12312d);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(Double.valueOf(5678567.12312d), new DoubleDeserializer().deserialize(topic, buffer));
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0, 423412424);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).limit(4);
+        assertEquals(Integer.valueOf(423412424), new IntegerDeserializer().deserialize(topic, buffer));
+    }
+
+    @Test
+    public void testByteBufferDeserializerCopiesTheData() {
+        ByteBuffer buffer = ByteBuffer.wrap("my string".getBytes());
+        buffer.position(3);
+        ByteBuffer deserialized = new ByteBufferDeserializer().deserialize(topic, buffer);
+        assertEquals(ByteBuffer.wrap("string".getBytes()), deserialized);
+        assertEquals(0, deserialized.arrayOffset());
+        assertEquals(6, deserialized.capacity());
+        assertEquals(3, buffer.position());
+        buffer.put(3, (byte) 'S');
+        assertEquals(ByteBuffer.wrap("string".getBytes()), deserialized);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void assertBufferDeserialization(Serde<T> serde, T value) {
+        byte[] serialized = serde.serializer().serialize(topic, value);
+        // surround the serialized bytes with other data to check that only the remaining bytes are read
+        ByteBuffer buffer = ByteBuffer.allocate(serialized.length + 4);
+        buffer.putShort((short) 1).put(serialized).putShort((short) 2);
+        buffer.position(2);
+        buffer.limit(2 + serialized.length);
+
+        BufferDeserializer<T> deserializer = (BufferDeserializer<T>) serde.deserializer();
+        assertEquals(serde.deserializer().deserialize(topic, serialized), deserializer.deserialize(topic, buffer));
+        assertEquals(2, buffer.position());
+        assertNull(deserializer.deserialize(topic, (ByteBuffer) null));
+    }
+
     private Serde<String> getStringSerde(String encoder) {
         Map<String, Object> serializerConfigs = new HashMap<String, Object>();
         serializerConfigs.put("key.serializer.encoding", encoder);
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 public class CrcTest {
 
@@ -56,4 +57,27 @@ public class CrcTest {
 
         assertEquals("Crc values should be the same", crc1.getValue(), crc2.getValue());
     }
+
+    @Test
+    public void testDirectBuffer() {
+        final byte[] bytes = "Any String you want".getBytes();
+        final ByteBuffer heap = ByteBuffer.wrap(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(3);
+
+        assertEquals("Crc values should be the same", Crc32.crc32(bytes, 2, 10), Crc32.crc32(direct, 2, 10));
+        assertEquals("Crc values should be the same", Crc32.crc32(heap, 2, 10), Crc32.crc32(direct, 2, 10));
+        assertEquals("Buffer position should not change", 3, direct.position());
+    }
+
+    @Test
+    public void testDirectBufferLargerThanChunk() {
+        final byte[] bytes = new byte[10000];
+        new Random(42).nextBytes(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+
+        assertEquals("Crc values should be the same", Crc32.crc32(bytes, 5, 9990), Crc32.crc32(direct, 5, 9990));
+    }
 }
@@ -19,8 +19,10 @@ package org.apache.kafka.test;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.kafka.common.network.NetworkReceive;
 import org.apache.kafka.common.network.NetworkSend;
@@ -40,6 +42,7 @@ public class MockSelector implements Selectable {
     private final List<String> disconnected = new ArrayList<String>();
     private final List<String> connected = new ArrayList<String>();
     private final List<DelayedReceive> delayedReceives = new ArrayList<>();
+    private final Set<String> memoryPoolConnections = new HashSet<>();
 
     public MockSelector(Time time) {
         this.time = time;
@@ -148,6 +151,15 @@ public class MockSelector implements Selectable {
     public void unmuteAll() {
     }
 
+    @Override
+    public void allocateFromMemoryPool(String id) {
+        memoryPoolConnections.add(id);
+    }
+
+    public boolean allocatesFromMemoryPool(String id) {
+        return memoryPoolConnections.contains(id);
+    }
+
     @Override
     public boolean isChannelReady(String id) {
         return true;
@@ -24,6 +24,8 @@ import kafka.utils.Logging
 object Request {
   val OrdinaryConsumerId: Int = -1
   val DebuggingConsumerId: Int = -2
+  // consumers which fetch from a follower in their rack, so that others still fail to fetch from a former leader
+  val FollowerConsumerId: Int = -3
 
   // Broker ids are non-negative int.
   def isValidBrokerId(brokerId: Int): Boolean = brokerId >= 0
@@ -31,7 +31,7 @@ import org.apache.kafka.common.errors.{CorruptRecordException, OffsetOutOfRangeE
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.ListOffsetRequest
 
-import scala.collection.Seq
+import scala.collection.{Seq, mutable}
 import scala.collection.JavaConverters._
 import com.yammer.metrics.core.Gauge
 import org.apache.kafka.common.utils.{Time, Utils}
@@ -99,6 +99,14 @@ class Log(@volatile var dir: File,
   /* last time it was flushed */
   private val lastflushedTime = new AtomicLong(time.milliseconds)
 
+  /* the dictionaries of the topic config which have been registered, so that the record sets compressed with any of
+     them stay readable until the log is closed. Only accessed while holding the lock */
+  private val compressionDictionaries = mutable.Set[CompressionDictionary]()
+  private var rejectedCompressionDictionary: CompressionDictionary = null
+  lock synchronized {
+    compressionDictionary()
+  }
+
   def initFileSize() : Int = {
     if (config.preallocate)
       config.segmentSize
@@ -153,6 +161,41 @@ class Log(@volatile var dir: File,
   /** The name of this log */
   def name  = dir.getName()
 
+  /**
+   * The dictionary of the topic config to compress zstd record sets with, if any. It is registered the first time it
+   * is used so that the record sets compressed with it can be decompressed. A dictionary which conflicts with a
+   * registered dictionary is logged and not used. Must be called while holding the lock.
+   */
+  private def compressionDictionary(): CompressionDictionary = {
+    val dictionary = config.compressionDictionary
+    if (dictionary == null || compressionDictionaries.contains(dictionary))
+      dictionary
+    else {
+      try {
+        CompressionDictionary.register(dictionary)
+        compressionDictionaries += dictionary
+        info(s"Registered $dictionary for log $name")
+        dictionary
+      } catch {
+        case e: IllegalArgumentException =>
+          if (dictionary != rejectedCompressionDictionary) {
+            error(s"Failed to register the compression dictionary of log $name, record sets will be compressed " +
+              "without a dictionary", e)
+            rejectedCompressionDictionary = dictionary
+          }
+          null
+      }
+    }
+  }
+
+  /**
+   * Release the registrations of the compression dictionaries of the log. Must be called while holding the lock.
+   */
+  private def unregisterCompressionDictionaries() {
+    compressionDictionaries.foreach(CompressionDictionary.unregister(_))
+    compressionDictionaries.clear()
+  }
+
   /* Load the log segments from the log files on disk */
   private def loadSegments() {
     // create the log directory if it doesn't exist
@@ -335,6 +378,7 @@ class Log(@volatile var dir: File,
     debug("Closing log " + name)
     lock synchronized {
       logSegments.foreach(_.close())
+      unregisterCompressionDictionaries()
     }
   }
 
@@ -362,6 +406,7 @@ class Log(@volatile var dir: File,
     try {
       // they are valid, insert them in the log
       lock synchronized {
+        val dictionary = compressionDictionary()
 
         if (assignOffsets) {
           // assign offsets to the message set
@@ -377,7 +422,8 @@ class Log(@volatile var dir: File,
                                                           config.compact,
                                                           config.messageFormatVersion.messageFormatVersion,
                                                           config.messageTimestampType,
-                                                          config.messageTimestampDifferenceMaxMs)
+                                                          config.messageTimestampDifferenceMaxMs,
+                                                          dictionary)
           } catch {
             case e: IOException => throw new KafkaException("Error in validating messages while appending to log '%s'".format(name), e)
           }
@@ -868,6 +914,7 @@ class Log(@volatile var dir: File,
       logSegments.foreach(_.delete())
       segments.clear()
       Utils.delete(dir)
+      unregisterCompressionDictionaries()
     }
   }
 
@@ -24,8 +24,8 @@ import kafka.api.ApiVersion
 import kafka.message.{BrokerCompressionCodec, Message}
 import kafka.server.{KafkaConfig, ThrottledReplicaListValidator}
 import org.apache.kafka.common.errors.InvalidConfigurationException
-import org.apache.kafka.common.config.{AbstractConfig, ConfigDef}
-import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, ConfigException}
+import org.apache.kafka.common.record.{CompressionDictionary, TimestampType}
 import org.apache.kafka.common.utils.Utils
 
 import scala.collection.mutable
@@ -56,6 +56,7 @@ object Defaults {
   val MessageTimestampDifferenceMaxMs = kafka.server.Defaults.LogMessageTimestampDifferenceMaxMs
   val LeaderReplicationThrottledReplicas = Collections.emptyList[String]()
   val FollowerReplicationThrottledReplicas = Collections.emptyList[String]()
+  val CompressionDictionary = ""
 }
 
 case class LogConfig(props: java.util.Map[_, _]) extends AbstractConfig(LogConfig.configDef, props, false) {
@@ -88,6 +89,7 @@ case class LogConfig(props: java.util.Map[_, _]) extends AbstractConfig(LogConfi
   val messageTimestampDifferenceMaxMs = getLong(LogConfig.MessageTimestampDifferenceMaxMsProp).longValue
   val LeaderReplicationThrottledReplicas = getList(LogConfig.LeaderReplicationThrottledReplicasProp)
   val FollowerReplicationThrottledReplicas = getList(LogConfig.FollowerReplicationThrottledReplicasProp)
+  val compressionDictionary = LogConfig.parseCompressionDictionary(getString(LogConfig.CompressionDictionaryProp))
 
   def randomSegmentJitter: Long =
     if (segmentJitterMs == 0) 0 else Utils.abs(scala.util.Random.nextInt()) % math.min(segmentJitterMs, segmentMs)
@@ -126,6 +128,7 @@ object LogConfig {
   val MessageTimestampDifferenceMaxMsProp = "message.timestamp.difference.max.ms"
   val LeaderReplicationThrottledReplicasProp = "leader.replication.throttled.replicas"
   val FollowerReplicationThrottledReplicasProp = "follower.replication.throttled.replicas"
+  val CompressionDictionaryProp = "compression.dictionary"
 
   val SegmentSizeDoc = "This configuration controls the segment file size for " +
     "the log. Retention and cleaning is always done a file at a time so a larger " +
@@ -188,7 +191,7 @@ object LogConfig {
     " leader as a last resort, even though doing so may result in data loss"
   val MinInSyncReplicasDoc = KafkaConfig.MinInSyncReplicasDoc
   val CompressionTypeDoc = "Specify the final compression type for a given topic. This configuration accepts the " +
-    "standard compression codecs ('gzip', 'snappy', lz4). It additionally accepts 'uncompressed' which is equivalent to " +
+    "standard compression codecs ('gzip', 'snappy', 'lz4', 'zstd'). It additionally accepts 'uncompressed' which is equivalent to " +
     "no compression; and 'producer' which means retain the original compression codec set by the producer."
   val PreAllocateEnableDoc ="Should pre allocate file when create new segment?"
   val MessageFormatVersionDoc = KafkaConfig.LogMessageFormatVersionDoc
@@ -201,6 +204,30 @@ object LogConfig {
   val FollowerReplicationThrottledReplicasDoc = "A list of replicas for which log replication should be throttled on the follower side. The list should describe a set of " +
     "replicas in the form [PartitionId]:[BrokerId],[PartitionId]:[BrokerId]:... or alternatively the wildcard '*' can be used to throttle all replicas for this topic."
 
+  val CompressionDictionaryDoc = "The base64 encoding of a trained zstd dictionary, which the broker uses to " +
+    "decompress the record sets of the topic compressed with it and to compress those it recompresses with zstd. " +
+    "Producers may only compress the records of the topic with this dictionary, and consumers need the same dictionary " +
+    "to decompress them. As the dictionary is kept with the other topic configs in ZooKeeper, it should not exceed a " +
+    "few hundred kilobytes."
+
+  private object CompressionDictionaryValidator extends Validator {
+    override def ensureValid(name: String, value: Any): Unit = {
+      try parseCompressionDictionary(value.toString)
+      catch {
+        // the value is not included in the message since it is usually large
+        case e: IllegalArgumentException => throw new ConfigException(s"Invalid value for configuration $name: ${e.getMessage}")
+      }
+    }
+
+    override def toString = "[a base64 encoded zstd dictionary]"
+  }
+
+  /**
+   * Parse the value of the compression dictionary config, which is null if it is empty
+   */
+  def parseCompressionDictionary(value: String): CompressionDictionary =
+    if (value.trim.isEmpty) null else CompressionDictionary.fromBase64(value.trim)
+
   private class LogConfigDef extends ConfigDef {
 
     private final val serverDefaultConfigNames = mutable.Map[String, String]()
@@ -295,6 +322,8 @@ object LogConfig {
         LeaderReplicationThrottledReplicasDoc, LeaderReplicationThrottledReplicasProp)
       .define(FollowerReplicationThrottledReplicasProp, LIST, Defaults.FollowerReplicationThrottledReplicas, ThrottledReplicaListValidator, MEDIUM,
         FollowerReplicationThrottledReplicasDoc, FollowerReplicationThrottledReplicasProp)
+      .define(CompressionDictionaryProp, STRING, Defaults.CompressionDictionary, CompressionDictionaryValidator, LOW,
+        CompressionDictionaryDoc, CompressionDictionaryProp)
   }
 
   def apply(): LogConfig = LogConfig(new Properties())
@@ -19,7 +19,7 @@ package kafka.log
 import java.nio.ByteBuffer
 
 import kafka.common.LongRef
-import kafka.message.{CompressionCodec, InvalidMessageException, NoCompressionCodec}
+import kafka.message.{CompressionCodec, InvalidMessageException, NoCompressionCodec, ZStdCompressionCodec}
 import org.apache.kafka.common.errors.InvalidTimestampException
 import org.apache.kafka.common.record._
 
@@ -28,6 +28,11 @@ import scala.collection.JavaConverters._
 
 private[kafka] object LogValidator {
 
+  // request handler threads are long lived, so each of them keeps reusing its own decompression buffers
+  private val decompressionBufferSupplier = new ThreadLocal[BufferSupplier] {
+    override def initialValue: BufferSupplier = BufferSupplier.create()
+  }
+
   /**
    * Update the offsets for this message set and do further validation on messages including:
    * 1. Messages for compacted topics must have keys
@@ -42,6 +47,8 @@ private[kafka] object LogValidator {
    * If no format conversion or value overwriting is required for messages, this method will perform in-place
    * operations and avoid re-compression.
    *
+   * Records which have to be recompressed with the zstd codec are compressed with the given dictionary, if any.
+   *
    * Returns a ValidationAndOffsetAssignResult containing the validated message set, maximum timestamp, the offset
    * of the shallow message with the max timestamp and a boolean indicating whether the message sizes may have changed.
    */
@@ -53,7 +60,8 @@ private[kafka] object LogValidator {
                                                       compactedTopic: Boolean = false,
                                                       messageFormatVersion: Byte = Record.CURRENT_MAGIC_VALUE,
                                                       messageTimestampType: TimestampType,
-                                                      messageTimestampDiffMaxMs: Long): ValidationAndOffsetAssignResult = {
+                                                      messageTimestampDiffMaxMs: Long,
+                                                      compressionDictionary: CompressionDictionary = null): ValidationAndOffsetAssignResult = {
     if (sourceCodec == NoCompressionCodec && targetCodec == NoCompressionCodec) {
       // check the magic value
       if (!records.hasMatchingShallowMagic(messageFormatVersion))
@@ -65,7 +73,7 @@ private[kafka] object LogValidator {
           messageTimestampDiffMaxMs)
     } else {
       validateMessagesAndAssignOffsetsCompressed(records, offsetCounter, now, sourceCodec, targetCodec, compactedTopic,
-        messageFormatVersion, messageTimestampType, messageTimestampDiffMaxMs)
+        messageFormatVersion, messageTimestampType, messageTimestampDiffMaxMs, compressionDictionary)
     }
   }
 
@@ -156,7 +164,8 @@ private[kafka] object LogValidator {
                                                          compactedTopic: Boolean = false,
                                                          messageFormatVersion: Byte = Record.CURRENT_MAGIC_VALUE,
                                                          messageTimestampType: TimestampType,
-                                                         messageTimestampDiffMaxMs: Long): ValidationAndOffsetAssignResult = {
+                                                         messageTimestampDiffMaxMs: Long,
+                                                         compressionDictionary: CompressionDictionary = null): ValidationAndOffsetAssignResult = {
     // No in place assignment situation 1 and 2
     var inPlaceAssignment = sourceCodec == targetCodec && messageFormatVersion > Record.MAGIC_VALUE_V0
 
@@ -164,7 +173,7 @@ private[kafka] object LogValidator {
     val expectedInnerOffset = new LongRef(0)
     val validatedRecords = new mutable.ArrayBuffer[Record]
 
-    records.deepEntries(true).asScala.foreach { logEntry =>
+    records.deepEntries(true, decompressionBufferSupplier.get).asScala.foreach { logEntry =>
       val record = logEntry.record
       validateKey(record, compactedTopic)
 
@@ -191,8 +200,9 @@ private[kafka] object LogValidator {
 
     if (!inPlaceAssignment) {
       val entries = validatedRecords.map(record => LogEntry.create(offsetCounter.getAndIncrement(), record))
+      val dictionary = if (targetCodec == ZStdCompressionCodec) compressionDictionary else null
       val builder = MemoryRecords.builderWithEntries(messageTimestampType, CompressionType.forId(targetCodec.codec),
-        now, entries.asJava)
+        now, entries.asJava, dictionary)
       val updatedRecords = builder.build()
       val info = builder.info
       ValidationAndOffsetAssignResult(
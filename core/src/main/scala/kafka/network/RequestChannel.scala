@@ -21,6 +21,7 @@ import java.net.InetAddress
 import java.nio.ByteBuffer
 import java.util.Collections
 import java.util.concurrent._
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
 
 import com.yammer.metrics.core.Gauge
 import kafka.api.{ControlledShutdownRequest, RequestOrResponse}
@@ -29,6 +30,7 @@ import kafka.server.QuotaId
 import kafka.utils.{Logging, NotNothing}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.InvalidRequestException
+import org.apache.kafka.common.memory.MemoryPool
 import org.apache.kafka.common.network.{ListenerName, Send}
 import org.apache.kafka.common.protocol.{ApiKeys, Protocol, SecurityProtocol}
 import org.apache.kafka.common.record.MemoryRecords
@@ -40,6 +42,11 @@ import org.apache.log4j.Logger
 import scala.reflect.{ClassTag, classTag}
 
 object RequestChannel extends Logging {
+  // the requests of the controller and of the brokers shutting down, which are handled before the other requests when
+  // they are received on the inter-broker listener. It is initialized before `AllDone`, which is a request itself
+  private val ControlPlaneApiKeys = Set(ApiKeys.LEADER_AND_ISR, ApiKeys.STOP_REPLICA, ApiKeys.UPDATE_METADATA_KEY,
+    ApiKeys.CONTROLLED_SHUTDOWN_KEY).map(_.id)
+
   val AllDone = Request(processor = 1, connectionId = "2", Session(KafkaPrincipal.ANONYMOUS, InetAddress.getLocalHost),
     buffer = shutdownReceive, startTimeMs = 0, listenerName = new ListenerName(""),
     securityProtocol = SecurityProtocol.PLAINTEXT)
@@ -56,7 +63,8 @@ object RequestChannel extends Logging {
   }
 
   case class Request(processor: Int, connectionId: String, session: Session, private var buffer: ByteBuffer,
-                     startTimeMs: Long, listenerName: ListenerName, securityProtocol: SecurityProtocol) {
+                     startTimeMs: Long, listenerName: ListenerName, securityProtocol: SecurityProtocol,
+                     memoryPool: MemoryPool = MemoryPool.NONE) {
     // These need to be volatile because the readers are in the network thread and the writers are in the request
     // handler threads or the purgatory threads
     @volatile var requestDequeueTimeMs = -1L
@@ -67,6 +75,8 @@ object RequestChannel extends Logging {
 
     val requestId = buffer.getShort()
 
+    val isControlPlaneApi = ControlPlaneApiKeys.contains(requestId)
+
     // TODO: this will be removed once we remove support for v0 of ControlledShutdownRequest (which
     // depends on a non-standard request header)
     val requestObj: RequestOrResponse = if (requestId == ApiKeys.CONTROLLED_SHUTDOWN_KEY.id)
@@ -102,7 +112,16 @@ object RequestChannel extends Logging {
       else
         null
 
-    buffer = null
+    /**
+     * Release the buffer of the request to the memory pool once the request has been handled. The buffer is kept until
+     * then since the records of a produce request are a view of it.
+     */
+    def releaseBuffer(): Unit = {
+      if (buffer != null) {
+        memoryPool.release(buffer)
+        buffer = null
+      }
+    }
 
     def requestDesc(details: Boolean): String = {
       if (requestObj != null)
@@ -187,28 +206,59 @@ object RequestChannel extends Logging {
   case object CloseConnectionAction extends ResponseAction
 }
 
-class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMetricsGroup {
+/**
+ * The requests of the processors are dispatched to a number of request queues, each of which holds the requests of
+ * the processors whose id maps to it. A request handler takes the requests of its own queue first, and steals the
+ * requests of the other queues when its own is empty. The number of queued requests, which is bounded by
+ * `queueSize` across all queues, is tracked separately, so that idle handlers can wait for a request of any queue.
+ *
+ * Control plane requests received on `controlPlaneListenerName`, the inter-broker listener, go to a separate queue
+ * which the handlers take from before any other queue, so that leadership changes are not delayed by the produce and
+ * fetch requests queued ahead of them. This queue is bounded, and once it is full the control plane requests are
+ * queued with the other requests, so that clients sharing the listener cannot take over the handlers with them.
+ */
+class RequestChannel(val numProcessors: Int, val queueSize: Int, val numRequestQueues: Int = 1,
+                     val controlPlaneListenerName: Option[ListenerName] = None) extends KafkaMetricsGroup {
   private var responseListeners: List[(Int) => Unit] = Nil
-  private val requestQueue = new ArrayBlockingQueue[RequestChannel.Request](queueSize)
-  private val responseQueues = new Array[BlockingQueue[RequestChannel.Response]](numProcessors)
-  for(i <- 0 until numProcessors)
-    responseQueues(i) = new LinkedBlockingQueue[RequestChannel.Response]()
+  private val requestQueues = Array.fill(numRequestQueues)(
+    new ArrayBlockingQueue[RequestChannel.Request](math.max(1, (queueSize + numRequestQueues - 1) / numRequestQueues)))
+  // control plane requests are few, as the controller only has a single request in flight to each broker and a broker
+  // sends a single controlled shutdown request at a time, so a queue of one request per processor is enough for them
+  private val controlPlaneRequestQueue = new ArrayBlockingQueue[RequestChannel.Request](math.max(1, numProcessors))
+  // one permit per queued request
+  private val queuedRequests = new Semaphore(0)
+  // the responses are queued without locking since the handler threads should not contend with the processor, and
+  // the processor is only woken up for the first response queued after it found its queue empty
+  private val responseQueues = Array.fill(numProcessors)(new ConcurrentLinkedQueue[RequestChannel.Response]())
+  // the sizes of the response queues, since ConcurrentLinkedQueue.size traverses the whole queue
+  private val responseQueueSizes = Array.fill(numProcessors)(new AtomicInteger(0))
+  private val wakeupsPending = Array.fill(numProcessors)(new AtomicBoolean(false))
+
+  private val stolenRequestRate = newMeter("StolenRequestsPerSec", "requests", TimeUnit.SECONDS)
+  private val avoidedWakeupRate = newMeter("AvoidedProcessorWakeupsPerSec", "wakeups", TimeUnit.SECONDS)
 
   newGauge(
     "RequestQueueSize",
     new Gauge[Int] {
-      def value = requestQueue.size
+      def value = queuedRequests.availablePermits
+    }
+  )
+
+  newGauge(
+    "ControlPlaneRequestQueueSize",
+    new Gauge[Int] {
+      def value = controlPlaneRequestQueue.size
     }
   )
 
   newGauge("ResponseQueueSize", new Gauge[Int]{
-    def value = responseQueues.foldLeft(0) {(total, q) => total + q.size()}
+    def value = responseQueueSizes.foldLeft(0) {(total, size) => total + size.get}
   })
 
   for (i <- 0 until numProcessors) {
     newGauge("ResponseQueueSize",
       new Gauge[Int] {
-        def value = responseQueues(i).size()
+        def value = responseQueueSizes(i).get
       },
       Map("processor" -> i.toString)
     )
@@ -216,43 +266,98 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
 
   /** Send a request to be handled, potentially blocking until there is room in the queue for the request */
   def sendRequest(request: RequestChannel.Request) {
-    requestQueue.put(request)
+    if (!isControlPlaneRequest(request) || !controlPlaneRequestQueue.offer(request))
+      requestQueues(request.processor % numRequestQueues).put(request)
+    queuedRequests.release()
   }
 
+  private def isControlPlaneRequest(request: RequestChannel.Request): Boolean =
+    request.isControlPlaneApi && controlPlaneListenerName.exists(_ == request.listenerName)
+
   /** Send a response back to the socket server to be sent over the network */
   def sendResponse(response: RequestChannel.Response) {
-    responseQueues(response.processor).put(response)
-    for(onResponse <- responseListeners)
-      onResponse(response.processor)
+    queueResponse(response.processor, response)
   }
 
   /** No operation to take for the request, need to read more over the network */
   def noOperation(processor: Int, request: RequestChannel.Request) {
-    responseQueues(processor).put(RequestChannel.Response(processor, request, null, RequestChannel.NoOpAction))
-    for(onResponse <- responseListeners)
-      onResponse(processor)
+    queueResponse(processor, RequestChannel.Response(processor, request, null, RequestChannel.NoOpAction))
   }
 
   /** Close the connection for the request */
   def closeConnection(processor: Int, request: RequestChannel.Request) {
-    responseQueues(processor).put(RequestChannel.Response(processor, request, null, RequestChannel.CloseConnectionAction))
-    for(onResponse <- responseListeners)
-      onResponse(processor)
+    queueResponse(processor, RequestChannel.Response(processor, request, null, RequestChannel.CloseConnectionAction))
+  }
+
+  /**
+   * Queue a response and wake up its processor unless a wakeup is already pending, i.e. the processor has not found
+   * its queue empty since the last wakeup. The processor will then take this response before it blocks again.
+   */
+  private def queueResponse(processor: Int, response: RequestChannel.Response) {
+    // counted before it is queued, so that the processor cannot take it first and make the size negative
+    responseQueueSizes(processor).incrementAndGet()
+    responseQueues(processor).offer(response)
+    if (wakeupsPending(processor).compareAndSet(false, true)) {
+      for(onResponse <- responseListeners)
+        onResponse(processor)
+    } else
+      avoidedWakeupRate.mark()
   }
 
   /** Get the next request or block until specified time has elapsed */
   def receiveRequest(timeout: Long): RequestChannel.Request =
-    requestQueue.poll(timeout, TimeUnit.MILLISECONDS)
+    receiveRequest(timeout, 0)
+
+  /**
+   * Get the next request for the given request handler, preferably from the queue of the handler, or block until
+   * specified time has elapsed
+   */
+  def receiveRequest(timeout: Long, handlerId: Int): RequestChannel.Request = {
+    if (queuedRequests.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+      pollRequest(handlerId)
+    else
+      null
+  }
 
   /** Get the next request or block until there is one */
-  def receiveRequest(): RequestChannel.Request =
-    requestQueue.take()
+  def receiveRequest(): RequestChannel.Request = {
+    queuedRequests.acquire()
+    pollRequest(0)
+  }
+
+  /**
+   * Take a request once a permit has been acquired for it. Another handler may take the request this handler would
+   * have found while it scans the queues, but then the request of that handler's permit is still queued, so the scan
+   * is repeated until a request is found.
+   */
+  private def pollRequest(handlerId: Int): RequestChannel.Request = {
+    val home = handlerId % numRequestQueues
+    var request: RequestChannel.Request = null
+    while (request == null) {
+      request = controlPlaneRequestQueue.poll()
+      var i = 0
+      while (request == null && i < numRequestQueues) {
+        request = requestQueues((home + i) % numRequestQueues).poll()
+        if (request != null && i > 0)
+          stolenRequestRate.mark()
+        i += 1
+      }
+    }
+    request
+  }
 
   /** Get a response for the given processor if there is one */
   def receiveResponse(processor: Int): RequestChannel.Response = {
-    val response = responseQueues(processor).poll()
-    if (response != null)
+    var response = responseQueues(processor).poll()
+    if (response == null) {
+      // the responses queued from now on wake up the processor, so check once more for a response queued before
+      wakeupsPending(processor).set(false)
+      response = responseQueues(processor).poll()
+    }
+    if (response != null) {
+      responseQueueSizes(processor).decrementAndGet()
       response.request.responseDequeueTimeMs = Time.SYSTEM.milliseconds
+    }
     response
   }
 
@@ -261,7 +366,9 @@ class RequestChannel(val numProcessors: Int, val queueSize: Int) extends KafkaMe
   }
 
   def shutdown() {
-    requestQueue.clear()
+    controlPlaneRequestQueue.clear()
+    requestQueues.foreach(_.clear())
+    queuedRequests.drainPermits()
   }
 }
 
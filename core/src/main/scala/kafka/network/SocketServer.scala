@@ -33,6 +33,7 @@ import kafka.security.CredentialProvider
 import kafka.server.KafkaConfig
 import kafka.utils._
 import org.apache.kafka.common.errors.InvalidRequestException
+import org.apache.kafka.common.memory.{MemoryPool, SimpleMemoryPool}
 import org.apache.kafka.common.metrics._
 import org.apache.kafka.common.network.{ChannelBuilders, KafkaChannel, ListenerName, Mode, Selectable, Selector => KSelector}
 import org.apache.kafka.common.security.auth.KafkaPrincipal
@@ -56,13 +57,18 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
   private val numProcessorThreads = config.numNetworkThreads
   private val maxQueuedRequests = config.queuedMaxRequests
   private val totalProcessorThreads = numProcessorThreads * endpoints.size
+  // the buffers of received requests are allocated from a pool shared by all processors, so that their memory is
+  // bounded when many connections send large requests at once
+  private val memoryPool =
+    if (config.queuedMaxRequestBytes > 0) new SimpleMemoryPool(config.queuedMaxRequestBytes) else MemoryPool.NONE
 
   private val maxConnectionsPerIp = config.maxConnectionsPerIp
   private val maxConnectionsPerIpOverrides = config.maxConnectionsPerIpOverrides
 
   this.logIdent = "[Socket Server on Broker " + config.brokerId + "], "
 
-  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests)
+  val requestChannel = new RequestChannel(totalProcessorThreads, maxQueuedRequests, config.numRequestQueues,
+    Some(config.interBrokerListenerName))
   private val processors = new Array[Processor](totalProcessorThreads)
 
   private[network] val acceptors = mutable.Map[EndPoint, Acceptor]()
@@ -112,6 +118,16 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
         }.sum / totalProcessorThreads
       }
     )
+    newGauge("MemoryPoolAvailable",
+      new Gauge[Long] {
+        def value = memoryPool.availableMemory
+      }
+    )
+    newGauge("MemoryPoolUsed",
+      new Gauge[Long] {
+        def value = memoryPool.size - memoryPool.availableMemory
+      }
+    )
 
     info("Started " + acceptors.size + " acceptor threads")
   }
@@ -152,7 +168,8 @@ class SocketServer(val config: KafkaConfig, val metrics: Metrics, val time: Time
       securityProtocol,
       config,
       metrics,
-      credentialProvider
+      credentialProvider,
+      memoryPool
     )
   }
 
@@ -381,7 +398,8 @@ private[kafka] class Processor(val id: Int,
                                securityProtocol: SecurityProtocol,
                                config: KafkaConfig,
                                metrics: Metrics,
-                               credentialProvider: CredentialProvider) extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
+                               credentialProvider: CredentialProvider,
+                               memoryPool: MemoryPool = MemoryPool.NONE) extends AbstractServerThread(connectionQuotas) with KafkaMetricsGroup {
 
   private object ConnectionId {
     def fromString(s: String): Option[ConnectionId] = s.split("-") match {
@@ -419,7 +437,8 @@ private[kafka] class Processor(val id: Int,
     "socket-server",
     metricTags,
     false,
-    ChannelBuilders.serverChannelBuilder(listenerName, securityProtocol, config, credentialProvider.credentialCache))
+    ChannelBuilders.serverChannelBuilder(listenerName, securityProtocol, config, credentialProvider.credentialCache),
+    memoryPool)
 
   override def run() {
     startupComplete()
@@ -512,13 +531,14 @@ private[kafka] class Processor(val id: Int,
         }
         val req = RequestChannel.Request(processor = id, connectionId = receive.source, session = session,
           buffer = receive.payload, startTimeMs = time.milliseconds, listenerName = listenerName,
-          securityProtocol = securityProtocol)
+          securityProtocol = securityProtocol, memoryPool = receive.memoryPool)
         requestChannel.sendRequest(req)
         selector.mute(receive.source)
       } catch {
         case e @ (_: InvalidRequestException | _: SchemaException) =>
           // note that even though we got an exception, we can assume that receive.source is valid. Issues with constructing a valid receive object were handled earlier
           error(s"Closing socket for ${receive.source} because of error", e)
+          receive.memoryPool.release(receive.payload)
           close(selector, receive.source)
       }
     }
@@ -567,6 +587,8 @@ private[kafka] class Processor(val id: Int,
         val remotePort = channel.socket().getPort
         val connectionId = ConnectionId(localHost, localPort, remoteHost, remotePort).toString
         selector.register(connectionId, channel)
+        // every request is read into the memory bounded by queued.max.request.bytes
+        selector.allocateFromMemoryPool(connectionId)
       } catch {
         // We explicitly catch all non fatal exceptions and close the socket to avoid a socket leak. The other
         // throwables will be caught in processor and logged as uncaught exceptions.
@@ -21,7 +21,7 @@ import java.util.concurrent.TimeUnit
 
 import kafka.metrics.KafkaMetricsGroup
 import org.apache.kafka.common.TopicPartition
-import org.apache.kafka.common.errors.{NotLeaderForPartitionException, UnknownTopicOrPartitionException}
+import org.apache.kafka.common.errors.{NotLeaderForPartitionException, ReplicaNotAvailableException, UnknownTopicOrPartitionException}
 import org.apache.kafka.common.requests.FetchRequest.PartitionData
 
 import scala.collection._
@@ -67,6 +67,7 @@ class DelayedFetch(delayMs: Long,
    * Case B: This broker does not know of some partitions it tries to fetch
    * Case C: The fetch offset locates not on the last segment of the log
    * Case D: The accumulated bytes from all the fetching partitions exceeds the minimum bytes
+   * Case E: A consumer fetches from a follower whose high watermark advanced past the fetch offset
    *
    * Upon completion, should return whatever data is available for each valid partition
    */
@@ -78,17 +79,26 @@ class DelayedFetch(delayMs: Long,
         val fetchOffset = fetchStatus.startOffsetMetadata
         try {
           if (fetchOffset != LogOffsetMetadata.UnknownOffsetMetadata) {
-            val replica = replicaManager.getLeaderReplicaIfLocal(topicPartition)
+            val replica = replicaManager.getReplicaForFetch(topicPartition, fetchMetadata.replicaId,
+              fetchMetadata.fetchOnlyLeader)
             val endOffset =
               if (fetchMetadata.fetchOnlyCommitted)
                 replica.highWatermark
               else
                 replica.logEndOffset
 
+            // Case E, the high watermark of a follower only has the message offset, so the number of bytes
+            // available is unknown
+            if (endOffset.messageOffsetOnly) {
+              if (fetchOffset.messageOffset < endOffset.messageOffset) {
+                debug("Satisfying fetch %s since the follower high watermark of partition %s advanced.".format(fetchMetadata, topicPartition))
+                return forceComplete()
+              }
+            }
             // Go directly to the check for Case D if the message offsets are the same. If the log segment
             // has just rolled, then the high watermark offset will remain the same but be on the old segment,
             // which would incorrectly be seen as an instance of Case C.
-            if (endOffset.messageOffset != fetchOffset.messageOffset) {
+            else if (endOffset.messageOffset != fetchOffset.messageOffset) {
               if (endOffset.onOlderSegment(fetchOffset)) {
                 // Case C, this can happen when the new fetch operation is on a truncated leader
                 debug("Satisfying fetch %s since it is fetching later segments of partition %s.".format(fetchMetadata, topicPartition))
@@ -117,6 +127,9 @@ class DelayedFetch(delayMs: Long,
           case _: NotLeaderForPartitionException =>  // Case A
             debug("Broker is no longer the leader of %s, satisfy %s immediately".format(topicPartition, fetchMetadata))
             return forceComplete()
+          case _: ReplicaNotAvailableException =>  // Case A
+            debug("Broker no longer has a replica of %s, satisfy %s immediately".format(topicPartition, fetchMetadata))
+            return forceComplete()
         }
     }
 
@@ -26,6 +26,7 @@ import kafka.metrics.KafkaMetricsGroup
 import kafka.utils.CoreUtils.{inReadLock, inWriteLock}
 import kafka.utils._
 import kafka.utils.timer._
+import org.apache.kafka.common.utils.Utils
 
 import scala.collection._
 
@@ -115,6 +116,9 @@ abstract class DelayedOperation(override val delayMs: Long) extends TimerTask wi
 
 object DelayedOperationPurgatory {
 
+  // the number of shards the watcher lists of a purgatory are spread over
+  val Shards = 16
+
   def apply[T <: DelayedOperation](purgatoryName: String,
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000): DelayedOperationPurgatory[T] = {
@@ -126,22 +130,28 @@ object DelayedOperationPurgatory {
 
 /**
  * A helper purgatory class for bookkeeping delayed operations with a timeout, and expiring timed out operations.
+ *
+ * The watcher lists are spread over shards by the hash of their key. Each shard has its own lock, so that removing the
+ * watcher list of a key only blocks the operations on the keys of the same shard, and completed operations are purged
+ * from one shard at a time.
  */
 class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
                                                        timeoutTimer: Timer,
                                                        brokerId: Int = 0,
                                                        purgeInterval: Int = 1000,
-                                                       reaperEnabled: Boolean = true)
+                                                       reaperEnabled: Boolean = true,
+                                                       numShards: Int = DelayedOperationPurgatory.Shards)
         extends Logging with KafkaMetricsGroup {
 
-  /* a list of operation watching keys */
-  private val watchersForKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
-
-  private val removeWatchersLock = new ReentrantReadWriteLock()
+  private val watcherShards = Array.tabulate(numShards)(shard => new WatcherShard(shard))
 
   // the number of estimated total operations in the purgatory
   private[this] val estimatedTotalOperations = new AtomicInteger(0)
 
+  // the shards which remain to be purged by the current purge, which purges a single shard each time the clock advances
+  private[this] val shardsToPurge = new AtomicInteger(0)
+  private[this] val nextShardToPurge = new AtomicInteger(0)
+
   /* background thread expiring operations that have timed out */
   private val expirationReaper = new ExpiredOperationReaper()
 
@@ -163,6 +173,16 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
     metricsTags
   )
 
+  for (shard <- watcherShards) {
+    newGauge(
+      "PurgatorySize",
+      new Gauge[Int] {
+        def value = shard.watched
+      },
+      metricsTags + ("shard" -> shard.id.toString)
+    )
+  }
+
   if (reaperEnabled)
     expirationReaper.start()
 
@@ -232,7 +252,7 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
    * @return the number of completed operations during this process
    */
   def checkAndComplete(key: Any): Int = {
-    val watchers = inReadLock(removeWatchersLock) { watchersForKey.get(key) }
+    val watchers = shardFor(key).watchers(key)
     if(watchers == null)
       0
     else
@@ -244,43 +264,21 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
    * on multiple lists, and some of its watched entries may still be in the watch lists
    * even when it has been completed, this number may be larger than the number of real operations watched
    */
-  def watched() = allWatchers.map(_.countWatched).sum
+  def watched() = watcherShards.map(_.watched).sum
 
   /**
    * Return the number of delayed operations in the expiry queue
    */
   def delayed() = timeoutTimer.size
 
-  /*
-   * Return all the current watcher lists,
-   * note that the returned watchers may be removed from the list by other threads
-   */
-  private def allWatchers = inReadLock(removeWatchersLock) { watchersForKey.values }
+  private def shardFor(key: Any): WatcherShard = watcherShards(Utils.abs(key.hashCode) % numShards)
 
-  /*
-   * Return the watch list of the given key, note that we need to
-   * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
-   */
   private def watchForOperation(key: Any, operation: T) {
-    inReadLock(removeWatchersLock) {
-      val watcher = watchersForKey.getAndMaybePut(key)
-      watcher.watch(operation)
-    }
+    shardFor(key).watchForOperation(key, operation)
   }
 
-  /*
-   * Remove the key from watcher lists if its list is empty
-   */
   private def removeKeyIfEmpty(key: Any, watchers: Watchers) {
-    inWriteLock(removeWatchersLock) {
-      // if the current key is no longer correlated to the watchers to remove, skip
-      if (watchersForKey.get(key) != watchers)
-        return
-
-      if (watchers != null && watchers.isEmpty) {
-        watchersForKey.remove(key)
-      }
-    }
+    shardFor(key).removeKeyIfEmpty(key, watchers)
   }
 
   /**
@@ -292,6 +290,53 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
     timeoutTimer.shutdown()
   }
 
+  /**
+   * The watcher lists of the keys which hash to a shard
+   */
+  private class WatcherShard(val id: Int) {
+    private val watchersForKey = new Pool[Any, Watchers](Some((key: Any) => new Watchers(key)))
+
+    private val removeWatchersLock = new ReentrantReadWriteLock()
+
+    def watchers(key: Any): Watchers = inReadLock(removeWatchersLock) { watchersForKey.get(key) }
+
+    /*
+     * Return all the current watcher lists,
+     * note that the returned watchers may be removed from the list by other threads
+     */
+    def allWatchers = inReadLock(removeWatchersLock) { watchersForKey.values }
+
+    def watched: Int = allWatchers.map(_.countWatched).sum
+
+    /*
+     * Add the operation to the watch list of the given key, note that we need to
+     * grab the removeWatchersLock to avoid the operation being added to a removed watcher list
+     */
+    def watchForOperation(key: Any, operation: T) {
+      inReadLock(removeWatchersLock) {
+        val watcher = watchersForKey.getAndMaybePut(key)
+        watcher.watch(operation)
+      }
+    }
+
+    /*
+     * Remove the key from watcher lists if its list is empty
+     */
+    def removeKeyIfEmpty(key: Any, watchers: Watchers) {
+      inWriteLock(removeWatchersLock) {
+        // if the current key is no longer correlated to the watchers to remove, skip
+        if (watchersForKey.get(key) != watchers)
+          return
+
+        if (watchers != null && watchers.isEmpty) {
+          watchersForKey.remove(key)
+        }
+      }
+    }
+
+    def purgeCompleted(): Int = allWatchers.map(_.purgeCompleted()).sum
+  }
+
   /**
    * A linked list of watched delayed operations based on some key
    */
@@ -362,8 +407,15 @@ class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
       // a little overestimated total number of operations.
       estimatedTotalOperations.getAndSet(delayed)
       debug("Begin purging watch lists")
-      val purged = allWatchers.map(_.purgeCompleted()).sum
-      debug("Purged %d elements from watch lists.".format(purged))
+      shardsToPurge.set(numShards)
+    }
+
+    // purge a single shard at a time so that the watch lists are not all walked at once
+    val remainingShards = shardsToPurge.get
+    if (remainingShards > 0 && shardsToPurge.compareAndSet(remainingShards, remainingShards - 1)) {
+      val shard = watcherShards(Utils.abs(nextShardToPurge.getAndIncrement()) % numShards)
+      val purged = shard.purgeCompleted()
+      debug("Purged %d elements from the watch lists of shard %d.".format(purged, shard.id))
     }
   }
 
@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util
+import java.util.concurrent.ThreadLocalRandom
+
+import com.yammer.metrics.core.Gauge
+import kafka.api.Request
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.Logging
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+import org.apache.kafka.common.utils.Time
+
+import scala.collection.JavaConverters._
+
+/**
+ * The partitions a client fetches in a fetch session, in the order in which they are fetched, together with the high
+ * watermarks which were last sent for them. Incremental fetch requests only send the partitions which changed, and
+ * their responses only contain the partitions with records, an error or a changed high watermark. A partition which
+ * returned records is not fetched again until the client sends it again, so that a client can keep the partitions
+ * whose records it still buffers in the session without them being returned twice.
+ */
+class FetchSession(val id: Int,
+                   val owner: FetchSession.Owner,
+                   initialFetchData: Seq[(TopicPartition, FetchRequest.PartitionData)],
+                   creationMs: Long) {
+  private val partitions = new util.LinkedHashMap[TopicPartition, FetchSession.CachedPartition]
+  initialFetchData.foreach { case (tp, data) => partitions.put(tp, new FetchSession.CachedPartition(data)) }
+  private var nextEpoch = JFetchMetadata.nextEpoch(JFetchMetadata.INITIAL_EPOCH)
+  @volatile private var lastUsedMs = creationMs
+
+  def lastUsed: Long = lastUsedMs
+
+  /**
+   * Apply an incremental fetch request to the session if its epoch is the expected one.
+   *
+   * @return the partitions to fetch, or the error to send back if the epoch is invalid
+   */
+  def update(epoch: Int,
+             fetchData: util.Map[TopicPartition, FetchRequest.PartitionData],
+             toForget: Seq[TopicPartition],
+             now: Long): Either[Errors, Seq[(TopicPartition, FetchRequest.PartitionData)]] = synchronized {
+    if (epoch != nextEpoch)
+      Left(Errors.INVALID_FETCH_SESSION_EPOCH)
+    else {
+      nextEpoch = JFetchMetadata.nextEpoch(nextEpoch)
+      lastUsedMs = now
+      toForget.foreach(tp => partitions.remove(tp))
+      fetchData.asScala.foreach { case (tp, data) =>
+        val cached = partitions.get(tp)
+        if (cached == null)
+          partitions.put(tp, new FetchSession.CachedPartition(data))
+        else {
+          cached.fetchData = data
+          cached.returnedRecords = false
+        }
+      }
+      Right(partitions.asScala.toSeq.collect { case (tp, cached) if !cached.returnedRecords => tp -> cached.fetchData })
+    }
+  }
+
+  /**
+   * Record the high watermarks of a response and drop the partitions which did not change since the previous response,
+   * unless the response is a full response. Partitions which returned records are moved to the end of the session, so
+   * that the other partitions are fetched first next time.
+   */
+  def updateResponseData(responseData: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData],
+                         full: Boolean): util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] = synchronized {
+    val changed = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+    responseData.asScala.foreach { case (tp, data) =>
+      val cached = partitions.get(tp)
+      val hasRecords = data.records.sizeInBytes > 0
+      if (full || cached == null || hasRecords || data.error != Errors.NONE || data.highWatermark != cached.highWatermark)
+        changed.put(tp, data)
+      if (cached != null) {
+        cached.highWatermark = data.highWatermark
+        if (hasRecords) {
+          cached.returnedRecords = true
+          partitions.remove(tp)
+          partitions.put(tp, cached)
+        }
+      }
+    }
+    changed
+  }
+
+  def size: Int = synchronized {
+    partitions.size
+  }
+}
+
+object FetchSession {
+  /**
+   * The client which created a session. Only this client may use or close the session.
+   */
+  case class Owner(principal: KafkaPrincipal, replicaId: Int)
+
+  private[server] class CachedPartition(var fetchData: FetchRequest.PartitionData,
+                                        var highWatermark: Long = FetchResponse.INVALID_HIGHWATERMARK,
+                                        var returnedRecords: Boolean = false)
+}
+
+/**
+ * How a fetch request is handled with regard to fetch sessions
+ */
+sealed trait FetchContext {
+  /**
+   * The partitions to fetch in order
+   */
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)]
+
+  def sessionId: Int
+
+  def error: Errors = Errors.NONE
+
+  /**
+   * The partitions to send back from the fetched partitions
+   */
+  def updateResponseData(responseData: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]):
+    util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] = responseData
+}
+
+/**
+ * A full fetch request which does not use a fetch session
+ */
+class SessionlessFetchContext(val fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)]) extends FetchContext {
+  def sessionId: Int = JFetchMetadata.INVALID_SESSION_ID
+}
+
+/**
+ * A full fetch request which created a fetch session
+ */
+class FullFetchContext(session: FetchSession,
+                       val fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)]) extends FetchContext {
+  def sessionId: Int = session.id
+
+  override def updateResponseData(responseData: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]) =
+    session.updateResponseData(responseData, full = true)
+}
+
+/**
+ * An incremental fetch request of a fetch session
+ */
+class IncrementalFetchContext(session: FetchSession,
+                              val fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)]) extends FetchContext {
+  def sessionId: Int = session.id
+
+  override def updateResponseData(responseData: util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]) =
+    session.updateResponseData(responseData, full = false)
+}
+
+/**
+ * A fetch request whose fetch session was not found or whose epoch was invalid, which fetches nothing
+ */
+class SessionErrorContext(override val error: Errors) extends FetchContext {
+  def fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)] = Seq.empty
+
+  def sessionId: Int = JFetchMetadata.INVALID_SESSION_ID
+}
+
+/**
+ * The fetch sessions of a broker. If all the slots of the cache are taken, the least recently used session is evicted
+ * for a new one once it has not been used for the given time. Otherwise the new session is not created, and its
+ * client keeps sending full fetch requests.
+ */
+class FetchSessionCache(maxEntries: Int, evictionMs: Long, time: Time) extends Logging with KafkaMetricsGroup {
+  // in access order, so that the least recently used session comes first
+  private val sessions = new util.LinkedHashMap[Int, FetchSession](16, 0.75f, true)
+
+  newGauge(
+    "NumIncrementalFetchSessions",
+    new Gauge[Int] {
+      def value = FetchSessionCache.this.synchronized(sessions.size)
+    }
+  )
+
+  /**
+   * Resolve the fetch session of the request, creating or closing a session as requested. A session is only used or
+   * closed by requests of the principal and replica which created it; to other clients it does not exist.
+   */
+  def newContext(request: FetchRequest, principal: KafkaPrincipal): FetchContext = {
+    val metadata = request.metadata
+    // a consumer asks to fetch from followers only in the requests which need it, so all consumers have the same id
+    val replicaId = if (Request.isValidBrokerId(request.replicaId)) request.replicaId else Request.OrdinaryConsumerId
+    val owner = FetchSession.Owner(principal, replicaId)
+    val now = time.milliseconds
+    if (metadata.isFull) {
+      val fetchData = request.fetchData.asScala.toSeq
+      // a client which replaces its session closes the previous one, which would otherwise take a slot until evicted
+      if (metadata.sessionId != JFetchMetadata.INVALID_SESSION_ID)
+        remove(metadata.sessionId, owner)
+      if (metadata.epoch == JFetchMetadata.FINAL_EPOCH)
+        new SessionlessFetchContext(fetchData)
+      else
+        maybeCreate(owner, fetchData, now) match {
+          case Some(session) => new FullFetchContext(session, fetchData)
+          case None => new SessionlessFetchContext(fetchData)
+        }
+    } else {
+      synchronized(Option(sessions.get(metadata.sessionId)).filter(_.owner == owner)) match {
+        case None =>
+          debug(s"Fetch session ${metadata.sessionId} of $owner not found")
+          new SessionErrorContext(Errors.FETCH_SESSION_ID_NOT_FOUND)
+        case Some(session) =>
+          session.update(metadata.epoch, request.fetchData, request.toForget.asScala, now) match {
+            case Left(error) =>
+              debug(s"Fetch session ${metadata.sessionId} received invalid epoch ${metadata.epoch}")
+              new SessionErrorContext(error)
+            case Right(fetchData) => new IncrementalFetchContext(session, fetchData)
+          }
+      }
+    }
+  }
+
+  def size: Int = synchronized {
+    sessions.size
+  }
+
+  private def maybeCreate(owner: FetchSession.Owner,
+                          fetchData: Seq[(TopicPartition, FetchRequest.PartitionData)],
+                          now: Long): Option[FetchSession] = synchronized {
+    if (maxEntries <= 0)
+      None
+    else {
+      if (sessions.size >= maxEntries) {
+        val eldest = sessions.values.iterator.next
+        if (now - eldest.lastUsed >= evictionMs) {
+          debug(s"Evicting fetch session ${eldest.id} which has not been used for ${now - eldest.lastUsed} ms")
+          sessions.remove(eldest.id)
+        }
+      }
+      if (sessions.size >= maxEntries)
+        None
+      else {
+        var id = JFetchMetadata.INVALID_SESSION_ID
+        while (id == JFetchMetadata.INVALID_SESSION_ID || sessions.containsKey(id))
+          id = ThreadLocalRandom.current.nextInt(1, Int.MaxValue)
+        val session = new FetchSession(id, owner, fetchData, now)
+        sessions.put(id, session)
+        Some(session)
+      }
+    }
+  }
+
+  private def remove(sessionId: Int, owner: FetchSession.Owner): Unit = synchronized {
+    val session = sessions.get(sessionId)
+    if (session != null && session.owner == owner) {
+      debug(s"Closing fetch session $sessionId of $owner")
+      sessions.remove(sessionId)
+    }
+  }
+}
+
+object FetchSessionCache {
+  // a session which has been used recently is not evicted for a new one, which would cause its client to fail a fetch
+  val EvictionMs = 120000L
+}
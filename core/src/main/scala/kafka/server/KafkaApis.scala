@@ -23,13 +23,14 @@ import java.util.{Collections, Properties}
 import java.util
 
 import kafka.admin.{AdminUtils, RackAwareMode}
-import kafka.api.{ControlledShutdownRequest, ControlledShutdownResponse}
+import kafka.api.{ControlledShutdownRequest, ControlledShutdownResponse, KAFKA_0_10_3_IV1}
 import kafka.cluster.Partition
 import kafka.server.QuotaFactory.{QuotaManagers, UnboundedQuota}
 import kafka.common._
 import kafka.controller.KafkaController
 import kafka.coordinator.{GroupCoordinator, JoinGroupResult}
 import kafka.log._
+import kafka.message.ZStdCompressionCodec
 import kafka.network._
 import kafka.network.RequestChannel.{Response, Session}
 import kafka.security.auth
@@ -40,7 +41,7 @@ import org.apache.kafka.common.internals.FatalExitError
 import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.ListenerName
 import org.apache.kafka.common.protocol.{ApiKeys, Errors, Protocol}
-import org.apache.kafka.common.record.{MemoryRecords, Record, TimestampType}
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, Record, TimestampType}
 import org.apache.kafka.common.requests._
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.utils.{Time, Utils}
@@ -65,6 +66,7 @@ class KafkaApis(val requestChannel: RequestChannel,
                 val metrics: Metrics,
                 val authorizer: Option[Authorizer],
                 val quotas: QuotaManagers,
+                val fetchSessionCache: FetchSessionCache,
                 val clusterId: String,
                 time: Time) extends Logging {
 
@@ -355,14 +357,26 @@ class KafkaApis(val requestChannel: RequestChannel,
       case (topicPartition, _) => authorize(request.session, Describe, new Resource(auth.Topic, topicPartition.topic)) && metadataCache.contains(topicPartition.topic)
     }
 
-    val (authorizedRequestInfo, unauthorizedForWriteRequestInfo) = existingAndAuthorizedForDescribeTopics.partition {
+    val (authorizedForWriteRequestInfo, unauthorizedForWriteRequestInfo) = existingAndAuthorizedForDescribeTopics.partition {
       case (topicPartition, _) => authorize(request.session, Write, new Resource(auth.Topic, topicPartition.topic))
     }
 
+    // zstd records are only written once all brokers can read them (inter.broker.protocol.version 0.10.3-IV1) and
+    // only accepted from clients which send produce requests of version 3 or newer
+    val zstdWritable = config.interBrokerProtocolVersion >= KAFKA_0_10_3_IV1
+    val (unsupportedCompressionRequestInfo, authorizedRequestInfo) = authorizedForWriteRequestInfo.partition {
+      case (topicPartition, records) =>
+        if (records.hasShallowCompressionType(CompressionType.ZSTD))
+          !zstdWritable || request.header.apiVersion < 3
+        else
+          !zstdWritable && replicaManager.getCompressionType(topicPartition).exists(_ == ZStdCompressionCodec.name)
+    }
+
     // the callback for sending a produce response
     def sendResponseCallback(responseStatus: Map[TopicPartition, PartitionResponse]) {
 
       val mergedResponseStatus = responseStatus ++
+        unsupportedCompressionRequestInfo.mapValues(_ => new PartitionResponse(Errors.UNSUPPORTED_COMPRESSION_TYPE)) ++
         unauthorizedForWriteRequestInfo.mapValues(_ => new PartitionResponse(Errors.TOPIC_AUTHORIZATION_FAILED)) ++
         nonExistingOrUnauthorizedForDescribeTopics.mapValues(_ => new PartitionResponse(Errors.UNKNOWN_TOPIC_OR_PARTITION))
 
@@ -440,8 +454,9 @@ class KafkaApis(val requestChannel: RequestChannel,
     val fetchRequest = request.body[FetchRequest]
     val versionId = request.header.apiVersion
     val clientId = request.header.clientId
+    val fetchContext = fetchSessionCache.newContext(fetchRequest, request.session.principal)
 
-    val (existingAndAuthorizedForDescribeTopics, nonExistingOrUnauthorizedForDescribeTopics) = fetchRequest.fetchData.asScala.toSeq.partition {
+    val (existingAndAuthorizedForDescribeTopics, nonExistingOrUnauthorizedForDescribeTopics) = fetchContext.fetchData.partition {
       case (tp, _) => authorize(request.session, Describe, new Resource(auth.Topic, tp.topic)) && metadataCache.contains(tp.topic)
     }
 
@@ -462,6 +477,12 @@ class KafkaApis(val requestChannel: RequestChannel,
       val convertedPartitionData = {
         responsePartitionData.map { case (tp, data) =>
 
+          // consumers which send fetch requests older than version 5 cannot decompress zstd records
+          val convertedData = if (!fetchRequest.isFromFollower && versionId < 5 && data.error == Errors.NONE &&
+            data.records.hasShallowCompressionType(CompressionType.ZSTD)) {
+            trace(s"Rejecting fetch request from $clientId for zstd records of $tp with version $versionId")
+            FetchPartitionData(Errors.UNSUPPORTED_COMPRESSION_TYPE, data.hw, MemoryRecords.EMPTY)
+          }
           // We only do down-conversion when:
           // 1. The message format version configured for the topic is using magic value > 0, and
           // 2. The message set contains message whose magic > 0
@@ -470,7 +491,7 @@ class KafkaApis(val requestChannel: RequestChannel,
           // Please note that if the message format is changed from a higher version back to lower version this
           // test might break because some messages in new message format can be delivered to consumers before 0.10.0.0
           // without format down conversion.
-          val convertedData = if (versionId <= 1 && replicaManager.getMagicAndTimestampType(tp).exists(_._1 > Record.MAGIC_VALUE_V0) &&
+          else if (versionId <= 1 && replicaManager.getMagicAndTimestampType(tp).exists(_._1 > Record.MAGIC_VALUE_V0) &&
             !data.records.hasMatchingShallowMagic(Record.MAGIC_VALUE_V0)) {
             trace(s"Down converting message to V0 for fetch request from $clientId")
             val downConvertedRecords = data.records.toMessageFormat(Record.MAGIC_VALUE_V0, TimestampType.NO_TIMESTAMP_TYPE)
@@ -497,7 +518,9 @@ class KafkaApis(val requestChannel: RequestChannel,
         BrokerTopicStats.getBrokerAllTopicsStats().bytesOutRate.mark(data.records.sizeInBytes)
       }
 
-      val response = new FetchResponse(fetchedPartitionData, 0)
+      // incremental fetch responses only contain the partitions of the fetch session which changed
+      val response = new FetchResponse(fetchContext.error, fetchContext.updateResponseData(fetchedPartitionData), 0,
+        fetchContext.sessionId)
       val responseStruct = response.toStruct(versionId)
 
       def fetchResponseCallback(throttleTimeMs: Int) {
@@ -49,7 +49,7 @@ class KafkaRequestHandler(id: Int,
           // time_window is independent of the number of threads, each recorded idle
           // time should be discounted by # threads.
           val startSelectTime = time.nanoseconds
-          req = requestChannel.receiveRequest(300)
+          req = requestChannel.receiveRequest(300, id)
           val idleTime = time.nanoseconds - startSelectTime
           aggregateIdleMeter.mark(idleTime / totalHandlerThreads)
         }
@@ -61,7 +61,8 @@ class KafkaRequestHandler(id: Int,
         }
         req.requestDequeueTimeMs = time.milliseconds
         trace("Kafka request handler %d on broker %d handling request %s".format(id, brokerId, req))
-        apis.handle(req)
+        try apis.handle(req)
+        finally req.releaseBuffer()
       } catch {
         case e: FatalExitError =>
           latch.countDown()
@@ -23,11 +23,11 @@ import java.util
 import kafka.admin.AdminUtils
 import kafka.cluster.BrokerEndPoint
 import kafka.log.LogConfig
-import kafka.api.{KAFKA_0_10_0_IV0, KAFKA_0_10_1_IV1, KAFKA_0_10_1_IV2, KAFKA_0_9_0}
+import kafka.api.{KAFKA_0_10_0_IV0, KAFKA_0_10_1_IV1, KAFKA_0_10_1_IV2, KAFKA_0_10_3_IV0, KAFKA_0_10_3_IV1, KAFKA_0_9_0}
 import kafka.common.KafkaStorageException
 import ReplicaFetcherThread._
 import kafka.utils.Exit
-import org.apache.kafka.clients.{ClientResponse, ManualMetadataUpdater, NetworkClient}
+import org.apache.kafka.clients.{ClientResponse, FetchSessionHandler, ManualMetadataUpdater, NetworkClient}
 import org.apache.kafka.common.internals.FatalExitError
 import org.apache.kafka.common.network.{ChannelBuilders, NetworkReceive, Selectable, Selector}
 import org.apache.kafka.common.requests.{AbstractRequest, FetchResponse, ListOffsetRequest, ListOffsetResponse}
@@ -60,7 +60,9 @@ class ReplicaFetcherThread(name: String,
   type PD = PartitionData
 
   private val fetchRequestVersion: Short =
-    if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_1_IV1) 3
+    if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_3_IV1) 5
+    else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_3_IV0) 4
+    else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_1_IV1) 3
     else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_10_0_IV0) 2
     else if (brokerConfig.interBrokerProtocolVersion >= KAFKA_0_9_0) 1
     else 0
@@ -70,6 +72,8 @@ class ReplicaFetcherThread(name: String,
   private val minBytes = brokerConfig.replicaFetchMinBytes
   private val maxBytes = brokerConfig.replicaFetchResponseMaxBytes
   private val fetchSize = brokerConfig.replicaFetchMaxBytes
+  // the fetch requests of this thread are sent one at a time, so they can be part of a fetch session with the leader
+  private val fetchSessionHandler = new FetchSessionHandler(sourceBroker.id)
 
   private def clientId = name
 
@@ -134,10 +138,14 @@ class ReplicaFetcherThread(name: String,
         trace("Follower %d has replica log end offset %d after appending %d bytes of messages for partition %s"
           .format(replica.brokerId, replica.logEndOffset.messageOffset, records.sizeInBytes, topicPartition))
       val followerHighWatermark = replica.logEndOffset.messageOffset.min(partitionData.highWatermark)
+      val previousHighWatermark = replica.highWatermark.messageOffset
       // for the follower replica, we do not need to keep
       // its segment base offset the physical position,
       // these values will be computed upon making the leader
       replica.highWatermark = new LogOffsetMetadata(followerHighWatermark)
+      // consumers may be waiting for the high watermark of the follower to advance
+      if (followerHighWatermark > previousHighWatermark)
+        replicaMgr.tryCompleteDelayedFetch(TopicPartitionOperationKey(topicPartition))
       if (logger.isTraceEnabled)
         trace(s"Follower ${replica.brokerId} set replica high watermark for partition $topicPartition to $followerHighWatermark")
       if (quota.isThrottled(topicPartition))
@@ -235,11 +243,22 @@ class ReplicaFetcherThread(name: String,
   }
 
   protected def fetch(fetchRequest: FetchRequest): Seq[(TopicPartition, PartitionData)] = {
-    val clientResponse = sendRequest(fetchRequest.underlying)
-    val fetchResponse = clientResponse.responseBody.asInstanceOf[FetchResponse]
-    fetchResponse.responseData.asScala.toSeq.map { case (key, value) =>
-      key -> new PartitionData(value)
+    val clientResponse = try {
+      sendRequest(fetchRequest.underlying)
+    } catch {
+      case e: Throwable =>
+        if (fetchRequest.usesSession)
+          fetchSessionHandler.handleError(e)
+        throw e
     }
+    val fetchResponse = clientResponse.responseBody.asInstanceOf[FetchResponse]
+    // the partitions of a lost fetch session are fetched again by the next full request
+    if (fetchRequest.usesSession && !fetchSessionHandler.handleResponse(fetchResponse))
+      Seq.empty
+    else
+      fetchResponse.responseData.asScala.toSeq.map { case (key, value) =>
+        key -> new PartitionData(value)
+      }
   }
 
   private def sendRequest(requestBuilder: AbstractRequest.Builder[_ <: AbstractRequest]): ClientResponse = {
@@ -293,7 +312,11 @@ class ReplicaFetcherThread(name: String,
 
     val requestBuilder = JFetchRequest.Builder.forReplica(fetchRequestVersion, replicaId, maxWait, minBytes, requestMap)
       .setMaxBytes(maxBytes)
-    new FetchRequest(requestBuilder)
+    // an empty request is not sent, so it does not take part in the session
+    val usesSession = fetchRequestVersion >= 4 && !requestMap.isEmpty
+    if (usesSession)
+      fetchSessionHandler.prepare(requestBuilder)
+    new FetchRequest(requestBuilder, usesSession)
   }
 
   /**
@@ -308,7 +331,8 @@ class ReplicaFetcherThread(name: String,
 
 object ReplicaFetcherThread {
 
-  private[server] class FetchRequest(val underlying: JFetchRequest.Builder) extends AbstractFetcherThread.FetchRequest {
+  private[server] class FetchRequest(val underlying: JFetchRequest.Builder, val usesSession: Boolean = false)
+    extends AbstractFetcherThread.FetchRequest {
     def isEmpty: Boolean = underlying.fetchData().isEmpty
     def offset(topicPartition: TopicPartition): Long =
       underlying.fetchData().asScala(topicPartition).offset
@@ -294,6 +294,21 @@ class ReplicaManager(val config: KafkaConfig,
   def getReplica(topicPartition: TopicPartition, replicaId: Int = localBrokerId): Option[Replica] =
     getPartition(topicPartition).flatMap(_.getReplica(replicaId))
 
+  /**
+   * Get the local replica a fetch reads from. Consumers which fetch from a follower are told that this broker is not
+   * the leader if it does not have a replica of the partition, so that they update their metadata.
+   */
+  def getReplicaForFetch(topicPartition: TopicPartition, replicaId: Int, fetchOnlyFromLeader: Boolean): Replica = {
+    if (fetchOnlyFromLeader)
+      getLeaderReplicaIfLocal(topicPartition)
+    else if (replicaId == Request.FollowerConsumerId)
+      getReplica(topicPartition).getOrElse {
+        throw new NotLeaderForPartitionException(s"Broker $localBrokerId does not have a replica of partition $topicPartition")
+      }
+    else
+      getReplicaOrException(topicPartition)
+  }
+
   /**
    * Append messages to leader replicas of the partition, and wait for them to be replicated to other replicas;
    * the callback function will be triggered either when timeout or the required acks are satisfied
@@ -440,7 +455,10 @@ class ReplicaManager(val config: KafkaConfig,
                     quota: ReplicaQuota = UnboundedQuota,
                     responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit) {
     val isFromFollower = replicaId >= 0
-    val fetchOnlyFromLeader: Boolean = replicaId != Request.DebuggingConsumerId
+    // consumers which ask for it may also read from a follower, up to its high watermark, so that they can fetch from
+    // their own rack
+    val fetchOnlyFromLeader: Boolean = replicaId != Request.DebuggingConsumerId &&
+      !(replicaId == Request.FollowerConsumerId && config.followerFetchEnable)
     val fetchOnlyCommitted: Boolean = ! Request.isValidBrokerId(replicaId)
 
     // read from local logs
@@ -519,10 +537,7 @@ class ReplicaManager(val config: KafkaConfig,
           (if (minOneMessage) s", ignoring response/partition size limits" else ""))
 
         // decide whether to only fetch from leader
-        val localReplica = if (fetchOnlyFromLeader)
-          getLeaderReplicaIfLocal(tp)
-        else
-          getReplicaOrException(tp)
+        val localReplica = getReplicaForFetch(tp, replicaId, fetchOnlyFromLeader)
 
         // decide whether to only fetch committed data (i.e. messages below high watermark)
         val maxOffsetOpt = if (readOnlyCommitted)
@@ -623,6 +638,9 @@ class ReplicaManager(val config: KafkaConfig,
       replica.log.map(log => (log.config.messageFormatVersion.messageFormatVersion, log.config.messageTimestampType))
     }
 
+  def getCompressionType(topicPartition: TopicPartition): Option[String] =
+    getReplica(topicPartition).flatMap(_.log.map(_.config.compressionType))
+
   def maybeUpdateMetadataCache(correlationId: Int, updateMetadataRequest: UpdateMetadataRequest, metadataCache: MetadataCache) : Seq[TopicPartition] =  {
     replicaStateChangeLock synchronized {
       if(updateMetadataRequest.controllerEpoch < controllerEpoch) {
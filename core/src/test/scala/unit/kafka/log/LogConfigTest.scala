@@ -17,11 +17,13 @@
 
 package kafka.log
 
+import java.nio.{ByteBuffer, ByteOrder}
 import java.util.Properties
 
 import kafka.server.{ThrottledReplicaListValidator, KafkaConfig, KafkaServer}
 import kafka.utils.TestUtils
 import org.apache.kafka.common.config.ConfigException
+import org.apache.kafka.common.record.CompressionDictionary
 import org.junit.{Assert, Test}
 import org.junit.Assert._
 import org.scalatest.Assertions._
@@ -81,6 +83,19 @@ class LogConfigTest {
     })
   }
 
+  @Test
+  def testCompressionDictionary() {
+    assertNull(LogConfig().compressionDictionary)
+    val buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN)
+    buffer.putInt(0xEC30A437)
+    buffer.putInt(42)
+    val dictionary = CompressionDictionary.fromBytes(buffer.array)
+    val props = new Properties
+    props.setProperty(LogConfig.CompressionDictionaryProp, dictionary.toBase64)
+    assertEquals(dictionary, LogConfig(props).compressionDictionary)
+    assertPropertyInvalid(LogConfig.CompressionDictionaryProp, "bm90IGEgZGljdGlvbmFyeQ==")
+  }
+
   @Test
   def shouldValidateThrottledReplicasConfig() {
     assertTrue(isValid("*"))
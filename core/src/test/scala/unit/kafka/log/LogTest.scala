@@ -18,6 +18,7 @@
 package kafka.log
 
 import java.io._
+import java.nio.{ByteBuffer, ByteOrder}
 import java.util.Properties
 
 import org.apache.kafka.common.errors.{CorruptRecordException, OffsetOutOfRangeException, RecordBatchTooLargeException, RecordTooLargeException}
@@ -183,6 +184,59 @@ class LogTest extends JUnitSuite {
     log.append(TestUtils.singletonRecords(value = "test".getBytes, timestamp = time.milliseconds))
   }
 
+  /**
+   * Test that the compression dictionary of the topic config is registered while the log is open
+   */
+  @Test
+  def testCompressionDictionaryIsRegisteredUntilTheLogIsClosed() {
+    val dictionary = compressionDictionary(4242)
+    val logProps = new Properties()
+    logProps.put(LogConfig.CompressionDictionaryProp, dictionary.toBase64)
+    val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time = time)
+    assertEquals(dictionary, CompressionDictionary.forId(4242))
+
+    // the previous dictionary stays registered for the record sets compressed with it
+    val nextDictionary = compressionDictionary(4243)
+    logProps.put(LogConfig.CompressionDictionaryProp, nextDictionary.toBase64)
+    log.config = LogConfig(logProps)
+    log.append(TestUtils.singletonRecords(value = "test".getBytes, timestamp = time.milliseconds))
+    assertEquals(dictionary, CompressionDictionary.forId(4242))
+    assertEquals(nextDictionary, CompressionDictionary.forId(4243))
+
+    log.close()
+    assertNull(CompressionDictionary.forId(4242))
+    assertNull(CompressionDictionary.forId(4243))
+  }
+
+  /**
+   * Test that a compression dictionary which conflicts with a registered one does not prevent the log from being used
+   */
+  @Test
+  def testLogWithConflictingCompressionDictionary() {
+    val registered = compressionDictionary(4244)
+    CompressionDictionary.register(registered)
+    try {
+      val conflicting = compressionDictionary(4244, 1)
+      val logProps = new Properties()
+      logProps.put(LogConfig.CompressionDictionaryProp, conflicting.toBase64)
+      val log = new Log(logDir, LogConfig(logProps), recoveryPoint = 0L, time.scheduler, time = time)
+      log.append(TestUtils.singletonRecords(value = "test".getBytes, timestamp = time.milliseconds))
+      assertEquals(1, log.logEndOffset)
+      log.close()
+      assertEquals(registered, CompressionDictionary.forId(4244))
+    } finally {
+      CompressionDictionary.unregister(registered)
+    }
+  }
+
+  private def compressionDictionary(id: Int, content: Byte = 0): CompressionDictionary = {
+    val buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN)
+    buffer.putInt(0xEC30A437)
+    buffer.putInt(id)
+    buffer.put(63, content)
+    CompressionDictionary.fromBytes(buffer.array)
+  }
+
   /**
    * This test case appends a bunch of messages and checks that we can read them all back using sequential offsets.
    */
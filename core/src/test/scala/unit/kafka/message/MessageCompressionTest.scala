@@ -32,6 +32,8 @@ class MessageCompressionTest extends JUnitSuite {
       codecs += SnappyCompressionCodec
     if(isLZ4Available)
       codecs += LZ4CompressionCodec
+    if(isZstdAvailable)
+      codecs += ZStdCompressionCodec
     for(codec <- codecs)
       testSimpleCompressDecompress(codec)
   }
@@ -77,6 +79,15 @@ class MessageCompressionTest extends JUnitSuite {
     }
   }
 
+  def isZstdAvailable: Boolean = {
+    try {
+      new com.github.luben.zstd.ZstdOutputStream(new ByteArrayOutputStream())
+      true
+    } catch {
+      case _: UnsatisfiedLinkError => false
+    }
+  }
+
   def isLZ4Available: Boolean = {
     try {
       new net.jpountz.lz4.LZ4BlockOutputStream(new ByteArrayOutputStream())
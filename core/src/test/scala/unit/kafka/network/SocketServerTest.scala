@@ -20,7 +20,7 @@ package kafka.network
 import java.io._
 import java.net._
 import java.nio.ByteBuffer
-import java.util.{HashMap, Random}
+import java.util.{Collections, HashMap, Random}
 import javax.net.ssl._
 
 import com.yammer.metrics.core.Gauge
@@ -33,7 +33,7 @@ import org.apache.kafka.common.metrics.Metrics
 import org.apache.kafka.common.network.{ListenerName, NetworkSend}
 import org.apache.kafka.common.protocol.{ApiKeys, SecurityProtocol}
 import org.apache.kafka.common.record.MemoryRecords
-import org.apache.kafka.common.requests.{AbstractRequest, ProduceRequest, RequestHeader}
+import org.apache.kafka.common.requests.{AbstractRequest, ProduceRequest, RequestHeader, StopReplicaRequest}
 import org.apache.kafka.common.security.auth.KafkaPrincipal
 import org.apache.kafka.common.utils.Time
 import org.junit.Assert._
@@ -261,6 +261,132 @@ class SocketServerTest extends JUnitSuite {
     }
   }
 
+  @Test
+  def testRequestsAreNotReadUntilMemoryIsReleased() {
+    val serializedBytes = producerRequestBytes
+    val overrideProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    overrideProps.put(KafkaConfig.QueuedMaxRequestBytesProp, serializedBytes.length.toString)
+    val serverMetrics = new Metrics()
+    val overrideServer = new SocketServer(KafkaConfig.fromProps(overrideProps), serverMetrics, Time.SYSTEM, credentialProvider)
+    try {
+      overrideServer.startup()
+      val socket1 = connect(overrideServer)
+      val socket2 = connect(overrideServer)
+
+      sendRequest(socket1, serializedBytes)
+      val request = overrideServer.requestChannel.receiveRequest(2000)
+      assertNotNull(request)
+
+      // the first request takes all the memory, so the second one is only read once the first one is released
+      sendRequest(socket2, serializedBytes)
+      assertNull(overrideServer.requestChannel.receiveRequest(500))
+      request.releaseBuffer()
+      val secondRequest = overrideServer.requestChannel.receiveRequest(2000)
+      assertNotNull(secondRequest)
+      secondRequest.releaseBuffer()
+    } finally {
+      overrideServer.shutdown()
+      serverMetrics.close()
+    }
+  }
+
+  @Test
+  def testHandlersStealRequestsOfOtherQueues() {
+    val overrideProps = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect, port = 0)
+    overrideProps.put(KafkaConfig.NumNetworkThreadsProp, "1")
+    overrideProps.put(KafkaConfig.NumRequestQueuesProp, "2")
+    val serverMetrics = new Metrics()
+    val overrideServer = new SocketServer(KafkaConfig.fromProps(overrideProps), serverMetrics, Time.SYSTEM, credentialProvider)
+    try {
+      overrideServer.startup()
+      val socket = connect(overrideServer)
+
+      // the requests of the only processor go to the first queue, so the handler of the second queue has to steal them
+      sendRequest(socket, producerRequestBytes)
+      val request = overrideServer.requestChannel.receiveRequest(2000, 1)
+      assertNotNull(request)
+      assertEquals(0, request.processor)
+      request.releaseBuffer()
+      assertNull(overrideServer.requestChannel.receiveRequest(100, 1))
+    } finally {
+      overrideServer.shutdown()
+      serverMetrics.close()
+    }
+  }
+
+  private def request(apiKey: ApiKeys, body: AbstractRequest, correlationId: Int,
+                      listenerName: ListenerName = new ListenerName("")): RequestChannel.Request = {
+    val buffer = body.serialize(new RequestHeader(apiKey.id, body.version, "", correlationId))
+    buffer.rewind()
+    RequestChannel.Request(processor = 0, connectionId = "0", RequestChannel.Session(KafkaPrincipal.ANONYMOUS,
+      InetAddress.getLocalHost), buffer = buffer, startTimeMs = 0,
+      listenerName = listenerName, securityProtocol = SecurityProtocol.PLAINTEXT)
+  }
+
+  @Test
+  def testControlPlaneRequestsAreHandledFirst() {
+    val interBrokerListenerName = new ListenerName("REPLICATION")
+    val channel = new RequestChannel(1, 10, controlPlaneListenerName = Some(interBrokerListenerName))
+    val produceRequest = new ProduceRequest.Builder(0, 0, new HashMap[TopicPartition, MemoryRecords]()).build()
+    val stopReplicaRequest = new StopReplicaRequest.Builder(0, 0, false, Collections.emptySet[TopicPartition]).build()
+
+    channel.sendRequest(request(ApiKeys.PRODUCE, produceRequest, 1, interBrokerListenerName))
+    channel.sendRequest(request(ApiKeys.STOP_REPLICA, stopReplicaRequest, 2, interBrokerListenerName))
+    assertEquals(2, channel.receiveRequest(100).header.correlationId)
+    assertEquals(1, channel.receiveRequest(100).header.correlationId)
+    assertNull(channel.receiveRequest(100))
+  }
+
+  @Test
+  def testControlPlaneRequestsOfOtherListenersAreNotHandledFirst() {
+    val channel = new RequestChannel(1, 10, controlPlaneListenerName = Some(new ListenerName("REPLICATION")))
+    val produceRequest = new ProduceRequest.Builder(0, 0, new HashMap[TopicPartition, MemoryRecords]()).build()
+    val stopReplicaRequest = new StopReplicaRequest.Builder(0, 0, false, Collections.emptySet[TopicPartition]).build()
+
+    channel.sendRequest(request(ApiKeys.PRODUCE, produceRequest, 1, new ListenerName("CLIENT")))
+    channel.sendRequest(request(ApiKeys.STOP_REPLICA, stopReplicaRequest, 2, new ListenerName("CLIENT")))
+    assertEquals(1, channel.receiveRequest(100).header.correlationId)
+    assertEquals(2, channel.receiveRequest(100).header.correlationId)
+    assertNull(channel.receiveRequest(100))
+  }
+
+  @Test
+  def testControlPlaneRequestsAreQueuedWithOtherRequestsOnceTheirQueueIsFull() {
+    val interBrokerListenerName = new ListenerName("REPLICATION")
+    val channel = new RequestChannel(1, 10, controlPlaneListenerName = Some(interBrokerListenerName))
+    val produceRequest = new ProduceRequest.Builder(0, 0, new HashMap[TopicPartition, MemoryRecords]()).build()
+    val stopReplicaRequest = new StopReplicaRequest.Builder(0, 0, false, Collections.emptySet[TopicPartition]).build()
+
+    // the control plane queue holds a single request per processor
+    channel.sendRequest(request(ApiKeys.PRODUCE, produceRequest, 1, interBrokerListenerName))
+    channel.sendRequest(request(ApiKeys.STOP_REPLICA, stopReplicaRequest, 2, interBrokerListenerName))
+    channel.sendRequest(request(ApiKeys.STOP_REPLICA, stopReplicaRequest, 3, interBrokerListenerName))
+    assertEquals(2, channel.receiveRequest(100).header.correlationId)
+    assertEquals(1, channel.receiveRequest(100).header.correlationId)
+    assertEquals(3, channel.receiveRequest(100).header.correlationId)
+    assertNull(channel.receiveRequest(100))
+  }
+
+  @Test
+  def testProcessorIsOnlyWokenUpForFirstPendingResponse() {
+    val channel = new RequestChannel(1, 10)
+    var wakeups = 0
+    channel.addResponseListener(_ => wakeups += 1)
+    val produceRequest = new ProduceRequest.Builder(0, 0, new HashMap[TopicPartition, MemoryRecords]()).build()
+
+    channel.noOperation(0, request(ApiKeys.PRODUCE, produceRequest, 1))
+    channel.noOperation(0, request(ApiKeys.PRODUCE, produceRequest, 2))
+    assertEquals(1, wakeups)
+
+    assertEquals(1, channel.receiveResponse(0).request.header.correlationId)
+    assertEquals(2, channel.receiveResponse(0).request.header.correlationId)
+    assertNull(channel.receiveResponse(0))
+
+    // the processor has found its queue empty, so it is woken up again
+    channel.noOperation(0, request(ApiKeys.PRODUCE, produceRequest, 3))
+    assertEquals(2, wakeups)
+  }
+
   @Test
   def testSslSocketServer() {
     val trustStoreFile = File.createTempFile("truststore", ".jks")
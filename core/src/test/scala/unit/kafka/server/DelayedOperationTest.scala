@@ -17,6 +17,7 @@
 
 package kafka.server
 
+import kafka.utils.timer.SystemTimer
 import org.apache.kafka.common.utils.Time
 import org.junit.{After, Before, Test}
 import org.junit.Assert._
@@ -99,6 +100,31 @@ class DelayedOperationTest {
     assertEquals("Purgatory should have 1 watched elements instead of " + purgatory.watched(), 1, purgatory.watched())
   }
 
+  @Test
+  def testShardsArePurgedIncrementally() {
+    val shardedPurgatory = new DelayedOperationPurgatory[MockDelayedOperation]("mock-sharded", new SystemTimer("mock-sharded"),
+      purgeInterval = 0, reaperEnabled = false, numShards = 2)
+    try {
+      val r1 = new MockDelayedOperation(100000L)
+      val r2 = new MockDelayedOperation(100000L)
+      // the keys hash to different shards
+      shardedPurgatory.tryCompleteElseWatch(r1, Array("a"))
+      shardedPurgatory.tryCompleteElseWatch(r2, Array("b"))
+
+      // completed operations remain watched until they are purged
+      r1.forceComplete()
+      r2.forceComplete()
+      assertEquals(2, shardedPurgatory.watched())
+
+      shardedPurgatory.advanceClock(0)
+      assertEquals("A single shard should be purged at a time", 1, shardedPurgatory.watched())
+      shardedPurgatory.advanceClock(0)
+      assertEquals(0, shardedPurgatory.watched())
+    } finally {
+      shardedPurgatory.shutdown()
+    }
+  }
+
   class MockDelayedOperation(delayMs: Long) extends DelayedOperation(delayMs) {
     var completable = false
 
@@ -20,6 +20,7 @@ import java.util
 import java.util.Properties
 
 import kafka.log.LogConfig
+import kafka.message.ZStdCompressionCodec
 import kafka.utils.TestUtils
 import kafka.utils.TestUtils._
 import org.apache.kafka.clients.producer.{KafkaProducer, ProducerRecord}
@@ -28,6 +29,7 @@ import org.apache.kafka.common.protocol.{ApiKeys, Errors}
 import org.apache.kafka.common.record.LogEntry
 import org.apache.kafka.common.requests.{FetchRequest, FetchResponse}
 import org.apache.kafka.common.serialization.StringSerializer
+import org.apache.kafka.common.utils.Utils
 import org.junit.Assert._
 import org.junit.Test
 
@@ -166,6 +168,27 @@ class FetchRequestTest extends BaseRequestTest {
     assertEquals(0, logEntries(partitionData).map(_.sizeInBytes).sum)
   }
 
+  @Test
+  def testFetchRequestV4WithZStdMessages(): Unit = {
+    val topicConfig = new Properties
+    topicConfig.setProperty(LogConfig.CompressionTypeProp, ZStdCompressionCodec.name)
+    val leaderId = createTopic(zkUtils, "zstd", numPartitions = 1, replicationFactor = 2, servers = servers,
+      topicConfig = topicConfig)(0).get
+    val topicPartition = new TopicPartition("zstd", 0)
+    producer.send(new ProducerRecord(topicPartition.topic, topicPartition.partition, "key", "value")).get
+
+    // consumers which send fetch requests older than version 5 cannot decompress zstd messages
+    val v4PartitionData = sendFetchRequest(leaderId, FetchRequest.Builder.forConsumer(Int.MaxValue, 0,
+      createPartitionMap(1024, Seq(topicPartition))).build(4)).responseData.get(topicPartition)
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE, v4PartitionData.error)
+    assertEquals(0, v4PartitionData.records.sizeInBytes)
+
+    val v5PartitionData = sendFetchRequest(leaderId, FetchRequest.Builder.forConsumer(Int.MaxValue, 0,
+      createPartitionMap(1024, Seq(topicPartition))).build(5)).responseData.get(topicPartition)
+    assertEquals(Errors.NONE, v5PartitionData.error)
+    assertEquals(Seq("value"), logEntries(v5PartitionData).map(entry => Utils.utf8(entry.record.value)))
+  }
+
   private def logEntries(partitionData: FetchResponse.PartitionData): Seq[LogEntry] = {
     partitionData.records.deepEntries.asScala.toIndexedSeq
   }
@@ -0,0 +1,154 @@
+/**
+  * Licensed to the Apache Software Foundation (ASF) under one or more
+  * contributor license agreements.  See the NOTICE file distributed with
+  * this work for additional information regarding copyright ownership.
+  * The ASF licenses this file to You under the Apache License, Version 2.0
+  * (the "License"); you may not use this file except in compliance with
+  * the License.  You may obtain a copy of the License at
+  *
+  * http://www.apache.org/licenses/LICENSE-2.0
+  *
+  * Unless required by applicable law or agreed to in writing, software
+  * distributed under the License is distributed on an "AS IS" BASIS,
+  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  * See the License for the specific language governing permissions and
+  * limitations under the License.
+  */
+package kafka.server
+
+import java.util
+
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.protocol.Errors
+import org.apache.kafka.common.record.{MemoryRecords, Record}
+import org.apache.kafka.common.requests.{FetchRequest, FetchResponse, FetchMetadata => JFetchMetadata}
+import org.apache.kafka.common.security.auth.KafkaPrincipal
+import org.apache.kafka.common.utils.MockTime
+import org.junit.Assert.{assertEquals, assertFalse, assertTrue}
+import org.junit.Test
+
+import scala.collection.JavaConverters._
+
+class FetchSessionTest {
+  private val time = new MockTime
+  private val tp0 = new TopicPartition("foo", 0)
+  private val tp1 = new TopicPartition("foo", 1)
+  private val tp2 = new TopicPartition("bar", 0)
+  private val principal = KafkaPrincipal.ANONYMOUS
+
+  @Test
+  def testIncrementalFetchSession() {
+    val cache = new FetchSessionCache(10, 1000, time)
+    val full = cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L, tp1 -> 0L)), principal)
+    assertTrue(full.isInstanceOf[FullFetchContext])
+    assertEquals(Seq(tp0, tp1), full.fetchData.map(_._1))
+    val sessionId = full.sessionId
+    assertTrue(sessionId != JFetchMetadata.INVALID_SESSION_ID)
+
+    // full responses contain all the partitions
+    val fullResponse = full.updateResponseData(responseData(tp0 -> (10L, false), tp1 -> (20L, false)))
+    assertEquals(Seq(tp0, tp1), fullResponse.keySet.asScala.toSeq)
+
+    // the session keeps the partitions which are not sent again
+    val incremental = cache.newContext(request(new JFetchMetadata(sessionId, 1), fetchData(tp2 -> 5L), Seq(tp0)), principal)
+    assertTrue(incremental.isInstanceOf[IncrementalFetchContext])
+    assertEquals(Seq(tp1 -> 0L, tp2 -> 5L), incremental.fetchData.map { case (tp, data) => tp -> data.offset })
+
+    // only the partitions with records or a changed high watermark are returned
+    val incrementalResponse = incremental.updateResponseData(responseData(tp1 -> (20L, false), tp2 -> (30L, true)))
+    assertEquals(Seq(tp2), incrementalResponse.keySet.asScala.toSeq)
+  }
+
+  @Test
+  def testInvalidSessionAndEpoch() {
+    val cache = new FetchSessionCache(10, 1000, time)
+    val sessionId = cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L)), principal).sessionId
+
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND,
+      cache.newContext(request(new JFetchMetadata(sessionId + 1, 1), fetchData()), principal).error)
+    assertEquals(Errors.INVALID_FETCH_SESSION_EPOCH,
+      cache.newContext(request(new JFetchMetadata(sessionId, 2), fetchData()), principal).error)
+    assertEquals(Errors.NONE, cache.newContext(request(new JFetchMetadata(sessionId, 1), fetchData()), principal).error)
+
+    // a full request with the final epoch closes the session
+    val sessionless = cache.newContext(request(new JFetchMetadata(sessionId, JFetchMetadata.FINAL_EPOCH), fetchData(tp0 -> 0L)), principal)
+    assertEquals(JFetchMetadata.INVALID_SESSION_ID, sessionless.sessionId)
+    assertEquals(0, cache.size)
+  }
+
+  @Test
+  def testRecentlyUsedSessionsAreNotEvicted() {
+    val cache = new FetchSessionCache(1, 1000, time)
+    assertTrue(cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L)), principal).isInstanceOf[FullFetchContext])
+    assertTrue(cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp1 -> 0L)), principal).isInstanceOf[SessionlessFetchContext])
+
+    time.sleep(1000)
+    assertTrue(cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp1 -> 0L)), principal).isInstanceOf[FullFetchContext])
+    assertEquals(1, cache.size)
+  }
+
+  @Test
+  def testPartitionsWhichReturnedRecordsAreOnlyFetchedOnceSentAgain() {
+    val cache = new FetchSessionCache(10, 1000, time)
+    val full = cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L, tp1 -> 0L)), principal)
+    full.updateResponseData(responseData(tp0 -> (10L, true), tp1 -> (10L, false)))
+
+    val incremental = cache.newContext(request(new JFetchMetadata(full.sessionId, 1), fetchData()), principal)
+    assertEquals(Seq(tp1), incremental.fetchData.map(_._1))
+    incremental.updateResponseData(responseData(tp1 -> (10L, false)))
+
+    val next = cache.newContext(request(new JFetchMetadata(full.sessionId, 2), fetchData(tp0 -> 1L)), principal)
+    assertEquals(Seq(tp1 -> 0L, tp0 -> 1L), next.fetchData.map { case (tp, data) => tp -> data.offset })
+  }
+
+  @Test
+  def testSessionsCanOnlyBeUsedByTheirOwner() {
+    val cache = new FetchSessionCache(10, 1000, time)
+    val sessionId = cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L)), principal).sessionId
+    val other = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "other")
+
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND,
+      cache.newContext(request(new JFetchMetadata(sessionId, 1), fetchData()), other).error)
+    assertEquals(Errors.FETCH_SESSION_ID_NOT_FOUND,
+      cache.newContext(request(new JFetchMetadata(sessionId, 1), fetchData(), replicaId = 1), principal).error)
+
+    // a full request of another client does not close the session
+    cache.newContext(request(new JFetchMetadata(sessionId, JFetchMetadata.FINAL_EPOCH), fetchData(tp0 -> 0L)), other)
+    // consumers may ask to fetch from followers in some requests of their session only
+    assertEquals(Errors.NONE, cache.newContext(request(new JFetchMetadata(sessionId, 1), fetchData(),
+      replicaId = FetchRequest.FOLLOWER_CONSUMER_REPLICA_ID), principal).error)
+  }
+
+  @Test
+  def testNewSessionClosesThePreviousSession() {
+    val cache = new FetchSessionCache(1, 1000, time)
+    val sessionId = cache.newContext(request(JFetchMetadata.INITIAL, fetchData(tp0 -> 0L)), principal).sessionId
+
+    // the previous session does not take the only slot until it is evicted
+    val full = cache.newContext(request(new JFetchMetadata(sessionId, JFetchMetadata.INITIAL_EPOCH), fetchData(tp0 -> 0L)), principal)
+    assertTrue(full.isInstanceOf[FullFetchContext])
+    assertFalse(full.sessionId == sessionId)
+    assertEquals(1, cache.size)
+  }
+
+  private def request(metadata: JFetchMetadata,
+                      fetchData: util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData],
+                      toForget: Seq[TopicPartition] = Seq.empty,
+                      replicaId: Int = FetchRequest.CONSUMER_REPLICA_ID): FetchRequest =
+    FetchRequest.Builder.forReplica(4, replicaId, 100, 1, fetchData).setSession(metadata, fetchData, toForget.asJava).build()
+
+  private def fetchData(offsets: (TopicPartition, Long)*): util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData] = {
+    val fetchData = new util.LinkedHashMap[TopicPartition, FetchRequest.PartitionData]
+    offsets.foreach { case (tp, offset) => fetchData.put(tp, new FetchRequest.PartitionData(offset, 1000)) }
+    fetchData
+  }
+
+  private def responseData(partitions: (TopicPartition, (Long, Boolean))*): util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData] = {
+    val responseData = new util.LinkedHashMap[TopicPartition, FetchResponse.PartitionData]
+    partitions.foreach { case (tp, (highWatermark, hasRecords)) =>
+      val records = if (hasRecords) MemoryRecords.withRecords(Record.create("value".getBytes)) else MemoryRecords.EMPTY
+      responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, highWatermark, records))
+    }
+    responseData
+  }
+}
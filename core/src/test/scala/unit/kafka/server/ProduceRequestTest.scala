@@ -87,6 +87,26 @@ class ProduceRequestTest extends BaseRequestTest {
     assertEquals(-1, partitionResponse.logAppendTime)
   }
 
+  @Test
+  def testZStdProduceRequestRequiresVersion3() {
+    val (partition, leader) = createTopicAndFindPartitionWithLeader("topic")
+    val topicPartition = new TopicPartition("topic", partition)
+    val memoryRecords = MemoryRecords.withRecords(CompressionType.ZSTD,
+      Record.create(System.currentTimeMillis(), "key".getBytes, "value".getBytes))
+    val request = new ProduceRequest.Builder(-1, 3000, Map(topicPartition -> memoryRecords).asJava).build()
+
+    // the builder refuses to build older versions with zstd records, so send the same struct as version 2
+    val v2Response = ProduceResponse.parse(connectAndSendStruct(request.toStruct, ApiKeys.PRODUCE, 2,
+      brokerSocketServer(leader)), 2)
+    val v2PartitionResponse = v2Response.responses.get(topicPartition)
+    assertEquals(Errors.UNSUPPORTED_COMPRESSION_TYPE, v2PartitionResponse.error)
+    assertEquals(-1, v2PartitionResponse.baseOffset)
+
+    val v3PartitionResponse = sendProduceRequest(leader, request).responses.get(topicPartition)
+    assertEquals(Errors.NONE, v3PartitionResponse.error)
+    assertEquals(0, v3PartitionResponse.baseOffset)
+  }
+
   private def sendProduceRequest(leaderId: Int, request: ProduceRequest): ProduceResponse = {
     val response = connectAndSend(request, ApiKeys.PRODUCE, destination = brokerSocketServer(leaderId))
     ProduceResponse.parse(response, request.version)
@@ -21,6 +21,7 @@ import java.io.File
 import java.util.Properties
 import java.util.concurrent.atomic.AtomicBoolean
 
+import kafka.api.Request
 import kafka.cluster.Broker
 import kafka.log.LogConfig
 import kafka.utils.{MockScheduler, MockTime, TestUtils, ZkUtils}
@@ -275,4 +276,116 @@ class ReplicaManagerTest {
       rm.shutdown(checkpointHW = false)
     }
   }
+
+  @Test
+  def testConsumerFetchFromFollower() {
+    val rm = followerReplicaManager()
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val replica = rm.getReplica(tp).get
+      replica.log.get.append(MemoryRecords.withRecords(Record.create("first message".getBytes)))
+      replica.log.get.append(MemoryRecords.withRecords(Record.create("second message".getBytes)))
+      replica.highWatermark = new LogOffsetMetadata(1)
+
+      // consumers which did not ask to fetch from a follower are told to update their metadata
+      assertEquals(Errors.NOT_LEADER_FOR_PARTITION, fetch(rm, Request.OrdinaryConsumerId, tp, 0).error)
+
+      // consumers which asked for it fetch up to the high watermark of the follower
+      val fromFollower = fetch(rm, Request.FollowerConsumerId, tp, 0)
+      assertEquals(Errors.NONE, fromFollower.error)
+      assertEquals(Seq(0L), fromFollower.records.shallowEntries.asScala.map(_.offset).toSeq)
+
+      // a broker without a replica of the partition is not the leader either
+      assertEquals(Errors.NOT_LEADER_FOR_PARTITION,
+        fetch(rm, Request.FollowerConsumerId, new TopicPartition(topic, 1), 0).error)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testFollowerFetchDisabled() {
+    val rm = followerReplicaManager(followerFetchEnable = false)
+    try {
+      assertEquals(Errors.NOT_LEADER_FOR_PARTITION, fetch(rm, Request.FollowerConsumerId, new TopicPartition(topic, 0), 0).error)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  @Test
+  def testDelayedConsumerFetchFromFollower() {
+    val rm = followerReplicaManager()
+    try {
+      val tp = new TopicPartition(topic, 0)
+      val replica = rm.getReplica(tp).get
+      replica.log.get.append(MemoryRecords.withRecords(Record.create("first message".getBytes)))
+      replica.highWatermark = new LogOffsetMetadata(1)
+
+      var fetched: Option[FetchPartitionData] = None
+      rm.fetchMessages(
+        timeout = 1000,
+        replicaId = Request.FollowerConsumerId,
+        fetchMinBytes = 1,
+        fetchMaxBytes = Int.MaxValue,
+        hardMaxBytesLimit = false,
+        fetchInfos = Seq(tp -> new PartitionData(1, 100000)),
+        responseCallback = responseStatus => fetched = Some(responseStatus.head._2))
+      assertEquals(None, fetched)
+
+      // the delayed fetch completes once the high watermark of the follower advances past the fetch offset
+      replica.log.get.append(MemoryRecords.withRecords(Record.create("second message".getBytes)))
+      rm.tryCompleteDelayedFetch(new TopicPartitionOperationKey(tp))
+      assertEquals(None, fetched)
+      replica.highWatermark = new LogOffsetMetadata(2)
+      rm.tryCompleteDelayedFetch(new TopicPartitionOperationKey(tp))
+      assertEquals(Errors.NONE, fetched.get.error)
+      assertEquals(Seq(1L), fetched.get.records.shallowEntries.asScala.map(_.offset).toSeq)
+    } finally {
+      rm.shutdown(checkpointHW = false)
+    }
+  }
+
+  /**
+   * Create a replica manager of broker 0 which is a follower of partition 0 of the topic, whose leader is broker 1
+   */
+  private def followerReplicaManager(followerFetchEnable: Boolean = true): ReplicaManager = {
+    val props = TestUtils.createBrokerConfig(0, TestUtils.MockZkConnect)
+    props.put("log.dir", TestUtils.tempRelativeDir("data").getAbsolutePath)
+    props.put(KafkaConfig.FollowerFetchEnableProp, followerFetchEnable.toString)
+    val config = KafkaConfig.fromProps(props)
+    val logProps = new Properties()
+    logProps.put(LogConfig.MessageTimestampDifferenceMaxMsProp, Long.MaxValue.toString)
+    val mockLogMgr = TestUtils.createLogManager(config.logDirs.map(new File(_)).toArray, LogConfig(logProps))
+    val rm = new ReplicaManager(config, metrics, time, zkUtils, new MockScheduler(time), mockLogMgr,
+      new AtomicBoolean(false), QuotaFactory.instantiate(config, metrics, time).follower)
+
+    val aliveBrokers = Seq(createBroker(0, "host0", 0), createBroker(1, "host1", 1))
+    val metadataCache = EasyMock.createMock(classOf[MetadataCache])
+    EasyMock.expect(metadataCache.getAliveBrokers).andReturn(aliveBrokers).anyTimes()
+    EasyMock.replay(metadataCache)
+
+    val brokerList: java.util.List[Integer] = Seq[Integer](0, 1).asJava
+    val brokerSet: java.util.Set[Integer] = Set[Integer](0, 1).asJava
+    val partition = rm.getOrCreatePartition(new TopicPartition(topic, 0))
+    partition.getOrCreateReplica(0)
+    val leaderAndIsrRequest = new LeaderAndIsrRequest.Builder(0, 0,
+      collection.immutable.Map(new TopicPartition(topic, 0) -> new PartitionState(0, 1, 0, brokerList, 0, brokerSet)).asJava,
+      Set(new Node(0, "host0", 0), new Node(1, "host1", 1)).asJava).build()
+    rm.becomeLeaderOrFollower(0, leaderAndIsrRequest, metadataCache, (_, _) => {})
+    rm
+  }
+
+  private def fetch(rm: ReplicaManager, replicaId: Int, tp: TopicPartition, offset: Long): FetchPartitionData = {
+    var fetched: Option[FetchPartitionData] = None
+    rm.fetchMessages(
+      timeout = 0,
+      replicaId = replicaId,
+      fetchMinBytes = 0,
+      fetchMaxBytes = Int.MaxValue,
+      hardMaxBytesLimit = false,
+      fetchInfos = Seq(tp -> new PartitionData(offset, 100000)),
+      responseCallback = responseStatus => fetched = Some(responseStatus.head._2))
+    fetched.get
+  }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.common;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.requests.ProduceRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and parsing of a produce request through the protocol {@link Struct}, which is the path every request
+ * and response takes on both the clients and the broker.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StructBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int partitionCount;
+
+    private ProduceRequest request;
+    private ByteBuffer serialized;
+    private short version;
+
+    @Setup
+    public void setup() {
+        Map<TopicPartition, MemoryRecords> partitionRecords = new HashMap<>();
+        for (int i = 0; i < partitionCount; i++) {
+            MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.NONE,
+                    TimestampType.CREATE_TIME);
+            for (int j = 0; j < 5; j++)
+                builder.append(0L, "key".getBytes(), "value".getBytes());
+            partitionRecords.put(new TopicPartition("topic-" + (i % 10), i), builder.build());
+        }
+        version = ApiKeys.PRODUCE.latestVersion();
+        request = new ProduceRequest.Builder((short) 1, 5000, partitionRecords).build(version);
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public ByteBuffer serialize() {
+        Struct struct = request.toStruct();
+        ByteBuffer buffer = ByteBuffer.allocate(struct.sizeOf());
+        struct.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public ProduceRequest parse() {
+        return ProduceRequest.parse(serialized.duplicate(), version);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.consumer;
+
+import org.apache.kafka.clients.Metadata;
+import org.apache.kafka.clients.MockClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient;
+import org.apache.kafka.clients.consumer.internals.Fetcher;
+import org.apache.kafka.clients.consumer.internals.SubscriptionState;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.utils.MockTime;
+import org.apache.kafka.test.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the consumer side handling of a fetch response: a single fetch round trip against a mock client followed
+ * by {@link Fetcher#fetchedRecords()}, which is dominated by the decompression and deserialization of the completed
+ * fetch.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FetcherBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    @Param({"NONE", "GZIP", "SNAPPY", "LZ4", "ZSTD"})
+    private CompressionType compressionType;
+
+    @Param({"100", "1000"})
+    private int recordCount;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    private final TopicPartition tp = new TopicPartition(TOPIC, 0);
+    private final MockTime time = new MockTime();
+    private Metrics metrics;
+    private MockClient client;
+    private ConsumerNetworkClient consumerClient;
+    private SubscriptionState subscriptions;
+    private Fetcher<byte[], byte[]> fetcher;
+    private FetchResponse response;
+
+    @Setup
+    public void setup() {
+        Cluster cluster = TestUtils.singletonCluster(TOPIC, 1);
+        Node node = cluster.nodes().get(0);
+        Metadata metadata = new Metadata(0, Long.MAX_VALUE);
+        metadata.update(cluster, Collections.<String>emptySet(), time.milliseconds());
+
+        client = new MockClient(time, metadata);
+        client.setNode(node);
+        consumerClient = new ConsumerNetworkClient(client, metadata, time, 100, 1000);
+        subscriptions = new SubscriptionState(OffsetResetStrategy.EARLIEST);
+        subscriptions.assignFromUser(Collections.singleton(tp));
+        metrics = new Metrics(time);
+        fetcher = new Fetcher<>(consumerClient, 1, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, 1, "",
+                MemoryPool.NONE, true, null, new ByteArrayDeserializer(), new ByteArrayDeserializer(), metadata,
+                subscriptions, metrics, "consumer", time, 100);
+
+        byte[] value = new byte[valueSize];
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(recordCount * (valueSize + 64)),
+                compressionType, TimestampType.CREATE_TIME);
+        for (int i = 0; i < recordCount; i++)
+            builder.append(time.milliseconds(), null, value);
+        MemoryRecords records = builder.build();
+        response = new FetchResponse(new LinkedHashMap<>(Collections.singletonMap(tp,
+                new FetchResponse.PartitionData(Errors.NONE, recordCount, records))), 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Benchmark
+    public Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> fetchAndParse() {
+        subscriptions.seek(tp, 0);
+        fetcher.sendFetches();
+        client.prepareResponse(response);
+        consumerClient.poll(0);
+        return fetcher.fetchedRecords();
+    }
+}
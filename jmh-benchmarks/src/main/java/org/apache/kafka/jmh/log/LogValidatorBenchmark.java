@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.common.LongRef;
+import kafka.log.LogValidator;
+import kafka.message.CompressionCodec;
+import kafka.message.CompressionCodec$;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation and offset assignment of a produced batch on the broker, for every combination of producer and topic
+ * compression. Mismatching codecs force the broker to decompress and recompress the whole batch.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogValidatorBenchmark {
+
+    @Param({"NONE", "GZIP", "LZ4"})
+    private CompressionType sourceCompression;
+
+    @Param({"NONE", "GZIP", "LZ4"})
+    private CompressionType targetCompression;
+
+    @Param({"100", "1000"})
+    private int recordCount;
+
+    @Param({"100"})
+    private int valueSize;
+
+    private ByteBuffer original;
+    private ByteBuffer buffer;
+    private CompressionCodec sourceCodec;
+    private CompressionCodec targetCodec;
+
+    @Setup
+    public void setup() {
+        byte[] value = new byte[valueSize];
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(recordCount * (valueSize + 64)),
+                sourceCompression, TimestampType.CREATE_TIME);
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < recordCount; i++)
+            builder.append(timestamp, null, value);
+        original = builder.build().buffer();
+        buffer = ByteBuffer.allocate(original.remaining());
+        sourceCodec = CompressionCodec$.MODULE$.getCompressionCodec(sourceCompression.id);
+        targetCodec = CompressionCodec$.MODULE$.getCompressionCodec(targetCompression.id);
+    }
+
+    /**
+     * Offsets (and possibly timestamps) are assigned in place, so every invocation validates a fresh copy.
+     */
+    @Setup(Level.Invocation)
+    public void resetRecords() {
+        buffer.clear();
+        buffer.put(original.duplicate());
+        buffer.flip();
+    }
+
+    @Benchmark
+    public MemoryRecords validateMessagesAndAssignOffsets() {
+        return LogValidator.validateMessagesAndAssignOffsets(MemoryRecords.readableRecords(buffer), new LongRef(0L),
+                System.currentTimeMillis(), sourceCodec, targetCodec, false, Record.CURRENT_MAGIC_VALUE,
+                TimestampType.CREATE_TIME, Long.MAX_VALUE, null).validatedRecords();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.log;
+
+import kafka.log.OffsetIndex;
+import kafka.log.OffsetPosition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a populated offset index. Every lookup is a binary search over the memory mapped index file in
+ * {@code AbstractIndex.indexSlotFor}, which is done for every fetch and for every offset-for-time request.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OffsetIndexBenchmark {
+
+    private static final int OFFSET_INTERVAL = 10;
+    private static final int BYTES_INTERVAL = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    private int entries;
+
+    private File file;
+    private OffsetIndex index;
+    private long maxOffset;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("kafka-jmh", ".index");
+        file.delete();
+        index = new OffsetIndex(file, 0L, entries * 8);
+        for (int i = 0; i < entries; i++)
+            index.append((long) i * OFFSET_INTERVAL, i * BYTES_INTERVAL);
+        maxOffset = (long) entries * OFFSET_INTERVAL;
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+        index.delete();
+    }
+
+    @Benchmark
+    public OffsetPosition lookup() {
+        return index.lookup(ThreadLocalRandom.current().nextLong(maxOffset));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.RecordBatch;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.test.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the accumulator with {@link RecordAccumulator#append} across a number of partitions and then hands all the
+ * batches to a single node with {@link RecordAccumulator#ready} and {@link RecordAccumulator#drain}, completing and
+ * deallocating them like the sender does once the produce response arrives.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordAccumulatorBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 16384;
+    private static final long TOTAL_SIZE = 32 * 1024 * 1024L;
+
+    @Param({"1", "10", "100"})
+    private int partitionCount;
+
+    @Param({"1000"})
+    private int recordsPerDrain;
+
+    @Param({"NONE", "LZ4"})
+    private CompressionType compressionType;
+
+    @Param({"100"})
+    private int valueSize;
+
+    private Metrics metrics;
+    private Cluster cluster;
+    private RecordAccumulator accumulator;
+    private TopicPartition[] partitions;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        metrics = new Metrics(Time.SYSTEM);
+        cluster = TestUtils.singletonCluster(TOPIC, partitionCount);
+        accumulator = new RecordAccumulator(BATCH_SIZE, TOTAL_SIZE, compressionType, 0L, 100L, metrics, Time.SYSTEM);
+        partitions = new TopicPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++)
+            partitions[i] = new TopicPartition(TOPIC, i);
+        value = new byte[valueSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        accumulator.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public int appendAndDrain() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < recordsPerDrain; i++)
+            accumulator.append(partitions[i % partitionCount], now, null, value, null, 0L);
+
+        // a drain only takes a single batch of each partition, so drain until all the batches are gone
+        int batches = 0;
+        int drainedBatches;
+        do {
+            RecordAccumulator.ReadyCheckResult result = accumulator.ready(cluster, now);
+            Map<Integer, List<RecordBatch>> drained = accumulator.drain(cluster, result.readyNodes, Integer.MAX_VALUE, now);
+            drainedBatches = 0;
+            for (List<RecordBatch> nodeBatches : drained.values()) {
+                for (RecordBatch batch : nodeBatches) {
+                    batch.done(0L, Record.NO_TIMESTAMP, null);
+                    accumulator.deallocate(batch);
+                    drainedBatches++;
+                }
+            }
+            batches += drainedBatches;
+        } while (drainedBatches > 0);
+        return batches;
+    }
+}
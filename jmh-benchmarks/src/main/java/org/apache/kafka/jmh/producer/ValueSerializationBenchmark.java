@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.clients.producer.internals.RecordBatch;
+import org.apache.kafka.clients.producer.internals.ValueBufferSerializer;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.serialization.BufferSerializer;
+import org.apache.kafka.common.serialization.ByteBufferSerializer;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.test.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends values to uncompressed batches either serialized to a new byte array, as the producer does for any
+ * serializer, or through {@link ValueBufferSerializer}, as it does for a {@link BufferSerializer} with the default
+ * partitioner. Run it with {@code -prof gc} to compare the bytes allocated per append.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueSerializationBenchmark {
+
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 16384;
+    private static final long TOTAL_SIZE = 32 * 1024 * 1024L;
+
+    @Param({"LONG", "HEAP_BUFFER", "DIRECT_BUFFER"})
+    private String valueType;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    @Param({"1000"})
+    private int recordsPerDrain;
+
+    private Metrics metrics;
+    private Cluster cluster;
+    private RecordAccumulator accumulator;
+    private TopicPartition partition;
+    private BufferSerializer<Object> serializer;
+    private ValueBufferSerializer<Object> valueBufferSerializer;
+    private Object value;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        metrics = new Metrics(Time.SYSTEM);
+        cluster = TestUtils.singletonCluster(TOPIC, 1);
+        accumulator = new RecordAccumulator(BATCH_SIZE, TOTAL_SIZE, CompressionType.NONE, 0L, 100L, metrics, Time.SYSTEM);
+        partition = new TopicPartition(TOPIC, 0);
+        if (valueType.equals("LONG")) {
+            serializer = (BufferSerializer<Object>) (BufferSerializer<?>) new LongSerializer();
+            value = 42L;
+        } else {
+            serializer = (BufferSerializer<Object>) (BufferSerializer<?>) new ByteBufferSerializer();
+            // a slice, like a value read from a larger buffer, which the byte array serializer has to copy
+            ByteBuffer buffer = valueType.equals("HEAP_BUFFER") ? ByteBuffer.allocate(valueSize + 1)
+                    : ByteBuffer.allocateDirect(valueSize + 1);
+            buffer.position(1);
+            value = buffer.slice();
+        }
+        valueBufferSerializer = new ValueBufferSerializer<>(serializer, BATCH_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        accumulator.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public int serializeToArray() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < recordsPerDrain; i++)
+            accumulator.append(partition, now, null, serializer.serialize(TOPIC, value), null, 0L);
+        return drain(now);
+    }
+
+    @Benchmark
+    public int serializeToBuffer() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < recordsPerDrain; i++)
+            accumulator.append(partition, now, null, valueBufferSerializer.serialize(TOPIC, value), null, 0L);
+        return drain(now);
+    }
+
+    /**
+     * Drain all the batches, which takes several drains since a drain only takes a single batch of each partition.
+     */
+    private int drain(long now) {
+        int batches = 0;
+        int drainedBatches;
+        do {
+            RecordAccumulator.ReadyCheckResult result = accumulator.ready(cluster, now);
+            Map<Integer, List<RecordBatch>> drained = accumulator.drain(cluster, result.readyNodes, Integer.MAX_VALUE, now);
+            drainedBatches = 0;
+            for (List<RecordBatch> nodeBatches : drained.values()) {
+                for (RecordBatch batch : nodeBatches) {
+                    batch.done(0L, Record.NO_TIMESTAMP, null);
+                    accumulator.deallocate(batch);
+                    drainedBatches++;
+                }
+            }
+            batches += drainedBatches;
+        } while (drainedBatches > 0);
+        return batches;
+    }
+}
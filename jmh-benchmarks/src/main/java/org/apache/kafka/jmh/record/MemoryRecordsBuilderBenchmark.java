@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a complete batch with {@link MemoryRecordsBuilder#append(long, byte[], byte[])}, which is what the producer
+ * does for every record it accumulates.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemoryRecordsBuilderBenchmark {
+
+    @Param({"NONE", "GZIP", "SNAPPY", "LZ4"})
+    private CompressionType compressionType;
+
+    @Param({"16384"})
+    private int batchSize;
+
+    @Param({"100", "1000"})
+    private int valueSize;
+
+    private ByteBuffer buffer;
+    private byte[] key;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        buffer = ByteBuffer.allocate(batchSize);
+        Random random = new Random(0);
+        key = new byte[8];
+        value = new byte[valueSize];
+        random.nextBytes(key);
+        // half random and half constant data so that compression has something to do
+        byte[] randomPart = new byte[valueSize / 2];
+        random.nextBytes(randomPart);
+        System.arraycopy(randomPart, 0, value, 0, randomPart.length);
+    }
+
+    @Benchmark
+    public MemoryRecords appendUntilFull() {
+        buffer.clear();
+        MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, compressionType, TimestampType.CREATE_TIME, batchSize);
+        long timestamp = System.currentTimeMillis();
+        while (builder.hasRoomFor(key, value))
+            builder.append(timestamp, key, value);
+        return builder.build();
+    }
+}
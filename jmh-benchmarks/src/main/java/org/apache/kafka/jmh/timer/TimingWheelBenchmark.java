@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.timer;
+
+import kafka.server.DelayedOperation;
+import kafka.utils.timer.TimerTaskEntry;
+import kafka.utils.timer.TimerTaskList;
+import kafka.utils.timer.TimingWheel;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.runtime.AbstractFunction1;
+import scala.runtime.BoxedUnit;
+
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds delayed operations to the hierarchical {@link TimingWheel} that backs the purgatories and then either cancels
+ * them (operations completing before their timeout, the common case) or advances the clock until all of them expire.
+ * <p>
+ * The wheel is driven directly, mirroring {@code SystemTimer.advanceClock}, but with a virtual clock that starts in
+ * the past so that every bucket is immediately due and no time is spent waiting on the delay queue.
+ */
+@State(Scope.Thread)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimingWheelBenchmark {
+
+    private static final long TICK_MS = 1L;
+    private static final int WHEEL_SIZE = 20;
+
+    @Param({"1000", "10000"})
+    private int taskCount;
+
+    @Param({"100", "30000"})
+    private int maxDelayMs;
+
+    private long[] delays;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        delays = new long[taskCount];
+        for (int i = 0; i < taskCount; i++)
+            delays[i] = 1 + random.nextInt(maxDelayMs);
+    }
+
+    @Benchmark
+    public int addAndCancel() {
+        long startMs = virtualStartMs();
+        TimingWheel timingWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, startMs, new AtomicInteger(0),
+                new DelayQueue<TimerTaskList>());
+        NoOpOperation[] operations = new NoOpOperation[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            operations[i] = new NoOpOperation(delays[i]);
+            timingWheel.add(new TimerTaskEntry(operations[i], startMs + delays[i]));
+        }
+        int completed = 0;
+        for (NoOpOperation operation : operations) {
+            if (operation.forceComplete())
+                completed++;
+        }
+        return completed;
+    }
+
+    @Benchmark
+    public int addAndAdvance() {
+        long startMs = virtualStartMs();
+        DelayQueue<TimerTaskList> delayQueue = new DelayQueue<>();
+        final TimingWheel timingWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, startMs, new AtomicInteger(0), delayQueue);
+        for (int i = 0; i < taskCount; i++)
+            timingWheel.add(new TimerTaskEntry(new NoOpOperation(delays[i]), startMs + delays[i]));
+
+        final int[] expired = new int[1];
+        AbstractFunction1<TimerTaskEntry, BoxedUnit> reinsert = new AbstractFunction1<TimerTaskEntry, BoxedUnit>() {
+            @Override
+            public BoxedUnit apply(TimerTaskEntry timerTaskEntry) {
+                if (!timingWheel.add(timerTaskEntry) && !timerTaskEntry.cancelled())
+                    expired[0]++;
+                return BoxedUnit.UNIT;
+            }
+        };
+        TimerTaskList bucket = delayQueue.poll();
+        while (bucket != null) {
+            timingWheel.advanceClock(bucket.getExpiration());
+            bucket.flush(reinsert);
+            bucket = delayQueue.poll();
+        }
+        return expired[0];
+    }
+
+    private long virtualStartMs() {
+        return Time.SYSTEM.hiResClockMs() - 2L * maxDelayMs - 1000L;
+    }
+
+    private static class NoOpOperation extends DelayedOperation {
+
+        NoOpOperation(long delayMs) {
+            super(delayMs);
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return false;
+        }
+    }
+}